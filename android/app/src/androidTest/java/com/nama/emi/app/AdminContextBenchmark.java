@@ -0,0 +1,60 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.util.Log;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import androidx.test.platform.app.InstrumentationRegistry;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Per-call overhead of the admin checks a plugin method makes: the old
+ * lookup (system service, new ComponentName, two binder calls) against the
+ * shared AdminContext. Results are logged under the "AdminBenchmark" tag.
+ */
+@RunWith(AndroidJUnit4.class)
+public class AdminContextBenchmark {
+    private static final String TAG = "AdminBenchmark";
+    private static final int WARMUP = 200;
+    private static final int ITERATIONS = 2000;
+
+    private interface Body {
+        boolean run();
+    }
+
+    @Test
+    public void cachedAdminContextIsCheaperThanPerCallLookup() {
+        Context context = InstrumentationRegistry.getInstrumentation().getTargetContext();
+        AdminContext.invalidate();
+        AdminContext admin = AdminContext.get(context);
+
+        long perCall = measure("per-call lookup", () -> {
+            DevicePolicyManager dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
+            ComponentName component = new ComponentName(context, AdminReceiver.class);
+            return dpm.isAdminActive(component) | dpm.isDeviceOwnerApp(context.getPackageName());
+        });
+        long cached = measure("AdminContext", () -> admin.isAdminActive() | admin.isDeviceOwner());
+
+        assertTrue("AdminContext (" + cached + " ns) should beat per-call lookup (" + perCall + " ns)",
+                cached < perCall);
+    }
+
+    /** Mean nanoseconds per call after a warm-up run. */
+    private long measure(String name, Body body) {
+        boolean sink = false;
+        for (int i = 0; i < WARMUP; i++) {
+            sink ^= body.run();
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            sink ^= body.run();
+        }
+        long perCallNs = (System.nanoTime() - start) / ITERATIONS;
+        Log.i(TAG, name + ": " + perCallNs + " ns/call (" + sink + ")");
+        return perCallNs;
+    }
+}
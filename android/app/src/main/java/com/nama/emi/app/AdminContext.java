@@ -0,0 +1,76 @@
+package com.nama.emi.app;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+
+/**
+ * The DevicePolicyManager, admin component and owner/admin status, resolved
+ * once per process instead of on every plugin call. The status flags are
+ * cached until AdminReceiver (or a release) reports that they changed.
+ */
+public final class AdminContext {
+    private static AdminContext instance;
+
+    private final DevicePolicyManager dpm;
+    private final ComponentName admin;
+    private final String packageName;
+    private volatile Boolean deviceOwner;
+    private volatile Boolean adminActive;
+
+    private AdminContext(Context context) {
+        Context app = context.getApplicationContext();
+        this.dpm = (DevicePolicyManager) app.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        this.admin = new ComponentName(app, AdminReceiver.class);
+        this.packageName = app.getPackageName();
+    }
+
+    public static synchronized AdminContext get(Context context) {
+        if (instance == null) {
+            instance = new AdminContext(context);
+        }
+        return instance;
+    }
+
+    /** Drops the cached status; the next check asks the platform again. */
+    public static void invalidate() {
+        AdminContext current;
+        synchronized (AdminContext.class) {
+            current = instance;
+        }
+        if (current != null) {
+            current.deviceOwner = null;
+            current.adminActive = null;
+        }
+    }
+
+    public DevicePolicyManager dpm() {
+        return dpm;
+    }
+
+    public ComponentName admin() {
+        return admin;
+    }
+
+    public String packageName() {
+        return packageName;
+    }
+
+    public boolean isDeviceOwner() {
+        Boolean value = deviceOwner;
+        if (value == null) {
+            value = dpm.isDeviceOwnerApp(packageName);
+            deviceOwner = value;
+        }
+        return value;
+    }
+
+    public boolean isAdminActive() {
+        Boolean value = adminActive;
+        if (value == null) {
+            value = dpm.isAdminActive(admin);
+            adminActive = value;
+        }
+        return value;
+    }
+}
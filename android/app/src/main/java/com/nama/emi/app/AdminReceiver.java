@@ -8,99 +8,150 @@ import android.content.Intent;
 import android.content.SharedPreferences;
 import android.os.Build;
 import android.os.PersistableBundle;
+import android.os.SystemClock;
 import android.util.Log;
-import android.widget.Toast;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class AdminReceiver extends DeviceAdminReceiver {
     private static final String TAG = "AdminReceiver";
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "AdminReceiver"));
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        DiagLog.init(context);
+        super.onReceive(context, intent);
+    }
 
     @Override
     public void onEnabled(Context context, Intent intent) {
         super.onEnabled(context, intent);
+        DiagLog.event(DiagLog.ADMIN, DiagLog.ADMIN_ENABLED);
+        AdminContext.invalidate();
+        TamperMonitor.get(context).recheck("adminEnabled");
+    }
+
+    @Override
+    public CharSequence onDisableRequested(Context context, Intent intent) {
+        DiagLog.event(DiagLog.ADMIN, DiagLog.ADMIN_DISABLE_REQUESTED);
+        TamperMonitor.get(context).onAdminEvent("disableRequested", false);
+        return "Removing device admin violates your EMI agreement and will be reported.";
+    }
+
+    @Override
+    public void onDisabled(Context context, Intent intent) {
+        super.onDisabled(context, intent);
+        DiagLog.event(DiagLog.ADMIN, DiagLog.ADMIN_DISABLED);
+        AdminContext.invalidate();
+        TamperMonitor.get(context).onAdminEvent("adminDisabled", true);
+    }
+
+    @Override
+    public void onPasswordFailed(Context context, Intent intent) {
+        DiagLog.event(DiagLog.ADMIN, DiagLog.ADMIN_PASSWORD_FAILED);
+        TamperMonitor.get(context).onAdminEvent("passwordFailed", false);
+    }
+
+    @Override
+    public void onPasswordChanged(Context context, Intent intent) {
+        DiagLog.event(DiagLog.ADMIN, DiagLog.ADMIN_PASSWORD_CHANGED);
+        TamperMonitor.get(context).onAdminEvent("passwordChanged", false);
     }
 
     @Override
     public void onProfileProvisioningComplete(Context context, Intent intent) {
-        Log.d(TAG, "onProfileProvisioningComplete called");
+        DiagLog.event(DiagLog.PROVISIONING_RECEIVED);
+        AdminContext.invalidate();
+        // Keep the broadcast thread free; goAsync gives the worker time to finish
+        final PendingResult pending = goAsync();
+        final Context appContext = context.getApplicationContext();
+        final long start = System.nanoTime();
+        final long receivedAt = SystemClock.elapsedRealtime();
+        WORKER.execute(() -> {
+            try {
+                completeProvisioning(appContext, intent, start, receivedAt);
+            } finally {
+                Metrics.histogram("receiver", "provisioningComplete").recordSince(start);
+                pending.finish();
+            }
+        });
+    }
+
+    private void completeProvisioning(Context context, Intent intent, long start, long receivedAt) {
         DevicePolicyManager dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
         ComponentName admin = new ComponentName(context, AdminReceiver.class);
 
-        // 1. Extract and Save Provisioning Data (FAST & SAFE)
+        // 1. Extract and Save Provisioning Data
         try {
             PersistableBundle extras = intent.getParcelableExtra(
                     DevicePolicyManager.EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE);
 
             if (extras != null) {
-                Log.d(TAG, "Provisioning extras found");
-                SharedPreferences prefs = context.getSharedPreferences("CapacitorStorage", Context.MODE_PRIVATE);
-                SharedPreferences.Editor editor = prefs.edit();
-
-                String deviceId = extras.getString("deviceId");
-                if (deviceId != null) {
-                    editor.putString("deviceId", deviceId);
-                    Log.d(TAG, "Saved deviceId: " + deviceId);
-                }
+                ProvisioningConfig config = ProvisioningConfig.fromExtras(extras);
+                ProvisioningConfig.save(context, config);
 
-                String customerName = extras.getString("customerName");
-                if (customerName != null) {
-                    editor.putString("customerName", customerName);
-                    Log.d(TAG, "Saved customerName: " + customerName);
+                // Mirrored for the JS side, which reads these through @capacitor/preferences
+                SharedPreferences.Editor editor = context
+                        .getSharedPreferences(ApiClient.PREFS_NAME, Context.MODE_PRIVATE).edit();
+                if (config.deviceId != null) {
+                    editor.putString(ApiClient.KEY_DEVICE_ID, config.deviceId);
                 }
-
-                String serverUrl = extras.getString("serverUrl");
-                if (serverUrl != null) {
-                    editor.putString("custom_api_url", serverUrl);
-                    Log.d(TAG, "Saved serverUrl: " + serverUrl);
+                if (config.customerName != null) {
+                    editor.putString("customerName", config.customerName);
+                }
+                if (config.serverUrl != null) {
+                    editor.putString(ApiClient.KEY_SERVER_URL, config.serverUrl);
                 }
-
                 editor.putBoolean("isProvisioned", true);
                 editor.apply();
-                Log.d(TAG, "All provisioning data saved successfully");
+                DiagLog.event(DiagLog.PROVISIONING_SAVED, 1, config.deviceId != null ? 1 : 0);
             } else {
                 Log.w(TAG, "No provisioning extras found");
+                DiagLog.event(DiagLog.PROVISIONING_SAVED, 0, 0);
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error saving provisioning data", e);
+            DiagLog.error(TAG, DiagLog.PROVISIONING_FAILED, DiagLog.STEP_SAVE_EXTRAS, "Error saving provisioning data", e);
         }
 
         // 2. Set Organization Name
         try {
             if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
                 dpm.setOrganizationName(admin, "Nama EMI");
-                Log.d(TAG, "Organization name set");
             }
         } catch (Exception e) {
-            Log.e(TAG, "Error setting organization name", e);
+            DiagLog.error(TAG, DiagLog.PROVISIONING_FAILED, DiagLog.STEP_ORGANIZATION_NAME,
+                    "Error setting organization name", e);
         }
 
         // 3. Set Profile Name
         try {
             dpm.setProfileName(admin, "Nama EMI Device");
-            Log.d(TAG, "Profile name set");
         } catch (Exception e) {
-            Log.e(TAG, "Error setting profile name", e);
+            DiagLog.error(TAG, DiagLog.PROVISIONING_FAILED, DiagLog.STEP_PROFILE_NAME, "Error setting profile name", e);
         }
 
         // 4. Enable the Profile
         try {
             dpm.setProfileEnabled(admin);
-            Log.d(TAG, "Profile enabled successfully");
         } catch (Exception e) {
-            Log.e(TAG, "Error enabling profile", e);
+            DiagLog.error(TAG, DiagLog.PROVISIONING_FAILED, DiagLog.STEP_PROFILE_ENABLED, "Error enabling profile", e);
         }
 
         // 5. Launch Provisioning Complete Activity
-        Log.d(TAG, "Launching ProvisioningCompleteActivity");
-        launchApp(context);
+        launchApp(context, receivedAt);
+        DiagLog.event(DiagLog.PROVISIONING_LAUNCHED, (System.nanoTime() - start) / 1_000_000);
     }
 
-    private void launchApp(Context context) {
+    private void launchApp(Context context, long receivedAt) {
         try {
             Intent launch = new Intent(context, ProvisioningCompleteActivity.class);
             launch.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            // The pipeline measures end-to-end from here, not from when the activity got going
+            launch.putExtra(ProvisioningCompleteActivity.EXTRA_STARTED_AT, receivedAt);
             context.startActivity(launch);
         } catch (Exception e) {
-            Log.e(TAG, "Failed to launch app", e);
+            DiagLog.error(TAG, DiagLog.PROVISIONING_FAILED, DiagLog.STEP_LAUNCH, "Failed to launch app", e);
             // Fallback
             try {
                 Intent fallback = context.getPackageManager().getLaunchIntentForPackage(context.getPackageName());
@@ -109,7 +160,8 @@ public class AdminReceiver extends DeviceAdminReceiver {
                     context.startActivity(fallback);
                 }
             } catch (Exception ex) {
-                ex.printStackTrace();
+                DiagLog.error(TAG, DiagLog.PROVISIONING_FAILED, DiagLog.STEP_LAUNCH_FALLBACK,
+                        "Failed to launch app from its launcher intent", ex);
             }
         }
     }
@@ -0,0 +1,155 @@
+package com.nama.emi.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Shared HTTP client for native background work.
+ * Every request goes through one instance so connections to the backend are
+ * reused from the platform keep-alive pool instead of being set up per call.
+ */
+public class ApiClient {
+    private static final String TAG = "ApiClient";
+
+    // Same storage group the JS side uses through @capacitor/preferences
+    static final String PREFS_NAME = "CapacitorStorage";
+    static final String KEY_DEVICE_ID = "deviceId";
+    static final String KEY_SERVER_URL = "custom_api_url";
+    static final String DEFAULT_BASE_URL = "https://nama-emi-app.onrender.com";
+
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    private static final int READ_TIMEOUT_MS = 15000;
+
+    private static ApiClient instance;
+
+    private final Context context;
+    private final SharedPreferences prefs;
+    private volatile String deviceId;
+
+    public static class Response {
+        public final int code;
+        public final String body;
+
+        Response(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        public boolean isSuccessful() {
+            return code >= 200 && code < 300;
+        }
+
+        public JSONObject json() throws JSONException {
+            return new JSONObject(body == null || body.isEmpty() ? "{}" : body);
+        }
+    }
+
+    private ApiClient(Context context) {
+        this.context = context.getApplicationContext();
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        // Reuse sockets across heartbeat ticks
+        System.setProperty("http.keepAlive", "true");
+    }
+
+    public static synchronized ApiClient get(Context context) {
+        if (instance == null) {
+            instance = new ApiClient(context);
+        }
+        return instance;
+    }
+
+    public String getDeviceId() {
+        String id = deviceId;
+        if (id == null) {
+            // The mapped provisioning file is cheaper than the CapacitorStorage XML
+            ProvisioningConfig config = ProvisioningConfig.load(context);
+            id = config != null && config.deviceId != null ? config.deviceId : prefs.getString(KEY_DEVICE_ID, null);
+            deviceId = id;
+        }
+        return id;
+    }
+
+    public void setDeviceId(String deviceId) {
+        this.deviceId = deviceId;
+        prefs.edit().putString(KEY_DEVICE_ID, deviceId).apply();
+        ProvisioningConfig config = ProvisioningConfig.load(context);
+        if (config != null && deviceId != null && !deviceId.equals(config.deviceId)) {
+            // Relinked after provisioning; keep the fast path in step
+            try {
+                ProvisioningConfig.save(context, config.withDeviceId(deviceId));
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to update provisioning config: " + e.getMessage());
+            }
+        }
+    }
+
+    public String getBaseUrl() {
+        String url = prefs.getString(KEY_SERVER_URL, null);
+        if (url == null || url.isEmpty()) {
+            ProvisioningConfig config = ProvisioningConfig.load(context);
+            url = config != null && config.serverUrl != null ? config.serverUrl : DEFAULT_BASE_URL;
+        }
+        return url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    }
+
+    /** Builds the path of a per-device endpoint, e.g. devicePath("heartbeat"). */
+    public String devicePath(String suffix) {
+        String path = "/api/devices/" + getDeviceId();
+        return suffix == null ? path : path + "/" + suffix;
+    }
+
+    public Response send(String method, String path, JSONObject body) throws IOException {
+        byte[] payload = body == null ? null : body.toString().getBytes(StandardCharsets.UTF_8);
+        return send(method, path, payload, null);
+    }
+
+    public Response send(String method, String path, byte[] payload, String contentEncoding) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(getBaseUrl() + path).openConnection();
+        try {
+            conn.setRequestMethod(method);
+            conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+            conn.setReadTimeout(READ_TIMEOUT_MS);
+            conn.setRequestProperty("Accept", "application/json");
+            if (payload != null) {
+                conn.setDoOutput(true);
+                conn.setRequestProperty("Content-Type", "application/json");
+                if (contentEncoding != null) {
+                    conn.setRequestProperty("Content-Encoding", contentEncoding);
+                }
+                conn.setFixedLengthStreamingMode(payload.length);
+                try (OutputStream out = conn.getOutputStream()) {
+                    out.write(payload);
+                }
+            }
+
+            int code = conn.getResponseCode();
+            InputStream in = code >= 400 ? conn.getErrorStream() : conn.getInputStream();
+            // Drain the body fully so the socket goes back to the keep-alive pool
+            return new Response(code, in == null ? "" : readFully(in));
+        } finally {
+            conn.disconnect();
+        }
+    }
+
+    static String readFully(InputStream in) throws IOException {
+        try (InputStream input = in) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toString("UTF-8");
+        }
+    }
+}
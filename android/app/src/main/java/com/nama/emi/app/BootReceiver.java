@@ -3,14 +3,24 @@ package com.nama.emi.app;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.SystemClock;
 
 public class BootReceiver extends BroadcastReceiver {
     @Override
     public void onReceive(Context context, Intent intent) {
+        DiagLog.init(context);
         if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
             Intent i = new Intent(context, MainActivity.class);
             i.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            // Start of the time-to-locked measurement when the lock snapshot pins the screen
+            i.putExtra(MainActivity.EXTRA_BOOT_RECEIVED_AT, SystemClock.elapsedRealtime());
             context.startActivity(i);
+
+            // Finish commands interrupted by the shutdown before new ones arrive
+            CommandStore.get(context).resume();
+            // Instalments that fell due while the device was off lock it now, online or not
+            EmiScheduleEnforcer.evaluateAsync(context, "boot", null);
+            HeartbeatService.startIfEnrolled(context);
         }
     }
 }
@@ -0,0 +1,244 @@
+package com.nama.emi.app;
+
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import org.json.JSONObject;
+
+/**
+ * Persistent command channel to the backend. Holds an SSE connection to
+ * /commands/stream and delivers each control-state change as it happens;
+ * falls back to long-polling /commands when the stream is not available,
+ * and tries the stream again after a bounded number of polls or minutes,
+ * since the cause (a proxy, a server mid-deploy) is often temporary.
+ * Reconnects with jittered exponential backoff and resumes from the last
+ * stateVersion it saw, so no change is skipped across reconnects.
+ */
+public class CommandChannel {
+    private static final String TAG = "CommandChannel";
+
+    static final long BACKOFF_BASE_MS = 1000;
+    static final long BACKOFF_MAX_MS = 60000;
+    private static final int CONNECT_TIMEOUT_MS = 10000;
+    // Server pings every 25s; a silent minute means the connection is dead
+    private static final int STREAM_READ_TIMEOUT_MS = 60000;
+    private static final int LONG_POLL_SECONDS = 25;
+    static final int STREAM_RETRY_POLLS = 20;
+    static final long STREAM_RETRY_MS = 10 * 60 * 1000;
+
+    public interface Listener {
+        /** Called on the channel thread with the device's control state. */
+        void onState(JSONObject state);
+    }
+
+    private final String baseUrl;
+    private final String deviceId;
+    private final Listener listener;
+    private final Random random = new Random();
+
+    private volatile boolean running;
+    private volatile boolean connected;
+    private volatile HttpURLConnection activeConnection;
+    private Thread thread;
+    private long lastVersion;
+    private boolean longPoll;
+    private int pollsLeft;
+    private long longPollUntil;
+    // Package-private so tests can shorten the fallback
+    int streamRetryPolls = STREAM_RETRY_POLLS;
+
+    public CommandChannel(String baseUrl, String deviceId, long lastVersion, Listener listener) {
+        this.baseUrl = baseUrl;
+        this.deviceId = deviceId;
+        this.lastVersion = lastVersion;
+        this.listener = listener;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this::run, "CommandChannel");
+        thread.start();
+    }
+
+    public synchronized void stop() {
+        running = false;
+        HttpURLConnection conn = activeConnection;
+        if (conn != null) {
+            conn.disconnect();
+        }
+        if (thread != null) {
+            thread.interrupt();
+            thread = null;
+        }
+    }
+
+    public boolean isConnected() {
+        return connected;
+    }
+
+    public String getDeviceId() {
+        return deviceId;
+    }
+
+    private void run() {
+        int attempt = 0;
+        while (running) {
+            try {
+                if (longPoll && (pollsLeft <= 0 || System.currentTimeMillis() >= longPollUntil)) {
+                    Log.i(TAG, "Retrying the event stream");
+                    longPoll = false;
+                }
+                boolean delivered = longPoll ? pollOnce() : streamOnce();
+                if (delivered) {
+                    attempt = 0;
+                }
+                if (!longPoll) {
+                    // A clean end of stream still warrants a short pause before reconnecting
+                    sleep(backoffDelay(0, random));
+                }
+            } catch (ChannelClosedException e) {
+                Log.w(TAG, "Channel closed by server: " + e.getMessage());
+                running = false;
+            } catch (Exception e) {
+                connected = false;
+                if (!running) {
+                    break;
+                }
+                long delay = backoffDelay(attempt++, random);
+                Log.w(TAG, "Channel error (" + e.getMessage() + "), retrying in " + delay + "ms");
+                sleep(delay);
+            }
+        }
+        connected = false;
+    }
+
+    /** Reads one SSE connection until it ends. Returns true if any event was delivered. */
+    private boolean streamOnce() throws IOException {
+        HttpURLConnection conn = open(devicePath("commands/stream"), STREAM_READ_TIMEOUT_MS);
+        conn.setRequestProperty("Accept", "text/event-stream");
+        if (lastVersion > 0) {
+            conn.setRequestProperty("Last-Event-ID", Long.toString(lastVersion));
+        }
+        try {
+            int code = conn.getResponseCode();
+            String type = conn.getContentType();
+            if (code == 404 || code == 405 || type == null || !type.startsWith("text/event-stream")) {
+                // Old server or a proxy that strips streaming: switch to long-polling
+                Log.i(TAG, "Event stream unavailable (HTTP " + code + "), using long-poll");
+                longPoll = true;
+                pollsLeft = streamRetryPolls;
+                longPollUntil = System.currentTimeMillis() + STREAM_RETRY_MS;
+                return false;
+            }
+            if (code != 200) {
+                throw new IOException("HTTP " + code);
+            }
+
+            connected = true;
+            boolean delivered = false;
+            SseParser parser = new SseParser();
+            try (BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(conn.getInputStream(), StandardCharsets.UTF_8))) {
+                String line;
+                while (running && (line = reader.readLine()) != null) {
+                    SseParser.Event event = parser.feed(line);
+                    if (event != null && "state".equals(event.name)) {
+                        deliver(new JSONObject(event.data));
+                        delivered = true;
+                    }
+                }
+            } catch (org.json.JSONException e) {
+                throw new IOException("Malformed event: " + e.getMessage());
+            }
+            connected = false;
+            return delivered;
+        } finally {
+            activeConnection = null;
+            conn.disconnect();
+        }
+    }
+
+    /** One long-poll request. Returns true if a state change was delivered. */
+    private boolean pollOnce() throws IOException {
+        pollsLeft--;
+        String path = devicePath("commands") + "?since=" + lastVersion + "&timeout=" + LONG_POLL_SECONDS;
+        HttpURLConnection conn = open(path, (LONG_POLL_SECONDS + 10) * 1000);
+        try {
+            int code = conn.getResponseCode();
+            if (code == 404) {
+                // Device deleted; the heartbeat handles the release
+                throw new ChannelClosedException("device not found");
+            }
+            connected = true;
+            if (code == 204) {
+                return false;
+            }
+            if (code != 200) {
+                connected = false;
+                throw new IOException("HTTP " + code);
+            }
+            deliver(new JSONObject(ApiClient.readFully(conn.getInputStream())));
+            return true;
+        } catch (org.json.JSONException e) {
+            throw new IOException("Malformed response: " + e.getMessage());
+        } finally {
+            activeConnection = null;
+            conn.disconnect();
+        }
+    }
+
+    private void deliver(JSONObject state) {
+        long version = state.optLong("stateVersion", 0);
+        if (version > 0 && version <= lastVersion) {
+            return;
+        }
+        lastVersion = version;
+        try {
+            listener.onState(state);
+        } catch (Exception e) {
+            Log.e(TAG, "Command listener failed", e);
+        }
+    }
+
+    private HttpURLConnection open(String path, int readTimeoutMs) throws IOException {
+        HttpURLConnection conn = (HttpURLConnection) new URL(baseUrl + path).openConnection();
+        conn.setConnectTimeout(CONNECT_TIMEOUT_MS);
+        conn.setReadTimeout(readTimeoutMs);
+        activeConnection = conn;
+        return conn;
+    }
+
+    private String devicePath(String suffix) {
+        return "/api/devices/" + deviceId + "/" + suffix;
+    }
+
+    /** Equal-jitter exponential backoff: half the window fixed, half random. */
+    static long backoffDelay(int attempt, Random random) {
+        long window = Math.min(BACKOFF_MAX_MS, BACKOFF_BASE_MS << Math.min(attempt, 16));
+        long half = window / 2;
+        return half + (long) (random.nextDouble() * half);
+    }
+
+    private void sleep(long ms) {
+        try {
+            Thread.sleep(ms);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            running = false;
+        }
+    }
+
+    private static class ChannelClosedException extends IOException {
+        ChannelClosedException(String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,537 @@
+package com.nama.emi.app;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Durable queue of device commands (wipe, release, lock, unlock) keyed by
+ * the server's stateVersion, which identifies each control change.
+ * Commands are written to an append-only log before anything runs, executed
+ * once each on a single thread, and their results acknowledged to the server
+ * in batches. A command id seen before is ignored, so a repeated heartbeat
+ * or pushed state cannot run a command twice, and pending work resumes after
+ * a crash or reboot.
+ *
+ * Log lines: "I deviceId" (owner), "Q id type time [featureLocks]"
+ * (queued; lock changes carry the state's featureLocks as JSON),
+ * "D id time result" (done), "A id" (acknowledged), "L time type
+ * [featureLocks]" (lock state applied outside the store, such as the offline
+ * EMI lock; type "unknown" when that apply failed part-way).
+ *
+ * A lock change that matches the lock state last applied - by a command or
+ * locally - finishes as unchanged without running.
+ *
+ * A wipe stays pending until DeviceActions.wipe has been called: the device
+ * resets mid-call, so "wiping" is acknowledged best-effort just before,
+ * without recording the command as done.
+ */
+public class CommandStore {
+    private static final String TAG = "CommandStore";
+    private static final String FILE_NAME = "commands.log";
+
+    static final String WIPE = "wipe";
+    static final String RELEASE = "release";
+    static final String LOCK = "lock";
+    static final String UNLOCK = "unlock";
+
+    static final String RESULT_OK = "ok";
+    static final String RESULT_SUPERSEDED = "superseded";
+    static final String RESULT_UNCHANGED = "unchanged";
+    static final String RESULT_WIPING = "wiping";
+
+    // Id of the lock state applied outside the store; server ids start at 1
+    private static final long LOCAL_ID = 0;
+    private static final String UNKNOWN = "unknown";
+
+    // Lock/unlock results are held briefly so bursts go up in one request
+    static final long ACK_DELAY_MS = 1000;
+    static final int MAX_LOG_LINES = 256;
+    static final int KEEP_ACKED = 16;
+
+    private static CommandStore instance;
+
+    /** Carries out one command and returns its result; RESULT_OK or "error: ...". */
+    interface Runner {
+        String run(Command command);
+    }
+
+    /** Posts results for forDevice; false if they were not delivered and should be retried. */
+    interface AckSender {
+        boolean send(String forDevice, JSONArray acks);
+    }
+
+    static class Command {
+        final long id;
+        final String type;
+        final long queuedAt;
+        // The featureLocks of the state a lock change came with, as JSON; null for other commands
+        final String featureLocks;
+        String result;
+        long doneAt;
+        boolean acked;
+
+        Command(long id, String type, long queuedAt, String featureLocks) {
+            this.id = id;
+            this.type = type;
+            this.queuedAt = queuedAt;
+            this.featureLocks = featureLocks;
+        }
+
+        boolean isDone() {
+            return result != null;
+        }
+
+        boolean isLockChange() {
+            return LOCK.equals(type) || UNLOCK.equals(type);
+        }
+
+        /** The same lock state and feature locks as the given command. */
+        boolean sameStateAs(Command other) {
+            return other != null && type.equals(other.type) && Objects.equals(featureLocks, other.featureLocks);
+        }
+
+        JSONObject featureLocksJson() {
+            try {
+                return featureLocks != null ? new JSONObject(featureLocks) : null;
+            } catch (JSONException e) {
+                return null;
+            }
+        }
+
+        String queuedLine() {
+            return "Q " + id + " " + type + " " + queuedAt + (featureLocks != null ? " " + featureLocks : "");
+        }
+    }
+
+    private final File file;
+    private final Runner runner;
+    private final AckSender ackSender;
+    private final ScheduledExecutorService executor = Executors
+            .newSingleThreadScheduledExecutor(r -> new Thread(r, "CommandStore"));
+    private final TreeMap<Long, Command> commands = new TreeMap<>();
+    // The lock state last applied, by a command or locally; null when not known
+    private Command applied;
+    private String deviceId;
+    private int logLines;
+    private boolean ackScheduled;
+
+    CommandStore(File file, Runner runner, AckSender ackSender) {
+        this.file = file;
+        this.runner = runner;
+        this.ackSender = ackSender;
+        load();
+    }
+
+    public static synchronized CommandStore get(Context context) {
+        if (instance == null) {
+            Context app = context.getApplicationContext();
+            instance = new CommandStore(new File(app.getFilesDir(), FILE_NAME),
+                    command -> run(app, command), (forDevice, acks) -> sendAcks(app, forDevice, acks));
+        }
+        return instance;
+    }
+
+    /**
+     * Records a command and schedules it. featureLocks is the state's, for a
+     * lock change; null otherwise. Returns false for an id at or below one
+     * already seen for this device, which is then ignored.
+     */
+    public boolean submit(String forDevice, long id, String type, JSONObject featureLocks) {
+        synchronized (this) {
+            if (forDevice != null && !forDevice.equals(deviceId)) {
+                // Relinked to another device record: its ids start over
+                commands.clear();
+                deviceId = forDevice;
+                rewrite();
+            }
+            if (!commands.isEmpty() && id <= commands.lastKey()) {
+                return false;
+            }
+            Command command = new Command(id, type, System.currentTimeMillis(),
+                    featureLocks != null ? featureLocks.toString().replace('\n', ' ') : null);
+            commands.put(id, command);
+            log(command.queuedLine());
+        }
+        Log.i(TAG, "Queued " + type + " #" + id);
+        executor.execute(this::drain);
+        return true;
+    }
+
+    /**
+     * Records a lock applied outside the store (the offline EMI lock), so a
+     * later server unlock is not skipped as unchanged. complete is false when
+     * the apply failed part-way; the next lock change then runs whatever it is.
+     */
+    public synchronized void recordLocalLock(JSONObject featureLocks, boolean complete) {
+        String features = featureLocks != null ? featureLocks.toString().replace('\n', ' ') : null;
+        applied = complete ? new Command(LOCAL_ID, LOCK, System.currentTimeMillis(), features) : null;
+        log(localLine());
+    }
+
+    /** The newest command id (stateVersion) received, or 0. */
+    public synchronized long lastCommandId() {
+        return commands.isEmpty() ? 0 : commands.lastKey();
+    }
+
+    /** Runs whatever was pending before a restart and sends outstanding acks. */
+    public void resume() {
+        executor.execute(() -> {
+            drain();
+            flushAcks();
+        });
+    }
+
+    /** Executes pending commands in id order. Runs on the executor only. */
+    private void drain() {
+        Command next;
+        while ((next = nextPending()) != null) {
+            if (WIPE.equals(next.type)) {
+                // The device resets mid-call, so the ack has to go out first
+                announceWipe(next);
+            }
+            String result = execute(next);
+            complete(next, result);
+            if (next.isLockChange()) {
+                scheduleAcks();
+            } else {
+                flushAcks();
+            }
+        }
+        // Lock changes finished as superseded or unchanged without running still need their acks
+        scheduleAcks();
+    }
+
+    /** Next command to run; lock changes overtaken by a newer one, or that change nothing, finish without running. */
+    private synchronized Command nextPending() {
+        for (Command command : commands.values()) {
+            if (command.isDone()) {
+                continue;
+            }
+            if (command.isLockChange()) {
+                if (hasPendingLockChangeAfter(command.id)) {
+                    complete(command, RESULT_SUPERSEDED);
+                    continue;
+                }
+                if (command.sameStateAs(applied)) {
+                    complete(command, RESULT_UNCHANGED);
+                    continue;
+                }
+            }
+            return command;
+        }
+        return null;
+    }
+
+    private boolean hasPendingLockChangeAfter(long id) {
+        for (Command later : commands.tailMap(id, false).values()) {
+            if (!later.isDone() && later.isLockChange()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private String execute(Command command) {
+        Log.i(TAG, "Running " + command.type + " #" + command.id);
+        long start = System.nanoTime();
+        String result = runner.run(command);
+        Metrics.histogram("command", command.type).recordSince(start);
+        if (!RESULT_OK.equals(result)) {
+            Metrics.counter("commandError", command.type).increment();
+        }
+        return result;
+    }
+
+    private static String run(Context context, Command command) {
+        try {
+            switch (command.type) {
+                case WIPE:
+                    DeviceActions.wipe(context);
+                    return RESULT_OK;
+                case RELEASE:
+                    DeviceActions.releaseDeviceOwner(context);
+                    return RESULT_OK;
+                case LOCK:
+                case UNLOCK:
+                    PolicyEngine.Result applied = DeviceActions.applyLockState(context, LOCK.equals(command.type),
+                            command.featureLocksJson());
+                    return applied.isSuccess() ? RESULT_OK : "error: " + applied.getErrorMessage();
+                default:
+                    return "error: unknown command";
+            }
+        } catch (Exception e) {
+            Log.e(TAG, command.type + " #" + command.id + " failed", e);
+            return "error: " + e.getMessage();
+        }
+    }
+
+    private synchronized void complete(Command command, String result) {
+        command.result = result;
+        command.doneAt = System.currentTimeMillis();
+        command.acked = false;
+        noteApplied(command);
+        log("D " + command.id + " " + command.doneAt + " " + result.replace('\n', ' '));
+    }
+
+    /** Tracks the applied lock state from a finished command; a failed apply leaves it unknown. */
+    private void noteApplied(Command command) {
+        if (!command.isLockChange() || RESULT_SUPERSEDED.equals(command.result)) {
+            return;
+        }
+        applied = command.result.startsWith("error") ? null : command;
+    }
+
+    private String localLine() {
+        if (applied == null) {
+            return "L " + System.currentTimeMillis() + " " + UNKNOWN;
+        }
+        return "L " + applied.queuedAt + " " + applied.type
+                + (applied.featureLocks != null ? " " + applied.featureLocks : "");
+    }
+
+    private synchronized void scheduleAcks() {
+        if (ackScheduled) {
+            return;
+        }
+        ackScheduled = true;
+        executor.schedule(() -> {
+            synchronized (this) {
+                ackScheduled = false;
+            }
+            flushAcks();
+        }, ACK_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Acknowledges a wipe as "wiping" just before it runs. Not recorded: if
+     * the request fails or the process dies first, the wipe is still pending
+     * and runs again. Runs on the executor only.
+     */
+    private void announceWipe(Command command) {
+        String forDevice;
+        synchronized (this) {
+            forDevice = deviceId;
+        }
+        try {
+            JSONObject ack = new JSONObject();
+            ack.put("id", command.id);
+            ack.put("type", command.type);
+            ack.put("result", RESULT_WIPING);
+            ack.put("at", System.currentTimeMillis());
+            ackSender.send(forDevice, new JSONArray().put(ack));
+        } catch (JSONException e) {
+            Log.w(TAG, "Wipe ack failed: " + e.getMessage());
+        }
+    }
+
+    /** Sends every unacknowledged result in one request. Runs on the executor only. */
+    private void flushAcks() {
+        List<Command> batch = new ArrayList<>();
+        JSONArray acks = new JSONArray();
+        String forDevice;
+        synchronized (this) {
+            forDevice = deviceId;
+            for (Command command : commands.values()) {
+                if (command.isDone() && !command.acked) {
+                    batch.add(command);
+                }
+            }
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        try {
+            for (Command command : batch) {
+                JSONObject ack = new JSONObject();
+                ack.put("id", command.id);
+                ack.put("type", command.type);
+                ack.put("result", command.result);
+                ack.put("at", command.doneAt);
+                acks.put(ack);
+            }
+        } catch (JSONException e) {
+            Log.w(TAG, "Command acks failed: " + e.getMessage());
+            return;
+        }
+        if (!ackSender.send(forDevice, acks)) {
+            // Retried after the next command or on resume()
+            return;
+        }
+
+        synchronized (this) {
+            for (Command command : batch) {
+                command.acked = true;
+                log("A " + command.id);
+            }
+            if (logLines > MAX_LOG_LINES) {
+                compact();
+            }
+        }
+    }
+
+    /** Posts acks to the server, if forDevice is still the device this app is linked to. */
+    private static boolean sendAcks(Context context, String forDevice, JSONArray acks) {
+        ApiClient api = ApiClient.get(context);
+        if (forDevice == null || !forDevice.equals(api.getDeviceId())) {
+            return false;
+        }
+        try {
+            JSONObject body = new JSONObject();
+            body.put("acks", acks);
+            ApiClient.Response response = api.send("POST", api.devicePath("commands/ack"), body);
+            if (!response.isSuccessful()) {
+                Log.w(TAG, "Command acks rejected: HTTP " + response.code);
+                return false;
+            }
+            return true;
+        } catch (Exception e) {
+            Log.w(TAG, "Command acks failed: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /** Stops the worker; for tests, the app's store lives as long as the process. */
+    void close() {
+        executor.shutdownNow();
+    }
+
+    /** Drops old acknowledged commands, keeping the newest few so the last id and lock state survive. */
+    private void compact() {
+        List<Long> acked = new ArrayList<>();
+        for (Command command : commands.values()) {
+            if (command.acked) {
+                acked.add(command.id);
+            }
+        }
+        for (int i = 0; i < acked.size() - KEEP_ACKED; i++) {
+            if (!acked.get(i).equals(commands.lastKey())) {
+                commands.remove(acked.get(i));
+            }
+        }
+        rewrite();
+    }
+
+    private void load() {
+        if (!file.exists()) {
+            return;
+        }
+        try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                logLines++;
+                replay(line);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read command log", e);
+        }
+    }
+
+    private void replay(String line) {
+        String[] parts = line.split(" ", 4);
+        try {
+            switch (parts[0]) {
+                case "I":
+                    commands.clear();
+                    deviceId = parts[1];
+                    break;
+                case "Q":
+                    long id = Long.parseLong(parts[1]);
+                    String[] queued = parts[3].split(" ", 2);
+                    commands.put(id, new Command(id, parts[2], Long.parseLong(queued[0]),
+                            queued.length > 1 ? queued[1] : null));
+                    break;
+                case "D":
+                    Command done = commands.get(Long.parseLong(parts[1]));
+                    if (done != null) {
+                        done.doneAt = Long.parseLong(parts[2]);
+                        done.result = parts.length > 3 ? parts[3] : RESULT_OK;
+                        done.acked = false;
+                        noteApplied(done);
+                    }
+                    break;
+                case "L":
+                    applied = UNKNOWN.equals(parts[2]) ? null
+                            : new Command(LOCAL_ID, parts[2], Long.parseLong(parts[1]), parts.length > 3 ? parts[3] : null);
+                    break;
+                case "A":
+                    Command acked = commands.get(Long.parseLong(parts[1]));
+                    if (acked != null) {
+                        acked.acked = true;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        } catch (RuntimeException e) {
+            // Torn last line from a crash mid-write
+            Log.w(TAG, "Skipping unreadable log line");
+        }
+    }
+
+    private void log(String line) {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+            logLines++;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write command log", e);
+        }
+    }
+
+    private void rewrite() {
+        File tmp = new File(file.getPath() + ".tmp");
+        int lines = 0;
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            StringBuilder text = new StringBuilder();
+            if (deviceId != null) {
+                text.append("I ").append(deviceId).append('\n');
+                lines++;
+            }
+            for (Command command : commands.values()) {
+                text.append(command.queuedLine()).append('\n');
+                lines++;
+                if (command.isDone()) {
+                    text.append("D ").append(command.id).append(' ').append(command.doneAt).append(' ')
+                            .append(command.result).append('\n');
+                    lines++;
+                }
+                if (command.acked) {
+                    text.append("A ").append(command.id).append('\n');
+                    lines++;
+                }
+            }
+            // Replaying the commands above ends on their last applied state; anything else is restated
+            if (applied == null || applied.id == LOCAL_ID || commands.get(applied.id) != applied) {
+                text.append(localLine()).append('\n');
+                lines++;
+            }
+            out.write(text.toString().getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to compact command log", e);
+            return;
+        }
+        if (tmp.renameTo(file)) {
+            logLines = lines;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package com.nama.emi.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.util.Log;
+import org.json.JSONObject;
+
+/**
+ * Device-owner actions shared by WipeDevicePlugin and the native background
+ * components, so a command behaves the same whichever side receives it.
+ * Failures are thrown; callers decide how to report them.
+ */
+public final class DeviceActions {
+    private static final String TAG = "DeviceActions";
+
+    private DeviceActions() {
+    }
+
+    public static void wipe(Context context) {
+        AdminContext admin = AdminContext.get(context);
+
+        if (!admin.isAdminActive()) {
+            throw new IllegalStateException("Device Admin not active");
+        }
+        // 0 is standard factory reset
+        admin.dpm().wipeData(0);
+    }
+
+    public static void releaseDeviceOwner(Context context) {
+        AdminContext admin = AdminContext.get(context);
+
+        if (!admin.isDeviceOwner()) {
+            throw new IllegalStateException("App is not Device Owner");
+        }
+        admin.dpm().clearDeviceOwnerApp(admin.packageName());
+        AdminContext.invalidate();
+    }
+
+    /**
+     * Applies the server's device state (the lock plus its featureLocks, see
+     * PolicyEngine.Policy.forDeviceState) on the calling thread. Pinning the
+     * screen needs an Activity, so a lock also brings MainActivity to the
+     * front where the JS side starts lock task mode.
+     */
+    public static PolicyEngine.Result applyLockState(Context context, boolean locked, JSONObject featureLocks) {
+        if (!AdminContext.get(context).isDeviceOwner()) {
+            throw new IllegalStateException("App is not Device Owner");
+        }
+
+        PolicyEngine.Policy policy = PolicyEngine.Policy.forDeviceState(context.getPackageName(), locked, featureLocks);
+        PolicyEngine.Result result = new PolicyEngine(context).apply(policy);
+        // Lets the next cold start pin the screen without waiting for JS; an unlock that left
+        // restrictions behind keeps the pin, as in WipeDevicePlugin.applyDeviceState
+        if (locked || result.failed == 0) {
+            LockSnapshot.write(context, locked);
+        }
+        DiagLog.event(DiagLog.LOCK_APPLIED, locked ? 1 : 0, result.failed);
+
+        if (locked) {
+            try {
+                Intent intent = new Intent(context, MainActivity.class);
+                intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_REORDER_TO_FRONT);
+                context.startActivity(intent);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to bring MainActivity to front", e);
+            }
+        }
+        return result;
+    }
+}
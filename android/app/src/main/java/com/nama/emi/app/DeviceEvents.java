@@ -0,0 +1,34 @@
+package com.nama.emi.app;
+
+import com.getcapacitor.JSObject;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * In-process event bus from native components (services, receivers) to the
+ * plugin, which forwards each event to JS listeners.
+ */
+public final class DeviceEvents {
+
+    public interface Listener {
+        void onEvent(String name, JSObject data);
+    }
+
+    private static final CopyOnWriteArrayList<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private DeviceEvents() {
+    }
+
+    public static void addListener(Listener listener) {
+        listeners.addIfAbsent(listener);
+    }
+
+    public static void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    public static void publish(String name, JSObject data) {
+        for (Listener listener : listeners) {
+            listener.onEvent(name, data);
+        }
+    }
+}
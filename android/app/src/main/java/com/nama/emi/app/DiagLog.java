@@ -0,0 +1,411 @@
+package com.nama.emi.app;
+
+import android.content.Context;
+import android.os.Build;
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONObject;
+
+/**
+ * Process-wide diagnostic trace of provisioning, admin, policy, lock and
+ * plugin failures, for support to pull from a device without logcat.
+ * An event is an id and two numbers written into a fixed ring of slots;
+ * recording takes no lock and allocates nothing (errors also keep a short
+ * message). A background thread appends new events to files/diag as varint
+ * records a few seconds later, rotating between two files, and
+ * getDiagnosticBundle returns both as gzipped text.
+ */
+public final class DiagLog {
+    private static final String TAG = "DiagLog";
+
+    // Event ids are stored in the files: never renumber or reuse one. The
+    // meaning of a and b for each is in EVENTS.
+    static final int FLUSH = 0;
+    static final int PROCESS_START = 1;
+    static final int CRASH = 2;
+    static final int ADMIN = 3;
+    static final int PROVISIONING_RECEIVED = 4;
+    static final int PROVISIONING_SAVED = 5;
+    static final int PROVISIONING_FAILED = 6;
+    static final int PROVISIONING_LAUNCHED = 7;
+    static final int PROVISIONING_ACTIVITY = 8;
+    static final int PIPELINE_NOT_OWNER = 9;
+    static final int PIPELINE_STEP_FAILED = 10;
+    static final int PIPELINE_DONE = 11;
+    static final int POLICY_APPLIED = 12;
+    static final int POLICY_FAILED = 13;
+    static final int LOCK_APPLIED = 14;
+    static final int LOCK_TASK_FAILED = 15;
+    static final int PLUGIN_FAILED = 16;
+
+    // ADMIN codes
+    static final int ADMIN_ENABLED = 1;
+    static final int ADMIN_DISABLE_REQUESTED = 2;
+    static final int ADMIN_DISABLED = 3;
+    static final int ADMIN_PASSWORD_FAILED = 4;
+    static final int ADMIN_PASSWORD_CHANGED = 5;
+
+    // PROVISIONING_FAILED steps, in AdminReceiver order
+    static final int STEP_SAVE_EXTRAS = 1;
+    static final int STEP_ORGANIZATION_NAME = 2;
+    static final int STEP_PROFILE_NAME = 3;
+    static final int STEP_PROFILE_ENABLED = 4;
+    static final int STEP_LAUNCH = 5;
+    static final int STEP_LAUNCH_FALLBACK = 6;
+
+    /** Name, then the names of a and b (null when unused), by event id. */
+    private static final String[][] EVENTS = {
+            { "flush", "firstSeq", "dropped" },
+            { "processStart", "sdk", null },
+            { "crash", null, null },
+            { "admin", "code", null },
+            { "provisioningReceived", null, null },
+            { "provisioningSaved", "hasExtras", "hasDeviceId" },
+            { "provisioningFailed", "step", null },
+            { "provisioningLaunched", "receiverMs", null },
+            { "provisioningActivity", "onCreateMs", null },
+            { "pipelineNotOwner", null, null },
+            { "pipelineStepFailed", "ms", "attempts" },
+            { "pipelineDone", "ms", "failed" },
+            { "policyApplied", "changed", "failed" },
+            { "policyFailed", "us", null },
+            { "lockApplied", "locked", "failedItems" },
+            { "lockTaskFailed", "locked", null },
+            { "pluginFailed", null, null },
+    };
+
+    static final int CAPACITY = 1024;
+    static final long MAX_FILE_BYTES = 128 * 1024;
+    static final long FLUSH_DELAY_MS = 5000;
+    static final String CURRENT_FILE = "diag.0.bin";
+    static final String PREVIOUS_FILE = "diag.1.bin";
+    private static final String DIR_NAME = "diag";
+    private static final int MAGIC = 0x4E44474C; // "NDGL"
+    private static final int MAX_TEXT_CHARS = 200;
+
+    private static final DiagLog INSTANCE = new DiagLog(CAPACITY, MAX_FILE_BYTES);
+
+    private final int capacity;
+    private final long maxFileBytes;
+    private final AtomicLong next = new AtomicLong();
+    // Per slot: the event's sequence + 1 once written, 0 while a writer is in it
+    private final AtomicLongArray stamps;
+    private final long[] times;
+    private final int[] ids;
+    private final long[] as;
+    private final long[] bs;
+    private final String[] texts;
+    private final AtomicBoolean flushScheduled = new AtomicBoolean();
+    private final ScheduledExecutorService executor = Executors
+            .newSingleThreadScheduledExecutor(r -> new Thread(r, TAG));
+    private volatile File dir;
+    private long flushedSeq; // guarded by this
+
+    DiagLog(int capacity, long maxFileBytes) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("capacity must be a power of two");
+        }
+        this.capacity = capacity;
+        this.maxFileBytes = maxFileBytes;
+        stamps = new AtomicLongArray(capacity);
+        times = new long[capacity];
+        ids = new int[capacity];
+        as = new long[capacity];
+        bs = new long[capacity];
+        texts = new String[capacity];
+    }
+
+    /**
+     * Starts writing events to files/diag; events recorded earlier in the
+     * process are kept until then. Cheap after the first call, so every
+     * entry point (activities, receivers, the service) calls it.
+     */
+    public static void init(Context context) {
+        if (INSTANCE.dir != null) {
+            return;
+        }
+        synchronized (DiagLog.class) {
+            if (INSTANCE.dir != null) {
+                return;
+            }
+            INSTANCE.dir = new File(context.getApplicationContext().getFilesDir(), DIR_NAME);
+            installCrashHandler();
+        }
+        event(PROCESS_START, Build.VERSION.SDK_INT, 0);
+    }
+
+    public static void event(int id) {
+        INSTANCE.record(id, 0, 0, null);
+    }
+
+    public static void event(int id, long a) {
+        INSTANCE.record(id, a, 0, null);
+    }
+
+    public static void event(int id, long a, long b) {
+        INSTANCE.record(id, a, b, null);
+    }
+
+    /** An event with a message, e.g. a rejected plugin call. */
+    public static void event(int id, long a, String text) {
+        INSTANCE.record(id, a, 0, text);
+    }
+
+    /** Records the failure and logs it to logcat under the caller's tag. */
+    public static void error(String tag, int id, long a, String what, Throwable e) {
+        Log.e(tag, what, e);
+        INSTANCE.record(id, a, 0, what + ": " + e);
+    }
+
+    /**
+     * Flushes, then gzips a JSON header line followed by every stored event
+     * as one line of text, oldest first.
+     */
+    public static byte[] bundle(JSONObject header) throws IOException {
+        File target = INSTANCE.dir;
+        if (target == null) {
+            throw new IOException("Diagnostic log not started");
+        }
+        INSTANCE.flushTo(target);
+        StringBuilder text = new StringBuilder(header.toString()).append('\n');
+        decode(new File(target, PREVIOUS_FILE), text);
+        decode(new File(target, CURRENT_FILE), text);
+        return TelemetryCollector.gzip(text.toString());
+    }
+
+    /** Records the crash and writes the ring out before the process dies. */
+    private static void installCrashHandler() {
+        Thread.UncaughtExceptionHandler previous = Thread.getDefaultUncaughtExceptionHandler();
+        Thread.setDefaultUncaughtExceptionHandler((thread, e) -> {
+            INSTANCE.record(CRASH, 0, 0, thread.getName() + ": " + e);
+            try {
+                INSTANCE.flushTo(INSTANCE.dir);
+            } catch (Exception ignored) {
+                // Nothing more to do while crashing
+            }
+            if (previous != null) {
+                previous.uncaughtException(thread, e);
+            }
+        });
+    }
+
+    /**
+     * Claims the next slot and fills it. A writer lapping another one in the
+     * same slot (a full ring within one write) leaves a mixed slot, which the
+     * stamp check in flushTo drops.
+     */
+    void record(int id, long a, long b, String text) {
+        long seq = next.getAndIncrement();
+        int slot = (int) (seq & (capacity - 1));
+        stamps.set(slot, 0);
+        times[slot] = System.currentTimeMillis();
+        ids[slot] = id;
+        as[slot] = a;
+        bs[slot] = b;
+        texts[slot] = text;
+        stamps.set(slot, seq + 1);
+        if (!flushScheduled.get() && dir != null && flushScheduled.compareAndSet(false, true)) {
+            executor.schedule(this::scheduledFlush, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void scheduledFlush() {
+        flushScheduled.set(false);
+        try {
+            flushTo(dir);
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to write diagnostic log", e);
+        }
+    }
+
+    /**
+     * Appends the events recorded since the last flush as one block: a FLUSH
+     * record with the absolute time, the first sequence and how many events
+     * were overwritten unflushed, then the events with times as deltas.
+     * Returns the number of events written.
+     */
+    synchronized int flushTo(File target) throws IOException {
+        long end = next.get();
+        long from = Math.max(flushedSeq, end - capacity);
+        long dropped = from - flushedSeq;
+        if (from >= end) {
+            return 0;
+        }
+        ByteArrayOutputStream events = new ByteArrayOutputStream();
+        long blockTime = System.currentTimeMillis();
+        long previous = blockTime;
+        int written = 0;
+        long seq = from;
+        for (; seq < end; seq++) {
+            int slot = (int) (seq & (capacity - 1));
+            long stamp = stamps.get(slot);
+            if (stamp == 0 || stamp < seq + 1) {
+                // Claimed but still being written; the next flush picks it up
+                break;
+            }
+            long time = times[slot];
+            int id = ids[slot];
+            long a = as[slot];
+            long b = bs[slot];
+            String text = texts[slot];
+            if (stamp != seq + 1 || stamps.get(slot) != stamp) {
+                dropped++;
+                continue;
+            }
+            writeRecord(events, id, time - previous, a, b, text);
+            previous = time;
+            written++;
+        }
+        if (written == 0 && dropped == 0) {
+            return 0;
+        }
+
+        ByteArrayOutputStream block = new ByteArrayOutputStream(events.size() + 16);
+        writeRecord(block, FLUSH, blockTime, from, dropped, null);
+        events.writeTo(block);
+
+        if (!target.isDirectory() && !target.mkdirs()) {
+            throw new IOException("Cannot create " + target);
+        }
+        File current = new File(target, CURRENT_FILE);
+        if (current.length() > 0 && current.length() + block.size() > maxFileBytes) {
+            File old = new File(target, PREVIOUS_FILE);
+            old.delete();
+            if (!current.renameTo(old)) {
+                current.delete();
+            }
+        }
+        boolean fresh = current.length() == 0;
+        try (FileOutputStream out = new FileOutputStream(current, true)) {
+            if (fresh) {
+                out.write(new byte[] { (byte) (MAGIC >>> 24), (byte) (MAGIC >>> 16), (byte) (MAGIC >>> 8), (byte) MAGIC });
+            }
+            block.writeTo(out);
+        }
+        flushedSeq = seq;
+        return written;
+    }
+
+    /** varint(id << 1 | hasText), zigzag varints of time, a and b, then the text as varint length + UTF-8. */
+    private static void writeRecord(ByteArrayOutputStream out, int id, long time, long a, long b, String text) {
+        writeVarint(out, ((long) id << 1) | (text != null ? 1 : 0));
+        writeVarint(out, zigzag(time));
+        writeVarint(out, zigzag(a));
+        writeVarint(out, zigzag(b));
+        if (text != null) {
+            byte[] bytes = (text.length() > MAX_TEXT_CHARS ? text.substring(0, MAX_TEXT_CHARS) : text)
+                    .getBytes(StandardCharsets.UTF_8);
+            writeVarint(out, bytes.length);
+            out.write(bytes, 0, bytes.length);
+        }
+    }
+
+    /**
+     * Appends the events in one file as text lines, e.g.
+     * "2026-10-18T09:12:03.120Z pluginFailed applyDeviceState: Not Device Owner".
+     * A missing file adds nothing; a torn last record is ignored. Returns the
+     * number of lines added.
+     */
+    static int decode(File file, StringBuilder out) throws IOException {
+        if (file.length() < 4) {
+            return 0;
+        }
+        SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        int lines = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC) {
+                return 0;
+            }
+            long time = 0;
+            for (;;) {
+                int length = out.length();
+                try {
+                    long tag = readVarint(in);
+                    int id = (int) (tag >>> 1);
+                    long delta = unzigzag(readVarint(in));
+                    long a = unzigzag(readVarint(in));
+                    long b = unzigzag(readVarint(in));
+                    String text = null;
+                    if ((tag & 1) != 0) {
+                        byte[] bytes = new byte[(int) Math.min(readVarint(in), MAX_TEXT_CHARS * 4)];
+                        in.readFully(bytes);
+                        text = new String(bytes, StandardCharsets.UTF_8);
+                    }
+                    time = id == FLUSH ? delta : time + delta;
+                    out.append(format.format(new Date(time))).append(' ');
+                    appendEvent(out, id, a, b, text);
+                    out.append('\n');
+                    lines++;
+                } catch (EOFException e) {
+                    out.setLength(length);
+                    return lines;
+                }
+            }
+        }
+    }
+
+    private static void appendEvent(StringBuilder out, int id, long a, long b, String text) {
+        String[] names = id >= 0 && id < EVENTS.length ? EVENTS[id] : new String[] { "event" + id, "a", "b" };
+        out.append(names[0]);
+        if (names[1] != null) {
+            out.append(' ').append(names[1]).append('=').append(a);
+        }
+        if (names[2] != null) {
+            out.append(' ').append(names[2]).append('=').append(b);
+        }
+        if (text != null) {
+            out.append(' ').append(text.replace('\n', ' '));
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    private static void writeVarint(ByteArrayOutputStream out, long value) {
+        while ((value & ~0x7FL) != 0) {
+            out.write((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.write((int) value);
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.read();
+            if (b < 0) {
+                throw new EOFException();
+            }
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed varint");
+    }
+}
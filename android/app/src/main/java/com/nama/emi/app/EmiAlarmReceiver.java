@@ -0,0 +1,15 @@
+package com.nama.emi.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+
+/** Schedule alarm and clock changes: re-checks the EmiSchedule off the broadcast thread. */
+public class EmiAlarmReceiver extends BroadcastReceiver {
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        final PendingResult pending = goAsync();
+        String reason = EmiScheduleEnforcer.ACTION_EVALUATE.equals(intent.getAction()) ? "alarm" : "timeChanged";
+        EmiScheduleEnforcer.evaluateAsync(context, reason, pending::finish);
+    }
+}
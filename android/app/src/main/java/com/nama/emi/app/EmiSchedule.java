@@ -0,0 +1,198 @@
+package com.nama.emi.app;
+
+import android.content.Context;
+import android.util.Base64;
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.X509EncodedKeySpec;
+
+/**
+ * The signed EMI schedule from the server (see server/emiSchedule.js): the
+ * times at which this device locks itself if it has not heard otherwise.
+ * The file is kept with its signature and verified against the public key
+ * built into the app every time it is loaded, so an edited file is ignored.
+ *
+ * Payload: magic "NEMS", u8 format version, u16-length UTF-8 deviceId,
+ * i64 issuedAt, u16 count, count x i64 lock times (epoch ms), big endian.
+ * File: u32 payload length, payload, u32 signature length, signature
+ * (ECDSA P-256 / SHA-256, DER).
+ */
+public final class EmiSchedule {
+    private static final String TAG = "EmiSchedule";
+    private static final String FILE_NAME = "emi_schedule.bin";
+    private static final int MAGIC = 0x4E454D53; // "NEMS"
+    static final int FORMAT_VERSION = 1;
+    private static final int MAX_PART = 64 * 1024;
+
+    public final String deviceId;
+    public final long issuedAt;
+    final long[] lockTimes;
+
+    EmiSchedule(String deviceId, long issuedAt, long[] lockTimes) {
+        this.deviceId = deviceId;
+        this.issuedAt = issuedAt;
+        this.lockTimes = lockTimes;
+    }
+
+    /** The latest lock time in (handledUpTo, now], or 0 if none is due. */
+    long dueLockTime(long now, long handledUpTo) {
+        long due = 0;
+        for (long lockAt : lockTimes) {
+            if (lockAt > handledUpTo && lockAt <= now && lockAt > due) {
+                due = lockAt;
+            }
+        }
+        return due;
+    }
+
+    /** The earliest lock time after the given time, or 0 if there is none. */
+    long nextLockTime(long after) {
+        long next = 0;
+        for (long lockAt : lockTimes) {
+            if (lockAt > after && (next == 0 || lockAt < next)) {
+                next = lockAt;
+            }
+        }
+        return next;
+    }
+
+    static EmiSchedule decode(ByteBuffer buffer) {
+        if (buffer.remaining() < 7 || buffer.getInt() != MAGIC) {
+            return null;
+        }
+        if ((buffer.get() & 0xFF) > FORMAT_VERSION) {
+            return null;
+        }
+        byte[] id = new byte[buffer.getShort() & 0xFFFF];
+        buffer.get(id);
+        long issuedAt = buffer.getLong();
+        long[] lockTimes = new long[buffer.getShort() & 0xFFFF];
+        for (int i = 0; i < lockTimes.length; i++) {
+            lockTimes[i] = buffer.getLong();
+        }
+        return new EmiSchedule(new String(id, StandardCharsets.UTF_8), issuedAt, lockTimes);
+    }
+
+    static boolean verify(byte[] payload, byte[] signature, PublicKey key) {
+        try {
+            Signature verifier = Signature.getInstance("SHA256withECDSA");
+            verifier.initVerify(key);
+            verifier.update(payload);
+            return verifier.verify(signature);
+        } catch (GeneralSecurityException e) {
+            return false;
+        }
+    }
+
+    /** Decodes a base64 X.509 (SubjectPublicKeyInfo) EC key; null if empty or invalid. */
+    static PublicKey parsePublicKey(byte[] encoded) {
+        if (encoded == null || encoded.length == 0) {
+            return null;
+        }
+        try {
+            return KeyFactory.getInstance("EC").generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException e) {
+            Log.w(TAG, "Invalid schedule public key");
+            return null;
+        }
+    }
+
+    /** The key built into the app (emiSchedulePublicKey Gradle property); null when offline enforcement is off. */
+    static PublicKey publicKey(Context context) {
+        String encoded = context.getString(R.string.emi_schedule_public_key);
+        return encoded.isEmpty() ? null : parsePublicKey(Base64.decode(encoded, Base64.DEFAULT));
+    }
+
+    /** Verifies and decodes a schedule for this device; null if anything does not check out. */
+    static EmiSchedule open(byte[] payload, byte[] signature, PublicKey key, String expectedDeviceId) {
+        if (key == null || !verify(payload, signature, key)) {
+            return null;
+        }
+        try {
+            EmiSchedule schedule = decode(ByteBuffer.wrap(payload));
+            if (schedule == null || !schedule.deviceId.equals(expectedDeviceId)) {
+                return null;
+            }
+            return schedule;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /** The stored schedule, verified; null if there is none or it fails verification. */
+    static EmiSchedule load(Context context) {
+        File file = file(context);
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            byte[] payload = readPart(raf);
+            byte[] signature = readPart(raf);
+            EmiSchedule schedule = open(payload, signature, publicKey(context), ApiClient.get(context).getDeviceId());
+            if (schedule == null) {
+                Log.w(TAG, "Stored schedule failed verification");
+            }
+            return schedule;
+        } catch (IOException e) {
+            Log.w(TAG, "Unreadable schedule: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Verifies and stores a schedule from the server, atomically. Returns the
+     * schedule, or null if it was rejected (bad signature, another device, or
+     * older than the one already stored).
+     */
+    static synchronized EmiSchedule save(Context context, byte[] payload, byte[] signature) throws IOException {
+        EmiSchedule schedule = open(payload, signature, publicKey(context), ApiClient.get(context).getDeviceId());
+        if (schedule == null) {
+            return null;
+        }
+        EmiSchedule current = load(context);
+        if (current != null && current.issuedAt > schedule.issuedAt) {
+            return null;
+        }
+        File target = file(context);
+        File tmp = new File(target.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            ByteBuffer header = ByteBuffer.allocate(4);
+            out.write(header.putInt(0, payload.length).array());
+            out.write(payload);
+            out.write(header.putInt(0, signature.length).array());
+            out.write(signature);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(target)) {
+            throw new IOException("Failed to replace " + FILE_NAME);
+        }
+        return schedule;
+    }
+
+    static void clear(Context context) {
+        file(context).delete();
+    }
+
+    private static byte[] readPart(RandomAccessFile raf) throws IOException {
+        int length = raf.readInt();
+        if (length < 0 || length > MAX_PART) {
+            throw new IOException("Corrupt schedule file");
+        }
+        byte[] part = new byte[length];
+        raf.readFully(part);
+        return part;
+    }
+
+    private static File file(Context context) {
+        return new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+    }
+}
@@ -0,0 +1,206 @@
+package com.nama.emi.app;
+
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.util.Log;
+import com.getcapacitor.JSObject;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Locks the device at the times in its signed EmiSchedule without any
+ * network: an alarm is armed for the next lock time, and the schedule is
+ * also checked on boot and clock changes. A due lock goes through
+ * DeviceActions.applyLockState, the same path the plugin and commands use,
+ * and is reported through the EventOutbox once the device is back online.
+ *
+ * The wall clock never moves backwards for this check: the latest time seen
+ * is persisted, so setting the clock back does not postpone a due lock.
+ * Each newly verified schedule re-anchors that time (and the last handled
+ * lock) to the server's issuedAt, so a clock set forward and back again
+ * cannot hold the check in the future past the next schedule.
+ * After an offline lock, unlock requests are refused until the server sends
+ * a state newer than the one the device had, i.e. one that has seen the
+ * lock report (or a deliberate admin change made since).
+ */
+public final class EmiScheduleEnforcer {
+    private static final String TAG = "EmiScheduleEnforcer";
+    private static final String PREFS_NAME = "NamaEmiSchedule";
+    private static final String KEY_TAG = "tag";
+    private static final String KEY_HANDLED = "handledLockAt";
+    private static final String KEY_LAST_SEEN = "lastSeenTime";
+    private static final String KEY_HOLD_VERSION = "holdUntilAfterVersion";
+    static final String ACTION_EVALUATE = "com.nama.emi.app.action.EVALUATE_EMI_SCHEDULE";
+
+    private static final ExecutorService WORKER = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "EmiSchedule"));
+
+    private EmiScheduleEnforcer() {
+    }
+
+    /** Runs evaluate on the worker, then done (e.g. PendingResult::finish); done may be null. */
+    public static void evaluateAsync(Context context, String reason, Runnable done) {
+        final Context appContext = context.getApplicationContext();
+        WORKER.execute(() -> {
+            try {
+                evaluate(appContext, reason);
+            } catch (Exception e) {
+                Log.e(TAG, "Schedule check failed", e);
+            } finally {
+                if (done != null) {
+                    done.run();
+                }
+            }
+        });
+    }
+
+    /** True while an offline lock has not yet been answered by a newer server state. */
+    public static boolean holdsLock(Context context) {
+        return prefs(context).getLong(KEY_HOLD_VERSION, -1) >= 0;
+    }
+
+    /** Called with every state from the server; a newer one releases the hold. */
+    public static void onServerState(Context context, long stateVersion) {
+        SharedPreferences prefs = prefs(context);
+        long hold = prefs.getLong(KEY_HOLD_VERSION, -1);
+        if (hold >= 0 && stateVersion > hold) {
+            prefs.edit().remove(KEY_HOLD_VERSION).apply();
+        }
+    }
+
+    /** Tag of the stored schedule, compared with the server's scheduleTag to decide on a refetch. */
+    public static String storedTag(Context context) {
+        return prefs(context).getString(KEY_TAG, null);
+    }
+
+    /**
+     * Stores a schedule fetched from the server and re-evaluates. A null
+     * payload means the server has no schedule for this device; the tag is
+     * still remembered so it is not fetched again.
+     */
+    public static void update(Context context, String tag, byte[] payload, byte[] signature) throws IOException {
+        SharedPreferences.Editor edit = prefs(context).edit().putString(KEY_TAG, tag);
+        if (payload == null) {
+            EmiSchedule.clear(context);
+        } else {
+            EmiSchedule schedule = EmiSchedule.save(context, payload, signature);
+            if (schedule == null) {
+                Log.w(TAG, "Rejected schedule " + tag);
+                return;
+            }
+            // The server's clock replaces whatever the device saw; its lock times all follow issuedAt
+            edit.putLong(KEY_LAST_SEEN, schedule.issuedAt).putLong(KEY_HANDLED, schedule.issuedAt);
+        }
+        // On the worker, so a check already running cannot write its clock over the new anchor
+        WORKER.execute(edit::apply);
+        evaluateAsync(context, "scheduleUpdated", null);
+    }
+
+    private static void evaluate(Context context, String reason) {
+        EmiSchedule schedule = EmiSchedule.load(context);
+        if (schedule == null) {
+            arm(context, 0);
+            return;
+        }
+        SharedPreferences prefs = prefs(context);
+        long now = Math.max(System.currentTimeMillis(),
+                Math.max(prefs.getLong(KEY_LAST_SEEN, 0), schedule.issuedAt));
+        long handled = prefs.getLong(KEY_HANDLED, 0);
+
+        long due = schedule.dueLockTime(now, handled);
+        if (due != 0) {
+            lock(context, due, reason);
+            handled = due;
+        }
+        prefs.edit().putLong(KEY_LAST_SEEN, now).putLong(KEY_HANDLED, handled).apply();
+        arm(context, schedule.nextLockTime(now));
+    }
+
+    private static void lock(Context context, long lockAt, String reason) {
+        Log.w(TAG, "EMI overdue since " + lockAt + ", locking (" + reason + ")");
+        JSObject data = new JSObject();
+        data.put("lockAt", lockAt);
+        data.put("reason", reason);
+        // Lets the server tell whether an admin changed the state after this device last heard from it
+        CommandStore commands = CommandStore.get(context);
+        long knownVersion = commands.lastCommandId();
+        data.put("stateVersion", knownVersion);
+        prefs(context).edit().putLong(KEY_HOLD_VERSION, knownVersion).apply();
+        if (!LockSnapshot.isLocked(context)) {
+            JSONObject featureLocks = overdueFeatureLocks();
+            boolean applied = false;
+            try {
+                PolicyEngine.Result result = DeviceActions.applyLockState(context, true, featureLocks);
+                applied = result.isSuccess();
+                data.put("success", applied);
+            } catch (Exception e) {
+                Log.e(TAG, "Offline lock failed", e);
+                data.put("success", false);
+                data.put("error", e.getMessage());
+            }
+            // The command store compares server lock changes against this, not its last command,
+            // so an unlock the server sends next runs even if it repeats the unlock before
+            commands.recordLocalLock(featureLocks, applied);
+        } else {
+            data.put("success", true);
+            data.put("alreadyLocked", true);
+        }
+        DeviceEvents.publish("offlineLock", data);
+        EventOutbox.get(context).enqueue("offlineLock", data);
+    }
+
+    /** The feature locks the server applies to an overdue device (OVERDUE_FEATURE_LOCKS in server/scheduler.js). */
+    private static JSONObject overdueFeatureLocks() {
+        JSONObject features = new JSONObject();
+        for (String feature : new String[] { "camera", "network", "wifi", "powerOff", "reset" }) {
+            try {
+                features.put(feature, true);
+            } catch (JSONException ignored) {
+            }
+        }
+        return features;
+    }
+
+    /** Arms an alarm for the given time, or cancels it when time is 0. */
+    private static void arm(Context context, long time) {
+        AlarmManager alarms = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+        if (alarms == null) {
+            return;
+        }
+        Intent intent = new Intent(context, EmiAlarmReceiver.class).setAction(ACTION_EVALUATE);
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+            flags |= PendingIntent.FLAG_IMMUTABLE;
+        }
+        PendingIntent pending = PendingIntent.getBroadcast(context, 0, intent, flags);
+        if (time == 0) {
+            alarms.cancel(pending);
+            return;
+        }
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S && !alarms.canScheduleExactAlarms()) {
+                // Without exact alarm access the lock may come a few minutes late, never early
+                alarms.setAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, time, pending);
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.M) {
+                alarms.setExactAndAllowWhileIdle(AlarmManager.RTC_WAKEUP, time, pending);
+            } else {
+                alarms.setExact(AlarmManager.RTC_WAKEUP, time, pending);
+            }
+            Log.d(TAG, "Next schedule check at " + time);
+        } catch (SecurityException e) {
+            Log.w(TAG, "Exact alarm refused, using inexact: " + e.getMessage());
+            alarms.set(AlarmManager.RTC_WAKEUP, time, pending);
+        }
+    }
+
+    private static SharedPreferences prefs(Context context) {
+        return context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+}
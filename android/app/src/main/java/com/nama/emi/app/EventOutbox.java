@@ -0,0 +1,204 @@
+package com.nama.emi.app;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Durable queue of security events for the server. Each event gets a
+ * sequence number and is written to disk before delivery is attempted, so
+ * nothing is lost to a dead network, process death or a reboot. The server
+ * acknowledges the highest sequence it stored and ignores anything at or
+ * below it, which makes redelivery after a lost response harmless.
+ *
+ * Sequences restart at 1 when the app data is cleared (wipe, reprovision),
+ * so every batch also carries the outbox epoch, a random id created with the
+ * first sequence. The server starts over from 0 when the epoch changes.
+ */
+public class EventOutbox {
+    private static final String TAG = "EventOutbox";
+    private static final String FILE_NAME = "events.outbox";
+    private static final String PREFS_NAME = "NamaEventOutbox";
+    private static final String KEY_NEXT_SEQ = "nextSeq";
+    private static final String KEY_EPOCH = "epoch";
+
+    static final int MAX_PENDING = 500;
+    static final int MAX_BATCH = 50;
+
+    private static EventOutbox instance;
+
+    private final Context context;
+    private final File file;
+    private final SharedPreferences prefs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "EventOutbox"));
+    private List<JSONObject> pending;
+
+    private EventOutbox(Context context) {
+        this.context = context.getApplicationContext();
+        this.file = new File(this.context.getFilesDir(), FILE_NAME);
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized EventOutbox get(Context context) {
+        if (instance == null) {
+            instance = new EventOutbox(context);
+        }
+        return instance;
+    }
+
+    /** Persists the event and starts delivering it. Returns its sequence number, or -1 if it could not be stored. */
+    public long enqueue(String type, JSONObject data) {
+        long seq;
+        synchronized (this) {
+            seq = prefs.getLong(KEY_NEXT_SEQ, 1);
+            // commit(), not apply(): a reused sequence would be dropped by the server as a duplicate
+            prefs.edit().putLong(KEY_NEXT_SEQ, seq + 1).commit();
+            try {
+                JSONObject event = new JSONObject();
+                event.put("seq", seq);
+                event.put("type", type);
+                event.put("at", System.currentTimeMillis());
+                event.put("data", data);
+                List<JSONObject> queue = pending();
+                queue.add(event);
+                if (queue.size() > MAX_PENDING) {
+                    // Offline for a long time: keep the newest
+                    queue.subList(0, queue.size() - MAX_PENDING).clear();
+                    rewrite(queue);
+                } else {
+                    append(event);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to store " + type + " event", e);
+                return -1;
+            }
+        }
+        flushAsync();
+        return seq;
+    }
+
+    public void flushAsync() {
+        executor.execute(this::flush);
+    }
+
+    /** Sends pending events in order until the queue is empty or a request fails. */
+    private void flush() {
+        ApiClient api = ApiClient.get(context);
+        if (api.getDeviceId() == null) {
+            return;
+        }
+        try {
+            while (true) {
+                JSONArray batch = new JSONArray();
+                synchronized (this) {
+                    List<JSONObject> queue = pending();
+                    for (int i = 0; i < queue.size() && i < MAX_BATCH; i++) {
+                        batch.put(queue.get(i));
+                    }
+                }
+                if (batch.length() == 0) {
+                    return;
+                }
+
+                JSONObject body = new JSONObject();
+                body.put("epoch", epoch());
+                body.put("events", batch);
+                ApiClient.Response response = api.send("POST", api.devicePath("events"), body);
+                if (!response.isSuccessful()) {
+                    Log.w(TAG, "Event delivery rejected: HTTP " + response.code);
+                    return;
+                }
+                long ack = response.json().optLong("ack", 0);
+                if (!acknowledge(ack)) {
+                    return;
+                }
+            }
+        } catch (Exception e) {
+            // Retried on the next enqueue or heartbeat tick
+            Log.w(TAG, "Event delivery failed: " + e.getMessage());
+        }
+    }
+
+    /** This outbox's epoch, created on first use; it lives and dies with KEY_NEXT_SEQ. */
+    private synchronized String epoch() {
+        String epoch = prefs.getString(KEY_EPOCH, null);
+        if (epoch == null) {
+            epoch = UUID.randomUUID().toString();
+            prefs.edit().putString(KEY_EPOCH, epoch).commit();
+        }
+        return epoch;
+    }
+
+    /** Drops events up to and including ack. Returns false when nothing was removed. */
+    private synchronized boolean acknowledge(long ack) throws IOException {
+        List<JSONObject> queue = pending();
+        int removed = 0;
+        while (removed < queue.size() && queue.get(removed).optLong("seq") <= ack) {
+            removed++;
+        }
+        if (removed == 0) {
+            return false;
+        }
+        queue.subList(0, removed).clear();
+        rewrite(queue);
+        return true;
+    }
+
+    private List<JSONObject> pending() {
+        if (pending == null) {
+            pending = new ArrayList<>();
+            if (file.exists()) {
+                try (BufferedReader reader = new BufferedReader(
+                        new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8))) {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        try {
+                            pending.add(new JSONObject(line));
+                        } catch (JSONException e) {
+                            // Torn last line from a crash mid-write
+                            Log.w(TAG, "Skipping unreadable outbox entry");
+                        }
+                    }
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to read outbox", e);
+                }
+            }
+        }
+        return pending;
+    }
+
+    private void append(JSONObject event) throws IOException {
+        try (FileOutputStream out = new FileOutputStream(file, true)) {
+            out.write((event.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        }
+    }
+
+    private void rewrite(List<JSONObject> events) throws IOException {
+        File tmp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            for (JSONObject event : events) {
+                out.write((event.toString() + "\n").getBytes(StandardCharsets.UTF_8));
+            }
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(file)) {
+            throw new IOException("Failed to replace outbox file");
+        }
+    }
+}
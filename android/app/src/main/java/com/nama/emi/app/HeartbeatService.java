@@ -0,0 +1,350 @@
+package com.nama.emi.app;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import android.util.Base64;
+import android.util.Log;
+import androidx.core.app.NotificationCompat;
+import androidx.core.content.ContextCompat;
+import com.getcapacitor.JSObject;
+import org.json.JSONObject;
+
+/**
+ * Foreground service that keeps the device in contact with the backend
+ * independently of the WebView. Commands arrive through the push-style
+ * CommandChannel; each heartbeat tick samples telemetry and sends one
+ * combined request (pending telemetry batch up, control state down) as a
+ * liveness signal and as a fallback command path.
+ * The interval stretches while nothing changes, while the channel is
+ * connected and on battery saver.
+ */
+public class HeartbeatService extends Service {
+    private static final String TAG = "HeartbeatService";
+    private static final String CHANNEL_ID = "nama_emi_service";
+    private static final int NOTIFICATION_ID = 1001;
+
+    static final long BASE_INTERVAL_MS = 10000;
+    static final long MAX_IDLE_INTERVAL_MS = 60000;
+    static final long MAX_ERROR_INTERVAL_MS = 300000;
+    // Drift checks cost a handful of binder reads; state changes trigger one right away
+    static final long RECONCILE_INTERVAL_MS = 5 * 60 * 1000;
+    static final long RECONCILE_AFTER_CHANGE_MS = 3000;
+
+    private HandlerThread thread;
+    private Handler handler;
+    private CommandChannel channel;
+    private TelemetryCollector telemetry;
+    private LocationTracker location;
+    private PolicyReconciler reconciler;
+    private JSONObject desiredState;
+    private long lastReconcileAt;
+    private long intervalMs = BASE_INTERVAL_MS;
+    private String lastState;
+    private long lastVersion;
+    private boolean released;
+
+    private final Runnable tick = this::tick;
+    private final Runnable reconcile = this::reconcile;
+
+    /**
+     * Starts the service only on an enrolled device: linked to a device record
+     * or device owner. The admin flavor is neither, so it never runs there.
+     */
+    public static void startIfEnrolled(Context context) {
+        if (ApiClient.get(context).getDeviceId() == null && !AdminContext.get(context).isDeviceOwner()) {
+            Log.d(TAG, "Not linked to a device; heartbeat not started");
+            return;
+        }
+        start(context);
+    }
+
+    public static void start(Context context) {
+        Intent intent = new Intent(context, HeartbeatService.class);
+        try {
+            ContextCompat.startForegroundService(context, intent);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to start heartbeat service", e);
+        }
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        DiagLog.init(this);
+        startForeground(NOTIFICATION_ID, buildNotification());
+        telemetry = new TelemetryCollector(this);
+        location = new LocationTracker(this);
+        reconciler = new PolicyReconciler(this);
+        SimStateCache.get(this).start();
+        TamperMonitor.get(this).start();
+
+        thread = new HandlerThread("Heartbeat");
+        thread.start();
+        handler = new Handler(thread.getLooper());
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // A fresh start (app launch, boot, new deviceId) polls right away
+        handler.removeCallbacks(tick);
+        intervalMs = BASE_INTERVAL_MS;
+        handler.post(tick);
+        ensureChannel();
+        return START_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        if (channel != null) {
+            channel.stop();
+        }
+        location.setEnabled(false, null);
+        handler.removeCallbacksAndMessages(null);
+        thread.quitSafely();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return null;
+    }
+
+    private void tick() {
+        ApiClient api = ApiClient.get(this);
+        if (api.getDeviceId() == null) {
+            // Not linked yet; JS restarts us through startHeartbeat once it is
+            schedule(MAX_IDLE_INTERVAL_MS);
+            return;
+        }
+
+        try {
+            telemetry.sample();
+            EventOutbox.get(this).flushAsync();
+            location.flushIfDue(api);
+            if (desiredState != null && SystemClock.elapsedRealtime() - lastReconcileAt >= RECONCILE_INTERVAL_MS) {
+                reconcile();
+            }
+            // Once a state is held only a change comes back, so an idle reply is just the ack
+            ApiClient.Response response = telemetry.flush(api, reconciler.lastHash(),
+                    lastState != null ? lastVersion : -1);
+            if (response.code == 404) {
+                handleDeviceRemoved();
+                return;
+            }
+            if (!response.isSuccessful()) {
+                throw new java.io.IOException("Heartbeat rejected: HTTP " + response.code);
+            }
+            JSONObject state = response.json().optJSONObject("state");
+            if (state != null) {
+                handleState(state);
+            } else {
+                stretchInterval();
+            }
+            if (released) {
+                return;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Heartbeat failed: " + e.getMessage());
+            intervalMs = Math.min(intervalMs * 2, MAX_ERROR_INTERVAL_MS);
+        }
+        schedule(intervalMs);
+    }
+
+    /** Opens the command channel for the linked device, replacing one for a stale deviceId. */
+    private void ensureChannel() {
+        ApiClient api = ApiClient.get(this);
+        String deviceId = api.getDeviceId();
+        if (channel != null && (deviceId == null || !deviceId.equals(channel.getDeviceId()))) {
+            channel.stop();
+            channel = null;
+        }
+        if (deviceId != null && channel == null) {
+            channel = new CommandChannel(api.getBaseUrl(), deviceId, 0,
+                    state -> handler.post(() -> {
+                        if (!released) {
+                            handleState(state);
+                        }
+                    }));
+            channel.start();
+        }
+    }
+
+    private void schedule(long delayMs) {
+        if (channel != null && channel.isConnected()) {
+            // Commands are pushed; the heartbeat only reports liveness and telemetry
+            delayMs = Math.max(delayMs, MAX_IDLE_INTERVAL_MS);
+        }
+        PowerManager pm = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        if (pm != null && pm.isPowerSaveMode()) {
+            delayMs *= 2;
+        }
+        handler.postDelayed(tick, delayMs);
+    }
+
+    private void handleState(JSONObject state) {
+        long version = state.optLong("stateVersion");
+        if (version < lastVersion) {
+            // A heartbeat response that raced with a newer pushed state
+            return;
+        }
+        lastVersion = version;
+
+        JSONObject control = new JSONObject();
+        try {
+            control.put("stateVersion", state.optLong("stateVersion"));
+            control.put("isLocked", state.optBoolean("isLocked"));
+            control.put("wipeRequested", state.optBoolean("wipeRequested"));
+            control.put("releaseRequested", state.optBoolean("releaseRequested"));
+            control.put("featureLocks", state.optJSONObject("featureLocks"));
+            control.put("isTracking", state.optBoolean("isTracking"));
+        } catch (Exception ignored) {
+        }
+        String current = control.toString();
+        boolean changed = !current.equals(lastState);
+        lastState = current;
+
+        if (changed) {
+            intervalMs = BASE_INTERVAL_MS;
+        } else {
+            stretchInterval();
+        }
+
+        location.setEnabled(state.optBoolean("isTracking"), thread.getLooper());
+        desiredState = state;
+        if (changed) {
+            // Let the lock command run first; the check then only repairs what it left out
+            handler.removeCallbacks(reconcile);
+            handler.postDelayed(reconcile, RECONCILE_AFTER_CHANGE_MS);
+        }
+
+        EmiScheduleEnforcer.onServerState(this, version);
+        String scheduleTag = state.isNull("scheduleTag") ? null : state.optString("scheduleTag");
+        if (scheduleTag != null && !scheduleTag.equals(EmiScheduleEnforcer.storedTag(this))) {
+            handler.post(() -> fetchSchedule(scheduleTag));
+        }
+
+        // Commands run once each from the durable store, keyed by stateVersion
+        CommandStore commands = CommandStore.get(this);
+        String deviceId = ApiClient.get(this).getDeviceId();
+        if (state.optBoolean("wipeRequested")) {
+            Log.w(TAG, "Wipe command received");
+            publish("wipe", state, changed);
+            commands.submit(deviceId, version, CommandStore.WIPE, null);
+        } else if (state.optBoolean("releaseRequested")) {
+            Log.i(TAG, "Release command received");
+            publish("release", state, changed);
+            commands.submit(deviceId, version, CommandStore.RELEASE, null);
+            shutdown();
+        } else {
+            boolean locked = state.optBoolean("isLocked");
+            commands.submit(deviceId, version, locked ? CommandStore.LOCK : CommandStore.UNLOCK,
+                    state.optJSONObject("featureLocks"));
+            publish("sync", state, changed);
+        }
+    }
+
+    /** Idle: stretches the interval by half each tick up to the cap. */
+    private void stretchInterval() {
+        intervalMs = Math.min(intervalMs + intervalMs / 2, MAX_IDLE_INTERVAL_MS);
+    }
+
+    private void reconcile() {
+        // While an offline lock is unconfirmed the last server state is older than the lock
+        if (released || desiredState == null || EmiScheduleEnforcer.holdsLock(this)) {
+            return;
+        }
+        lastReconcileAt = SystemClock.elapsedRealtime();
+        try {
+            reconciler.reconcile(desiredState.optBoolean("isLocked"), desiredState.optJSONObject("featureLocks"),
+                    desiredState.optString("policyHash", null));
+        } catch (Exception e) {
+            Log.w(TAG, "Policy reconcile failed: " + e.getMessage());
+        }
+    }
+
+    /** Downloads the signed EMI schedule for offline enforcement; the next state retries on failure. */
+    private void fetchSchedule(String tag) {
+        if (tag.equals(EmiScheduleEnforcer.storedTag(this))) {
+            return;
+        }
+        try {
+            ApiClient api = ApiClient.get(this);
+            ApiClient.Response response = api.send("GET", api.devicePath("schedule"), (JSONObject) null);
+            if (response.code == 204) {
+                EmiScheduleEnforcer.update(this, tag, null, null);
+            } else if (response.isSuccessful()) {
+                JSONObject schedule = response.json();
+                EmiScheduleEnforcer.update(this, tag,
+                        Base64.decode(schedule.getString("payload"), Base64.DEFAULT),
+                        Base64.decode(schedule.getString("signature"), Base64.DEFAULT));
+            } else {
+                Log.w(TAG, "Schedule fetch failed: HTTP " + response.code);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Schedule fetch failed: " + e.getMessage());
+        }
+    }
+
+    private void handleDeviceRemoved() {
+        Log.w(TAG, "Device no longer registered on server, releasing control");
+        publish("removed", new JSONObject(), true);
+        release();
+    }
+
+    private void release() {
+        try {
+            DeviceActions.releaseDeviceOwner(this);
+        } catch (Exception e) {
+            Log.e(TAG, "Release failed", e);
+        }
+        shutdown();
+    }
+
+    /** Stops polling for good; the device is no longer managed. */
+    private void shutdown() {
+        released = true;
+        if (channel != null) {
+            channel.stop();
+        }
+        stopForeground(true);
+        stopSelf();
+    }
+
+    private void publish(String command, JSONObject state, boolean changed) {
+        JSObject data = new JSObject();
+        data.put("command", command);
+        data.put("changed", changed);
+        data.put("isLocked", state.optBoolean("isLocked"));
+        data.put("wipeRequested", state.optBoolean("wipeRequested"));
+        data.put("releaseRequested", state.optBoolean("releaseRequested"));
+        DeviceEvents.publish("deviceState", data);
+    }
+
+    private Notification buildNotification() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            NotificationChannel channel = new NotificationChannel(CHANNEL_ID, "Device Service",
+                    NotificationManager.IMPORTANCE_MIN);
+            channel.setShowBadge(false);
+            NotificationManager nm = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+            nm.createNotificationChannel(channel);
+        }
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setContentTitle("Nama EMI")
+                .setContentText("Device protection active")
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setOngoing(true)
+                .setShowWhen(false)
+                .setPriority(NotificationCompat.PRIORITY_MIN)
+                .build();
+    }
+}
@@ -0,0 +1,51 @@
+package com.nama.emi.app;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Ring of location fixes (see RecordRing), so unsent points survive
+ * restarts.
+ */
+class LocationBuffer extends RecordRing<LocationBuffer.Point> {
+    private static final int MAGIC = 0x4E4C4F43; // "NLOC"
+    static final int RECORD_SIZE = 8 + 8 + 8 + 8 + 4;
+
+    static class Point extends RecordRing.Record {
+        double lat;
+        double lng;
+        float accuracy;
+
+        Point() {
+        }
+
+        Point(long timestamp, double lat, double lng, float accuracy) {
+            this.timestamp = timestamp;
+            this.lat = lat;
+            this.lng = lng;
+            this.accuracy = accuracy;
+        }
+    }
+
+    LocationBuffer(File path, int capacity) throws IOException {
+        super(path, MAGIC, capacity, RECORD_SIZE);
+    }
+
+    @Override
+    protected void writeFields(Point point) throws IOException {
+        file.writeLong(point.timestamp);
+        file.writeDouble(point.lat);
+        file.writeDouble(point.lng);
+        file.writeFloat(point.accuracy);
+    }
+
+    @Override
+    protected Point readFields() throws IOException {
+        Point point = new Point();
+        point.timestamp = file.readLong();
+        point.lat = file.readDouble();
+        point.lng = file.readDouble();
+        point.accuracy = file.readFloat();
+        return point;
+    }
+}
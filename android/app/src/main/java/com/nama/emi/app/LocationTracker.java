@@ -0,0 +1,196 @@
+package com.nama.emi.app;
+
+import android.Manifest;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.location.Location;
+import android.location.LocationListener;
+import android.location.LocationManager;
+import android.os.Bundle;
+import android.os.Looper;
+import android.util.Log;
+import androidx.core.content.ContextCompat;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Native location tracking for devices with isTracking set. Fixes come from
+ * the passive provider (piggybacking on other apps' requests) and the
+ * network provider at a relaxed interval; GPS is never woken up. A fix that
+ * moved less than MIN_DISTANCE_M from the last kept one is dropped unless
+ * KEEPALIVE_MS has passed; the providers are asked for every fix (no
+ * platform distance filter) so stationary keep-alive points arrive. Kept
+ * fixes go into a LocationBuffer and are uploaded as gzip batches to
+ * /location/batch from the heartbeat.
+ */
+public class LocationTracker {
+    private static final String TAG = "LocationTracker";
+    private static final String FILE_NAME = "location.ring";
+
+    static final int CAPACITY = 512;
+    static final int MAX_BATCH = 200;
+    static final long MIN_INTERVAL_MS = 60 * 1000;
+    static final float MIN_DISTANCE_M = 25;
+    // Keep a stationary point at least this often so the server sees the device is still there
+    static final long KEEPALIVE_MS = 15 * 60 * 1000;
+    // Upload when this many points are waiting, or when the oldest has waited this long
+    static final int UPLOAD_THRESHOLD = 20;
+    static final long UPLOAD_INTERVAL_MS = 5 * 60 * 1000;
+
+    private final Context context;
+    private final LocationManager lm;
+    private LocationBuffer buffer;
+    private boolean enabled;
+    private long lastUploadAt;
+
+    private final LocationListener listener = new LocationListener() {
+        @Override
+        public void onLocationChanged(Location location) {
+            record(location);
+        }
+
+        @Override
+        public void onStatusChanged(String provider, int status, Bundle extras) {
+        }
+
+        @Override
+        public void onProviderEnabled(String provider) {
+        }
+
+        @Override
+        public void onProviderDisabled(String provider) {
+        }
+    };
+
+    public LocationTracker(Context context) {
+        this.context = context.getApplicationContext();
+        this.lm = (LocationManager) this.context.getSystemService(Context.LOCATION_SERVICE);
+    }
+
+    /** Starts or stops updates; callbacks arrive on the given looper. Safe to call on every state. */
+    public void setEnabled(boolean enable, Looper looper) {
+        if (enable == enabled || lm == null) {
+            return;
+        }
+        if (!enable) {
+            lm.removeUpdates(listener);
+            enabled = false;
+            Log.d(TAG, "Tracking stopped");
+            return;
+        }
+        if (ContextCompat.checkSelfPermission(context,
+                Manifest.permission.ACCESS_COARSE_LOCATION) != PackageManager.PERMISSION_GRANTED) {
+            Log.w(TAG, "Location permission not granted");
+            return;
+        }
+        try {
+            requestIfAvailable(LocationManager.PASSIVE_PROVIDER, looper);
+            requestIfAvailable(LocationManager.NETWORK_PROVIDER, looper);
+            enabled = true;
+            lastUploadAt = System.currentTimeMillis();
+            Log.d(TAG, "Tracking started");
+        } catch (SecurityException e) {
+            Log.w(TAG, "Location updates refused: " + e.getMessage());
+        }
+    }
+
+    private void requestIfAvailable(String provider, Looper looper) {
+        if (lm.getAllProviders().contains(provider)) {
+            // No minimum distance here: shouldKeep applies it, with the keep-alive exception
+            lm.requestLocationUpdates(provider, MIN_INTERVAL_MS, 0, listener, looper);
+        }
+    }
+
+    private void record(Location location) {
+        try {
+            LocationBuffer ring = buffer();
+            LocationBuffer.Point point = new LocationBuffer.Point(location.getTime(), location.getLatitude(),
+                    location.getLongitude(), location.hasAccuracy() ? location.getAccuracy() : -1);
+            if (shouldKeep(ring.last(), point)) {
+                ring.append(point);
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to buffer location: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Uploads buffered points when enough have accumulated or the oldest has
+     * waited long enough. Returns true if an upload was attempted.
+     */
+    public boolean flushIfDue(ApiClient api) {
+        try {
+            LocationBuffer ring = buffer();
+            int waiting = ring.unackedCount();
+            if (waiting == 0
+                    || (waiting < UPLOAD_THRESHOLD && System.currentTimeMillis() - lastUploadAt < UPLOAD_INTERVAL_MS)) {
+                return false;
+            }
+            lastUploadAt = System.currentTimeMillis();
+
+            List<LocationBuffer.Point> points = ring.readUnacked(MAX_BATCH);
+            JSONObject batch = new JSONObject();
+            batch.put("a", ring.getAckedSeq());
+            batch.put("p", encode(points));
+            ApiClient.Response response = api.send("POST", api.devicePath("location/batch"),
+                    TelemetryCollector.gzip(batch.toString()), "gzip");
+            if (response.isSuccessful()) {
+                ring.ack(response.json().optLong("ack", 0));
+            } else {
+                Log.w(TAG, "Location batch rejected: HTTP " + response.code);
+            }
+            return true;
+        } catch (IOException | JSONException e) {
+            Log.w(TAG, "Location upload failed: " + e.getMessage());
+            return true;
+        }
+    }
+
+    /** Points as [seq, time, lat, lng, accuracy] arrays, coordinates rounded to 6 decimals (~0.1 m). */
+    static JSONArray encode(List<LocationBuffer.Point> points) throws JSONException {
+        JSONArray encoded = new JSONArray();
+        for (LocationBuffer.Point point : points) {
+            JSONArray item = new JSONArray();
+            item.put(point.seq);
+            item.put(point.timestamp);
+            item.put(Math.round(point.lat * 1e6) / 1e6);
+            item.put(Math.round(point.lng * 1e6) / 1e6);
+            item.put(Math.round(point.accuracy));
+            encoded.put(item);
+        }
+        return encoded;
+    }
+
+    /** A fix is kept when it moved at least MIN_DISTANCE_M or the keep-alive period has passed. */
+    static boolean shouldKeep(LocationBuffer.Point last, LocationBuffer.Point candidate) {
+        if (last == null) {
+            return true;
+        }
+        if (candidate.timestamp <= last.timestamp) {
+            return false; // Passive provider can replay older fixes
+        }
+        return candidate.timestamp - last.timestamp >= KEEPALIVE_MS
+                || distanceMeters(last.lat, last.lng, candidate.lat, candidate.lng) >= MIN_DISTANCE_M;
+    }
+
+    /** Haversine distance; accurate well beyond what the threshold needs. */
+    static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                        * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 6371000 * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+
+    private synchronized LocationBuffer buffer() throws IOException {
+        if (buffer == null) {
+            buffer = new LocationBuffer(new File(context.getFilesDir(), FILE_NAME), CAPACITY);
+        }
+        return buffer;
+    }
+}
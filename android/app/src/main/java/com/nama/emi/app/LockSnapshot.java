@@ -0,0 +1,82 @@
+package com.nama.emi.app;
+
+import android.content.Context;
+import android.util.Log;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Last lock state the device applied, in a 10-byte file, so a cold start can
+ * pin the screen before Capacitor and the WebView are up. Written whenever
+ * the lock is applied or lifted natively or from JS.
+ *
+ * Layout: u8 format version, u8 locked flag, i64 time written.
+ */
+public final class LockSnapshot {
+    private static final String TAG = "LockSnapshot";
+    private static final String FILE_NAME = "lock.state";
+    private static final int FORMAT_VERSION = 1;
+    private static final int SIZE = 10;
+
+    private static volatile Boolean locked;
+
+    private LockSnapshot() {
+    }
+
+    /** Last known state; unknown (never written) counts as unlocked. */
+    public static boolean isLocked(Context context) {
+        Boolean value = locked;
+        if (value == null) {
+            value = read(file(context));
+            locked = value;
+        }
+        return value;
+    }
+
+    /** Records the state; a no-op when it has not changed. */
+    public static synchronized void write(Context context, boolean isLocked) {
+        if (locked != null && locked == isLocked) {
+            return;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(SIZE);
+        buffer.put((byte) FORMAT_VERSION);
+        buffer.put((byte) (isLocked ? 1 : 0));
+        buffer.putLong(System.currentTimeMillis());
+
+        File target = file(context);
+        File tmp = new File(target.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(buffer.array());
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write lock snapshot", e);
+            return;
+        }
+        if (tmp.renameTo(target)) {
+            locked = isLocked;
+        }
+    }
+
+    private static boolean read(File file) {
+        if (!file.exists()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+            if (in.readUnsignedByte() != FORMAT_VERSION) {
+                return false;
+            }
+            return in.readUnsignedByte() == 1;
+        } catch (IOException e) {
+            Log.w(TAG, "Unreadable lock snapshot: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private static File file(Context context) {
+        return new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+    }
+}
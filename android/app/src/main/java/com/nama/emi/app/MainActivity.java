@@ -1,11 +1,101 @@
 package com.nama.emi.app;
 
+import android.graphics.Color;
+import android.os.SystemClock;
+import android.util.Log;
+import android.view.Gravity;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.FrameLayout;
+import android.widget.LinearLayout;
+import android.widget.TextView;
 import com.getcapacitor.BridgeActivity;
+import com.getcapacitor.JSObject;
 
 public class MainActivity extends BridgeActivity {
+    private static final String TAG = "MainActivity";
+    static final String EXTRA_BOOT_RECEIVED_AT = "bootReceivedAt";
+
+    private View bootLockScreen;
+
     @Override
     public void onCreate(android.os.Bundle savedInstanceState) {
+        DiagLog.init(this);
         registerPlugin(WipeDevicePlugin.class);
         super.onCreate(savedInstanceState);
+
+        // A locked device is pinned from the native snapshot instead of waiting for the React bundle
+        if (LockSnapshot.isLocked(this)) {
+            pinBeforeWebView();
+        }
+        HeartbeatService.startIfEnrolled(this);
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        // Ends the enrollment timing when this launch follows provisioning
+        ProvisioningPipeline.onMainActivityReady();
+    }
+
+    /** Removes the native lock screen once the JS lock UI has rendered. */
+    public void dismissBootLockScreen() {
+        runOnUiThread(() -> {
+            if (bootLockScreen != null) {
+                ((ViewGroup) bootLockScreen.getParent()).removeView(bootLockScreen);
+                bootLockScreen = null;
+            }
+        });
+    }
+
+    private void pinBeforeWebView() {
+        try {
+            startLockTask();
+        } catch (Exception e) {
+            // Not whitelisted (admin removed?); the JS path will report it
+            DiagLog.error(TAG, DiagLog.LOCK_TASK_FAILED, 1, "Failed to pin lock task on start", e);
+            return;
+        }
+        showBootLockScreen();
+
+        long now = SystemClock.elapsedRealtime();
+        long bootReceivedAt = getIntent().getLongExtra(EXTRA_BOOT_RECEIVED_AT, 0);
+        JSObject timing = new JSObject();
+        timing.put("sinceBootMs", now);
+        if (bootReceivedAt > 0) {
+            timing.put("timeToLockedMs", now - bootReceivedAt);
+        }
+        Log.i(TAG, "Pinned from lock snapshot " + now + " ms after boot");
+        new Thread(() -> EventOutbox.get(this).enqueue("bootLock", timing), "BootLockReport").start();
+    }
+
+    private void showBootLockScreen() {
+        LinearLayout content = new LinearLayout(this);
+        content.setOrientation(LinearLayout.VERTICAL);
+        content.setGravity(Gravity.CENTER);
+
+        TextView title = new TextView(this);
+        title.setText("Device Locked");
+        title.setTextColor(Color.WHITE);
+        title.setTextSize(24);
+        title.setGravity(Gravity.CENTER);
+        content.addView(title);
+
+        TextView detail = new TextView(this);
+        detail.setText("Loading payment details…");
+        detail.setTextColor(Color.LTGRAY);
+        detail.setTextSize(14);
+        detail.setGravity(Gravity.CENTER);
+        content.addView(detail);
+
+        FrameLayout overlay = new FrameLayout(this);
+        overlay.setBackgroundColor(Color.BLACK);
+        // Swallow touches so nothing underneath is reachable while the WebView loads
+        overlay.setClickable(true);
+        overlay.addView(content, new FrameLayout.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.MATCH_PARENT));
+        addContentView(overlay, new ViewGroup.LayoutParams(ViewGroup.LayoutParams.MATCH_PARENT,
+                ViewGroup.LayoutParams.MATCH_PARENT));
+        bootLockScreen = overlay;
     }
 }
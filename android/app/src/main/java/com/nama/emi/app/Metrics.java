@@ -0,0 +1,259 @@
+package com.nama.emi.app;
+
+import com.getcapacitor.JSObject;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Process-wide latency histograms and counters for the device-owner hot
+ * paths (plugin methods, commands, provisioning steps). Metrics are named
+ * "group/name", e.g. "plugin/wipe". Recording is lock-free and allocates
+ * nothing once a metric exists; the registry is read for getMetrics and in
+ * compact form for each telemetry upload.
+ */
+public final class Metrics {
+
+    /** Monotonic event count. */
+    public static final class Counter {
+        private final AtomicLong value = new AtomicLong();
+        private long reported;
+
+        public void increment() {
+            value.incrementAndGet();
+        }
+
+        public long get() {
+            return value.get();
+        }
+    }
+
+    /**
+     * Log-linear histogram of microseconds, HDR style: each power of two is
+     * split into SUB_BUCKETS linear buckets, so any value is known to within
+     * 1/SUB_BUCKETS (12.5%). Values beyond 2^MAX_EXPONENT us land in the last
+     * bucket; max stays exact.
+     */
+    public static final class Histogram {
+        static final int SUB_BITS = 3;
+        static final int SUB_BUCKETS = 1 << SUB_BITS;
+        static final int MAX_EXPONENT = 31; // ~36 minutes
+        static final int BUCKETS = (MAX_EXPONENT - SUB_BITS + 2) * SUB_BUCKETS;
+
+        private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+        private final AtomicLong count = new AtomicLong();
+        private final AtomicLong sum = new AtomicLong();
+        private final AtomicLong max = new AtomicLong();
+        private long reported;
+
+        /** Records the time since startNanos, a System.nanoTime() value. */
+        public void recordSince(long startNanos) {
+            recordMicros((System.nanoTime() - startNanos) / 1000);
+        }
+
+        public void recordMicros(long micros) {
+            long value = Math.max(0, micros);
+            buckets.incrementAndGet(bucketIndex(value));
+            count.incrementAndGet();
+            sum.addAndGet(value);
+            long current;
+            while (value > (current = max.get()) && !max.compareAndSet(current, value)) {
+                // Retry until max is at least value
+            }
+        }
+
+        public long count() {
+            return count.get();
+        }
+
+        /**
+         * Approximate percentile (0-100) in microseconds: the midpoint of the
+         * bucket holding that rank, capped at the exact maximum.
+         */
+        public long percentile(double percentile) {
+            long total = count.get();
+            if (total == 0) {
+                return 0;
+            }
+            long rank = Math.max(1, (long) Math.ceil(total * percentile / 100.0));
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets.get(i);
+                if (seen >= rank) {
+                    long mid = (lowerBound(i) + lowerBound(i + 1) - 1) / 2;
+                    return Math.min(mid, max.get());
+                }
+            }
+            return max.get();
+        }
+
+        static int bucketIndex(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+            int exponent = 63 - Long.numberOfLeadingZeros(value);
+            if (exponent > MAX_EXPONENT) {
+                return BUCKETS - 1;
+            }
+            int sub = (int) (value >>> (exponent - SUB_BITS)) & (SUB_BUCKETS - 1);
+            return (exponent - SUB_BITS + 1) * SUB_BUCKETS + sub;
+        }
+
+        /** Smallest value that falls into the bucket. */
+        static long lowerBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+            int group = index / SUB_BUCKETS;
+            int sub = index % SUB_BUCKETS;
+            return (long) (SUB_BUCKETS + sub) << (group - 1);
+        }
+
+        JSObject toJSObject() {
+            JSObject ret = new JSObject();
+            ret.put("count", count.get());
+            ret.put("sumUs", sum.get());
+            ret.put("maxUs", max.get());
+            ret.put("p50Us", percentile(50));
+            ret.put("p90Us", percentile(90));
+            ret.put("p99Us", percentile(99));
+            return ret;
+        }
+
+        /** [count, sumUs, p50, p90, p99, max] */
+        JSONArray toCompact() {
+            JSONArray ret = new JSONArray();
+            ret.put(count.get());
+            ret.put(sum.get());
+            ret.put(percentile(50));
+            ret.put(percentile(90));
+            ret.put(percentile(99));
+            ret.put(max.get());
+            return ret;
+        }
+    }
+
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Histogram>> histograms =
+            new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, Counter>> counters =
+            new ConcurrentHashMap<>();
+
+    private Metrics() {
+    }
+
+    /**
+     * The histogram for group/name, created on first use. Takes the name in two parts so callers need not concatenate.
+     * Lookups use get/putIfAbsent: ConcurrentHashMap.computeIfAbsent needs API 24 and minSdk is 22.
+     */
+    public static Histogram histogram(String group, String name) {
+        ConcurrentHashMap<String, Histogram> byName = histograms.get(group);
+        if (byName == null) {
+            ConcurrentHashMap<String, Histogram> created = new ConcurrentHashMap<>();
+            byName = winner(histograms.putIfAbsent(group, created), created);
+        }
+        Histogram histogram = byName.get(name);
+        if (histogram == null) {
+            Histogram created = new Histogram();
+            histogram = winner(byName.putIfAbsent(name, created), created);
+        }
+        return histogram;
+    }
+
+    public static Counter counter(String group, String name) {
+        ConcurrentHashMap<String, Counter> byName = counters.get(group);
+        if (byName == null) {
+            ConcurrentHashMap<String, Counter> created = new ConcurrentHashMap<>();
+            byName = winner(counters.putIfAbsent(group, created), created);
+        }
+        Counter counter = byName.get(name);
+        if (counter == null) {
+            Counter created = new Counter();
+            counter = winner(byName.putIfAbsent(name, created), created);
+        }
+        return counter;
+    }
+
+    /** The value putIfAbsent left in the map: the one already there, else ours. */
+    private static <T> T winner(T existing, T inserted) {
+        return existing != null ? existing : inserted;
+    }
+
+    /** Everything, with percentiles, for getMetrics. */
+    public static JSObject toJSObject() {
+        JSObject histogramData = new JSObject();
+        for (Map.Entry<String, ConcurrentHashMap<String, Histogram>> group : histograms.entrySet()) {
+            for (Map.Entry<String, Histogram> entry : group.getValue().entrySet()) {
+                histogramData.put(group.getKey() + "/" + entry.getKey(), entry.getValue().toJSObject());
+            }
+        }
+        JSObject counterData = new JSObject();
+        for (Map.Entry<String, ConcurrentHashMap<String, Counter>> group : counters.entrySet()) {
+            for (Map.Entry<String, Counter> entry : group.getValue().entrySet()) {
+                counterData.put(group.getKey() + "/" + entry.getKey(), entry.getValue().get());
+            }
+        }
+        JSObject ret = new JSObject();
+        ret.put("histograms", histogramData);
+        ret.put("counters", counterData);
+        return ret;
+    }
+
+    /**
+     * Metrics recorded into since the last markReported, for the telemetry
+     * batch: histograms as [count, sumUs, p50, p90, p99, max] and counters as
+     * plain numbers, all cumulative since process start. Null if nothing
+     * changed.
+     */
+    public static synchronized JSONObject compactChanges() {
+        JSONObject ret = new JSONObject();
+        try {
+            for (Map.Entry<String, ConcurrentHashMap<String, Histogram>> group : histograms.entrySet()) {
+                for (Map.Entry<String, Histogram> entry : group.getValue().entrySet()) {
+                    Histogram histogram = entry.getValue();
+                    if (histogram.count() != histogram.reported) {
+                        ret.put(group.getKey() + "/" + entry.getKey(), histogram.toCompact());
+                    }
+                }
+            }
+            for (Map.Entry<String, ConcurrentHashMap<String, Counter>> group : counters.entrySet()) {
+                for (Map.Entry<String, Counter> entry : group.getValue().entrySet()) {
+                    Counter counter = entry.getValue();
+                    if (counter.get() != counter.reported) {
+                        ret.put(group.getKey() + "/" + entry.getKey(), counter.get());
+                    }
+                }
+            }
+        } catch (JSONException e) {
+            return null;
+        }
+        return ret.length() > 0 ? ret : null;
+    }
+
+    /** Marks what compactChanges returned as delivered, so unchanged metrics are not sent again. */
+    public static synchronized void markReported(JSONObject sent) {
+        Iterator<String> keys = sent.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            int slash = key.indexOf('/');
+            String group = key.substring(0, slash);
+            String name = key.substring(slash + 1);
+            JSONArray values = sent.optJSONArray(key);
+            if (values != null) {
+                Histogram histogram = histograms.containsKey(group) ? histograms.get(group).get(name) : null;
+                if (histogram != null) {
+                    histogram.reported = values.optLong(0);
+                }
+            } else {
+                Counter counter = counters.containsKey(group) ? counters.get(group).get(name) : null;
+                if (counter != null) {
+                    counter.reported = sent.optLong(key);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,342 @@
+package com.nama.emi.app;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.UserManager;
+import android.util.Log;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONObject;
+
+/**
+ * Applies a declarative device policy through DevicePolicyManager.
+ * The current state is read once, and only the items that differ from the
+ * target are written. apply() does all the writes for a policy in one batch
+ * on the caller's thread, which must not be the main thread.
+ */
+public class PolicyEngine {
+    private static final String TAG = "PolicyEngine";
+
+    // Restrictions enforced while the device is locked for non-payment
+    static final String[] LOCK_RESTRICTIONS = {
+            UserManager.DISALLOW_FACTORY_RESET,
+            UserManager.DISALLOW_SAFE_BOOT,
+            UserManager.DISALLOW_ADD_USER,
+            UserManager.DISALLOW_USB_FILE_TRANSFER,
+            UserManager.DISALLOW_UNINSTALL_APPS,
+            UserManager.DISALLOW_MODIFY_ACCOUNTS,
+            UserManager.DISALLOW_DEBUGGING_FEATURES,
+            UserManager.DISALLOW_MOUNT_PHYSICAL_MEDIA
+    };
+
+    /**
+     * Target state. Anything left unset is not managed and is never read or
+     * written.
+     */
+    public static class Policy {
+        final Map<String, Boolean> restrictions = new LinkedHashMap<>();
+        Boolean cameraDisabled;
+        Boolean screenCaptureDisabled;
+        String[] lockTaskPackages;
+        Integer lockTaskFeatures;
+
+        public Policy restrict(String restriction, boolean enabled) {
+            restrictions.put(restriction, enabled);
+            return this;
+        }
+
+        public Policy restrictAll(String[] restrictionKeys, boolean enabled) {
+            for (String restriction : restrictionKeys) {
+                restrictions.put(restriction, enabled);
+            }
+            return this;
+        }
+
+        public Policy cameraDisabled(boolean disabled) {
+            cameraDisabled = disabled;
+            return this;
+        }
+
+        public Policy screenCaptureDisabled(boolean disabled) {
+            screenCaptureDisabled = disabled;
+            return this;
+        }
+
+        public Policy network(boolean disableWifi, boolean disableMobileData) {
+            restrictions.put(UserManager.DISALLOW_CONFIG_WIFI, disableWifi);
+            restrictions.put(UserManager.DISALLOW_CONFIG_MOBILE_NETWORKS, disableMobileData);
+            return this;
+        }
+
+        public Policy lockTaskPackages(String... packages) {
+            lockTaskPackages = packages;
+            return this;
+        }
+
+        /** System UI allowed while pinned (DevicePolicyManager.LOCK_TASK_FEATURE_*). Ignored before API 28. */
+        public Policy lockTaskFeatures(int features) {
+            lockTaskFeatures = features;
+            return this;
+        }
+
+        /**
+         * The server's device state: the lock plus its featureLocks
+         * (camera, network, wifi, powerOff, reset). Factory reset stays
+         * blocked while locked whatever featureLocks says.
+         */
+        public static Policy forDeviceState(String packageName, boolean locked, JSONObject featureLocks) {
+            // Unlocked also drops the kiosk whitelist so the state is fully determined by the server
+            Policy policy = locked ? locked(packageName) : unlocked().lockTaskPackages();
+            JSONObject features = featureLocks != null ? featureLocks : new JSONObject();
+            policy.cameraDisabled(features.optBoolean("camera"));
+            policy.restrict(UserManager.DISALLOW_CONFIG_MOBILE_NETWORKS, features.optBoolean("network"));
+            policy.restrict(UserManager.DISALLOW_CONFIG_WIFI, features.optBoolean("wifi"));
+            policy.restrict(UserManager.DISALLOW_FACTORY_RESET, locked || features.optBoolean("reset"));
+            // The power menu is the only global action a pinned device offers
+            policy.lockTaskFeatures(features.optBoolean("powerOff")
+                    ? DevicePolicyManager.LOCK_TASK_FEATURE_NONE
+                    : DevicePolicyManager.LOCK_TASK_FEATURE_GLOBAL_ACTIONS);
+            return policy;
+        }
+
+        /** Full lock: all lock restrictions plus kiosk whitelisting of this app. */
+        public static Policy locked(String packageName) {
+            return new Policy().restrictAll(LOCK_RESTRICTIONS, true).lockTaskPackages(packageName);
+        }
+
+        /** Clears the lock restrictions. Lock task packages are left as they are. */
+        public static Policy unlocked() {
+            return new Policy().restrictAll(LOCK_RESTRICTIONS, false);
+        }
+    }
+
+    /** Outcome of one item of a policy: what was done and how long it took. */
+    public static class Step {
+        public final String name;
+        public final String action;
+        public final long durationNanos;
+        public final String error;
+
+        Step(String name, String action, long durationNanos, String error) {
+            this.name = name;
+            this.action = action;
+            this.durationNanos = durationNanos;
+            this.error = error;
+        }
+    }
+
+    public static class Result {
+        public final List<Step> steps = new ArrayList<>();
+        public long totalNanos;
+        public int applied;
+        public int skipped;
+        public int failed;
+
+        public boolean isSuccess() {
+            return failed == 0;
+        }
+
+        /**
+         * The first item that failed to apply. A failed read of the current
+         * state is only reported when nothing failed to apply, since every
+         * item is then written anyway.
+         */
+        public String getErrorMessage() {
+            Step readError = null;
+            for (Step step : steps) {
+                if (step.error == null) {
+                    continue;
+                }
+                if (!"read".equals(step.action)) {
+                    return step.name + ": " + step.error;
+                }
+                if (readError == null) {
+                    readError = step;
+                }
+            }
+            return readError != null ? readError.name + ": " + readError.error : null;
+        }
+
+        public JSObject toJSObject() {
+            JSObject ret = new JSObject();
+            ret.put("success", isSuccess());
+            ret.put("applied", applied);
+            ret.put("skipped", skipped);
+            ret.put("failed", failed);
+            ret.put("totalMs", totalNanos / 1_000_000.0);
+
+            JSArray timings = new JSArray();
+            for (Step step : steps) {
+                JSObject item = new JSObject();
+                item.put("name", step.name);
+                item.put("action", step.action);
+                item.put("durationMs", step.durationNanos / 1_000_000.0);
+                if (step.error != null) {
+                    item.put("error", step.error);
+                }
+                timings.put(item);
+            }
+            ret.put("timings", timings);
+            return ret;
+        }
+    }
+
+    private final DevicePolicyManager dpm;
+    private final ComponentName admin;
+    private final UserManager userManager;
+
+    public PolicyEngine(Context context) {
+        AdminContext adminContext = AdminContext.get(context);
+        this.dpm = adminContext.dpm();
+        this.admin = adminContext.admin();
+        this.userManager = (UserManager) context.getSystemService(Context.USER_SERVICE);
+    }
+
+    /** Applies the policy on the calling thread. Must not be called on the main thread. */
+    public Result apply(Policy policy) {
+        Result result = new Result();
+        long start = System.nanoTime();
+
+        Bundle current = readRestrictions(result);
+
+        for (Map.Entry<String, Boolean> entry : policy.restrictions.entrySet()) {
+            final String key = entry.getKey();
+            final boolean enable = entry.getValue();
+            if (current != null && current.getBoolean(key, false) == enable) {
+                skip(result, key);
+                continue;
+            }
+            run(result, key, enable ? "add" : "clear", () -> {
+                if (enable) {
+                    dpm.addUserRestriction(admin, key);
+                } else {
+                    dpm.clearUserRestriction(admin, key);
+                }
+            });
+        }
+
+        if (policy.cameraDisabled != null) {
+            final boolean disable = policy.cameraDisabled;
+            if (dpm.getCameraDisabled(admin) == disable) {
+                skip(result, "camera");
+            } else {
+                run(result, "camera", disable ? "disable" : "enable",
+                        () -> dpm.setCameraDisabled(admin, disable));
+            }
+        }
+
+        if (policy.screenCaptureDisabled != null) {
+            final boolean disable = policy.screenCaptureDisabled;
+            if (dpm.getScreenCaptureDisabled(admin) == disable) {
+                skip(result, "screenCapture");
+            } else {
+                run(result, "screenCapture", disable ? "disable" : "enable",
+                        () -> dpm.setScreenCaptureDisabled(admin, disable));
+            }
+        }
+
+        if (policy.lockTaskPackages != null) {
+            final String[] packages = policy.lockTaskPackages;
+            if (lockTaskPackagesMatch(packages)) {
+                skip(result, "lockTaskPackages");
+            } else {
+                run(result, "lockTaskPackages", "set", () -> dpm.setLockTaskPackages(admin, packages));
+            }
+        }
+
+        if (policy.lockTaskFeatures != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            final int features = policy.lockTaskFeatures;
+            if (readLockTaskFeatures() == features) {
+                skip(result, "lockTaskFeatures");
+            } else {
+                run(result, "lockTaskFeatures", "set", () -> dpm.setLockTaskFeatures(admin, features));
+            }
+        }
+
+        result.totalNanos = System.nanoTime() - start;
+        Metrics.histogram("policy", "apply").recordMicros(result.totalNanos / 1000);
+        if (result.applied > 0 || result.failed > 0) {
+            DiagLog.event(DiagLog.POLICY_APPLIED, result.applied, result.failed);
+        }
+        Log.d(TAG, "Policy applied: " + result.applied + " changed, " + result.skipped + " unchanged, "
+                + result.failed + " failed in " + (result.totalNanos / 1000) + "us");
+        return result;
+    }
+
+    private Bundle readRestrictions(Result result) {
+        long start = System.nanoTime();
+        try {
+            Bundle current;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                current = dpm.getUserRestrictions(admin);
+            } else {
+                current = userManager.getUserRestrictions();
+            }
+            result.steps.add(new Step("readState", "read", System.nanoTime() - start, null));
+            return current;
+        } catch (Exception e) {
+            // Without a baseline every managed restriction is written
+            DiagLog.error(TAG, DiagLog.POLICY_FAILED, (System.nanoTime() - start) / 1000,
+                    "Could not read current restrictions", e);
+            result.steps.add(new Step("readState", "read", System.nanoTime() - start, e.getMessage()));
+            return null;
+        }
+    }
+
+    private boolean lockTaskPackagesMatch(String[] packages) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return false;
+        }
+        try {
+            String[] current = dpm.getLockTaskPackages(admin);
+            return new HashSet<>(Arrays.asList(current)).equals(new HashSet<>(Arrays.asList(packages)));
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private int readLockTaskFeatures() {
+        try {
+            return dpm.getLockTaskFeatures(admin);
+        } catch (Exception e) {
+            return -1;
+        }
+    }
+
+    /** The step for one policy item, or null if it was not part of the policy. */
+    static Step findStep(Result result, String name) {
+        for (Step step : result.steps) {
+            if (step.name.equals(name)) {
+                return step;
+            }
+        }
+        return null;
+    }
+
+    private void skip(Result result, String name) {
+        result.skipped++;
+        result.steps.add(new Step(name, "skip", 0, null));
+    }
+
+    private void run(Result result, String name, String action, Runnable write) {
+        long start = System.nanoTime();
+        try {
+            write.run();
+            result.applied++;
+            result.steps.add(new Step(name, action, System.nanoTime() - start, null));
+        } catch (Exception e) {
+            DiagLog.error(TAG, DiagLog.POLICY_FAILED, (System.nanoTime() - start) / 1000, "Failed to apply " + name, e);
+            result.failed++;
+            result.steps.add(new Step(name, action, System.nanoTime() - start, e.getMessage()));
+        }
+    }
+}
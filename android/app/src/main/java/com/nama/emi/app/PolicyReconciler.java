@@ -0,0 +1,184 @@
+package com.nama.emi.app;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.Context;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.UserManager;
+import android.util.Log;
+import com.getcapacitor.JSObject;
+import java.util.Arrays;
+import org.json.JSONObject;
+
+/**
+ * Detects and repairs drift between the policy the server wants and what
+ * DevicePolicyManager actually enforces. The enforced state is packed into
+ * a bitset and hashed; only the hash travels with the heartbeat, and the
+ * server computes the same hash from isLocked/featureLocks (see
+ * server/policyHash.js, which must keep the same bit layout). On a
+ * mismatch the desired state is re-applied through PolicyEngine, the same
+ * path applyDeviceState uses.
+ */
+public class PolicyReconciler {
+    private static final String TAG = "PolicyReconciler";
+
+    static final int FORMAT_VERSION = 1;
+
+    // Bits 0-9: user restrictions, in this order
+    static final String[] RESTRICTION_BITS = {
+            UserManager.DISALLOW_FACTORY_RESET,
+            UserManager.DISALLOW_SAFE_BOOT,
+            UserManager.DISALLOW_ADD_USER,
+            UserManager.DISALLOW_USB_FILE_TRANSFER,
+            UserManager.DISALLOW_UNINSTALL_APPS,
+            UserManager.DISALLOW_MODIFY_ACCOUNTS,
+            UserManager.DISALLOW_DEBUGGING_FEATURES,
+            UserManager.DISALLOW_MOUNT_PHYSICAL_MEDIA,
+            UserManager.DISALLOW_CONFIG_WIFI,
+            UserManager.DISALLOW_CONFIG_MOBILE_NETWORKS
+    };
+    static final int BIT_FACTORY_RESET = 0;
+    static final int BIT_CONFIG_WIFI = 8;
+    static final int BIT_CONFIG_MOBILE = 9;
+    static final int BIT_CAMERA_DISABLED = 10;
+    // Bit 11 (screen capture) is reserved and never set: the plugin's disableScreenCapture
+    // controls it outside the server state, so it cannot be compared with the desired state
+    static final int BIT_LOCK_TASK_APP = 12;
+    static final int BIT_POWER_MENU_HIDDEN = 13;
+
+    private final Context context;
+    private volatile String lastHash;
+
+    public PolicyReconciler(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /** Hash of the state found by the last reconcile, or null before the first one. */
+    public String lastHash() {
+        return lastHash;
+    }
+
+    /**
+     * Compares the enforced state with the desired one and re-applies on a
+     * mismatch. Runs binder calls; call from a background thread.
+     */
+    public void reconcile(boolean locked, JSONObject featureLocks, String serverHash) {
+        AdminContext admin = AdminContext.get(context);
+        if (!admin.isDeviceOwner()) {
+            return;
+        }
+        int desired = desiredBits(locked, featureLocks);
+        if (serverHash != null && !serverHash.equals(hash(desired))) {
+            // Server and app disagree on the bit layout; trust the local mapping
+            Log.w(TAG, "Server policy hash " + serverHash + " does not match local " + hash(desired));
+        }
+
+        int actual = actualBits(admin, desired);
+        lastHash = hash(actual);
+        if (actual == desired) {
+            return;
+        }
+
+        Log.w(TAG, "Policy drift: expected " + Integer.toBinaryString(desired) + ", found "
+                + Integer.toBinaryString(actual));
+        PolicyEngine.Result result = new PolicyEngine(context)
+                .apply(PolicyEngine.Policy.forDeviceState(admin.packageName(), locked, featureLocks));
+        int repaired = actualBits(admin, desired);
+        lastHash = hash(repaired);
+
+        JSObject event = new JSObject();
+        event.put("expected", desired);
+        event.put("found", actual);
+        event.put("repaired", repaired == desired);
+        event.put("applied", result.applied);
+        event.put("failed", result.failed);
+        DeviceEvents.publish("policyDrift", event);
+        EventOutbox.get(context).enqueue("policyDrift", event);
+    }
+
+    /** What PolicyEngine.Policy.forDeviceState enforces, as bits. */
+    static int desiredBits(boolean locked, JSONObject featureLocks) {
+        JSONObject features = featureLocks != null ? featureLocks : new JSONObject();
+        int bits = 0;
+        if (locked) {
+            for (int i = 0; i < PolicyEngine.LOCK_RESTRICTIONS.length; i++) {
+                bits |= 1 << i;
+            }
+            bits |= 1 << BIT_LOCK_TASK_APP;
+        }
+        if (locked || features.optBoolean("reset")) {
+            bits |= 1 << BIT_FACTORY_RESET;
+        }
+        if (features.optBoolean("wifi")) {
+            bits |= 1 << BIT_CONFIG_WIFI;
+        }
+        if (features.optBoolean("network")) {
+            bits |= 1 << BIT_CONFIG_MOBILE;
+        }
+        if (features.optBoolean("camera")) {
+            bits |= 1 << BIT_CAMERA_DISABLED;
+        }
+        if (features.optBoolean("powerOff")) {
+            bits |= 1 << BIT_POWER_MENU_HIDDEN;
+        }
+        return bits;
+    }
+
+    /** Reads the enforced state. Bits this platform version cannot report are taken from desired. */
+    private int actualBits(AdminContext admin, int desired) {
+        DevicePolicyManager dpm = admin.dpm();
+        int bits = 0;
+
+        Bundle restrictions = null;
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+                restrictions = dpm.getUserRestrictions(admin.admin());
+            } else {
+                UserManager um = (UserManager) context.getSystemService(Context.USER_SERVICE);
+                restrictions = um.getUserRestrictions();
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Could not read restrictions: " + e.getMessage());
+        }
+        for (int i = 0; i < RESTRICTION_BITS.length; i++) {
+            boolean set = restrictions != null
+                    ? restrictions.getBoolean(RESTRICTION_BITS[i], false)
+                    : (desired & (1 << i)) != 0;
+            if (set) {
+                bits |= 1 << i;
+            }
+        }
+
+        if (dpm.getCameraDisabled(admin.admin())) {
+            bits |= 1 << BIT_CAMERA_DISABLED;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            if (Arrays.asList(dpm.getLockTaskPackages(admin.admin())).contains(admin.packageName())) {
+                bits |= 1 << BIT_LOCK_TASK_APP;
+            }
+        } else {
+            bits |= desired & (1 << BIT_LOCK_TASK_APP);
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            if ((dpm.getLockTaskFeatures(admin.admin()) & DevicePolicyManager.LOCK_TASK_FEATURE_GLOBAL_ACTIONS) == 0) {
+                bits |= 1 << BIT_POWER_MENU_HIDDEN;
+            }
+        } else {
+            bits |= desired & (1 << BIT_POWER_MENU_HIDDEN);
+        }
+        return bits;
+    }
+
+    /** 32-bit FNV-1a over the format version and the bitset (little endian), as 8 hex chars. */
+    static String hash(int bits) {
+        int h = 0x811c9dc5;
+        int[] bytes = { FORMAT_VERSION, bits & 0xFF, (bits >>> 8) & 0xFF, (bits >>> 16) & 0xFF, (bits >>> 24) & 0xFF };
+        for (int b : bytes) {
+            h ^= b;
+            h *= 0x01000193;
+        }
+        return String.format("%08x", h);
+    }
+}
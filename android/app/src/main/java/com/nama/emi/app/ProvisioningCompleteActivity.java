@@ -1,97 +1,39 @@
 package com.nama.emi.app;
 
 import android.app.Activity;
-import android.app.admin.DevicePolicyManager;
-import android.content.ComponentName;
-import android.content.Context;
 import android.content.Intent;
 import android.os.Bundle;
-import android.os.UserManager;
-import android.util.Log;
-import android.widget.Toast;
+import android.os.SystemClock;
 
 /**
  * This activity is launched after provisioning to signal to Android that setup
  * is complete.
- * It performs post-provisioning configuration (permissions, restrictions) and
- * then
- * redirects to MainActivity.
+ * It starts the post-provisioning configuration (permissions, restrictions) in
+ * the background and redirects to MainActivity right away; the pipeline
+ * reports back through the "provisioningComplete" event.
  */
 public class ProvisioningCompleteActivity extends Activity {
-    private static final String TAG = "ProvisionComplete";
+    /** SystemClock.elapsedRealtime() when AdminReceiver got the provisioning broadcast. */
+    static final String EXTRA_STARTED_AT = "com.nama.emi.app.extra.PROVISIONING_STARTED_AT";
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        long createdAt = SystemClock.elapsedRealtime();
         super.onCreate(savedInstanceState);
-        Log.d(TAG, "ProvisioningCompleteActivity onCreate started");
+        DiagLog.init(this);
+        // Launched by the system for PROVISIONING_SUCCESSFUL itself, now is that moment
+        long startedAt = getIntent().getLongExtra(EXTRA_STARTED_AT, createdAt);
 
-        // Perform Device Owner Configuration
-        configureDeviceOwner();
+        // Perform Device Owner Configuration off the main thread
+        ProvisioningPipeline.start(this, startedAt);
 
-        // Launch the main app
-        Log.d(TAG, "Launching MainActivity");
+        // Launch the main app while configuration runs
         Intent mainIntent = new Intent(this, MainActivity.class);
         mainIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
         startActivity(mainIntent);
-
-        // Finish this activity after a short delay
-        new android.os.Handler().postDelayed(new Runnable() {
-            @Override
-            public void run() {
-                Log.d(TAG, "Finishing ProvisioningCompleteActivity");
-                finish();
-            }
-        }, 500);
-    }
-
-    private void configureDeviceOwner() {
-        Log.d(TAG, "Starting device owner configuration");
-        try {
-            DevicePolicyManager dpm = (DevicePolicyManager) getSystemService(Context.DEVICE_POLICY_SERVICE);
-            ComponentName admin = new ComponentName(this, AdminReceiver.class);
-
-            if (dpm.isDeviceOwnerApp(getPackageName())) {
-                Log.d(TAG, "App is confirmed as Device Owner");
-
-                // 1. Set Permission Policy to AUTO_GRANT
-                dpm.setPermissionPolicy(admin, DevicePolicyManager.PERMISSION_POLICY_AUTO_GRANT);
-                Log.d(TAG, "Permission policy set to AUTO_GRANT");
-
-                // 2. Explicitly Grant Critical Permissions
-                String packageName = getPackageName();
-                String[] permissions = {
-                        android.Manifest.permission.CAMERA,
-                        android.Manifest.permission.ACCESS_FINE_LOCATION,
-                        android.Manifest.permission.ACCESS_COARSE_LOCATION,
-                        android.Manifest.permission.READ_PHONE_STATE,
-                        android.Manifest.permission.WRITE_EXTERNAL_STORAGE,
-                        android.Manifest.permission.READ_EXTERNAL_STORAGE
-                };
-
-                int grantedCount = 0;
-                for (String perm : permissions) {
-                    try {
-                        dpm.setPermissionGrantState(admin, packageName, perm,
-                                DevicePolicyManager.PERMISSION_GRANT_STATE_GRANTED);
-                        grantedCount++;
-                    } catch (Exception e) {
-                        Log.w(TAG, "Failed to grant permission: " + perm, e);
-                    }
-                }
-                Log.d(TAG, "Granted " + grantedCount + " of " + permissions.length + " permissions");
-
-                // 3. Configure User Restrictions
-                dpm.clearUserRestriction(admin, UserManager.DISALLOW_INSTALL_UNKNOWN_SOURCES);
-                dpm.clearUserRestriction(admin, UserManager.DISALLOW_INSTALL_APPS);
-                Log.d(TAG, "User restrictions configured");
-
-                Toast.makeText(this, "Device Configured Successfully", Toast.LENGTH_SHORT).show();
-                Log.d(TAG, "Device owner configuration completed successfully");
-            } else {
-                Log.w(TAG, "App is NOT a Device Owner - configuration skipped");
-            }
-        } catch (Exception e) {
-            Log.e(TAG, "Error during device owner configuration", e);
-        }
+        finish();
+        long elapsedMs = SystemClock.elapsedRealtime() - createdAt;
+        Metrics.histogram("activity", "provisioningComplete").recordMicros(elapsedMs * 1000);
+        DiagLog.event(DiagLog.PROVISIONING_ACTIVITY, elapsedMs);
     }
 }
@@ -0,0 +1,154 @@
+package com.nama.emi.app;
+
+import android.content.Context;
+import android.os.PersistableBundle;
+import android.util.Log;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Provisioning extras in a small versioned binary file, written once when
+ * enrollment completes. Native code reads it through a memory map at
+ * startup instead of loading the whole CapacitorStorage XML.
+ *
+ * Layout: magic "NPCF", u16 format version, then deviceId, customerName and
+ * serverUrl as u16-length-prefixed UTF-8, then the provisioning time (i64).
+ */
+public final class ProvisioningConfig {
+    private static final String TAG = "ProvisioningConfig";
+    private static final String FILE_NAME = "provisioning.bin";
+    private static final int MAGIC = 0x4E504346; // "NPCF"
+    static final int FORMAT_VERSION = 1;
+
+    public final String deviceId;
+    public final String customerName;
+    public final String serverUrl;
+    public final long provisionedAt;
+
+    private static volatile ProvisioningConfig cached;
+    private static volatile boolean loaded;
+
+    ProvisioningConfig(String deviceId, String customerName, String serverUrl, long provisionedAt) {
+        this.deviceId = deviceId;
+        this.customerName = customerName;
+        this.serverUrl = serverUrl;
+        this.provisionedAt = provisionedAt;
+    }
+
+    /** Builds a config from EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE. */
+    static ProvisioningConfig fromExtras(PersistableBundle extras) {
+        return new ProvisioningConfig(extras.getString("deviceId"), extras.getString("customerName"),
+                extras.getString("serverUrl"), System.currentTimeMillis());
+    }
+
+    ProvisioningConfig withDeviceId(String newDeviceId) {
+        return new ProvisioningConfig(newDeviceId, customerName, serverUrl, provisionedAt);
+    }
+
+    /** The stored config, or null if the device was not provisioned with extras. Mapped once per process. */
+    public static ProvisioningConfig load(Context context) {
+        if (!loaded) {
+            synchronized (ProvisioningConfig.class) {
+                if (!loaded) {
+                    cached = read(file(context));
+                    loaded = true;
+                }
+            }
+        }
+        return cached;
+    }
+
+    /** Writes atomically (temp file then rename) and replaces the cached copy. */
+    static synchronized void save(Context context, ProvisioningConfig config) throws IOException {
+        byte[] encoded = config.encode();
+        File target = file(context);
+        File tmp = new File(target.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(tmp)) {
+            out.write(encoded);
+            out.getFD().sync();
+        }
+        if (!tmp.renameTo(target)) {
+            throw new IOException("Failed to replace " + FILE_NAME);
+        }
+        cached = config;
+        loaded = true;
+    }
+
+    byte[] encode() {
+        byte[][] strings = { utf8(deviceId), utf8(customerName), utf8(serverUrl) };
+        int size = 4 + 2 + 8;
+        for (byte[] value : strings) {
+            size += 2 + value.length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) FORMAT_VERSION);
+        for (byte[] value : strings) {
+            buffer.putShort((short) value.length);
+            buffer.put(value);
+        }
+        buffer.putLong(provisionedAt);
+        return buffer.array();
+    }
+
+    static ProvisioningConfig decode(ByteBuffer buffer) {
+        if (buffer.remaining() < 6 || buffer.getInt() != MAGIC) {
+            return null;
+        }
+        int version = buffer.getShort() & 0xFFFF;
+        if (version > FORMAT_VERSION) {
+            // Written by a newer app version; fall back to CapacitorStorage
+            return null;
+        }
+        String deviceId = readString(buffer);
+        String customerName = readString(buffer);
+        String serverUrl = readString(buffer);
+        long provisionedAt = buffer.getLong();
+        return new ProvisioningConfig(deviceId, customerName, serverUrl, provisionedAt);
+    }
+
+    private static ProvisioningConfig read(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+                FileChannel channel = raf.getChannel()) {
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return decode(map);
+        } catch (Exception e) {
+            Log.w(TAG, "Unreadable provisioning config: " + e.getMessage());
+            return null;
+        }
+    }
+
+    private static File file(Context context) {
+        return new File(context.getApplicationContext().getFilesDir(), FILE_NAME);
+    }
+
+    private static byte[] utf8(String value) {
+        if (value == null) {
+            return new byte[0];
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 0xFFFF) {
+            throw new IllegalArgumentException("Provisioning value too long");
+        }
+        return bytes;
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xFFFF;
+        if (length == 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
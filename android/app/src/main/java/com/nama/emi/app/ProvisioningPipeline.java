@@ -0,0 +1,243 @@
+package com.nama.emi.app;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.os.UserManager;
+import android.util.Log;
+import android.widget.Toast;
+import com.getcapacitor.JSArray;
+import com.getcapacitor.JSObject;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Post-provisioning device owner configuration, run off the main thread.
+ * The permission policy, the permission grants (in parallel, with retries)
+ * and the restriction changes are independent steps. Each one is timed.
+ * When they finish and MainActivity is up, the end-to-end time from
+ * PROVISIONING_SUCCESSFUL is published to JS as "provisioningComplete" and
+ * reported to the server through the EventOutbox.
+ */
+public class ProvisioningPipeline {
+    private static final String TAG = "ProvisioningPipeline";
+
+    static final String[] GRANTED_PERMISSIONS = {
+            android.Manifest.permission.CAMERA,
+            android.Manifest.permission.ACCESS_FINE_LOCATION,
+            android.Manifest.permission.ACCESS_COARSE_LOCATION,
+            android.Manifest.permission.READ_PHONE_STATE,
+            android.Manifest.permission.WRITE_EXTERNAL_STORAGE,
+            android.Manifest.permission.READ_EXTERNAL_STORAGE
+    };
+
+    static final int WORKER_THREADS = 3;
+    static final int MAX_GRANT_ATTEMPTS = 3;
+    static final long GRANT_RETRY_DELAY_MS = 150;
+
+    private static ProvisioningPipeline current;
+
+    public static class Step {
+        public final String name;
+        public final long durationMs;
+        public final int attempts;
+        public final String error;
+
+        Step(String name, long durationMs, int attempts, String error) {
+            this.name = name;
+            this.durationMs = durationMs;
+            this.attempts = attempts;
+            this.error = error;
+        }
+
+        JSObject toJSObject() {
+            JSObject ret = new JSObject();
+            ret.put("name", name);
+            ret.put("ms", durationMs);
+            ret.put("attempts", attempts);
+            if (error != null) {
+                ret.put("error", error);
+            }
+            return ret;
+        }
+    }
+
+    private final Context context;
+    private final DevicePolicyManager dpm;
+    private final ComponentName admin;
+    private final long startedAt;
+    private final List<Step> steps = new ArrayList<>();
+    private long pipelineDoneAt;
+    private long mainReadyAt;
+    private boolean reported;
+
+    private ProvisioningPipeline(Context context, long startedAt) {
+        this.context = context.getApplicationContext();
+        this.dpm = (DevicePolicyManager) this.context.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        this.admin = new ComponentName(this.context, AdminReceiver.class);
+        this.startedAt = startedAt;
+    }
+
+    /**
+     * Starts configuration in the background and returns at once.
+     * startedAt is the SystemClock.elapsedRealtime() at PROVISIONING_SUCCESSFUL:
+     * when AdminReceiver got it, passed in ProvisioningCompleteActivity's intent.
+     */
+    public static synchronized void start(Context context, long startedAt) {
+        if (current != null && current.pipelineDoneAt == 0) {
+            Log.d(TAG, "Provisioning already running");
+            return;
+        }
+        ProvisioningPipeline pipeline = new ProvisioningPipeline(context, startedAt);
+        current = pipeline;
+        new Thread(pipeline::run, TAG).start();
+    }
+
+    /** Called when MainActivity is in the foreground; completes the end-to-end measurement. */
+    public static synchronized void onMainActivityReady() {
+        if (current != null && current.mainReadyAt == 0) {
+            current.mainReadyAt = SystemClock.elapsedRealtime();
+            current.maybeReport();
+        }
+    }
+
+    private void run() {
+        if (!dpm.isDeviceOwnerApp(context.getPackageName())) {
+            Log.w(TAG, "App is NOT a Device Owner - configuration skipped");
+            DiagLog.event(DiagLog.PIPELINE_NOT_OWNER);
+            finish(false);
+            return;
+        }
+
+        ExecutorService workers = Executors.newFixedThreadPool(WORKER_THREADS, r -> new Thread(r, TAG + "-worker"));
+        List<Future<Step>> pending = new ArrayList<>();
+        boolean configured = true;
+        try {
+            pending.add(workers.submit(() -> timed("permissionPolicy",
+                    () -> dpm.setPermissionPolicy(admin, DevicePolicyManager.PERMISSION_POLICY_AUTO_GRANT))));
+            for (String permission : GRANTED_PERMISSIONS) {
+                pending.add(workers.submit(() -> grant(permission)));
+            }
+            pending.add(workers.submit(this::restrictions));
+
+            for (Future<Step> future : pending) {
+                Step step = future.get();
+                Metrics.histogram("provisioning", step.name).recordMicros(step.durationMs * 1000);
+                if (step.error != null) {
+                    DiagLog.event(DiagLog.PIPELINE_STEP_FAILED, step.durationMs, step.name + ": " + step.error);
+                    configured = false;
+                }
+                synchronized (this) {
+                    steps.add(step);
+                }
+            }
+        } catch (Exception e) {
+            DiagLog.error(TAG, DiagLog.PIPELINE_STEP_FAILED, 0, "Error during device owner configuration", e);
+            configured = false;
+        } finally {
+            workers.shutdown();
+        }
+        finish(configured);
+    }
+
+    private interface Action {
+        void run() throws Exception;
+    }
+
+    private Step timed(String name, Action action) {
+        long start = SystemClock.elapsedRealtime();
+        try {
+            action.run();
+            return new Step(name, SystemClock.elapsedRealtime() - start, 1, null);
+        } catch (Exception e) {
+            Log.w(TAG, name + " failed: " + e.getMessage());
+            return new Step(name, SystemClock.elapsedRealtime() - start, 1, e.getMessage());
+        }
+    }
+
+    /** Grants may fail transiently while the package manager settles after setup; retry a few times. */
+    private Step grant(String permission) {
+        long start = SystemClock.elapsedRealtime();
+        String error = null;
+        int attempt = 1;
+        for (; attempt <= MAX_GRANT_ATTEMPTS; attempt++) {
+            try {
+                if (dpm.setPermissionGrantState(admin, context.getPackageName(), permission,
+                        DevicePolicyManager.PERMISSION_GRANT_STATE_GRANTED)) {
+                    error = null;
+                    break;
+                }
+                error = "not granted";
+            } catch (Exception e) {
+                error = e.getMessage();
+            }
+            if (attempt < MAX_GRANT_ATTEMPTS) {
+                SystemClock.sleep(GRANT_RETRY_DELAY_MS * attempt);
+            }
+        }
+        if (error != null) {
+            Log.w(TAG, "Failed to grant permission: " + permission + " (" + error + ")");
+        }
+        String name = "grant:" + permission.substring(permission.lastIndexOf('.') + 1);
+        return new Step(name, SystemClock.elapsedRealtime() - start, Math.min(attempt, MAX_GRANT_ATTEMPTS), error);
+    }
+
+    private Step restrictions() {
+        long start = SystemClock.elapsedRealtime();
+        PolicyEngine.Result result = new PolicyEngine(context).apply(new PolicyEngine.Policy()
+                .restrict(UserManager.DISALLOW_INSTALL_UNKNOWN_SOURCES, false)
+                .restrict(UserManager.DISALLOW_INSTALL_APPS, false));
+        return new Step("restrictions", SystemClock.elapsedRealtime() - start, 1,
+                result.isSuccess() ? null : result.getErrorMessage());
+    }
+
+    private void finish(boolean configured) {
+        synchronized (ProvisioningPipeline.class) {
+            pipelineDoneAt = SystemClock.elapsedRealtime();
+            Metrics.histogram("provisioning", "pipeline").recordMicros((pipelineDoneAt - startedAt) * 1000);
+            maybeReport();
+        }
+        // Failures are reported through provisioningComplete; only a full success is announced
+        if (configured) {
+            new Handler(Looper.getMainLooper()).post(() -> Toast
+                    .makeText(context, "Device Configured Successfully", Toast.LENGTH_SHORT).show());
+        }
+    }
+
+    /** Reports once both the configuration and MainActivity are done. Caller holds the class lock. */
+    private void maybeReport() {
+        if (reported || pipelineDoneAt == 0 || mainReadyAt == 0) {
+            return;
+        }
+        reported = true;
+
+        JSArray timings = new JSArray();
+        int failed = 0;
+        synchronized (this) {
+            for (Step step : steps) {
+                timings.put(step.toJSObject());
+                if (step.error != null) {
+                    failed++;
+                }
+            }
+        }
+        JSObject data = new JSObject();
+        data.put("success", failed == 0);
+        data.put("failed", failed);
+        data.put("pipelineMs", pipelineDoneAt - startedAt);
+        data.put("endToEndMs", Math.max(pipelineDoneAt, mainReadyAt) - startedAt);
+        data.put("steps", timings);
+        DiagLog.event(DiagLog.PIPELINE_DONE, pipelineDoneAt - startedAt, failed);
+        Log.i(TAG, "Provisioning finished: pipeline " + (pipelineDoneAt - startedAt) + " ms, end-to-end "
+                + (Math.max(pipelineDoneAt, mainReadyAt) - startedAt) + " ms, " + failed + " failed steps");
+
+        DeviceEvents.publish("provisioningComplete", data);
+        EventOutbox.get(context).enqueue("provisioning", data);
+    }
+}
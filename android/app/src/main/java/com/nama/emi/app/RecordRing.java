@@ -0,0 +1,136 @@
+package com.nama.emi.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Append-only ring of fixed-size records in a fixed-size file, shared by
+ * TelemetryBuffer and LocationBuffer. Each record gets a monotonically
+ * increasing sequence number and lives in slot (seq % capacity) until it is
+ * overwritten. The header records the next sequence and the last one the
+ * server acknowledged, so unsent records survive process death and reboots.
+ *
+ * File: u32 magic, u32 capacity, i64 next seq, i64 acked seq, then capacity
+ * slots of recordSize bytes, each starting with its i64 seq. Subclasses
+ * write and read the rest of the slot.
+ */
+abstract class RecordRing<T extends RecordRing.Record> {
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8;
+
+    static class Record {
+        long seq;
+        long timestamp;
+    }
+
+    protected final RandomAccessFile file;
+    private final int magic;
+    private final int capacity;
+    private final int recordSize;
+    private long nextSeq;
+    private long ackedSeq;
+
+    RecordRing(File path, int magic, int capacity, int recordSize) throws IOException {
+        this.magic = magic;
+        this.capacity = capacity;
+        this.recordSize = recordSize;
+        this.file = new RandomAccessFile(path, "rw");
+        if (file.length() >= HEADER_SIZE && readHeader()) {
+            return;
+        }
+        // New or incompatible file: start over
+        file.setLength(HEADER_SIZE + (long) capacity * recordSize);
+        nextSeq = 1;
+        ackedSeq = 0;
+        writeHeader();
+    }
+
+    /** Writes the record's fields after its seq; the file is positioned for it. */
+    protected abstract void writeFields(T record) throws IOException;
+
+    /** Reads the fields after the seq into a new record; the file is positioned for it. */
+    protected abstract T readFields() throws IOException;
+
+    synchronized long append(T record) throws IOException {
+        record.seq = nextSeq++;
+        file.seek(offset(record.seq));
+        file.writeLong(record.seq);
+        writeFields(record);
+        writeHeader();
+        return record.seq;
+    }
+
+    /** Records after the acknowledged one, oldest first; overwritten ones are gone. */
+    synchronized List<T> readUnacked(int max) throws IOException {
+        List<T> records = new ArrayList<>();
+        long from = Math.max(ackedSeq + 1, nextSeq - capacity);
+        for (long seq = from; seq < nextSeq && records.size() < max; seq++) {
+            T record = read(seq);
+            if (record != null) {
+                records.add(record);
+            }
+        }
+        return records;
+    }
+
+    synchronized int unackedCount() {
+        return (int) Math.min(nextSeq - 1 - ackedSeq, capacity);
+    }
+
+    /** Returns the record with this sequence, or null if it was never written or is overwritten. */
+    synchronized T read(long seq) throws IOException {
+        if (seq <= 0 || seq >= nextSeq || seq < nextSeq - capacity) {
+            return null;
+        }
+        file.seek(offset(seq));
+        if (file.readLong() != seq) {
+            return null;
+        }
+        T record = readFields();
+        record.seq = seq;
+        return record;
+    }
+
+    synchronized T last() throws IOException {
+        return read(nextSeq - 1);
+    }
+
+    synchronized void ack(long seq) throws IOException {
+        if (seq > ackedSeq && seq < nextSeq) {
+            ackedSeq = seq;
+            writeHeader();
+        }
+    }
+
+    synchronized long getAckedSeq() {
+        return ackedSeq;
+    }
+
+    synchronized void close() throws IOException {
+        file.close();
+    }
+
+    private long offset(long seq) {
+        return HEADER_SIZE + (seq % capacity) * recordSize;
+    }
+
+    private boolean readHeader() throws IOException {
+        file.seek(0);
+        if (file.readInt() != magic || file.readInt() != capacity) {
+            return false;
+        }
+        nextSeq = file.readLong();
+        ackedSeq = file.readLong();
+        return nextSeq > 0 && ackedSeq < nextSeq;
+    }
+
+    private void writeHeader() throws IOException {
+        file.seek(0);
+        file.writeInt(magic);
+        file.writeInt(capacity);
+        file.writeLong(nextSeq);
+        file.writeLong(ackedSeq);
+    }
+}
@@ -0,0 +1,285 @@
+package com.nama.emi.app;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.telephony.PhoneStateListener;
+import android.telephony.ServiceState;
+import android.telephony.SubscriptionInfo;
+import android.telephony.SubscriptionManager;
+import android.telephony.TelephonyCallback;
+import android.telephony.TelephonyManager;
+import android.util.Log;
+import androidx.core.content.ContextCompat;
+import com.getcapacitor.JSObject;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * In-memory view of the SIM, kept current by SIM state, subscription and
+ * service-state callbacks instead of TelephonyManager queries on every read.
+ * A change of SIM (slot or ICCID) is published as a "simChanged" event to
+ * JS and queued for the server immediately, since a SIM swap is a fraud
+ * signal. The carrier name, which changes with roaming and carrier config
+ * updates, only identifies the SIM when the ICCID cannot be read.
+ */
+public class SimStateCache {
+    private static final String TAG = "SimStateCache";
+    // Hidden TelephonyIntents.ACTION_SIM_STATE_CHANGED, broadcast on every platform version
+    private static final String ACTION_SIM_STATE_CHANGED = "android.intent.action.SIM_STATE_CHANGED";
+    static final String NO_SIM = "Unknown / No SIM";
+    private static final String PREFS_NAME = "NamaSimState";
+    private static final String KEY_LAST_SIM = "lastSim";
+    private static final String KEY_LAST_CARRIER = "lastCarrier";
+
+    private static SimStateCache instance;
+
+    /** Immutable so readers never see a half-updated state. */
+    public static final class Snapshot {
+        public final String carrier;
+        public final int slotIndex;
+        public final String iccidHash;
+        public final boolean roaming;
+        public final int simState;
+        public final long updatedAt;
+
+        Snapshot(String carrier, int slotIndex, String iccidHash, boolean roaming, int simState) {
+            this.carrier = carrier;
+            this.slotIndex = slotIndex;
+            this.iccidHash = iccidHash;
+            this.roaming = roaming;
+            this.simState = simState;
+            this.updatedAt = System.currentTimeMillis();
+        }
+
+        public JSObject toJSObject() {
+            JSObject ret = new JSObject();
+            ret.put("carrier", carrier);
+            ret.put("slotIndex", slotIndex);
+            ret.put("iccidHash", iccidHash);
+            ret.put("roaming", roaming);
+            ret.put("simReady", simState == TelephonyManager.SIM_STATE_READY);
+            ret.put("updatedAt", updatedAt);
+            return ret;
+        }
+    }
+
+    private final Context context;
+    private final TelephonyManager tm;
+    private final SharedPreferences prefs;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> new Thread(r, "SimStateCache"));
+    private volatile Snapshot snapshot = new Snapshot(NO_SIM, -1, "", false, TelephonyManager.SIM_STATE_ABSENT);
+    private volatile boolean roaming;
+    private boolean started;
+
+    private SimStateCache(Context context) {
+        this.context = context.getApplicationContext();
+        this.tm = (TelephonyManager) this.context.getSystemService(Context.TELEPHONY_SERVICE);
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized SimStateCache get(Context context) {
+        if (instance == null) {
+            instance = new SimStateCache(context);
+        }
+        return instance;
+    }
+
+    /** Registers the callbacks once and takes the first snapshot. Safe to call repeatedly. */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+        roaming = safeIsRoaming();
+        refreshAsync();
+
+        IntentFilter filter = new IntentFilter(ACTION_SIM_STATE_CHANGED);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            filter.addAction(TelephonyManager.ACTION_SUBSCRIPTION_CARRIER_IDENTITY_CHANGED);
+        }
+        ContextCompat.registerReceiver(context, new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context c, Intent intent) {
+                refreshAsync();
+            }
+        }, filter, ContextCompat.RECEIVER_NOT_EXPORTED);
+
+        // Subscription and phone-state listeners need a Looper thread before API 30
+        new Handler(Looper.getMainLooper()).post(this::registerTelephonyListeners);
+    }
+
+    /** Latest known SIM state; never blocks and never touches telephony services. */
+    public Snapshot current() {
+        return snapshot;
+    }
+
+    private void registerTelephonyListeners() {
+        try {
+            SubscriptionManager sm = (SubscriptionManager) context
+                    .getSystemService(Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+            if (sm != null) {
+                sm.addOnSubscriptionsChangedListener(new SubscriptionManager.OnSubscriptionsChangedListener() {
+                    @Override
+                    public void onSubscriptionsChanged() {
+                        refreshAsync();
+                    }
+                });
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Subscription listener unavailable: " + e.getMessage());
+        }
+
+        try {
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                tm.registerTelephonyCallback(context.getMainExecutor(), new ServiceStateCallback());
+            } else {
+                tm.listen(new PhoneStateListener() {
+                    @Override
+                    public void onServiceStateChanged(ServiceState serviceState) {
+                        onServiceState(serviceState);
+                    }
+                }, PhoneStateListener.LISTEN_SERVICE_STATE);
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Service state listener unavailable: " + e.getMessage());
+        }
+    }
+
+    private class ServiceStateCallback extends TelephonyCallback implements TelephonyCallback.ServiceStateListener {
+        @Override
+        public void onServiceStateChanged(ServiceState serviceState) {
+            onServiceState(serviceState);
+        }
+    }
+
+    private void onServiceState(ServiceState serviceState) {
+        if (serviceState != null && serviceState.getRoaming() != roaming) {
+            roaming = serviceState.getRoaming();
+            refreshAsync();
+        }
+    }
+
+    private void refreshAsync() {
+        executor.execute(this::refresh);
+    }
+
+    private void refresh() {
+        Snapshot next = read();
+        snapshot = next;
+
+        // Compare against the last SIM persisted, so a swap made while the phone was off still counts
+        String key = identity(next);
+        String previousKey = prefs.getString(KEY_LAST_SIM, null);
+        if (key == null || key.equals(previousKey)) {
+            return;
+        }
+        String previousCarrier = prefs.getString(KEY_LAST_CARRIER, "");
+        prefs.edit().putString(KEY_LAST_SIM, key).putString(KEY_LAST_CARRIER, next.carrier).apply();
+        String[] previous = previousKey == null ? null : previousKey.split("\\|", -1);
+        if (previous == null || previous.length != 3) {
+            return; // First run, or a key from an older version: this is the baseline
+        }
+        if (previous[1].isEmpty() != next.iccidHash.isEmpty()
+                && previous[0].equals(String.valueOf(next.slotIndex)) && previousCarrier.equals(next.carrier)) {
+            return; // The ICCID became readable (or stopped being) on the same SIM
+        }
+
+        Log.w(TAG, "SIM changed in slot " + next.slotIndex);
+        JSObject event = next.toJSObject();
+        event.put("previousCarrier", previousCarrier);
+        event.put("previousIccidHash", previous[1]);
+        DeviceEvents.publish("simChanged", event);
+        EventOutbox.get(context).enqueue("simChanged", event);
+    }
+
+    /**
+     * What identifies the SIM: slot and ICCID hash, or slot and carrier when
+     * the ICCID is unreadable and the SIM is ready. Null while neither is
+     * known (SIM loading, locked or absent), so no comparison is made.
+     */
+    static String identity(Snapshot sim) {
+        if (!sim.iccidHash.isEmpty()) {
+            return sim.slotIndex + "|" + sim.iccidHash + "|";
+        }
+        if (sim.simState == TelephonyManager.SIM_STATE_READY) {
+            return sim.slotIndex + "||" + sim.carrier;
+        }
+        return null;
+    }
+
+    private Snapshot read() {
+        String carrier = null;
+        int slot = -1;
+        String iccidHash = "";
+        int simState = TelephonyManager.SIM_STATE_ABSENT;
+
+        try {
+            simState = tm.getSimState();
+            SubscriptionManager sm = (SubscriptionManager) context
+                    .getSystemService(Context.TELEPHONY_SUBSCRIPTION_SERVICE);
+            List<SubscriptionInfo> subs = sm == null ? null : sm.getActiveSubscriptionInfoList();
+            if (subs != null && !subs.isEmpty()) {
+                SubscriptionInfo primary = subs.get(0);
+                for (SubscriptionInfo info : subs) {
+                    if (info.getSimSlotIndex() < primary.getSimSlotIndex()) {
+                        primary = info;
+                    }
+                }
+                slot = primary.getSimSlotIndex();
+                iccidHash = hash(primary.getIccId());
+                if (primary.getCarrierName() != null) {
+                    carrier = primary.getCarrierName().toString();
+                }
+            }
+        } catch (SecurityException e) {
+            // READ_PHONE_STATE not granted yet; carrier names are still readable
+        } catch (Exception e) {
+            Log.w(TAG, "Subscription read failed: " + e.getMessage());
+        }
+
+        if (carrier == null || carrier.isEmpty()) {
+            carrier = tm.getSimOperatorName();
+        }
+        if (carrier == null || carrier.isEmpty()) {
+            carrier = tm.getNetworkOperatorName();
+        }
+        if (carrier == null || carrier.isEmpty()) {
+            carrier = NO_SIM;
+        }
+        return new Snapshot(carrier, slot, iccidHash, roaming, simState);
+    }
+
+    private boolean safeIsRoaming() {
+        try {
+            return tm.isNetworkRoaming();
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    /** First 16 hex chars of SHA-256, enough to spot a swap without storing the ICCID. */
+    static String hash(String value) {
+        if (value == null || value.isEmpty()) {
+            return "";
+        }
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(value.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder();
+            for (int i = 0; i < 8; i++) {
+                hex.append(String.format("%02x", digest[i]));
+            }
+            return hex.toString();
+        } catch (Exception e) {
+            return "";
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.nama.emi.app;
+
+/**
+ * Incremental parser for a text/event-stream body. Feed it one line at a time;
+ * a completed event is returned on the blank line that terminates it.
+ * Comment lines (keep-alive pings) are ignored.
+ */
+class SseParser {
+
+    static class Event {
+        final String id;
+        final String name;
+        final String data;
+
+        Event(String id, String name, String data) {
+            this.id = id;
+            this.name = name;
+            this.data = data;
+        }
+    }
+
+    private String id;
+    private String name;
+    private StringBuilder data;
+
+    Event feed(String line) {
+        if (line.isEmpty()) {
+            if (data == null) {
+                return null;
+            }
+            Event event = new Event(id, name == null ? "message" : name, data.toString());
+            name = null;
+            data = null;
+            return event;
+        }
+        if (line.startsWith(":")) {
+            return null;
+        }
+
+        int colon = line.indexOf(':');
+        String field = colon < 0 ? line : line.substring(0, colon);
+        String value = colon < 0 ? "" : line.substring(colon + 1);
+        if (value.startsWith(" ")) {
+            value = value.substring(1);
+        }
+
+        switch (field) {
+            case "id":
+                id = value;
+                break;
+            case "event":
+                name = value;
+                break;
+            case "data":
+                if (data == null) {
+                    data = new StringBuilder(value);
+                } else {
+                    data.append('\n').append(value);
+                }
+                break;
+            default:
+                // retry and unknown fields are not used
+                break;
+        }
+        return null;
+    }
+
+    /** The id of the last event seen, kept across events as the SSE spec requires. */
+    String lastEventId() {
+        return id;
+    }
+}
@@ -0,0 +1,208 @@
+package com.nama.emi.app;
+
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.provider.Settings;
+import android.util.Log;
+import com.getcapacitor.JSObject;
+import org.json.JSONObject;
+
+/**
+ * Watches for tampering as it happens instead of checking on request.
+ * Developer options and ADB are observed through ContentObservers on their
+ * settings; admin removal and password events arrive from AdminReceiver.
+ * Every change bumps a sequence number, is published to JS as
+ * "tamperStateChanged" and is queued in the EventOutbox for the server.
+ */
+public class TamperMonitor {
+    private static final String TAG = "TamperMonitor";
+    private static final String PREFS_NAME = "NamaTamperState";
+    private static final String KEY_FLAGS = "flags";
+    private static final String KEY_SEQ = "seq";
+
+    static final int FLAG_DEVICE_OWNER = 1;
+    static final int FLAG_ADMIN_ACTIVE = 1 << 1;
+    static final int FLAG_DEVELOPER_OPTIONS = 1 << 2;
+    static final int FLAG_ADB = 1 << 3;
+
+    private static TamperMonitor instance;
+
+    /** Immutable so checkTamperAttempts can hand it out without locking. */
+    public static final class State {
+        public final long seq;
+        public final int flags;
+        public final int failedPasswordAttempts;
+        public final String reason;
+        public final long changedAt;
+
+        State(long seq, int flags, int failedPasswordAttempts, String reason) {
+            this.seq = seq;
+            this.flags = flags;
+            this.failedPasswordAttempts = failedPasswordAttempts;
+            this.reason = reason;
+            this.changedAt = System.currentTimeMillis();
+        }
+
+        public boolean has(int flag) {
+            return (flags & flag) != 0;
+        }
+
+        public boolean isTampered() {
+            return !has(FLAG_DEVICE_OWNER) || !has(FLAG_ADMIN_ACTIVE);
+        }
+
+        public JSObject toJSObject() {
+            JSObject ret = new JSObject();
+            ret.put("seq", seq);
+            ret.put("isDeviceOwner", has(FLAG_DEVICE_OWNER));
+            ret.put("isAdminActive", has(FLAG_ADMIN_ACTIVE));
+            ret.put("developerOptionsEnabled", has(FLAG_DEVELOPER_OPTIONS));
+            ret.put("adbEnabled", has(FLAG_ADB));
+            ret.put("failedPasswordAttempts", failedPasswordAttempts);
+            ret.put("tampered", isTampered());
+            ret.put("reason", reason);
+            ret.put("changedAt", changedAt);
+            return ret;
+        }
+    }
+
+    private final Context context;
+    private final DevicePolicyManager dpm;
+    private final ComponentName admin;
+    private final SharedPreferences prefs;
+    private final Handler handler;
+    private volatile State state;
+    private boolean started;
+
+    private TamperMonitor(Context context) {
+        this.context = context.getApplicationContext();
+        this.dpm = (DevicePolicyManager) this.context.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        this.admin = new ComponentName(this.context, AdminReceiver.class);
+        this.prefs = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+
+        HandlerThread thread = new HandlerThread("TamperMonitor");
+        thread.start();
+        this.handler = new Handler(thread.getLooper());
+
+        state = new State(prefs.getLong(KEY_SEQ, 0), readFlags(false), 0, "initial");
+    }
+
+    public static synchronized TamperMonitor get(Context context) {
+        if (instance == null) {
+            instance = new TamperMonitor(context);
+        }
+        return instance;
+    }
+
+    /** Registers the settings observers once. Safe to call repeatedly. */
+    public synchronized void start() {
+        if (started) {
+            return;
+        }
+        started = true;
+
+        ContentObserver observer = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange, Uri uri) {
+                recheck("settingChanged");
+            }
+        };
+        ContentResolver resolver = context.getContentResolver();
+        try {
+            resolver.registerContentObserver(
+                    Settings.Global.getUriFor(Settings.Global.DEVELOPMENT_SETTINGS_ENABLED), false, observer);
+            resolver.registerContentObserver(
+                    Settings.Global.getUriFor(Settings.Global.ADB_ENABLED), false, observer);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to observe settings", e);
+        }
+
+        // Catch changes made while the app was not running
+        recheck("startup");
+    }
+
+    /** Latest tamper state; never blocks. */
+    public State current() {
+        return state;
+    }
+
+    /** Re-reads the state and reports it only if a flag changed. */
+    void recheck(String reason) {
+        handler.post(() -> update(reason, false, false));
+    }
+
+    /**
+     * Reports an admin callback. Always emitted, since the callback itself is
+     * the signal. adminDisabled marks the admin as gone even if the platform
+     * still reports it active while the broadcast is delivered.
+     */
+    void onAdminEvent(String reason, boolean adminDisabled) {
+        handler.post(() -> update(reason, true, adminDisabled));
+    }
+
+    private void update(String reason, boolean always, boolean adminDisabled) {
+        int flags = readFlags(adminDisabled);
+        int persisted = prefs.getInt(KEY_FLAGS, -1);
+        if (!always && flags == persisted) {
+            return;
+        }
+
+        long seq = state.seq + 1;
+        State next = new State(seq, flags, readFailedPasswordAttempts(), reason);
+        prefs.edit().putInt(KEY_FLAGS, flags).putLong(KEY_SEQ, seq).apply();
+        state = next;
+        if (!always && persisted == -1) {
+            return; // First run: this is the baseline
+        }
+
+        Log.w(TAG, "Tamper state changed (" + reason + "), tampered=" + next.isTampered());
+        JSObject event = next.toJSObject();
+        DeviceEvents.publish("tamperStateChanged", event);
+        EventOutbox.get(context).enqueue("tamper", event);
+    }
+
+    private int readFlags(boolean adminDisabled) {
+        int flags = 0;
+        try {
+            if (dpm.isDeviceOwnerApp(context.getPackageName())) {
+                flags |= FLAG_DEVICE_OWNER;
+            }
+            if (!adminDisabled && dpm.isAdminActive(admin)) {
+                flags |= FLAG_ADMIN_ACTIVE;
+            }
+        } catch (Exception e) {
+            Log.w(TAG, "Admin status unavailable: " + e.getMessage());
+        }
+        if (readGlobal(Settings.Global.DEVELOPMENT_SETTINGS_ENABLED)) {
+            flags |= FLAG_DEVELOPER_OPTIONS;
+        }
+        if (readGlobal(Settings.Global.ADB_ENABLED)) {
+            flags |= FLAG_ADB;
+        }
+        return flags;
+    }
+
+    private boolean readGlobal(String name) {
+        try {
+            return Settings.Global.getInt(context.getContentResolver(), name, 0) != 0;
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    private int readFailedPasswordAttempts() {
+        try {
+            return dpm.getCurrentFailedPasswordAttempts();
+        } catch (Exception e) {
+            // Needs the watch-login policy and an active admin
+            return 0;
+        }
+    }
+}
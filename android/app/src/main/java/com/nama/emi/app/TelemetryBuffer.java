@@ -0,0 +1,94 @@
+package com.nama.emi.app;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Ring of telemetry samples (see RecordRing). Strings are stored in
+ * fixed-width, length-prefixed fields so every record has the same size.
+ */
+class TelemetryBuffer extends RecordRing<TelemetryBuffer.Sample> {
+    private static final int MAGIC = 0x4E544C4D; // "NTLM"
+
+    static final int CARRIER_BYTES = 48;
+    static final int OS_BYTES = 16;
+    static final int RECORD_SIZE = 8 + 8 + 1 + 1 + 1 + CARRIER_BYTES + 1 + OS_BYTES;
+
+    static final int NETWORK_UNKNOWN = 0;
+    static final int NETWORK_NONE = 1;
+    static final int NETWORK_WIFI = 2;
+    static final int NETWORK_CELLULAR = 3;
+    private static final String[] NETWORK_NAMES = { "unknown", "none", "wifi", "cellular" };
+
+    static class Sample extends RecordRing.Record {
+        int battery = -1;
+        int network = NETWORK_UNKNOWN;
+        String carrier = "";
+        String osVersion = "";
+
+        boolean sameValues(Sample other) {
+            return other != null
+                    && battery == other.battery
+                    && network == other.network
+                    && carrier.equals(other.carrier)
+                    && osVersion.equals(other.osVersion);
+        }
+
+        String networkName() {
+            return network >= 0 && network < NETWORK_NAMES.length ? NETWORK_NAMES[network] : "unknown";
+        }
+
+        static int networkCode(String name) {
+            for (int i = 0; i < NETWORK_NAMES.length; i++) {
+                if (NETWORK_NAMES[i].equals(name)) {
+                    return i;
+                }
+            }
+            return NETWORK_UNKNOWN;
+        }
+    }
+
+    TelemetryBuffer(File path, int capacity) throws IOException {
+        super(path, MAGIC, capacity, RECORD_SIZE);
+    }
+
+    @Override
+    protected void writeFields(Sample sample) throws IOException {
+        file.writeLong(sample.timestamp);
+        file.writeByte(sample.battery);
+        file.writeByte(sample.network);
+        writeString(sample.carrier, CARRIER_BYTES);
+        writeString(sample.osVersion, OS_BYTES);
+    }
+
+    @Override
+    protected Sample readFields() throws IOException {
+        Sample sample = new Sample();
+        sample.timestamp = file.readLong();
+        sample.battery = file.readByte();
+        sample.network = file.readByte();
+        sample.carrier = readString(CARRIER_BYTES);
+        sample.osVersion = readString(OS_BYTES);
+        return sample;
+    }
+
+    private void writeString(String value, int size) throws IOException {
+        byte[] bytes = value == null ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, size);
+        // Never cut a multi-byte character in half
+        while (length > 0 && length < bytes.length && (bytes[length] & 0xC0) == 0x80) {
+            length--;
+        }
+        file.writeByte(length);
+        file.write(bytes, 0, length);
+        file.write(new byte[size - length]);
+    }
+
+    private String readString(int size) throws IOException {
+        int length = Math.min(file.readUnsignedByte(), size);
+        byte[] bytes = new byte[size];
+        file.readFully(bytes);
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+}
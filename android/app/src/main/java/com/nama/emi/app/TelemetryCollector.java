@@ -0,0 +1,196 @@
+package com.nama.emi.app;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkCapabilities;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.util.Log;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Samples device telemetry into a TelemetryBuffer and uploads what the server
+ * has not acknowledged yet as one gzip batch. Each sample on the wire carries
+ * only the fields that changed since the sample before it, starting from the
+ * last acknowledged one, so an unchanged device sends little more than
+ * sequence numbers and timestamps.
+ */
+public class TelemetryCollector {
+    private static final String TAG = "TelemetryCollector";
+    private static final String FILE_NAME = "telemetry.ring";
+
+    static final int CAPACITY = 1024;
+    static final int MAX_BATCH = 200;
+    // Record an unchanged sample at least this often so gaps are visible server-side
+    static final long KEEPALIVE_SAMPLE_MS = 15 * 60 * 1000;
+
+    private final Context context;
+    private TelemetryBuffer buffer;
+
+    public TelemetryCollector(Context context) {
+        this.context = context.getApplicationContext();
+    }
+
+    /** Takes a sample and appends it when something changed or the keep-alive period passed. */
+    public void sample() {
+        try {
+            TelemetryBuffer ring = buffer();
+            TelemetryBuffer.Sample sample = readSample();
+            TelemetryBuffer.Sample last = ring.last();
+            if (sample.sameValues(last) && sample.timestamp - last.timestamp < KEEPALIVE_SAMPLE_MS) {
+                return;
+            }
+            ring.append(sample);
+        } catch (Exception e) {
+            Log.w(TAG, "Telemetry sample failed: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Uploads unacknowledged samples to /telemetry/batch. An empty batch is
+     * still sent: it doubles as the heartbeat and returns the control state.
+     * The acknowledged cursor only moves forward on success. policyHash, when
+     * known, is the enforced-policy hash from PolicyReconciler; metrics that
+     * changed since the last accepted batch ride along as "m". A heldVersion
+     * of 0 or more is the stateVersion the caller already has; the reply then
+     * carries the control state only if it changed.
+     */
+    public ApiClient.Response flush(ApiClient api, String policyHash, long heldVersion) throws IOException {
+        TelemetryBuffer ring = buffer();
+        List<TelemetryBuffer.Sample> samples = ring.readUnacked(MAX_BATCH);
+        TelemetryBuffer.Sample base = ring.read(ring.getAckedSeq());
+        JSONObject metrics = Metrics.compactChanges();
+
+        JSONObject batch = new JSONObject();
+        try {
+            batch.put("a", ring.getAckedSeq());
+            batch.put("s", encodeDelta(base, samples));
+            if (policyHash != null) {
+                batch.put("ph", policyHash);
+            }
+            if (metrics != null) {
+                batch.put("m", metrics);
+            }
+            if (heldVersion >= 0) {
+                batch.put("sv", heldVersion);
+            }
+        } catch (JSONException e) {
+            throw new IOException("Failed to encode telemetry batch", e);
+        }
+
+        ApiClient.Response response = api.send("POST", api.devicePath("telemetry/batch"), gzip(batch.toString()),
+                "gzip");
+        if (response.isSuccessful()) {
+            if (metrics != null) {
+                Metrics.markReported(metrics);
+            }
+            try {
+                long ack = response.json().optLong("ack", 0);
+                ring.ack(ack);
+            } catch (JSONException e) {
+                Log.w(TAG, "Unreadable telemetry ack");
+            }
+        }
+        return response;
+    }
+
+    /**
+     * Encodes samples as compact objects: q (seq) and t (time) always, then
+     * b (battery), n (network), c (carrier), v (OS version) only when they
+     * differ from the previous sample. A null base sends the first sample in full.
+     */
+    static JSONArray encodeDelta(TelemetryBuffer.Sample base, List<TelemetryBuffer.Sample> samples)
+            throws JSONException {
+        JSONArray encoded = new JSONArray();
+        TelemetryBuffer.Sample previous = base;
+        for (TelemetryBuffer.Sample sample : samples) {
+            JSONObject item = new JSONObject();
+            item.put("q", sample.seq);
+            item.put("t", sample.timestamp);
+            if (previous == null || sample.battery != previous.battery) {
+                item.put("b", sample.battery);
+            }
+            if (previous == null || sample.network != previous.network) {
+                item.put("n", sample.networkName());
+            }
+            if (previous == null || !sample.carrier.equals(previous.carrier)) {
+                item.put("c", sample.carrier);
+            }
+            if (previous == null || !sample.osVersion.equals(previous.osVersion)) {
+                item.put("v", sample.osVersion);
+            }
+            encoded.put(item);
+            previous = sample;
+        }
+        return encoded;
+    }
+
+    static byte[] gzip(String body) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (GZIPOutputStream gzip = new GZIPOutputStream(out)) {
+            gzip.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+        return out.toByteArray();
+    }
+
+    private synchronized TelemetryBuffer buffer() throws IOException {
+        if (buffer == null) {
+            buffer = new TelemetryBuffer(new File(context.getFilesDir(), FILE_NAME), CAPACITY);
+        }
+        return buffer;
+    }
+
+    private TelemetryBuffer.Sample readSample() {
+        TelemetryBuffer.Sample sample = new TelemetryBuffer.Sample();
+        sample.timestamp = System.currentTimeMillis();
+
+        Intent battery = context.registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        if (battery != null) {
+            int level = battery.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = battery.getIntExtra(BatteryManager.EXTRA_SCALE, 100);
+            if (level >= 0 && scale > 0) {
+                sample.battery = Math.round(level * 100f / scale);
+            }
+        }
+        sample.network = TelemetryBuffer.Sample.networkCode(readNetworkType());
+        sample.carrier = SimStateCache.get(context).current().carrier;
+        sample.osVersion = Build.VERSION.RELEASE;
+        return sample;
+    }
+
+    /** Same vocabulary as @capacitor/network connectionType. */
+    private String readNetworkType() {
+        ConnectivityManager cm = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        if (cm == null) {
+            return "unknown";
+        }
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.M) {
+            android.net.NetworkInfo info = cm.getActiveNetworkInfo();
+            if (info == null || !info.isConnected()) {
+                return "none";
+            }
+            return info.getType() == ConnectivityManager.TYPE_WIFI ? "wifi" : "cellular";
+        }
+        NetworkCapabilities caps = cm.getNetworkCapabilities(cm.getActiveNetwork());
+        if (caps == null) {
+            return "none";
+        }
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_WIFI)) {
+            return "wifi";
+        }
+        if (caps.hasTransport(NetworkCapabilities.TRANSPORT_CELLULAR)) {
+            return "cellular";
+        }
+        return "unknown";
+    }
+}
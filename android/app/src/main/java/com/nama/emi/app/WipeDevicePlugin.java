@@ -1,321 +1,452 @@
 package com.nama.emi.app;
 
 import android.app.admin.DevicePolicyManager;
-import android.content.ComponentName;
-import android.content.Context;
+import android.os.Build;
+import android.os.UserManager;
+import android.util.Base64;
 import com.getcapacitor.JSObject;
 import com.getcapacitor.Plugin;
 import com.getcapacitor.PluginCall;
 import com.getcapacitor.PluginMethod;
 import com.getcapacitor.annotation.CapacitorPlugin;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.json.JSONObject;
 
 @CapacitorPlugin(name = "WipeDevice")
 public class WipeDevicePlugin extends Plugin {
+    private static final String TAG = "WipeDevicePlugin";
+
+    // One ordered worker for DPM binder calls, keeping them off the bridge thread
+    private static final ExecutorService EXECUTOR = Executors.newSingleThreadExecutor(
+            r -> new Thread(r, "WipeDevicePlugin"));
+
+    private final DeviceEvents.Listener eventForwarder = (name, data) -> notifyListeners(name, data);
+    private AdminContext admin;
+
+    private interface Task {
+        void run() throws Exception;
+    }
+
+    @Override
+    public void load() {
+        admin = AdminContext.get(getContext());
+        DeviceEvents.addListener(eventForwarder);
+        SimStateCache.get(getContext()).start();
+        TamperMonitor.get(getContext()).start();
+    }
+
+    @Override
+    protected void handleOnDestroy() {
+        DeviceEvents.removeListener(eventForwarder);
+    }
+
+    /**
+     * Runs a plugin method on the worker; anything it throws rejects the call.
+     * The time from the bridge call to the end of the task, queueing included,
+     * goes into the "plugin" histograms.
+     */
+    private void execute(PluginCall call, Task task) {
+        long start = System.nanoTime();
+        EXECUTOR.execute(() -> {
+            try {
+                task.run();
+            } catch (Exception e) {
+                DiagLog.error(TAG, DiagLog.PLUGIN_FAILED, 0, call.getMethodName() + " failed", e);
+                Metrics.counter("pluginError", call.getMethodName()).increment();
+                call.reject(e.getMessage());
+            } finally {
+                Metrics.histogram("plugin", call.getMethodName()).recordSince(start);
+            }
+        });
+    }
+
+    /** Rejects the call and keeps the reason in the diagnostic log, since JS may not surface it. */
+    private static void reject(PluginCall call, String message) {
+        DiagLog.event(DiagLog.PLUGIN_FAILED, 0, call.getMethodName() + ": " + message);
+        call.reject(message);
+    }
 
     @PluginMethod
     public void wipe(PluginCall call) {
-        Context context = getContext();
-        DevicePolicyManager dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
-        ComponentName adminComponent = new ComponentName(context, AdminReceiver.class);
-
-        if (dpm.isAdminActive(adminComponent)) {
+        execute(call, () -> {
             try {
-                // Determine wipe flags. 0 is standard factory reset.
-                // WIPE_EXTERNAL_STORAGE might be needed depending on OS version usage, but 0 is
-                // safest "Factory Reset".
-                dpm.wipeData(0);
+                DeviceActions.wipe(getContext());
                 call.resolve();
+            } catch (IllegalStateException e) {
+                reject(call, e.getMessage());
             } catch (SecurityException e) {
-                call.reject("Security Exception: " + e.getMessage());
+                reject(call, "Security Exception: " + e.getMessage());
             } catch (Exception e) {
-                call.reject("Wipe Failed: " + e.getMessage());
+                reject(call, "Wipe Failed: " + e.getMessage());
             }
-        } else {
-            call.reject("Device Admin not active");
-        }
+        });
     }
 
     @PluginMethod
     public void getSimInfo(PluginCall call) {
-        try {
-            android.telephony.TelephonyManager tm = (android.telephony.TelephonyManager) getContext()
-                    .getSystemService(Context.TELEPHONY_SERVICE);
-            String carrier = tm.getSimOperatorName();
-            if (carrier == null || carrier.isEmpty()) {
-                carrier = tm.getNetworkOperatorName();
-            }
-            if (carrier == null || carrier.isEmpty()) {
-                carrier = "Unknown / No SIM";
-            }
+        // Served from memory; SimStateCache tracks changes through telephony callbacks
+        call.resolve(SimStateCache.get(getContext()).current().toJSObject());
+    }
 
-            JSObject ret = new JSObject();
-            ret.put("carrier", carrier);
-            call.resolve(ret);
-        } catch (Exception e) {
-            call.reject("Failed to get SIM info: " + e.getMessage());
-        }
+    /**
+     * Hands polling over to the native HeartbeatService. JS passes the linked
+     * deviceId so the service can run even when it was linked manually.
+     */
+    @PluginMethod
+    public void startHeartbeat(PluginCall call) {
+        execute(call, () -> {
+            String deviceId = call.getString("deviceId");
+            if (deviceId != null && !deviceId.isEmpty()) {
+                ApiClient.get(getContext()).setDeviceId(deviceId);
+            }
+            HeartbeatService.start(getContext());
+            call.resolve();
+        });
     }
 
     @PluginMethod
     public void getAdminStatus(PluginCall call) {
-        Context context = getContext();
-        DevicePolicyManager dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
-        ComponentName adminComponent = new ComponentName(context, AdminReceiver.class);
-
-        JSObject ret = new JSObject();
-        ret.put("isAdminActive", dpm.isAdminActive(adminComponent));
-        ret.put("isDeviceOwner", dpm.isDeviceOwnerApp(context.getPackageName()));
-        call.resolve(ret);
+        execute(call, () -> {
+            JSObject ret = new JSObject();
+            ret.put("isAdminActive", admin.isAdminActive());
+            ret.put("isDeviceOwner", admin.isDeviceOwner());
+            call.resolve(ret);
+        });
     }
 
     @PluginMethod
     public void requestAdmin(PluginCall call) {
-        Context context = getContext();
-        ComponentName adminComponent = new ComponentName(context, AdminReceiver.class);
-        android.content.Intent intent = new android.content.Intent(DevicePolicyManager.ACTION_ADD_DEVICE_ADMIN);
-        intent.putExtra(DevicePolicyManager.EXTRA_DEVICE_ADMIN, adminComponent);
-        intent.putExtra(DevicePolicyManager.EXTRA_ADD_EXPLANATION, "Required for Nama EMI application security.");
-        intent.addFlags(android.content.Intent.FLAG_ACTIVITY_NEW_TASK);
-        context.startActivity(intent);
-        call.resolve();
+        execute(call, () -> {
+            android.content.Intent intent = new android.content.Intent(DevicePolicyManager.ACTION_ADD_DEVICE_ADMIN);
+            intent.putExtra(DevicePolicyManager.EXTRA_DEVICE_ADMIN, admin.admin());
+            intent.putExtra(DevicePolicyManager.EXTRA_ADD_EXPLANATION, "Required for Nama EMI application security.");
+            intent.addFlags(android.content.Intent.FLAG_ACTIVITY_NEW_TASK);
+            getContext().startActivity(intent);
+            call.resolve();
+        });
     }
 
     @PluginMethod
     public void removeDeviceOwner(PluginCall call) {
-        Context context = getContext();
-        DevicePolicyManager dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
-
-        try {
-            if (dpm.isDeviceOwnerApp(context.getPackageName())) {
-                dpm.clearDeviceOwnerApp(context.getPackageName());
+        execute(call, () -> {
+            try {
+                DeviceActions.releaseDeviceOwner(getContext());
                 call.resolve();
-            } else {
-                call.reject("App is not Device Owner");
+            } catch (IllegalStateException e) {
+                reject(call, e.getMessage());
+            } catch (Exception e) {
+                reject(call, "Failed to release control: " + e.getMessage());
             }
-        } catch (Exception e) {
-            call.reject("Failed to release control: " + e.getMessage());
-        }
+        });
     }
 
     @PluginMethod
     public void enforceDeviceRestrictions(PluginCall call) {
-        Context context = getContext();
-        DevicePolicyManager dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
-        ComponentName adminComponent = new ComponentName(context, AdminReceiver.class);
-
-        if (dpm.isDeviceOwnerApp(context.getPackageName())) {
-            try {
-                // Disable factory reset
-                dpm.addUserRestriction(adminComponent, android.os.UserManager.DISALLOW_FACTORY_RESET);
-                // Disable safe mode
-                dpm.addUserRestriction(adminComponent, android.os.UserManager.DISALLOW_SAFE_BOOT);
-                // Disable adding users
-                dpm.addUserRestriction(adminComponent, android.os.UserManager.DISALLOW_ADD_USER);
-                // Disable USB file transfer
-                dpm.addUserRestriction(adminComponent, android.os.UserManager.DISALLOW_USB_FILE_TRANSFER);
-                // Disable uninstalling apps
-                dpm.addUserRestriction(adminComponent, android.os.UserManager.DISALLOW_UNINSTALL_APPS);
-                // Disable modifying accounts
-                dpm.addUserRestriction(adminComponent, android.os.UserManager.DISALLOW_MODIFY_ACCOUNTS);
-                // Disable debugging
-                dpm.addUserRestriction(adminComponent, android.os.UserManager.DISALLOW_DEBUGGING_FEATURES);
-                // Disable external storage mounting
-                dpm.addUserRestriction(adminComponent, android.os.UserManager.DISALLOW_MOUNT_PHYSICAL_MEDIA);
-
-                // Set lock task packages (kiosk mode)
-                dpm.setLockTaskPackages(adminComponent, new String[] { context.getPackageName() });
-
-                JSObject ret = new JSObject();
-                ret.put("success", true);
+        execute(call, () -> {
+            if (!admin.isDeviceOwner()) {
+                reject(call, "App is not Device Owner");
+                return;
+            }
+            // Lock restrictions plus kiosk whitelisting; only items not already in force are written
+            PolicyEngine.Result result = new PolicyEngine(getContext())
+                    .apply(PolicyEngine.Policy.locked(admin.packageName()));
+            if (result.isSuccess()) {
+                JSObject ret = result.toJSObject();
                 ret.put("message", "Device restrictions enforced");
                 call.resolve(ret);
-            } catch (Exception e) {
-                call.reject("Failed to enforce restrictions: " + e.getMessage());
+            } else {
+                reject(call, "Failed to enforce restrictions: " + result.getErrorMessage());
             }
-        } else {
-            call.reject("App is not Device Owner");
-        }
+        });
     }
 
     @PluginMethod
     public void clearDeviceRestrictions(PluginCall call) {
-        Context context = getContext();
-        DevicePolicyManager dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
-        ComponentName adminComponent = new ComponentName(context, AdminReceiver.class);
-
-        if (dpm.isDeviceOwnerApp(context.getPackageName())) {
-            try {
-                dpm.clearUserRestriction(adminComponent, android.os.UserManager.DISALLOW_FACTORY_RESET);
-                dpm.clearUserRestriction(adminComponent, android.os.UserManager.DISALLOW_SAFE_BOOT);
-                dpm.clearUserRestriction(adminComponent, android.os.UserManager.DISALLOW_ADD_USER);
-                dpm.clearUserRestriction(adminComponent, android.os.UserManager.DISALLOW_USB_FILE_TRANSFER);
-                // Note: We might want to keep DISALLOW_UNINSTALL_APPS even when unlocked?
-                // For now, let's clear it to allow full user control if they paid.
-                dpm.clearUserRestriction(adminComponent, android.os.UserManager.DISALLOW_UNINSTALL_APPS);
-                dpm.clearUserRestriction(adminComponent, android.os.UserManager.DISALLOW_MODIFY_ACCOUNTS);
-                dpm.clearUserRestriction(adminComponent, android.os.UserManager.DISALLOW_DEBUGGING_FEATURES);
-                dpm.clearUserRestriction(adminComponent, android.os.UserManager.DISALLOW_MOUNT_PHYSICAL_MEDIA);
-
-                JSObject ret = new JSObject();
-                ret.put("success", true);
+        execute(call, () -> {
+            if (!admin.isDeviceOwner()) {
+                reject(call, "App is not Device Owner");
+                return;
+            }
+            if (rejectIfScheduleLocked(call)) {
+                return;
+            }
+            // Note: We might want to keep DISALLOW_UNINSTALL_APPS even when unlocked?
+            // For now, let's clear it to allow full user control if they paid.
+            PolicyEngine.Result result = new PolicyEngine(getContext()).apply(PolicyEngine.Policy.unlocked());
+            if (result.isSuccess()) {
+                JSObject ret = result.toJSObject();
                 ret.put("message", "Device restrictions cleared");
                 call.resolve(ret);
-            } catch (Exception e) {
-                call.reject("Failed to clear restrictions: " + e.getMessage());
+            } else {
+                reject(call, "Failed to clear restrictions: " + result.getErrorMessage());
             }
-        } else {
-            call.reject("App is not Device Owner");
+        });
+    }
+
+    /**
+     * Applies a full device state in one bridge call: { isLocked, featureLocks }
+     * as stored on the server. Restrictions, camera and lock task features go
+     * through PolicyEngine, then the screen is pinned or unpinned. Resolves
+     * with a per-feature result and the timing of each step.
+     */
+    @PluginMethod
+    public void applyDeviceState(PluginCall call) {
+        boolean locked = call.getBoolean("isLocked", false);
+        JSObject featureLocks = call.getObject("featureLocks", new JSObject());
+
+        execute(call, () -> {
+            if (!admin.isDeviceOwner()) {
+                reject(call, "App is not Device Owner");
+                return;
+            }
+            if (!locked && rejectIfScheduleLocked(call)) {
+                return;
+            }
+            long start = System.nanoTime();
+            PolicyEngine.Result result = new PolicyEngine(getContext())
+                    .apply(PolicyEngine.Policy.forDeviceState(admin.packageName(), locked, featureLocks));
+            // The cold-start pin follows the snapshot, so it records a lock whatever failed alongside
+            // it, but an unlock only once every restriction actually came off
+            boolean snapshot = locked || result.failed == 0;
+            DiagLog.event(DiagLog.LOCK_APPLIED, locked ? 1 : 0, result.failed);
+
+            JSObject features = new JSObject();
+            features.put("camera", featureResult(result, "camera", featureLocks.optBoolean("camera")));
+            features.put("network", featureResult(result, UserManager.DISALLOW_CONFIG_MOBILE_NETWORKS,
+                    featureLocks.optBoolean("network")));
+            features.put("wifi", featureResult(result, UserManager.DISALLOW_CONFIG_WIFI,
+                    featureLocks.optBoolean("wifi")));
+            features.put("reset", featureResult(result, UserManager.DISALLOW_FACTORY_RESET,
+                    locked || featureLocks.optBoolean("reset")));
+            features.put("powerOff", featureResult(result, "lockTaskFeatures", featureLocks.optBoolean("powerOff")));
+
+            JSObject ret = result.toJSObject();
+            ret.put("isLocked", locked);
+            ret.put("features", features);
+            ret.put("policyMs", result.totalNanos / 1_000_000.0);
+            if (getActivity() == null) {
+                if (snapshot) {
+                    LockSnapshot.write(getContext(), locked);
+                }
+                ret.put("lockTask", "no activity");
+                ret.put("totalMs", (System.nanoTime() - start) / 1_000_000.0);
+                call.resolve(ret);
+                return;
+            }
+            // Pin even if some restrictions failed: a locked device must not stay usable
+            getActivity().runOnUiThread(() -> {
+                long pinStart = System.nanoTime();
+                try {
+                    if (locked) {
+                        getActivity().startLockTask();
+                    } else {
+                        getActivity().stopLockTask();
+                    }
+                    ret.put("lockTask", locked ? "started" : "stopped");
+                    if (snapshot) {
+                        EXECUTOR.execute(() -> LockSnapshot.write(getContext(), locked));
+                    }
+                } catch (Exception e) {
+                    DiagLog.error(TAG, DiagLog.LOCK_TASK_FAILED, locked ? 1 : 0, "Failed to change lock task", e);
+                    ret.put("success", false);
+                    ret.put("lockTask", "error: " + e.getMessage());
+                }
+                if (getActivity() instanceof MainActivity) {
+                    ((MainActivity) getActivity()).dismissBootLockScreen();
+                }
+                ret.put("lockTaskMs", (System.nanoTime() - pinStart) / 1_000_000.0);
+                ret.put("totalMs", (System.nanoTime() - start) / 1_000_000.0);
+                call.resolve(ret);
+            });
+        });
+    }
+
+    /**
+     * An offline lock from the EMI schedule stands until the server has seen
+     * it; an unlock based on older server state is refused meanwhile.
+     */
+    private boolean rejectIfScheduleLocked(PluginCall call) {
+        if (EmiScheduleEnforcer.holdsLock(getContext())) {
+            reject(call, "Locked by the EMI schedule until the server confirms");
+            return true;
         }
+        return false;
+    }
+
+    private static JSObject featureResult(PolicyEngine.Result result, String stepName, boolean lockedValue) {
+        JSObject feature = new JSObject();
+        feature.put("locked", lockedValue);
+        PolicyEngine.Step step = PolicyEngine.findStep(result, stepName);
+        if (step == null) {
+            feature.put("action", "unsupported");
+            return feature;
+        }
+        feature.put("action", step.action);
+        feature.put("ok", step.error == null);
+        if (step.error != null) {
+            feature.put("error", step.error);
+        }
+        return feature;
     }
 
     @PluginMethod
     public void disableCamera(PluginCall call) {
-        DevicePolicyManager dpm = (DevicePolicyManager) getContext().getSystemService(Context.DEVICE_POLICY_SERVICE);
-        ComponentName adminComponent = new ComponentName(getContext(), AdminReceiver.class);
-
         boolean disable = call.getBoolean("disable", true);
 
-        if (dpm.isDeviceOwnerApp(getContext().getPackageName())) {
-            dpm.setCameraDisabled(adminComponent, disable);
-            JSObject ret = new JSObject();
-            ret.put("success", true);
-            ret.put("cameraDisabled", disable);
-            call.resolve(ret);
-        } else {
-            call.reject("Not Device Owner");
-        }
+        execute(call, () -> {
+            if (admin.isDeviceOwner()) {
+                admin.dpm().setCameraDisabled(admin.admin(), disable);
+                JSObject ret = new JSObject();
+                ret.put("success", true);
+                ret.put("cameraDisabled", disable);
+                call.resolve(ret);
+            } else {
+                reject(call, "Not Device Owner");
+            }
+        });
     }
 
     @PluginMethod
     public void disableScreenCapture(PluginCall call) {
-        DevicePolicyManager dpm = (DevicePolicyManager) getContext().getSystemService(Context.DEVICE_POLICY_SERVICE);
-        ComponentName adminComponent = new ComponentName(getContext(), AdminReceiver.class);
-
         boolean disable = call.getBoolean("disable", true);
 
-        if (dpm.isDeviceOwnerApp(getContext().getPackageName())) {
-            dpm.setScreenCaptureDisabled(adminComponent, disable);
-            JSObject ret = new JSObject();
-            ret.put("success", true);
-            ret.put("screenCaptureDisabled", disable);
-            call.resolve(ret);
-        } else {
-            call.reject("Not Device Owner");
-        }
+        execute(call, () -> {
+            if (admin.isDeviceOwner()) {
+                admin.dpm().setScreenCaptureDisabled(admin.admin(), disable);
+                JSObject ret = new JSObject();
+                ret.put("success", true);
+                ret.put("screenCaptureDisabled", disable);
+                call.resolve(ret);
+            } else {
+                reject(call, "Not Device Owner");
+            }
+        });
     }
 
     @PluginMethod
     public void setNetworkRestrictions(PluginCall call) {
-        DevicePolicyManager dpm = (DevicePolicyManager) getContext().getSystemService(Context.DEVICE_POLICY_SERVICE);
-        ComponentName adminComponent = new ComponentName(getContext(), AdminReceiver.class);
-
         boolean disableWifi = call.getBoolean("disableWifi", false);
         boolean disableMobileData = call.getBoolean("disableMobileData", false);
 
-        if (dpm.isDeviceOwnerApp(getContext().getPackageName())) {
-            try {
-                if (disableWifi) {
-                    dpm.addUserRestriction(adminComponent, android.os.UserManager.DISALLOW_CONFIG_WIFI);
-                } else {
-                    dpm.clearUserRestriction(adminComponent, android.os.UserManager.DISALLOW_CONFIG_WIFI);
-                }
-
-                if (disableMobileData) {
-                    dpm.addUserRestriction(adminComponent, android.os.UserManager.DISALLOW_CONFIG_MOBILE_NETWORKS);
-                } else {
-                    dpm.clearUserRestriction(adminComponent, android.os.UserManager.DISALLOW_CONFIG_MOBILE_NETWORKS);
-                }
-
-                JSObject ret = new JSObject();
-                ret.put("success", true);
+        execute(call, () -> {
+            if (!admin.isDeviceOwner()) {
+                reject(call, "Not Device Owner");
+                return;
+            }
+            PolicyEngine.Policy policy = new PolicyEngine.Policy().network(disableWifi, disableMobileData);
+            PolicyEngine.Result result = new PolicyEngine(getContext()).apply(policy);
+            if (result.isSuccess()) {
+                JSObject ret = result.toJSObject();
                 ret.put("wifiDisabled", disableWifi);
                 ret.put("mobileDataDisabled", disableMobileData);
                 call.resolve(ret);
-            } catch (Exception e) {
-                call.reject("Failed to set network restrictions: " + e.getMessage());
+            } else {
+                reject(call, "Failed to set network restrictions: " + result.getErrorMessage());
             }
-        } else {
-            call.reject("Not Device Owner");
-        }
+        });
     }
 
     @PluginMethod
     public void lockDevice(PluginCall call) {
-        DevicePolicyManager dpm = (DevicePolicyManager) getContext().getSystemService(Context.DEVICE_POLICY_SERVICE);
-        ComponentName adminComponent = new ComponentName(getContext(), AdminReceiver.class);
-
-        if (dpm.isAdminActive(adminComponent)) {
-            dpm.lockNow();
-            JSObject ret = new JSObject();
-            ret.put("success", true);
-            ret.put("message", "Device locked");
-            call.resolve(ret);
-        } else {
-            call.reject("Device Admin not active");
-        }
+        execute(call, () -> {
+            if (admin.isAdminActive()) {
+                admin.dpm().lockNow();
+                JSObject ret = new JSObject();
+                ret.put("success", true);
+                ret.put("message", "Device locked");
+                call.resolve(ret);
+            } else {
+                reject(call, "Device Admin not active");
+            }
+        });
     }
 
     @PluginMethod
     public void startLockTaskMode(PluginCall call) {
-        // Must be called from the Activity context to pin the screen
+        // Must be called from the Activity context to pin the screen, on its UI thread
         if (getActivity() != null) {
-            getActivity().startLockTask();
-            call.resolve();
+            getActivity().runOnUiThread(() -> {
+                try {
+                    getActivity().startLockTask();
+                    // Only once pinned; the file write goes to the worker, off the UI thread
+                    EXECUTOR.execute(() -> LockSnapshot.write(getContext(), true));
+                    call.resolve();
+                } catch (Exception e) {
+                    reject(call, "Failed to start lock task: " + e.getMessage());
+                }
+            });
         } else {
-            call.reject("Activity not found");
+            reject(call, "Activity not found");
         }
     }
 
     @PluginMethod
     public void stopLockTaskMode(PluginCall call) {
+        if (rejectIfScheduleLocked(call)) {
+            return;
+        }
         if (getActivity() != null) {
-            getActivity().stopLockTask();
-            call.resolve();
+            getActivity().runOnUiThread(() -> {
+                try {
+                    getActivity().stopLockTask();
+                    if (getActivity() instanceof MainActivity) {
+                        ((MainActivity) getActivity()).dismissBootLockScreen();
+                    }
+                    EXECUTOR.execute(() -> LockSnapshot.write(getContext(), false));
+                    call.resolve();
+                } catch (Exception e) {
+                    reject(call, "Failed to stop lock task: " + e.getMessage());
+                }
+            });
         } else {
-            call.reject("Activity not found");
+            reject(call, "Activity not found");
         }
     }
 
+    /** Called by JS once its own lock UI is on screen; drops the native placeholder shown at cold start. */
     @PluginMethod
-    public void checkTamperAttempts(PluginCall call) {
-        Context context = getContext();
-        DevicePolicyManager dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
-        ComponentName adminComponent = new ComponentName(context, AdminReceiver.class);
-
-        JSObject result = new JSObject();
-
-        // Check if still Device Owner
-        boolean isDeviceOwner = dpm.isDeviceOwnerApp(context.getPackageName());
-        result.put("isDeviceOwner", isDeviceOwner);
-
-        // Check if admin is active
-        boolean isAdminActive = dpm.isAdminActive(adminComponent);
-        result.put("isAdminActive", isAdminActive);
-
-        // Check if developer options enabled
-        try {
-            boolean devOptionsEnabled = android.provider.Settings.Global.getInt(
-                    context.getContentResolver(),
-                    android.provider.Settings.Global.DEVELOPMENT_SETTINGS_ENABLED, 0) != 0;
-            result.put("developerOptionsEnabled", devOptionsEnabled);
-        } catch (Exception e) {
-            result.put("developerOptionsEnabled", false);
+    public void dismissBootLockScreen(PluginCall call) {
+        if (getActivity() instanceof MainActivity) {
+            ((MainActivity) getActivity()).dismissBootLockScreen();
         }
+        call.resolve();
+    }
 
-        // Check if ADB enabled
-        try {
-            boolean adbEnabled = android.provider.Settings.Global.getInt(
-                    context.getContentResolver(),
-                    android.provider.Settings.Global.ADB_ENABLED, 0) != 0;
-            result.put("adbEnabled", adbEnabled);
-        } catch (Exception e) {
-            result.put("adbEnabled", false);
-        }
+    /** Latency histograms and counters recorded by the native side since the process started. */
+    @PluginMethod
+    public void getMetrics(PluginCall call) {
+        call.resolve(Metrics.toJSObject());
+    }
 
-        // Overall tamper status
-        boolean tampered = !isDeviceOwner || !isAdminActive;
-        result.put("tampered", tampered);
+    /**
+     * The diagnostic trace for support, pulled on demand: gzipped text with a
+     * JSON header line (device, admin state, metrics) and then one DiagLog
+     * event per line, oldest first. Resolves { bundle: base64, bytes }.
+     */
+    @PluginMethod
+    public void getDiagnosticBundle(PluginCall call) {
+        execute(call, () -> {
+            JSONObject header = new JSONObject();
+            header.put("generatedAt", System.currentTimeMillis());
+            header.put("manufacturer", Build.MANUFACTURER);
+            header.put("model", Build.MODEL);
+            header.put("sdk", Build.VERSION.SDK_INT);
+            header.put("isDeviceOwner", admin.isDeviceOwner());
+            header.put("isAdminActive", admin.isAdminActive());
+            header.put("lockSnapshot", LockSnapshot.isLocked(getContext()));
+            header.put("metrics", Metrics.toJSObject());
+            byte[] bundle = DiagLog.bundle(header);
+            JSObject ret = new JSObject();
+            ret.put("bundle", Base64.encodeToString(bundle, Base64.NO_WRAP));
+            ret.put("bytes", bundle.length);
+            call.resolve(ret);
+        });
+    }
 
-        call.resolve(result);
+    @PluginMethod
+    public void checkTamperAttempts(PluginCall call) {
+        // Kept current by TamperMonitor's observers; changes are also pushed as tamperStateChanged
+        call.resolve(TamperMonitor.get(getContext()).current().toJSObject());
     }
 }
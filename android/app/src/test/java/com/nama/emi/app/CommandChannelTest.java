@@ -0,0 +1,202 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Runs CommandChannel against an in-process HTTP server speaking the same
+ * protocol as server/routes/deviceRoutes.js.
+ */
+public class CommandChannelTest {
+
+    private HttpServer server;
+    private String baseUrl;
+    private CommandChannel channel;
+    private final BlockingQueue<JSONObject> states = new LinkedBlockingQueue<>();
+
+    @Before
+    public void setUp() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.start();
+        baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    @After
+    public void tearDown() {
+        if (channel != null) {
+            channel.stop();
+        }
+        server.stop(0);
+    }
+
+    @Test
+    public void deliversStreamedStatesInOrder() throws Exception {
+        server.createContext("/api/devices/DEV-1/commands/stream", exchange -> {
+            stream(exchange, event(1, "{\"stateVersion\":1,\"isLocked\":true}")
+                    + ": ping\n\n"
+                    + event(2, "{\"stateVersion\":2,\"isLocked\":false}"));
+        });
+
+        channel = new CommandChannel(baseUrl, "DEV-1", 0, states::add);
+        channel.start();
+
+        JSONObject first = states.poll(5, TimeUnit.SECONDS);
+        JSONObject second = states.poll(5, TimeUnit.SECONDS);
+        assertNotNull(first);
+        assertNotNull(second);
+        assertEquals(1, first.optLong("stateVersion"));
+        assertTrue(first.optBoolean("isLocked"));
+        assertEquals(2, second.optLong("stateVersion"));
+        assertFalse(second.optBoolean("isLocked"));
+    }
+
+    @Test
+    public void resumesFromLastEventIdAndDropsReplayedStates() throws Exception {
+        List<String> cursors = new CopyOnWriteArrayList<>();
+        AtomicInteger connections = new AtomicInteger();
+        server.createContext("/api/devices/DEV-1/commands/stream", exchange -> {
+            String cursor = exchange.getRequestHeaders().getFirst("Last-Event-ID");
+            cursors.add(cursor == null ? "" : cursor);
+            if (connections.incrementAndGet() == 1) {
+                stream(exchange, event(3, "{\"stateVersion\":3,\"wipeRequested\":false}"));
+            } else {
+                // Replays v3 (must be ignored) before the new state
+                stream(exchange, event(3, "{\"stateVersion\":3}") + event(4, "{\"stateVersion\":4}"));
+            }
+        });
+
+        channel = new CommandChannel(baseUrl, "DEV-1", 0, states::add);
+        channel.start();
+
+        assertEquals(3, states.poll(5, TimeUnit.SECONDS).optLong("stateVersion"));
+        assertEquals(4, states.poll(5, TimeUnit.SECONDS).optLong("stateVersion"));
+        assertEquals("", cursors.get(0));
+        assertEquals("3", cursors.get(1));
+    }
+
+    @Test
+    public void fallsBackToLongPollWhenStreamIsMissing() throws Exception {
+        List<String> queries = new CopyOnWriteArrayList<>();
+        server.createContext("/api/devices/DEV-1/commands/stream", exchange -> {
+            exchange.sendResponseHeaders(404, -1);
+            exchange.close();
+        });
+        server.createContext("/api/devices/DEV-1/commands", exchange -> {
+            queries.add(exchange.getRequestURI().getQuery());
+            if (queries.size() == 1) {
+                json(exchange, "{\"stateVersion\":7,\"isLocked\":true}");
+            } else {
+                exchange.sendResponseHeaders(204, -1);
+                exchange.close();
+            }
+        });
+
+        channel = new CommandChannel(baseUrl, "DEV-1", 0, states::add);
+        channel.start();
+
+        JSONObject state = states.poll(5, TimeUnit.SECONDS);
+        assertNotNull(state);
+        assertEquals(7, state.optLong("stateVersion"));
+
+        // The next poll carries the cursor forward
+        long deadline = System.currentTimeMillis() + 5000;
+        while (queries.size() < 2 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(queries.get(0).startsWith("since=0"));
+        assertTrue(queries.get(1).startsWith("since=7"));
+    }
+
+    @Test
+    public void retriesTheStreamAfterLongPolling() throws Exception {
+        AtomicInteger streams = new AtomicInteger();
+        AtomicInteger polls = new AtomicInteger();
+        server.createContext("/api/devices/DEV-1/commands/stream", exchange -> {
+            if (streams.incrementAndGet() == 1) {
+                exchange.sendResponseHeaders(404, -1);
+                exchange.close();
+            } else {
+                stream(exchange, event(5, "{\"stateVersion\":5}"));
+            }
+        });
+        server.createContext("/api/devices/DEV-1/commands", exchange -> {
+            polls.incrementAndGet();
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+
+        channel = new CommandChannel(baseUrl, "DEV-1", 0, states::add);
+        channel.streamRetryPolls = 3;
+        channel.start();
+
+        JSONObject state = states.poll(5, TimeUnit.SECONDS);
+        assertNotNull(state);
+        assertEquals(5, state.optLong("stateVersion"));
+        assertEquals(3, polls.get());
+        assertEquals(2, streams.get());
+    }
+
+    @Test
+    public void backoffIsJitteredWithinCappedWindow() {
+        Random random = new Random(42);
+        for (int attempt = 0; attempt < 30; attempt++) {
+            long window = Math.min(CommandChannel.BACKOFF_MAX_MS, CommandChannel.BACKOFF_BASE_MS << Math.min(attempt, 16));
+            long delay = CommandChannel.backoffDelay(attempt, random);
+            assertTrue(delay >= window / 2);
+            assertTrue(delay <= window);
+        }
+    }
+
+    @Test
+    public void parserJoinsMultilineDataAndSkipsComments() {
+        SseParser parser = new SseParser();
+        assertNull(parser.feed(": ping"));
+        assertNull(parser.feed("id: 9"));
+        assertNull(parser.feed("event: state"));
+        assertNull(parser.feed("data: {\"a\":"));
+        assertNull(parser.feed("data: 1}"));
+        SseParser.Event event = parser.feed("");
+        assertEquals("9", event.id);
+        assertEquals("state", event.name);
+        assertEquals("{\"a\":\n1}", event.data);
+        assertNull(parser.feed(""));
+    }
+
+    private static String event(long version, String data) {
+        return "id: " + version + "\nevent: state\ndata: " + data + "\n\n";
+    }
+
+    private static void stream(HttpExchange exchange, String body) throws IOException {
+        exchange.getResponseHeaders().add("Content-Type", "text/event-stream");
+        exchange.sendResponseHeaders(200, 0);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(body.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static void json(HttpExchange exchange, String body) throws IOException {
+        byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().add("Content-Type", "application/json");
+        exchange.sendResponseHeaders(200, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+}
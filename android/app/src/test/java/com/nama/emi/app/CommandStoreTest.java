@@ -0,0 +1,237 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CommandStoreTest {
+
+    private File file;
+    private CommandStore store;
+
+    /** Records what ran and what was acknowledged; runs can be held and acks refused. */
+    private static class FakeDevice implements CommandStore.Runner, CommandStore.AckSender {
+        final BlockingQueue<String> runs = new LinkedBlockingQueue<>();
+        final BlockingQueue<JSONObject> acks = new LinkedBlockingQueue<>();
+        final BlockingQueue<Integer> refusedBatches = new LinkedBlockingQueue<>();
+        volatile CountDownLatch hold;
+        volatile boolean refuseAcks;
+
+        @Override
+        public String run(CommandStore.Command command) {
+            runs.add(command.type + "#" + command.id);
+            CountDownLatch latch = hold;
+            if (latch != null) {
+                try {
+                    latch.await();
+                } catch (InterruptedException e) {
+                    // The process died mid-command: nothing after this point happens
+                    throw new IllegalStateException("killed", e);
+                }
+            }
+            return CommandStore.RESULT_OK;
+        }
+
+        @Override
+        public boolean send(String forDevice, JSONArray batch) {
+            if (refuseAcks) {
+                refusedBatches.add(batch.length());
+                return false;
+            }
+            for (int i = 0; i < batch.length(); i++) {
+                acks.add(batch.optJSONObject(i));
+            }
+            return true;
+        }
+
+        /** Results by command id, waiting until count acks have arrived. */
+        Map<Long, String> awaitAcks(int count) throws InterruptedException {
+            Map<Long, String> results = new HashMap<>();
+            while (results.size() < count) {
+                JSONObject ack = acks.poll(5, TimeUnit.SECONDS);
+                assertNotNull("missing acks, have " + results, ack);
+                results.put(ack.optLong("id"), ack.optString("result"));
+            }
+            return results;
+        }
+    }
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("commands", ".log");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        if (store != null) {
+            store.close();
+        }
+        file.delete();
+    }
+
+    private String log() throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /** The store logs a result just after the fact (a run, an ack taken); waits for that line to start. */
+    private void awaitLogged(String prefix) throws Exception {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!("\n" + log()).contains("\n" + prefix)) {
+            assertTrue("never logged " + prefix, System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void doneCommandsAreNotRunAgainAfterRestart() throws Exception {
+        FakeDevice device = new FakeDevice();
+        store = new CommandStore(file, device, device);
+        assertTrue(store.submit("DEV-1", 3, CommandStore.RELEASE, null));
+        assertEquals("release#3", device.runs.poll(5, TimeUnit.SECONDS));
+        assertEquals(CommandStore.RESULT_OK, device.awaitAcks(1).get(3L));
+        awaitLogged("A 3\n");
+        store.close();
+
+        FakeDevice restarted = new FakeDevice();
+        store = new CommandStore(file, restarted, restarted);
+        assertEquals(3, store.lastCommandId());
+        assertFalse(store.submit("DEV-1", 3, CommandStore.RELEASE, null));
+        store.resume();
+        assertNull(restarted.runs.poll(300, TimeUnit.MILLISECONDS));
+        assertTrue(restarted.acks.isEmpty());
+    }
+
+    @Test
+    public void wipeInterruptedByTheResetStaysPending() throws Exception {
+        FakeDevice device = new FakeDevice();
+        device.hold = new CountDownLatch(1);
+        store = new CommandStore(file, device, device);
+        store.submit("DEV-1", 7, CommandStore.WIPE, null);
+
+        Map<Long, String> announced = device.awaitAcks(1);
+        assertEquals(CommandStore.RESULT_WIPING, announced.get(7L));
+        assertEquals("wipe#7", device.runs.poll(5, TimeUnit.SECONDS));
+        // The device resets inside DeviceActions.wipe
+        store.close();
+        assertFalse(log().contains("D 7 "));
+
+        FakeDevice restarted = new FakeDevice();
+        store = new CommandStore(file, restarted, restarted);
+        store.resume();
+        assertEquals("wipe#7", restarted.runs.poll(5, TimeUnit.SECONDS));
+        Map<Long, String> results = new HashMap<>();
+        while (!CommandStore.RESULT_OK.equals(results.get(7L))) {
+            results.putAll(restarted.awaitAcks(1));
+        }
+    }
+
+    @Test
+    public void lockChangesOvertakenOrRepeatingTheStateDoNotRun() throws Exception {
+        FakeDevice device = new FakeDevice();
+        device.hold = new CountDownLatch(1);
+        store = new CommandStore(file, device, device);
+        store.submit("DEV-1", 1, CommandStore.LOCK, null);
+        assertEquals("lock#1", device.runs.poll(5, TimeUnit.SECONDS));
+        store.submit("DEV-1", 2, CommandStore.UNLOCK, null);
+        store.submit("DEV-1", 3, CommandStore.LOCK, null);
+        device.hold.countDown();
+
+        Map<Long, String> results = device.awaitAcks(3);
+        assertEquals(CommandStore.RESULT_OK, results.get(1L));
+        assertEquals(CommandStore.RESULT_SUPERSEDED, results.get(2L));
+        assertEquals(CommandStore.RESULT_UNCHANGED, results.get(3L));
+        assertNull(device.runs.poll(100, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void differentFeatureLocksAreNotUnchanged() throws Exception {
+        FakeDevice device = new FakeDevice();
+        store = new CommandStore(file, device, device);
+        store.submit("DEV-1", 1, CommandStore.LOCK, new JSONObject().put("camera", false));
+        assertEquals("lock#1", device.runs.poll(5, TimeUnit.SECONDS));
+        store.submit("DEV-1", 2, CommandStore.LOCK, new JSONObject().put("camera", true));
+        assertEquals("lock#2", device.runs.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void serverUnlockAfterAnOfflineLockRuns() throws Exception {
+        FakeDevice device = new FakeDevice();
+        store = new CommandStore(file, device, device);
+        store.submit("DEV-1", 1, CommandStore.UNLOCK, null);
+        assertEquals("unlock#1", device.runs.poll(5, TimeUnit.SECONDS));
+        awaitLogged("D 1 ");
+
+        // EMI overdue while offline; the server never saw a LOCK in between
+        store.recordLocalLock(new JSONObject().put("camera", true), true);
+        store.submit("DEV-1", 2, CommandStore.UNLOCK, null);
+        assertEquals("unlock#2", device.runs.poll(5, TimeUnit.SECONDS));
+        assertEquals(CommandStore.RESULT_OK, device.awaitAcks(2).get(2L));
+    }
+
+    @Test
+    public void offlineLockSurvivesRestartAndCompaction() throws Exception {
+        FakeDevice device = new FakeDevice();
+        store = new CommandStore(file, device, device);
+        store.submit("DEV-1", 1, CommandStore.UNLOCK, null);
+        assertEquals("unlock#1", device.runs.poll(5, TimeUnit.SECONDS));
+        awaitLogged("D 1 ");
+        store.recordLocalLock(new JSONObject().put("camera", true), true);
+        store.close();
+
+        FakeDevice restarted = new FakeDevice();
+        store = new CommandStore(file, restarted, restarted);
+        // A relink rewrites the log from memory, as compaction does
+        store.submit("DEV-2", 1, CommandStore.LOCK, new JSONObject().put("camera", true));
+        Map<Long, String> results = restarted.awaitAcks(1);
+        assertEquals(CommandStore.RESULT_UNCHANGED, results.get(1L));
+        store.close();
+
+        FakeDevice again = new FakeDevice();
+        store = new CommandStore(file, again, again);
+        store.submit("DEV-2", 2, CommandStore.UNLOCK, null);
+        assertEquals("unlock#2", again.runs.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void partlyFailedOfflineLockLeavesTheStateUnknown() throws Exception {
+        FakeDevice device = new FakeDevice();
+        store = new CommandStore(file, device, device);
+        store.submit("DEV-1", 1, CommandStore.LOCK, null);
+        assertEquals("lock#1", device.runs.poll(5, TimeUnit.SECONDS));
+        awaitLogged("D 1 ");
+        store.recordLocalLock(new JSONObject().put("camera", true), false);
+        store.submit("DEV-1", 2, CommandStore.LOCK, null);
+        assertEquals("lock#2", device.runs.poll(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void refusedAcksAreRetried() throws Exception {
+        FakeDevice device = new FakeDevice();
+        device.refuseAcks = true;
+        store = new CommandStore(file, device, device);
+        store.submit("DEV-1", 4, CommandStore.RELEASE, null);
+        assertEquals(Integer.valueOf(1), device.refusedBatches.poll(5, TimeUnit.SECONDS));
+        store.close();
+
+        // Still unacknowledged after a restart
+        FakeDevice restarted = new FakeDevice();
+        store = new CommandStore(file, restarted, restarted);
+        store.resume();
+        assertEquals(CommandStore.RESULT_OK, restarted.awaitAcks(1).get(4L));
+        assertNull(restarted.runs.poll(100, TimeUnit.MILLISECONDS));
+    }
+}
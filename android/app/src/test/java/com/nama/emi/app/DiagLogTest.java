@@ -0,0 +1,101 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class DiagLogTest {
+
+    private File dir;
+
+    @Before
+    public void setUp() throws Exception {
+        dir = File.createTempFile("diag", "");
+        dir.delete();
+    }
+
+    @After
+    public void tearDown() {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    @Test
+    public void eventsRoundTripAsText() throws Exception {
+        DiagLog log = new DiagLog(16, DiagLog.MAX_FILE_BYTES);
+        log.record(DiagLog.PROVISIONING_FAILED, DiagLog.STEP_PROFILE_NAME, 0, "Error setting profile name: boom");
+        log.record(DiagLog.LOCK_APPLIED, 1, -2, null);
+        assertEquals(2, log.flushTo(dir));
+        assertEquals(0, log.flushTo(dir));
+
+        StringBuilder text = new StringBuilder();
+        assertEquals(3, DiagLog.decode(new File(dir, DiagLog.CURRENT_FILE), text));
+        String[] lines = text.toString().split("\n");
+        assertTrue(lines[0].endsWith("flush firstSeq=0 dropped=0"));
+        assertTrue(lines[1].endsWith("provisioningFailed step=3 Error setting profile name: boom"));
+        assertTrue(lines[2].endsWith("lockApplied locked=1 failedItems=-2"));
+        assertTrue(lines[1].matches("\\d{4}-\\d\\d-\\d\\dT\\d\\d:\\d\\d:\\d\\d\\.\\d{3}Z .*"));
+    }
+
+    @Test
+    public void overwrittenEventsAreCountedAsDropped() throws Exception {
+        DiagLog log = new DiagLog(8, DiagLog.MAX_FILE_BYTES);
+        for (int i = 0; i < 20; i++) {
+            log.record(DiagLog.POLICY_APPLIED, i, 0, null);
+        }
+        assertEquals(8, log.flushTo(dir));
+
+        StringBuilder text = new StringBuilder();
+        DiagLog.decode(new File(dir, DiagLog.CURRENT_FILE), text);
+        String[] lines = text.toString().split("\n");
+        assertTrue(lines[0].endsWith("flush firstSeq=12 dropped=12"));
+        assertTrue(lines[1].endsWith("policyApplied changed=12 failed=0"));
+        assertTrue(lines[8].endsWith("policyApplied changed=19 failed=0"));
+    }
+
+    @Test
+    public void rotatesToThePreviousFile() throws Exception {
+        DiagLog log = new DiagLog(64, 200);
+        for (int block = 0; block < 3; block++) {
+            for (int i = 0; i < 10; i++) {
+                log.record(DiagLog.PLUGIN_FAILED, 0, 0, "applyDeviceState: App is not Device Owner");
+            }
+            log.flushTo(dir);
+        }
+        File current = new File(dir, DiagLog.CURRENT_FILE);
+        File previous = new File(dir, DiagLog.PREVIOUS_FILE);
+        assertTrue(previous.exists());
+        assertTrue(current.length() <= 4 + 11 * 50);
+
+        StringBuilder text = new StringBuilder();
+        assertEquals(11, DiagLog.decode(previous, text));
+        assertTrue(text.toString().contains("flush firstSeq=10 dropped=0"));
+        text.setLength(0);
+        assertEquals(11, DiagLog.decode(current, text));
+        assertTrue(text.toString().contains("flush firstSeq=20 dropped=0"));
+    }
+
+    @Test
+    public void tornTailIsIgnored() throws Exception {
+        DiagLog log = new DiagLog(16, DiagLog.MAX_FILE_BYTES);
+        log.record(DiagLog.PIPELINE_DONE, 1500, 0, null);
+        log.record(DiagLog.PLUGIN_FAILED, 0, 0, "wipe: Device Admin not active");
+        log.flushTo(dir);
+        File current = new File(dir, DiagLog.CURRENT_FILE);
+        try (java.io.RandomAccessFile file = new java.io.RandomAccessFile(current, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+
+        StringBuilder text = new StringBuilder();
+        assertEquals(2, DiagLog.decode(current, text));
+        assertTrue(text.toString().endsWith("pipelineDone ms=1500 failed=0\n"));
+    }
+}
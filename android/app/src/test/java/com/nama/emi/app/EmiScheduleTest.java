@@ -0,0 +1,91 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.spec.ECGenParameterSpec;
+import java.util.Base64;
+import org.junit.Test;
+
+public class EmiScheduleTest {
+
+    // Signed by server/emiSchedule.js: encode("dev-1", 1700000000000, [1700100000000, 1702700000000])
+    private static final String NODE_PUBLIC_KEY =
+            "MFkwEwYHKoZIzj0CAQYIKoZIzj0DAQcDQgAEN9A1Ns4QMObGK7LqL5VcLp/5SRJotr0WFIckYbI19Sz9LEdq//xsT3yVs63MfA29yGX4VoCl/3VlRfBPIAyk4A==";
+    private static final String NODE_PAYLOAD = "TkVNUwEABWRldi0xAAABi8/laAAAAgAAAYvV20kAAAABjHDUIwA=";
+    private static final String NODE_SIGNATURE =
+            "MEUCIGQ4dIYpUU14TPfEJ2y2OjFp6crth6SHOnfDz/Sw2k3FAiEAvbYM1xJmdi633+YQ83KilEEO3UGxZHJAK60JmNPjzq0=";
+
+    @Test
+    public void opensScheduleSignedByServer() {
+        PublicKey key = EmiSchedule.parsePublicKey(Base64.getDecoder().decode(NODE_PUBLIC_KEY));
+        byte[] payload = Base64.getDecoder().decode(NODE_PAYLOAD);
+        byte[] signature = Base64.getDecoder().decode(NODE_SIGNATURE);
+
+        EmiSchedule schedule = EmiSchedule.open(payload, signature, key, "dev-1");
+
+        assertNotNull(schedule);
+        assertEquals(1700000000000L, schedule.issuedAt);
+        assertArrayEquals(new long[] { 1700100000000L, 1702700000000L }, schedule.lockTimes);
+    }
+
+    @Test
+    public void rejectsOtherDeviceAndTamperedPayload() {
+        PublicKey key = EmiSchedule.parsePublicKey(Base64.getDecoder().decode(NODE_PUBLIC_KEY));
+        byte[] payload = Base64.getDecoder().decode(NODE_PAYLOAD);
+        byte[] signature = Base64.getDecoder().decode(NODE_SIGNATURE);
+
+        assertNull(EmiSchedule.open(payload, signature, key, "dev-2"));
+        payload[payload.length - 1] ^= 1;
+        assertNull(EmiSchedule.open(payload, signature, key, "dev-1"));
+        assertNull(EmiSchedule.open(payload, signature, null, "dev-1"));
+    }
+
+    @Test
+    public void rejectsSignatureFromAnotherKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(new ECGenParameterSpec("secp256r1"));
+        KeyPair other = generator.generateKeyPair();
+        byte[] payload = Base64.getDecoder().decode(NODE_PAYLOAD);
+        Signature signer = Signature.getInstance("SHA256withECDSA");
+        signer.initSign(other.getPrivate());
+        signer.update(payload);
+        byte[] signature = signer.sign();
+
+        PublicKey serverKey = EmiSchedule.parsePublicKey(Base64.getDecoder().decode(NODE_PUBLIC_KEY));
+        assertNull(EmiSchedule.open(payload, signature, serverKey, "dev-1"));
+        assertNotNull(EmiSchedule.open(payload, signature, other.getPublic(), "dev-1"));
+    }
+
+    @Test
+    public void decodeRejectsUnknownMagicAndNewerFormat() {
+        byte[] payload = Base64.getDecoder().decode(NODE_PAYLOAD);
+        payload[4] = (byte) (EmiSchedule.FORMAT_VERSION + 1);
+        assertNull(EmiSchedule.decode(ByteBuffer.wrap(payload)));
+        payload[0] = 0;
+        assertNull(EmiSchedule.decode(ByteBuffer.wrap(payload)));
+    }
+
+    @Test
+    public void dueLockTimeIsLatestUnhandledInPast() {
+        EmiSchedule schedule = new EmiSchedule("dev-1", 0, new long[] { 100, 200, 300 });
+
+        assertEquals(0, schedule.dueLockTime(99, 0));
+        assertEquals(200, schedule.dueLockTime(250, 0));
+        assertEquals(0, schedule.dueLockTime(250, 200));
+        assertEquals(300, schedule.dueLockTime(300, 200));
+    }
+
+    @Test
+    public void nextLockTimeIsEarliestAfter() {
+        EmiSchedule schedule = new EmiSchedule("dev-1", 0, new long[] { 300, 100, 200 });
+
+        assertEquals(100, schedule.nextLockTime(0));
+        assertEquals(200, schedule.nextLockTime(100));
+        assertEquals(0, schedule.nextLockTime(300));
+    }
+}
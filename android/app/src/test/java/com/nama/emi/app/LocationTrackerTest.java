@@ -0,0 +1,56 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import org.json.JSONArray;
+import org.junit.Test;
+
+public class LocationTrackerTest {
+
+    @Test
+    public void smallMovementIsDroppedUntilKeepalive() {
+        LocationBuffer.Point last = new LocationBuffer.Point(1000, 12.971600, 77.594600, 20);
+        // ~11 m north
+        LocationBuffer.Point near = new LocationBuffer.Point(61000, 12.971700, 77.594600, 20);
+        LocationBuffer.Point nearLater = new LocationBuffer.Point(1000 + LocationTracker.KEEPALIVE_MS, 12.971700,
+                77.594600, 20);
+        // ~111 m north
+        LocationBuffer.Point far = new LocationBuffer.Point(61000, 12.972600, 77.594600, 20);
+
+        assertTrue(LocationTracker.shouldKeep(null, near));
+        assertFalse(LocationTracker.shouldKeep(last, near));
+        assertTrue(LocationTracker.shouldKeep(last, nearLater));
+        assertTrue(LocationTracker.shouldKeep(last, far));
+        assertFalse(LocationTracker.shouldKeep(far, last));
+    }
+
+    @Test
+    public void distanceMatchesKnownValue() {
+        // One degree of latitude is ~111.2 km
+        assertEquals(111195, LocationTracker.distanceMeters(0, 0, 1, 0), 50);
+    }
+
+    @Test
+    public void bufferedPointsRoundTripAndEncode() throws Exception {
+        File file = File.createTempFile("location", ".ring");
+        file.delete();
+        try {
+            LocationBuffer buffer = new LocationBuffer(file, 4);
+            buffer.append(new LocationBuffer.Point(1000, 12.9716001234, 77.5946, 15.6f));
+            buffer.append(new LocationBuffer.Point(2000, 12.98, 77.6, -1));
+            buffer.ack(1);
+            buffer.close();
+
+            LocationBuffer reopened = new LocationBuffer(file, 4);
+            assertEquals(1, reopened.unackedCount());
+            JSONArray encoded = LocationTracker.encode(Arrays.asList(reopened.read(1), reopened.read(2)));
+            assertEquals("[1,1000,12.9716,77.5946,16]", encoded.getJSONArray(0).toString());
+            assertEquals(2, encoded.getJSONArray(1).getLong(0));
+            reopened.close();
+        } finally {
+            file.delete();
+        }
+    }
+}
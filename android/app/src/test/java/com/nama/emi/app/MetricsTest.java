@@ -0,0 +1,60 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class MetricsTest {
+
+    @Test
+    public void bucketsAreContiguousAndCoverTheirBounds() {
+        for (int i = 0; i < Metrics.Histogram.BUCKETS - 1; i++) {
+            long lower = Metrics.Histogram.lowerBound(i);
+            long upper = Metrics.Histogram.lowerBound(i + 1) - 1;
+            assertEquals(i, Metrics.Histogram.bucketIndex(lower));
+            assertEquals(i, Metrics.Histogram.bucketIndex(upper));
+        }
+    }
+
+    @Test
+    public void hugeValuesLandInTheLastBucket() {
+        assertEquals(Metrics.Histogram.BUCKETS - 1, Metrics.Histogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        Metrics.Histogram histogram = new Metrics.Histogram();
+        for (int i = 1; i <= 1000; i++) {
+            histogram.recordMicros(i * 100L);
+        }
+
+        assertEquals(1000, histogram.count());
+        assertEquals(50000, histogram.percentile(50), 50000 / Metrics.Histogram.SUB_BUCKETS);
+        assertEquals(99000, histogram.percentile(99), 99000 / Metrics.Histogram.SUB_BUCKETS);
+        assertEquals(100000, histogram.percentile(100));
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        assertEquals(0, new Metrics.Histogram().percentile(99));
+    }
+
+    @Test
+    public void onlyChangedMetricsAreReportedAgain() throws Exception {
+        Metrics.histogram("metricsTest", "a").recordMicros(10);
+        Metrics.counter("metricsTest", "b").increment();
+
+        JSONObject first = Metrics.compactChanges();
+        assertNotNull(first);
+        assertEquals(1, first.getJSONArray("metricsTest/a").getLong(0));
+        assertEquals(1, first.getLong("metricsTest/b"));
+        Metrics.markReported(first);
+
+        Metrics.counter("metricsTest", "b").increment();
+        JSONObject second = Metrics.compactChanges();
+        assertNotNull(second);
+        assertFalse(second.has("metricsTest/a"));
+        assertEquals(2, second.getLong("metricsTest/b"));
+    }
+}
@@ -0,0 +1,161 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Small JMH-style harness for the JVM benchmarks: warm-up, timed iterations,
+ * latency percentiles and bytes allocated per operation on the benchmark
+ * thread (other threads allocate on their own schedule and would only add
+ * noise).
+ *
+ * Budgets live in perf-budgets.properties as "name.p50Us" and "name.bytes".
+ * They are enforced only under -Dperf.enforce=true, which the perfTest Gradle
+ * task sets; the regular unit test run just reports what went over.
+ * -Pperf.budgetScale=N loosens every budget for slow CI machines. Each suite
+ * writes its results to build/reports/perf/&lt;suite&gt;.csv.
+ */
+final class PerfHarness {
+    static final int WARMUP = 20;
+    static final int ITERATIONS = 100;
+
+    interface Op {
+        void run() throws Exception;
+    }
+
+    static final class Measurement {
+        final String name;
+        final long p50Nanos;
+        final long p99Nanos;
+        final long meanNanos;
+        final long bytesPerOp;
+
+        Measurement(String name, long p50Nanos, long p99Nanos, long meanNanos, long bytesPerOp) {
+            this.name = name;
+            this.p50Nanos = p50Nanos;
+            this.p99Nanos = p99Nanos;
+            this.meanNanos = meanNanos;
+            this.bytesPerOp = bytesPerOp;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%-48s p50 %8.1f us  p99 %8.1f us  mean %8.1f us  %8d B/op",
+                    name, p50Nanos / 1000.0, p99Nanos / 1000.0, meanNanos / 1000.0, bytesPerOp);
+        }
+    }
+
+    private final String suite;
+    private final Properties budgets = new Properties();
+    private final double scale;
+    private final boolean enforce;
+    private final List<Measurement> results = new ArrayList<>();
+    private final List<String> overBudget = new ArrayList<>();
+
+    PerfHarness(String suite) {
+        this.suite = suite;
+        this.scale = Double.parseDouble(System.getProperty("perf.budgetScale", "1"));
+        this.enforce = Boolean.getBoolean("perf.enforce");
+        try (InputStream in = PerfHarness.class.getClassLoader().getResourceAsStream("perf-budgets.properties")) {
+            if (in != null) {
+                budgets.load(in);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Could not read perf-budgets.properties", e);
+        }
+    }
+
+    /** Measures op; beforeEach runs untimed before every iteration and may be null. */
+    Measurement measure(String name, Op beforeEach, Op op) throws Exception {
+        for (int i = 0; i < WARMUP; i++) {
+            if (beforeEach != null) {
+                beforeEach.run();
+            }
+            op.run();
+        }
+
+        long[] samples = new long[ITERATIONS];
+        long allocated = 0;
+        for (int i = 0; i < ITERATIONS; i++) {
+            if (beforeEach != null) {
+                beforeEach.run();
+            }
+            long bytesBefore = allocatedBytes();
+            long start = System.nanoTime();
+            op.run();
+            samples[i] = System.nanoTime() - start;
+            allocated += Math.max(0, allocatedBytes() - bytesBefore);
+        }
+
+        Arrays.sort(samples);
+        long total = 0;
+        for (long sample : samples) {
+            total += sample;
+        }
+        Measurement m = new Measurement(name, samples[ITERATIONS / 2], samples[ITERATIONS * 99 / 100],
+                total / ITERATIONS, allocated / ITERATIONS);
+        results.add(m);
+        System.out.println("[perf] " + m);
+        checkBudget(m);
+        return m;
+    }
+
+    Measurement measure(String name, Op op) throws Exception {
+        return measure(name, null, op);
+    }
+
+    private void checkBudget(Measurement m) {
+        String latency = budgets.getProperty(m.name + ".p50Us");
+        if (latency != null && m.p50Nanos / 1000.0 > Double.parseDouble(latency) * scale) {
+            overBudget.add(m.name + ": p50 " + (m.p50Nanos / 1000) + " us > " + latency + " us");
+        }
+        String bytes = budgets.getProperty(m.name + ".bytes");
+        if (bytes != null && m.bytesPerOp > Long.parseLong(bytes) * scale) {
+            overBudget.add(m.name + ": " + m.bytesPerOp + " B/op > " + bytes + " B/op");
+        }
+        if (latency == null && bytes == null) {
+            overBudget.add(m.name + ": no budget in perf-budgets.properties");
+        }
+    }
+
+    /**
+     * Writes the report and, when budgets are enforced, fails if anything went
+     * over. Call once at the end of the suite.
+     */
+    void finish() throws IOException {
+        File dir = new File("build/reports/perf");
+        if (dir.isDirectory() || dir.mkdirs()) {
+            try (FileWriter out = new FileWriter(new File(dir, suite + ".csv"))) {
+                out.write("name,p50_ns,p99_ns,mean_ns,bytes_per_op\n");
+                for (Measurement m : results) {
+                    out.write(m.name + "," + m.p50Nanos + "," + m.p99Nanos + "," + m.meanNanos + ","
+                            + m.bytesPerOp + "\n");
+                }
+            }
+        }
+        if (overBudget.isEmpty()) {
+            return;
+        }
+        String report = "Performance regressions in " + suite + ":\n  " + String.join("\n  ", overBudget);
+        if (!enforce) {
+            System.out.println("[perf] " + report + "\n(not enforced; run perfTest to fail on these)");
+            return;
+        }
+        fail(report);
+    }
+
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+}
@@ -0,0 +1,28 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class PolicyEngineTest {
+
+    @Test
+    public void errorMessagePrefersAFailedWriteOverAFailedRead() {
+        PolicyEngine.Result result = new PolicyEngine.Result();
+        result.steps.add(new PolicyEngine.Step("readState", "read", 0, "no access"));
+        result.steps.add(new PolicyEngine.Step("no_config_wifi", "add", 0, null));
+        result.steps.add(new PolicyEngine.Step("camera", "disable", 0, "not device owner"));
+
+        assertEquals("camera: not device owner", result.getErrorMessage());
+    }
+
+    @Test
+    public void errorMessageFallsBackToAFailedRead() {
+        PolicyEngine.Result result = new PolicyEngine.Result();
+        result.steps.add(new PolicyEngine.Step("readState", "read", 0, "no access"));
+        result.steps.add(new PolicyEngine.Step("camera", "disable", 0, null));
+
+        assertEquals("readState: no access", result.getErrorMessage());
+        assertNull(new PolicyEngine.Result().getErrorMessage());
+    }
+}
@@ -0,0 +1,47 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class PolicyReconcilerTest {
+
+    // Expected values come from server/policyHash.js; both sides must agree
+    @Test
+    public void hashMatchesServerImplementation() {
+        assertEquals("cb69884c", PolicyReconciler.hash(0));
+        assertEquals("e5829453", PolicyReconciler.hash(PolicyReconciler.desiredBits(true, null)));
+    }
+
+    @Test
+    public void lockedSetsAllLockRestrictionsAndKioskBit() throws Exception {
+        int bits = PolicyReconciler.desiredBits(true, new JSONObject());
+
+        assertEquals(4351, bits);
+        assertTrue((bits & (1 << PolicyReconciler.BIT_LOCK_TASK_APP)) != 0);
+        assertEquals(0, bits & (1 << PolicyReconciler.BIT_CAMERA_DISABLED));
+    }
+
+    @Test
+    public void featureLocksMapToTheirOwnBits() throws Exception {
+        JSONObject features = new JSONObject();
+        features.put("camera", true);
+        features.put("wifi", true);
+        features.put("powerOff", true);
+
+        int bits = PolicyReconciler.desiredBits(false, features);
+
+        assertEquals((1 << PolicyReconciler.BIT_CAMERA_DISABLED) | (1 << PolicyReconciler.BIT_CONFIG_WIFI)
+                | (1 << PolicyReconciler.BIT_POWER_MENU_HIDDEN), bits);
+        assertEquals("31df050b", PolicyReconciler.hash(bits));
+    }
+
+    @Test
+    public void resetLockBlocksFactoryResetWhileUnlocked() throws Exception {
+        JSONObject features = new JSONObject();
+        features.put("reset", true);
+
+        assertEquals(1 << PolicyReconciler.BIT_FACTORY_RESET, PolicyReconciler.desiredBits(false, features));
+    }
+}
@@ -0,0 +1,130 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.app.Application;
+import android.app.admin.DevicePolicyManager;
+import android.content.BroadcastReceiver;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Looper;
+import android.os.PersistableBundle;
+import android.os.SystemClock;
+import androidx.test.core.app.ApplicationProvider;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.shadows.ShadowBroadcastPendingResult;
+import org.robolectric.util.ReflectionHelpers;
+import org.robolectric.util.ReflectionHelpers.ClassParameter;
+
+/**
+ * Cost of the provisioning path: the AdminReceiver broadcast (extras saved,
+ * profile configured, off the broadcast thread), ProvisioningCompleteActivity's
+ * main-thread work, and the background ProvisioningPipeline that replaced its
+ * old inline configureDeviceOwner.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class ProvisioningBenchmarkTest {
+    private static final long TIMEOUT_MS = 10000;
+
+    private Application context;
+    private volatile CountDownLatch pipelineDone;
+    private final DeviceEvents.Listener listener = (name, data) -> {
+        if ("provisioningComplete".equals(name) && pipelineDone != null) {
+            pipelineDone.countDown();
+        }
+    };
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        ComponentName admin = new ComponentName(context, AdminReceiver.class);
+        DevicePolicyManager dpm = (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE);
+        shadowOf(dpm).setActiveAdmin(admin);
+        shadowOf(dpm).setDeviceOwner(admin);
+        AdminContext.invalidate();
+        DeviceEvents.addListener(listener);
+    }
+
+    @After
+    public void tearDown() {
+        DeviceEvents.removeListener(listener);
+    }
+
+    private Intent provisioningIntent() {
+        PersistableBundle extras = new PersistableBundle();
+        extras.putString("deviceId", "BENCH-1");
+        extras.putString("customerName", "Bench Customer");
+        extras.putString("serverUrl", "https://emi.example.com");
+        return new Intent(DevicePolicyManager.ACTION_PROFILE_PROVISIONING_COMPLETE)
+                .putExtra(DevicePolicyManager.EXTRA_PROVISIONING_ADMIN_EXTRAS_BUNDLE, extras);
+    }
+
+    /** Delivers the broadcast the way the system does (with a PendingResult for goAsync) and waits for finish(). */
+    private void deliverProvisioningComplete(AdminReceiver receiver) throws Exception {
+        BroadcastReceiver.PendingResult pending = ShadowBroadcastPendingResult.create(0, null, null, false);
+        ReflectionHelpers.callInstanceMethod(receiver, "setPendingResult",
+                ClassParameter.from(BroadcastReceiver.PendingResult.class, pending));
+        receiver.onProfileProvisioningComplete(context, provisioningIntent());
+        ShadowBroadcastPendingResult shadow = shadowOf(pending);
+        shadow.getFuture().get(TIMEOUT_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private void awaitPreviousPipeline() throws Exception {
+        if (pipelineDone != null) {
+            awaitPipeline();
+        }
+        pipelineDone = new CountDownLatch(1);
+    }
+
+    /** Runs one pipeline to its report and waits for it, pumping the main looper for its toast. */
+    private void awaitPipeline() throws Exception {
+        ProvisioningPipeline.onMainActivityReady();
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!pipelineDone.await(1, TimeUnit.MILLISECONDS)) {
+            shadowOf(Looper.getMainLooper()).idle();
+            if (System.currentTimeMillis() > deadline) {
+                fail("Provisioning pipeline did not finish within " + TIMEOUT_MS + " ms");
+            }
+        }
+    }
+
+    @Test
+    public void provisioningStaysWithinBudget() throws Exception {
+        PerfHarness perf = new PerfHarness("Provisioning");
+        AdminReceiver receiver = new AdminReceiver();
+
+        perf.measure("AdminReceiver.onProfileProvisioningComplete", () -> deliverProvisioningComplete(receiver));
+
+        // Main-thread share only: the activity hands off to the pipeline and finishes.
+        // Each iteration waits, untimed, for the previous pipeline so start() is never a no-op.
+        perf.measure("ProvisioningCompleteActivity.onCreate", this::awaitPreviousPipeline,
+                () -> Robolectric.buildActivity(ProvisioningCompleteActivity.class).create());
+        awaitPreviousPipeline();
+
+        perf.measure("ProvisioningPipeline.run", () -> pipelineDone = new CountDownLatch(1), () -> {
+            ProvisioningPipeline.start(context, SystemClock.elapsedRealtime());
+            awaitPipeline();
+        });
+
+        perf.finish();
+    }
+
+    @Test
+    public void provisioningExtrasAreSaved() throws Exception {
+        deliverProvisioningComplete(new AdminReceiver());
+
+        ProvisioningConfig config = ProvisioningConfig.load(context);
+        assertNotNull(config);
+        assertEquals("BENCH-1", config.deviceId);
+        assertEquals("https://emi.example.com", config.serverUrl);
+    }
+}
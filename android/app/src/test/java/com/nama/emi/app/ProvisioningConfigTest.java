@@ -0,0 +1,45 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+public class ProvisioningConfigTest {
+
+    @Test
+    public void encodedConfigDecodesToSameValues() {
+        ProvisioningConfig config = new ProvisioningConfig("DEV-42", "Ravi K\u00e9", "https://emi.example.com", 1700000000000L);
+
+        ProvisioningConfig decoded = ProvisioningConfig.decode(ByteBuffer.wrap(config.encode()));
+
+        assertNotNull(decoded);
+        assertEquals("DEV-42", decoded.deviceId);
+        assertEquals("Ravi K\u00e9", decoded.customerName);
+        assertEquals("https://emi.example.com", decoded.serverUrl);
+        assertEquals(1700000000000L, decoded.provisionedAt);
+    }
+
+    @Test
+    public void missingValuesDecodeAsNull() {
+        ProvisioningConfig decoded = ProvisioningConfig.decode(
+                ByteBuffer.wrap(new ProvisioningConfig("DEV-1", null, null, 1L).encode()));
+
+        assertEquals("DEV-1", decoded.deviceId);
+        assertNull(decoded.customerName);
+        assertNull(decoded.serverUrl);
+    }
+
+    @Test
+    public void newerFormatVersionIsRejected() {
+        byte[] encoded = new ProvisioningConfig("DEV-1", null, null, 1L).encode();
+        encoded[5] = (byte) (ProvisioningConfig.FORMAT_VERSION + 1);
+
+        assertNull(ProvisioningConfig.decode(ByteBuffer.wrap(encoded)));
+    }
+
+    @Test
+    public void foreignFileIsRejected() {
+        assertNull(ProvisioningConfig.decode(ByteBuffer.wrap("<?xml version".getBytes())));
+    }
+}
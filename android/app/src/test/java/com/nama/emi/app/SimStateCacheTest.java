@@ -0,0 +1,30 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+
+import android.telephony.TelephonyManager;
+import org.junit.Test;
+
+public class SimStateCacheTest {
+
+    private static SimStateCache.Snapshot sim(String carrier, int slot, String iccidHash, int state) {
+        return new SimStateCache.Snapshot(carrier, slot, iccidHash, false, state);
+    }
+
+    @Test
+    public void carrierNameChangesDoNotChangeTheIdentity() {
+        String home = SimStateCache.identity(sim("Jio", 0, "ab12", TelephonyManager.SIM_STATE_READY));
+        String renamed = SimStateCache.identity(sim("Jio 4G", 0, "ab12", TelephonyManager.SIM_STATE_READY));
+
+        assertEquals(home, renamed);
+        assertNotEquals(home, SimStateCache.identity(sim("Jio", 0, "cd34", TelephonyManager.SIM_STATE_READY)));
+        assertNotEquals(home, SimStateCache.identity(sim("Jio", 1, "ab12", TelephonyManager.SIM_STATE_READY)));
+    }
+
+    @Test
+    public void carrierIdentifiesAReadySimWithoutIccid() {
+        assertEquals("0||Airtel", SimStateCache.identity(sim("Airtel", 0, "", TelephonyManager.SIM_STATE_READY)));
+        assertNull(SimStateCache.identity(sim(SimStateCache.NO_SIM, -1, "", TelephonyManager.SIM_STATE_ABSENT)));
+        assertNull(SimStateCache.identity(sim("Airtel", 0, "", TelephonyManager.SIM_STATE_PIN_REQUIRED)));
+    }
+}
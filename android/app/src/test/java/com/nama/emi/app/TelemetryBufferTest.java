@@ -0,0 +1,105 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TelemetryBufferTest {
+
+    private File file;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("telemetry", ".ring");
+        file.delete();
+    }
+
+    @After
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Test
+    public void unackedSamplesSurviveReopen() throws Exception {
+        TelemetryBuffer buffer = new TelemetryBuffer(file, 8);
+        buffer.append(sample(1000, 80, "Airtel"));
+        buffer.append(sample(2000, 79, "Airtel"));
+        buffer.append(sample(3000, 79, "Jio"));
+        buffer.ack(1);
+        buffer.close();
+
+        TelemetryBuffer reopened = new TelemetryBuffer(file, 8);
+        List<TelemetryBuffer.Sample> unacked = reopened.readUnacked(10);
+        assertEquals(2, unacked.size());
+        assertEquals(2, unacked.get(0).seq);
+        assertEquals("Jio", unacked.get(1).carrier);
+        assertEquals(79, unacked.get(1).battery);
+        assertEquals(1, reopened.getAckedSeq());
+        reopened.close();
+    }
+
+    @Test
+    public void overwrittenSamplesAreDroppedOldestFirst() throws Exception {
+        TelemetryBuffer buffer = new TelemetryBuffer(file, 4);
+        for (int i = 0; i < 10; i++) {
+            buffer.append(sample(i, i, "Vi"));
+        }
+        List<TelemetryBuffer.Sample> unacked = buffer.readUnacked(100);
+        assertEquals(4, unacked.size());
+        assertEquals(7, unacked.get(0).seq);
+        assertNull(buffer.read(3));
+        buffer.close();
+    }
+
+    @Test
+    public void longStringsAreTruncatedOnCharacterBoundary() throws Exception {
+        TelemetryBuffer buffer = new TelemetryBuffer(file, 4);
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < 30; i++) {
+            name.append('\u00e9'); // two bytes in UTF-8
+        }
+        buffer.append(sample(1, 50, name.toString()));
+        String stored = buffer.last().carrier;
+        assertEquals(TelemetryBuffer.CARRIER_BYTES / 2, stored.length());
+        buffer.close();
+    }
+
+    @Test
+    public void deltaEncodingSendsOnlyChangedFields() throws Exception {
+        TelemetryBuffer.Sample base = sample(1000, 80, "Airtel");
+        TelemetryBuffer.Sample same = sample(2000, 80, "Airtel");
+        same.seq = 2;
+        TelemetryBuffer.Sample changed = sample(3000, 75, "Airtel");
+        changed.seq = 3;
+
+        JSONArray encoded = TelemetryCollector.encodeDelta(base, Arrays.asList(same, changed));
+        JSONObject first = encoded.getJSONObject(0);
+        JSONObject second = encoded.getJSONObject(1);
+        assertEquals(2, first.length());
+        assertEquals(2000, first.optLong("t"));
+        assertEquals(3, second.length());
+        assertEquals(75, second.optInt("b"));
+
+        JSONObject full = TelemetryCollector.encodeDelta(null, Arrays.asList(same)).getJSONObject(0);
+        assertEquals("wifi", full.optString("n"));
+        assertEquals("Airtel", full.optString("c"));
+        assertEquals("14", full.optString("v"));
+    }
+
+    private static TelemetryBuffer.Sample sample(long timestamp, int battery, String carrier) {
+        TelemetryBuffer.Sample sample = new TelemetryBuffer.Sample();
+        sample.timestamp = timestamp;
+        sample.battery = battery;
+        sample.network = TelemetryBuffer.NETWORK_WIFI;
+        sample.carrier = carrier;
+        sample.osVersion = "14";
+        return sample;
+    }
+}
@@ -0,0 +1,180 @@
+package com.nama.emi.app;
+
+import static org.junit.Assert.*;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.robolectric.Shadows.shadowOf;
+
+import android.Manifest;
+import android.app.Application;
+import android.app.admin.DevicePolicyManager;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Looper;
+import android.telephony.TelephonyManager;
+import androidx.appcompat.app.AppCompatActivity;
+import androidx.test.core.app.ApplicationProvider;
+import com.getcapacitor.Bridge;
+import com.getcapacitor.JSObject;
+import com.getcapacitor.MessageHandler;
+import com.getcapacitor.PluginCall;
+import com.getcapacitor.PluginResult;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricTestRunner;
+
+/**
+ * Latency and allocations of every WipeDevicePlugin method, end to end from
+ * the bridge call to resolve/reject, against Robolectric's DevicePolicyManager
+ * and TelephonyManager. Allocations are the calling thread's; budgets are in
+ * perf-budgets.properties and enforced by the perfTest task.
+ */
+@RunWith(RobolectricTestRunner.class)
+public class WipeDevicePluginBenchmarkTest {
+    private static final long CALL_TIMEOUT_MS = 5000;
+
+    private Application context;
+    private ComponentName admin;
+    private WipeDevicePlugin plugin;
+    private MessageHandler handler;
+    private volatile PluginResult lastError;
+    private volatile CountDownLatch done;
+
+    @Before
+    public void setUp() {
+        context = ApplicationProvider.getApplicationContext();
+        admin = new ComponentName(context, AdminReceiver.class);
+        shadowOf(context).grantPermissions(Manifest.permission.READ_PHONE_STATE);
+        TelephonyManager tm = (TelephonyManager) context.getSystemService(Context.TELEPHONY_SERVICE);
+        shadowOf(tm).setSimOperatorName("Test Carrier");
+        shadowOf(tm).setSimState(TelephonyManager.SIM_STATE_READY);
+        makeDeviceOwner();
+
+        AppCompatActivity activity = Robolectric.buildActivity(AppCompatActivity.class).setup().get();
+        Bridge bridge = mock(Bridge.class);
+        when(bridge.getContext()).thenReturn(context);
+        when(bridge.getActivity()).thenReturn(activity);
+
+        handler = mock(MessageHandler.class);
+        doAnswer(invocation -> {
+            lastError = invocation.getArgument(2);
+            done.countDown();
+            return null;
+        }).when(handler).sendResponseMessage(any(), any(), any());
+
+        plugin = new WipeDevicePlugin();
+        plugin.setBridge(bridge);
+        plugin.load();
+    }
+
+    /**
+     * The plugin and the pipeline may hold DevicePolicyManagers from different
+     * test Applications (AdminContext is process-wide), so mark both.
+     */
+    private void makeDeviceOwner() {
+        for (DevicePolicyManager dpm : new DevicePolicyManager[] {
+                (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE),
+                AdminContext.get(context).dpm() }) {
+            shadowOf(dpm).setActiveAdmin(admin);
+            shadowOf(dpm).setDeviceOwner(admin);
+        }
+        AdminContext.invalidate();
+    }
+
+    /** Calls a plugin method and waits for it to settle, pumping the main looper for runOnUiThread work. */
+    private void call(String method, JSObject data) throws Exception {
+        done = new CountDownLatch(1);
+        lastError = null;
+        PluginCall call = new PluginCall(handler, "WipeDevice", "bench", method, data);
+        WipeDevicePlugin.class.getMethod(method, PluginCall.class).invoke(plugin, call);
+        long deadline = System.currentTimeMillis() + CALL_TIMEOUT_MS;
+        while (!done.await(0, TimeUnit.MILLISECONDS)) {
+            shadowOf(Looper.getMainLooper()).idle();
+            if (System.currentTimeMillis() > deadline) {
+                fail(method + " did not settle within " + CALL_TIMEOUT_MS + " ms");
+            }
+            done.await(50, TimeUnit.MICROSECONDS);
+        }
+    }
+
+    private void callResolved(String method, JSObject data) throws Exception {
+        call(method, data);
+        if (lastError != null) {
+            fail(method + " rejected: " + lastError.toString());
+        }
+    }
+
+    private static JSObject args(Object... pairs) {
+        JSObject data = new JSObject();
+        for (int i = 0; i < pairs.length; i += 2) {
+            data.put((String) pairs[i], pairs[i + 1]);
+        }
+        return data;
+    }
+
+    @Test
+    public void pluginMethodsStayWithinBudget() throws Exception {
+        PerfHarness perf = new PerfHarness("WipeDevicePlugin");
+        String prefix = "WipeDevicePlugin.";
+
+        JSObject lockedState = args("isLocked", true, "featureLocks", args("camera", true, "powerOff", true));
+        JSObject unlockedState = args("isLocked", false, "featureLocks", new JSObject());
+        boolean[] toggle = { false };
+
+        perf.measure(prefix + "getSimInfo", () -> callResolved("getSimInfo", new JSObject()));
+        perf.measure(prefix + "getAdminStatus", () -> callResolved("getAdminStatus", new JSObject()));
+        perf.measure(prefix + "checkTamperAttempts", () -> callResolved("checkTamperAttempts", new JSObject()));
+        perf.measure(prefix + "getMetrics", () -> callResolved("getMetrics", new JSObject()));
+        perf.measure(prefix + "dismissBootLockScreen", () -> callResolved("dismissBootLockScreen", new JSObject()));
+        perf.measure(prefix + "startHeartbeat", () -> callResolved("startHeartbeat", args("deviceId", "BENCH-1")));
+        perf.measure(prefix + "requestAdmin", () -> callResolved("requestAdmin", new JSObject()));
+        perf.measure(prefix + "lockDevice", () -> callResolved("lockDevice", new JSObject()));
+        perf.measure(prefix + "disableCamera", () -> {
+            toggle[0] = !toggle[0];
+            callResolved("disableCamera", args("disable", toggle[0]));
+        });
+        perf.measure(prefix + "disableScreenCapture", () -> {
+            toggle[0] = !toggle[0];
+            callResolved("disableScreenCapture", args("disable", toggle[0]));
+        });
+        perf.measure(prefix + "setNetworkRestrictions", () -> {
+            toggle[0] = !toggle[0];
+            callResolved("setNetworkRestrictions", args("disableWifi", toggle[0], "disableMobileData", toggle[0]));
+        });
+        perf.measure(prefix + "enforceDeviceRestrictions", () -> callResolved("enforceDeviceRestrictions", new JSObject()));
+        perf.measure(prefix + "clearDeviceRestrictions", () -> callResolved("clearDeviceRestrictions", new JSObject()));
+        perf.measure(prefix + "applyDeviceState", () -> {
+            toggle[0] = !toggle[0];
+            callResolved("applyDeviceState", toggle[0] ? lockedState : unlockedState);
+        });
+        perf.measure(prefix + "applyDeviceState.unchanged", () -> callResolved("applyDeviceState", unlockedState));
+        perf.measure(prefix + "startLockTaskMode", () -> callResolved("startLockTaskMode", new JSObject()));
+        perf.measure(prefix + "stopLockTaskMode", () -> callResolved("stopLockTaskMode", new JSObject()));
+        perf.measure(prefix + "wipe", () -> callResolved("wipe", new JSObject()));
+        perf.measure(prefix + "removeDeviceOwner", this::makeDeviceOwner,
+                () -> callResolved("removeDeviceOwner", new JSObject()));
+
+        perf.finish();
+    }
+
+    @Test
+    public void deviceOwnerMethodsRejectWithoutOwnership() throws Exception {
+        for (DevicePolicyManager dpm : new DevicePolicyManager[] {
+                (DevicePolicyManager) context.getSystemService(Context.DEVICE_POLICY_SERVICE),
+                AdminContext.get(context).dpm() }) {
+            shadowOf(dpm).setDeviceOwner(null);
+        }
+        AdminContext.invalidate();
+
+        call("applyDeviceState", args("isLocked", true));
+        assertNotNull(lastError);
+        call("disableCamera", args("disable", true));
+        assertNotNull(lastError);
+    }
+}
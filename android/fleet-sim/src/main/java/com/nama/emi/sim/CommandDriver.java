@@ -0,0 +1,91 @@
+package com.nama.emi.sim;
+
+import java.util.Random;
+import org.json.JSONObject;
+
+/**
+ * The admin side: issues lock, unlock, wipe and release commands through the
+ * dashboard's endpoints at a fixed rate, each on its own virtual thread so a
+ * slow server lowers throughput instead of the offered load. Only one command
+ * per device is in flight at a time, so every issued command has exactly one
+ * observable apply on the device.
+ */
+final class CommandDriver implements Runnable {
+    private static final int MAX_PICK_ATTEMPTS = 32;
+
+    private final Fleet fleet;
+    private final SimConfig config;
+    private final Random random;
+    /** What the admin last asked for, per device index. */
+    private final boolean[] locked;
+
+    CommandDriver(Fleet fleet) {
+        this.fleet = fleet;
+        this.config = fleet.config;
+        this.random = new Random(config.randomSeed);
+        this.locked = new boolean[config.devices];
+    }
+
+    @Override
+    public void run() {
+        if (config.commandsPerSecond <= 0) {
+            return;
+        }
+        long intervalNanos = (long) (1e9 / config.commandsPerSecond);
+        long next = System.nanoTime();
+        while (fleet.isRunning()) {
+            int index = pickDevice();
+            if (index >= 0) {
+                Thread.ofVirtual().start(() -> issue(index));
+            }
+            next += intervalNanos;
+            long sleepNanos = next - System.nanoTime();
+            if (sleepNanos > 0) {
+                try {
+                    Thread.sleep(sleepNanos / 1000000, (int) (sleepNanos % 1000000));
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /** A random running device with no command in flight, or -1 if none was found quickly (e.g. during ramp-up). */
+    private int pickDevice() {
+        for (int attempt = 0; attempt < MAX_PICK_ATTEMPTS; attempt++) {
+            int index = random.nextInt(config.devices);
+            String id = config.deviceId(index);
+            if (fleet.ready.contains(id) && fleet.pendingCommands.putIfAbsent(id, System.nanoTime()) == null) {
+                return index;
+            }
+        }
+        return -1;
+    }
+
+    private void issue(int index) {
+        String id = config.deviceId(index);
+        double roll = random.nextDouble();
+        String command;
+        if (roll < config.wipeRatio) {
+            command = "wipe";
+        } else if (roll < config.wipeRatio + config.releaseRatio) {
+            command = "release";
+        } else {
+            command = locked[index] ? "unlock" : "lock";
+        }
+        boolean wasLocked = locked[index];
+        // Updated before sending: the device may apply the change before the response arrives
+        // and the next pick of this device must see it
+        if ("lock".equals(command) || "unlock".equals(command)) {
+            locked[index] = "lock".equals(command);
+        }
+        fleet.pendingCommands.put(id, System.nanoTime());
+        fleet.stats().commandsIssued.increment();
+        Fleet.Response response = fleet.send(config.serverFor(index), "POST",
+                "/api/devices/" + id + "/" + command, "POST /:id/" + command, new JSONObject());
+        if (!response.isSuccessful()) {
+            locked[index] = wasLocked;
+            fleet.pendingCommands.remove(id);
+        }
+    }
+}
@@ -0,0 +1,117 @@
+package com.nama.emi.sim;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import org.json.JSONObject;
+
+/**
+ * State shared by every simulated device and the command driver: the HTTP
+ * client, the current Stats window, and the commands in flight. A command is
+ * registered before the admin request is sent and claimed by the device when
+ * it applies the change, which gives command-to-apply latency end to end.
+ */
+final class Fleet {
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(15);
+
+    static final class Response {
+        final int code;
+        final String body;
+
+        Response(int code, String body) {
+            this.code = code;
+            this.body = body;
+        }
+
+        boolean isSuccessful() {
+            return code >= 200 && code < 300;
+        }
+
+        JSONObject json() {
+            return new JSONObject(body == null || body.isEmpty() ? "{}" : body);
+        }
+    }
+
+    final SimConfig config;
+    final HttpClient http;
+    /** Device id -> System.nanoTime() when the pending command was issued. */
+    final ConcurrentHashMap<String, Long> pendingCommands = new ConcurrentHashMap<>();
+    /** Devices that have applied their first state and can take commands. */
+    final Set<String> ready = ConcurrentHashMap.newKeySet();
+    /** Devices that were wiped, released or deleted and no longer run. */
+    final Set<String> gone = ConcurrentHashMap.newKeySet();
+    private volatile Stats stats = new Stats();
+    private volatile boolean running = true;
+
+    Fleet(SimConfig config) {
+        this.config = config;
+        // The server speaks HTTP/1.1 only; one pooled client for the whole fleet, as each
+        // device would reuse its own keep-alive connection
+        this.http = HttpClient.newBuilder()
+                .version(HttpClient.Version.HTTP_1_1)
+                .connectTimeout(CONNECT_TIMEOUT)
+                .executor(Executors.newVirtualThreadPerTaskExecutor())
+                .build();
+    }
+
+    Stats stats() {
+        return stats;
+    }
+
+    /** Starts a new measurement window, e.g. once ramp-up is over. */
+    Stats resetStats() {
+        Stats previous = stats;
+        stats = new Stats();
+        return previous;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    void stop() {
+        running = false;
+    }
+
+    /** Sends a JSON request and records it under route. Never throws for I/O errors: they come back as code 0. */
+    Response send(URI server, String method, String path, String route, JSONObject body) {
+        HttpRequest.Builder request = HttpRequest.newBuilder(URI.create(server + path))
+                .timeout(REQUEST_TIMEOUT)
+                .header("Accept", "application/json");
+        if (body != null) {
+            request.header("Content-Type", "application/json")
+                    .method(method, HttpRequest.BodyPublishers.ofString(body.toString()));
+        } else {
+            request.method(method, HttpRequest.BodyPublishers.noBody());
+        }
+        long start = System.nanoTime();
+        try {
+            HttpResponse<String> response = http.send(request.build(), HttpResponse.BodyHandlers.ofString());
+            stats.record(route, start, response.statusCode());
+            return new Response(response.statusCode(), response.body());
+        } catch (IOException e) {
+            stats.record(route, start, 0);
+            return new Response(0, null);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return new Response(0, null);
+        }
+    }
+
+    /** Called by a device when it has applied a change; records latency if an admin command caused it. */
+    void commandApplied(String deviceId) {
+        Long issued = pendingCommands.remove(deviceId);
+        if (issued != null) {
+            Stats current = stats;
+            current.commandToApply.recordSince(issued);
+            current.commandsApplied.increment();
+        }
+    }
+}
@@ -0,0 +1,245 @@
+package com.nama.emi.sim;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONObject;
+
+/**
+ * Fleet simulator: registers N devices, runs each one on a virtual thread
+ * speaking the app's protocol while a driver issues admin commands, and
+ * reports request throughput, per-route p50/p99 and command-to-apply latency
+ * for the steady state after ramp-up.
+ *
+ * Against a local server with an in-memory database:
+ *
+ *   cd server && npm install --no-save mongodb-memory-server && npm run start:memory
+ *   cd android && ./gradlew -PfleetSim :fleet-sim:run --args="--devices=20000 --duration-s=180"
+ *
+ * Exits with status 2 when a --min-rps / --max-p99-ms / --max-command-p99-ms
+ * gate fails, so it can guard capacity in CI. Native-protocol devices hold a
+ * connection each; beyond ~28k per server address, list several loopback
+ * addresses in --server (http://127.0.0.1:5000,http://127.0.0.2:5000).
+ */
+public final class FleetSim {
+    private static final long PROGRESS_INTERVAL_MS = 10000;
+
+    private FleetSim() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        SimConfig config;
+        try {
+            config = SimConfig.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(64);
+            return;
+        }
+        Fleet fleet = new Fleet(config);
+
+        if (config.seed) {
+            log("Registering " + config.devices + " devices as " + config.idPrefix + "*");
+            int failed = seed(fleet);
+            if (failed > 0) {
+                log(failed + " devices failed to register");
+            }
+        }
+        fleet.resetStats();
+
+        log("Starting " + config.devices + " " + config.protocol + " devices over " + config.rampSeconds + "s");
+        ExecutorService devices = Executors.newVirtualThreadPerTaskExecutor();
+        long rampMs = config.rampSeconds * 1000L;
+        for (int i = 0; i < config.devices; i++) {
+            devices.execute(new SimulatedDevice(fleet, i, rampMs * i / config.devices));
+        }
+        Thread driver = Thread.ofVirtual().name("CommandDriver").start(new CommandDriver(fleet));
+
+        sleepWithProgress(fleet, rampMs);
+        fleet.resetStats();
+        log("Ramp-up done, measuring for " + config.durationSeconds + "s");
+        sleepWithProgress(fleet, config.durationSeconds * 1000L);
+        Stats stats = fleet.resetStats();
+        fleet.stop();
+        driver.interrupt();
+
+        JSONObject report = report(stats, fleet);
+        printReport(report);
+        if (config.jsonOut != null) {
+            Files.write(Paths.get(config.jsonOut), report.toString(2).getBytes(StandardCharsets.UTF_8));
+        }
+        if (config.cleanup) {
+            cleanup(fleet);
+        }
+        List<String> failures = checkGates(config, report);
+        failures.forEach(failure -> log("GATE FAILED: " + failure));
+        devices.shutdownNow();
+        System.exit(failures.isEmpty() ? 0 : 2);
+    }
+
+    /** Registers the fleet with the required customer fields, bounded so the server is not flooded. */
+    private static int seed(Fleet fleet) throws Exception {
+        SimConfig config = fleet.config;
+        Semaphore permits = new Semaphore(config.seedConcurrency);
+        AtomicInteger failed = new AtomicInteger();
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < config.devices; i++) {
+                final int index = i;
+                permits.acquire();
+                futures.add(executor.submit(() -> {
+                    try {
+                        String id = config.deviceId(index);
+                        JSONObject device = new JSONObject()
+                                .put("id", id)
+                                .put("customerName", "Sim Customer " + index)
+                                .put("mobileNo", String.format("9%09d", index))
+                                .put("aadharNo", String.format("%012d", index))
+                                .put("address", "Simulated")
+                                .put("imei1", id + "-1")
+                                .put("imei2", id + "-2")
+                                .put("deviceModel", "FleetSim")
+                                .put("isTracking", new Random(config.randomSeed * 31 + index)
+                                        .nextDouble() < config.trackingRatio);
+                        int code = fleet.send(config.serverFor(index), "POST", "/api/devices", "POST /", device).code;
+                        // 400 is a duplicate from an earlier run with the same --id-prefix
+                        if (code != 201 && code != 400) {
+                            failed.incrementAndGet();
+                        }
+                    } finally {
+                        permits.release();
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        }
+        return failed.get();
+    }
+
+    private static void cleanup(Fleet fleet) throws InterruptedException {
+        SimConfig config = fleet.config;
+        Semaphore permits = new Semaphore(config.seedConcurrency);
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int i = 0; i < config.devices; i++) {
+                final int index = i;
+                permits.acquire();
+                executor.execute(() -> {
+                    try {
+                        fleet.send(config.serverFor(index), "DELETE", "/api/devices/" + config.deviceId(index),
+                                "DELETE /:id", null);
+                    } finally {
+                        permits.release();
+                    }
+                });
+            }
+        }
+    }
+
+    private static void sleepWithProgress(Fleet fleet, long ms) throws InterruptedException {
+        long end = System.currentTimeMillis() + ms;
+        long remaining;
+        while ((remaining = end - System.currentTimeMillis()) > 0) {
+            Thread.sleep(Math.min(remaining, PROGRESS_INTERVAL_MS));
+            Stats stats = fleet.stats();
+            log(String.format("%.0f req/s, %d errors, %d/%d commands applied, %d devices gone",
+                    stats.requests() / Math.max(stats.elapsedSeconds(), 0.001), stats.errors(),
+                    stats.commandsApplied.sum(), stats.commandsIssued.sum(), fleet.gone.size()));
+        }
+    }
+
+    static JSONObject report(Stats stats, Fleet fleet) {
+        double seconds = stats.elapsedSeconds();
+        JSONObject routes = new JSONObject();
+        for (Map.Entry<String, Stats.Route> entry : stats.routes().entrySet()) {
+            Stats.Route route = entry.getValue();
+            JSONObject item = new JSONObject()
+                    .put("count", route.latency.count())
+                    .put("errors", route.errors.sum())
+                    .put("rps", route.latency.count() / seconds);
+            if (!route.held) {
+                item.put("p50Ms", route.latency.percentile(50) / 1000.0)
+                        .put("p99Ms", route.latency.percentile(99) / 1000.0)
+                        .put("maxMs", route.latency.maxMicros() / 1000.0);
+            }
+            routes.put(entry.getKey(), item);
+        }
+        return new JSONObject()
+                .put("protocol", fleet.config.protocol + (SimConfig.PROTOCOL_NATIVE.equals(fleet.config.protocol) ? "/" + fleet.config.channel : ""))
+                .put("devices", fleet.config.devices)
+                .put("seconds", seconds)
+                .put("requests", stats.requests())
+                .put("errors", stats.errors())
+                .put("rps", stats.requests() / seconds)
+                .put("routes", routes)
+                .put("commands", new JSONObject()
+                        .put("issued", stats.commandsIssued.sum())
+                        .put("applied", stats.commandsApplied.sum())
+                        .put("outstanding", fleet.pendingCommands.size())
+                        .put("p50Ms", stats.commandToApply.percentile(50) / 1000.0)
+                        .put("p99Ms", stats.commandToApply.percentile(99) / 1000.0)
+                        .put("maxMs", stats.commandToApply.maxMicros() / 1000.0))
+                .put("wiped", stats.devicesWiped.sum())
+                .put("released", stats.devicesReleased.sum());
+    }
+
+    private static void printReport(JSONObject report) {
+        System.out.println();
+        System.out.printf("%s, %d devices, %.0fs: %d requests, %.1f req/s, %d errors%n",
+                report.getString("protocol"), report.getInt("devices"), report.getDouble("seconds"),
+                report.getLong("requests"), report.getDouble("rps"), report.getLong("errors"));
+        System.out.printf("%-32s %9s %9s %7s %9s %9s %9s%n", "route", "count", "req/s", "errors", "p50 ms", "p99 ms", "max ms");
+        JSONObject routes = report.getJSONObject("routes");
+        for (String name : new TreeSet<>(routes.keySet())) {
+            JSONObject route = routes.getJSONObject(name);
+            if (route.has("p50Ms")) {
+                System.out.printf("%-32s %9d %9.1f %7d %9.1f %9.1f %9.1f%n", name, route.getLong("count"),
+                        route.getDouble("rps"), route.getLong("errors"), route.getDouble("p50Ms"),
+                        route.getDouble("p99Ms"), route.getDouble("maxMs"));
+            } else {
+                System.out.printf("%-32s %9d %9.1f %7d %9s %9s %9s%n", name, route.getLong("count"),
+                        route.getDouble("rps"), route.getLong("errors"), "held", "-", "-");
+            }
+        }
+        JSONObject commands = report.getJSONObject("commands");
+        System.out.printf("command-to-apply: %d/%d applied (%d outstanding), p50 %.1f ms, p99 %.1f ms, max %.1f ms%n",
+                commands.getLong("applied"), commands.getLong("issued"), commands.getLong("outstanding"),
+                commands.getDouble("p50Ms"), commands.getDouble("p99Ms"), commands.getDouble("maxMs"));
+    }
+
+    static List<String> checkGates(SimConfig config, JSONObject report) {
+        List<String> failures = new ArrayList<>();
+        if (config.minRps > 0 && report.getDouble("rps") < config.minRps) {
+            failures.add(String.format("throughput %.1f req/s < %.1f", report.getDouble("rps"), config.minRps));
+        }
+        if (config.maxP99Ms > 0) {
+            JSONObject routes = report.getJSONObject("routes");
+            for (String name : routes.keySet()) {
+                JSONObject route = routes.getJSONObject(name);
+                if (route.has("p99Ms") && route.getDouble("p99Ms") > config.maxP99Ms) {
+                    failures.add(String.format("%s p99 %.1f ms > %.1f", name, route.getDouble("p99Ms"), config.maxP99Ms));
+                }
+            }
+        }
+        double commandP99 = report.getJSONObject("commands").getDouble("p99Ms");
+        if (config.maxCommandP99Ms > 0 && commandP99 > config.maxCommandP99Ms) {
+            failures.add(String.format("command-to-apply p99 %.1f ms > %.1f", commandP99, config.maxCommandP99Ms));
+        }
+        return failures;
+    }
+
+    private static void log(String message) {
+        System.out.println("[FleetSim] " + message);
+    }
+}
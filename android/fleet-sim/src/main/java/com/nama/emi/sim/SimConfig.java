@@ -0,0 +1,120 @@
+package com.nama.emi.sim;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Command-line options, given as --name=value. Defaults model the app as it
+ * ships: the WebView heartbeat polls every 10s and the web location fallback
+ * reports every 5s.
+ */
+final class SimConfig {
+    static final String PROTOCOL_WEB = "web";
+    static final String PROTOCOL_NATIVE = "native";
+    static final String CHANNEL_STREAM = "stream";
+    static final String CHANNEL_POLL = "poll";
+
+    /** One or more base URLs; devices are spread across them (e.g. 127.0.0.1 and 127.0.0.2 to get more source ports). */
+    List<URI> servers = List.of(URI.create("http://localhost:5000"));
+    int devices = 10000;
+    /** "web": MobileClient.tsx fallback loop; "native": WipeDevicePlugin's HeartbeatService and CommandChannel. */
+    String protocol = PROTOCOL_WEB;
+    /** Native command channel: "stream" (SSE) or "poll" (long-poll fallback). */
+    String channel = CHANNEL_STREAM;
+    long pollMs = 10000;
+    long telemetryMs = 10000;
+    long locationMs = 5000;
+    double trackingRatio = 0.1;
+    long applyMs = 50;
+    double commandsPerSecond = 20;
+    double wipeRatio = 0.005;
+    double releaseRatio = 0.005;
+    int rampSeconds = 30;
+    int durationSeconds = 120;
+    int seedConcurrency = 200;
+    long randomSeed = 1;
+    String idPrefix = "SIM-" + Long.toString(System.currentTimeMillis(), 36) + "-";
+    boolean seed = true;
+    boolean cleanup = false;
+    String jsonOut;
+    /** Regression gates, 0 = off: minimum request throughput and maximum p99s in milliseconds. */
+    double minRps;
+    double maxP99Ms;
+    double maxCommandP99Ms;
+
+    static SimConfig parse(String[] args) {
+        SimConfig config = new SimConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument: " + arg);
+            }
+            int eq = arg.indexOf('=');
+            String name = eq < 0 ? arg.substring(2) : arg.substring(2, eq);
+            String value = eq < 0 ? "true" : arg.substring(eq + 1);
+            config.set(name, value);
+        }
+        config.validate();
+        return config;
+    }
+
+    private void set(String name, String value) {
+        switch (name) {
+            case "server":
+                List<URI> list = new ArrayList<>();
+                for (String url : value.split(",")) {
+                    String trimmed = url.trim();
+                    list.add(URI.create(trimmed.endsWith("/") ? trimmed.substring(0, trimmed.length() - 1) : trimmed));
+                }
+                servers = list;
+                break;
+            case "devices": devices = Integer.parseInt(value); break;
+            case "protocol": protocol = value; break;
+            case "channel": channel = value; break;
+            case "poll-ms": pollMs = Long.parseLong(value); break;
+            case "telemetry-ms": telemetryMs = Long.parseLong(value); break;
+            case "location-ms": locationMs = Long.parseLong(value); break;
+            case "tracking-ratio": trackingRatio = Double.parseDouble(value); break;
+            case "apply-ms": applyMs = Long.parseLong(value); break;
+            case "commands-per-sec": commandsPerSecond = Double.parseDouble(value); break;
+            case "wipe-ratio": wipeRatio = Double.parseDouble(value); break;
+            case "release-ratio": releaseRatio = Double.parseDouble(value); break;
+            case "ramp-s": rampSeconds = Integer.parseInt(value); break;
+            case "duration-s": durationSeconds = Integer.parseInt(value); break;
+            case "seed-concurrency": seedConcurrency = Integer.parseInt(value); break;
+            case "random-seed": randomSeed = Long.parseLong(value); break;
+            case "id-prefix": idPrefix = value; break;
+            case "no-seed": seed = !Boolean.parseBoolean(value); break;
+            case "cleanup": cleanup = Boolean.parseBoolean(value); break;
+            case "json": jsonOut = value; break;
+            case "min-rps": minRps = Double.parseDouble(value); break;
+            case "max-p99-ms": maxP99Ms = Double.parseDouble(value); break;
+            case "max-command-p99-ms": maxCommandP99Ms = Double.parseDouble(value); break;
+            default:
+                throw new IllegalArgumentException("Unknown option: --" + name);
+        }
+    }
+
+    private void validate() {
+        if (!PROTOCOL_WEB.equals(protocol) && !PROTOCOL_NATIVE.equals(protocol)) {
+            throw new IllegalArgumentException("--protocol must be web or native");
+        }
+        if (!CHANNEL_STREAM.equals(channel) && !CHANNEL_POLL.equals(channel)) {
+            throw new IllegalArgumentException("--channel must be stream or poll");
+        }
+        if (devices <= 0 || servers.isEmpty() || pollMs <= 0 || telemetryMs <= 0 || locationMs <= 0) {
+            throw new IllegalArgumentException("--devices and intervals must be positive");
+        }
+        if (wipeRatio + releaseRatio > 1) {
+            throw new IllegalArgumentException("--wipe-ratio plus --release-ratio must not exceed 1");
+        }
+    }
+
+    URI serverFor(int index) {
+        return servers.get(index % servers.size());
+    }
+
+    String deviceId(int index) {
+        return idPrefix + index;
+    }
+}
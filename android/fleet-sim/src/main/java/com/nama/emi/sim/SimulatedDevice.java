@@ -0,0 +1,393 @@
+package com.nama.emi.sim;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.stream.Stream;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * One financed handset, run on its own virtual thread. Speaks the same
+ * protocol as the app:
+ *
+ * web:    the MobileClient.tsx fallback heartbeat - GET /api/devices/:id every
+ *         tick, act on wipe/release/lock changes, PUT /telemetry, and
+ *         PUT /location while tracking.
+ * native: WipeDevicePlugin's HeartbeatService - control state from the
+ *         CommandChannel (SSE or long-poll) and the telemetry batch reply,
+ *         batched telemetry and location, and command acks.
+ *
+ * Applying a lock state sleeps for applyMs in place of the DevicePolicyManager
+ * calls. A wipe or release ends the device.
+ */
+final class SimulatedDevice implements Runnable {
+    private static final int LONG_POLL_SECONDS = 25;
+
+    private final Fleet fleet;
+    private final SimConfig config;
+    private final String id;
+    private final URI server;
+    private final Random random;
+    private final long startDelayMs;
+
+    private volatile boolean alive = true;
+    private long lastVersion;
+    private Boolean appliedLocked;
+    private JSONObject appliedFeatures;
+    private boolean tracking;
+    private int battery;
+    private long telemetrySeq;
+    private long locationSeq;
+    private double lat;
+    private double lng;
+
+    SimulatedDevice(Fleet fleet, int index, long startDelayMs) {
+        this.fleet = fleet;
+        this.config = fleet.config;
+        this.id = config.deviceId(index);
+        this.server = config.serverFor(index);
+        this.random = new Random(config.randomSeed * 31 + index);
+        this.startDelayMs = startDelayMs;
+        this.tracking = random.nextDouble() < config.trackingRatio;
+        this.battery = 20 + random.nextInt(80);
+        this.lat = 12.9 + random.nextDouble();
+        this.lng = 77.5 + random.nextDouble();
+    }
+
+    @Override
+    public void run() {
+        if (!sleep(startDelayMs)) {
+            return;
+        }
+        if (SimConfig.PROTOCOL_NATIVE.equals(config.protocol)) {
+            Thread.ofVirtual().name("channel-" + id).start(this::runChannel);
+            runNative();
+        } else {
+            runWeb();
+        }
+    }
+
+    private boolean live() {
+        return alive && fleet.isRunning();
+    }
+
+    // --- web: MobileClient.tsx heartbeat ---
+
+    private void runWeb() {
+        long now = System.currentTimeMillis();
+        long nextPoll = now;
+        long nextLocation = now + random.nextInt((int) Math.min(config.locationMs, Integer.MAX_VALUE));
+        while (live()) {
+            now = System.currentTimeMillis();
+            if (now >= nextPoll) {
+                webHeartbeat();
+                nextPoll += config.pollMs;
+            }
+            if (tracking && now >= nextLocation) {
+                JSONObject body = new JSONObject().put("lat", nextLat()).put("lng", nextLng());
+                fleet.send(server, "PUT", path("location"), "PUT /:id/location", body);
+                nextLocation += config.locationMs;
+            }
+            long wake = tracking ? Math.min(nextPoll, nextLocation) : nextPoll;
+            if (!sleep(wake - System.currentTimeMillis())) {
+                return;
+            }
+        }
+    }
+
+    private void webHeartbeat() {
+        Fleet.Response response = fleet.send(server, "GET", path(null), "GET /:id", null);
+        if (response.code == 404) {
+            end(null);
+            return;
+        }
+        if (!response.isSuccessful()) {
+            return;
+        }
+        JSONObject device = response.json();
+        tracking = device.optBoolean("isTracking", tracking);
+        if (device.optBoolean("wipeRequested")) {
+            end("wipe");
+            return;
+        }
+        if (device.optBoolean("releaseRequested")) {
+            end("release");
+            return;
+        }
+        applyLockState(device);
+
+        JSONObject telemetry = new JSONObject()
+                .put("batteryLevel", nextBattery())
+                .put("networkType", "wifi")
+                .put("simCarrier", "Sim Telecom")
+                .put("androidVersion", "14")
+                .put("lastSeen", System.currentTimeMillis());
+        fleet.send(server, "PUT", path("telemetry"), "PUT /:id/telemetry", telemetry);
+    }
+
+    // --- native: HeartbeatService + CommandChannel ---
+
+    private void runNative() {
+        long now = System.currentTimeMillis();
+        long nextTelemetry = now + random.nextInt((int) Math.min(config.telemetryMs, Integer.MAX_VALUE));
+        long nextLocation = now + random.nextInt((int) Math.min(config.locationMs, Integer.MAX_VALUE));
+        while (live()) {
+            now = System.currentTimeMillis();
+            if (now >= nextTelemetry) {
+                sendTelemetryBatch();
+                nextTelemetry += config.telemetryMs;
+            }
+            if (tracking && now >= nextLocation) {
+                sendLocationBatch();
+                nextLocation += config.locationMs;
+            }
+            long wake = tracking ? Math.min(nextTelemetry, nextLocation) : nextTelemetry;
+            if (!sleep(wake - System.currentTimeMillis())) {
+                return;
+            }
+        }
+    }
+
+    private void sendTelemetryBatch() {
+        telemetrySeq++;
+        JSONObject sample = new JSONObject()
+                .put("q", telemetrySeq)
+                .put("t", System.currentTimeMillis())
+                .put("b", nextBattery());
+        if (telemetrySeq == 1) {
+            sample.put("n", "WIFI").put("c", "Sim Telecom").put("v", "14");
+        }
+        JSONObject batch = new JSONObject()
+                .put("a", telemetrySeq - 1)
+                .put("s", new JSONArray().put(sample));
+        long held = heldVersion();
+        if (held >= 0) {
+            // The reply then leaves the control state out unless it changed
+            batch.put("sv", held);
+        }
+        Fleet.Response response = fleet.send(server, "POST", path("telemetry/batch"), "POST /:id/telemetry/batch", batch);
+        if (response.code == 404) {
+            end(null);
+        } else if (response.isSuccessful()) {
+            JSONObject state = response.json().optJSONObject("state");
+            if (state != null) {
+                onState(state);
+            }
+        }
+    }
+
+    private void sendLocationBatch() {
+        locationSeq++;
+        JSONArray point = new JSONArray()
+                .put(locationSeq)
+                .put(System.currentTimeMillis())
+                .put(nextLat())
+                .put(nextLng())
+                .put(15);
+        JSONObject batch = new JSONObject()
+                .put("a", locationSeq - 1)
+                .put("p", new JSONArray().put(point));
+        fleet.send(server, "POST", path("location/batch"), "POST /:id/location/batch", batch);
+    }
+
+    private void runChannel() {
+        int attempt = 0;
+        while (live()) {
+            boolean ok = SimConfig.CHANNEL_POLL.equals(config.channel) ? pollOnce() : streamOnce();
+            attempt = ok ? 0 : attempt + 1;
+            // Same equal-jitter backoff as CommandChannel
+            long window = Math.min(60000, 1000L << Math.min(attempt - 1, 16));
+            if (!ok && !sleep(window / 2 + (long) (random.nextDouble() * window / 2))) {
+                return;
+            }
+        }
+    }
+
+    /** Holds one SSE connection until it ends; false on error. */
+    private boolean streamOnce() {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(server + path("commands/stream")))
+                .header("Accept", "text/event-stream")
+                .header("Last-Event-ID", Long.toString(lastVersion))
+                .build();
+        try {
+            HttpResponse<Stream<String>> response = fleet.http.send(request, HttpResponse.BodyHandlers.ofLines());
+            fleet.stats().recordHeld("GET /:id/commands/stream", response.statusCode());
+            if (response.statusCode() == 404) {
+                end(null);
+                return true;
+            }
+            if (response.statusCode() != 200) {
+                response.body().close();
+                return false;
+            }
+            try (Stream<String> lines = response.body()) {
+                String event = null;
+                StringBuilder data = new StringBuilder();
+                Iterator<String> it = lines.iterator();
+                while (live() && it.hasNext()) {
+                    String line = it.next();
+                    if (line.isEmpty()) {
+                        if ("state".equals(event) && data.length() > 0) {
+                            onState(new JSONObject(data.toString()));
+                        }
+                        event = null;
+                        data.setLength(0);
+                    } else if (line.startsWith("event:")) {
+                        event = line.substring(6).trim();
+                    } else if (line.startsWith("data:")) {
+                        data.append(line.substring(5).trim());
+                    }
+                }
+            }
+            return true;
+        } catch (IOException | RuntimeException e) {
+            fleet.stats().recordHeld("GET /:id/commands/stream", 0);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            alive = false;
+            return false;
+        }
+    }
+
+    /** One long-poll, as CommandChannel does when streaming is unavailable; false on error. */
+    private boolean pollOnce() {
+        HttpRequest request = HttpRequest.newBuilder(URI.create(server + path("commands")
+                        + "?since=" + lastVersion + "&timeout=" + LONG_POLL_SECONDS))
+                .timeout(Duration.ofSeconds(LONG_POLL_SECONDS + 10))
+                .build();
+        try {
+            HttpResponse<String> response = fleet.http.send(request, HttpResponse.BodyHandlers.ofString());
+            fleet.stats().recordHeld("GET /:id/commands", response.statusCode());
+            if (response.statusCode() == 404) {
+                end(null);
+                return true;
+            }
+            if (response.statusCode() == 200) {
+                onState(new JSONObject(response.body()));
+            }
+            return response.statusCode() == 200 || response.statusCode() == 204;
+        } catch (IOException | RuntimeException e) {
+            fleet.stats().recordHeld("GET /:id/commands", 0);
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            alive = false;
+            return false;
+        }
+    }
+
+    /** The stateVersion whose control state was applied, or -1 before the first one. */
+    private synchronized long heldVersion() {
+        return appliedLocked != null ? lastVersion : -1;
+    }
+
+    /** Control state from the channel or a telemetry reply; HeartbeatService.handleState in miniature. */
+    private synchronized void onState(JSONObject state) {
+        long version = state.optLong("stateVersion", 0);
+        if (!alive || (version > 0 && version <= lastVersion)) {
+            return;
+        }
+        lastVersion = version;
+        tracking = state.optBoolean("isTracking", tracking);
+        String command;
+        if (state.optBoolean("wipeRequested")) {
+            command = "wipe";
+        } else if (state.optBoolean("releaseRequested")) {
+            command = "release";
+        } else {
+            command = applyLockState(state) ? (state.optBoolean("isLocked") ? "lock" : "unlock") : null;
+        }
+        if (command != null) {
+            JSONObject ack = new JSONObject()
+                    .put("id", version)
+                    .put("type", command)
+                    .put("result", "ok")
+                    .put("at", System.currentTimeMillis());
+            fleet.send(server, "POST", path("commands/ack"), "POST /:id/commands/ack",
+                    new JSONObject().put("acks", new JSONArray().put(ack)));
+        }
+        if ("wipe".equals(command) || "release".equals(command)) {
+            end(command);
+        }
+    }
+
+    /** Applies isLocked/featureLocks if they changed, like applyDeviceState. Returns whether anything changed. */
+    private boolean applyLockState(JSONObject state) {
+        boolean locked = state.optBoolean("isLocked");
+        JSONObject features = state.optJSONObject("featureLocks");
+        if (features == null) {
+            features = new JSONObject();
+        }
+        boolean first = appliedLocked == null;
+        if (!first && appliedLocked == locked && appliedFeatures.similar(features)) {
+            return false;
+        }
+        sleep(config.applyMs);
+        appliedLocked = locked;
+        appliedFeatures = features;
+        if (first) {
+            fleet.ready.add(id);
+        } else {
+            fleet.commandApplied(id);
+        }
+        return !first;
+    }
+
+    /** Wipe, release or removal: the device leaves the fleet. */
+    private void end(String command) {
+        if (!alive) {
+            return;
+        }
+        if (command != null) {
+            sleep(config.applyMs);
+            fleet.commandApplied(id);
+            if ("wipe".equals(command)) {
+                fleet.stats().devicesWiped.increment();
+            } else {
+                fleet.stats().devicesReleased.increment();
+            }
+        }
+        alive = false;
+        fleet.ready.remove(id);
+        fleet.gone.add(id);
+    }
+
+    private int nextBattery() {
+        battery = battery <= 5 ? 100 : battery - (random.nextInt(10) == 0 ? 1 : 0);
+        return battery;
+    }
+
+    private double nextLat() {
+        lat += (random.nextDouble() - 0.5) * 0.001;
+        return lat;
+    }
+
+    private double nextLng() {
+        lng += (random.nextDouble() - 0.5) * 0.001;
+        return lng;
+    }
+
+    private String path(String suffix) {
+        return suffix == null ? "/api/devices/" + id : "/api/devices/" + id + "/" + suffix;
+    }
+
+    private boolean sleep(long ms) {
+        if (ms <= 0) {
+            return true;
+        }
+        try {
+            Thread.sleep(ms);
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            alive = false;
+            return false;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.nama.emi.sim;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters for one measurement window. Routes are named like the server's
+ * Express routes ("GET /:id"), so results line up with server logs. Held
+ * requests (SSE streams, long-polls) only count calls and errors: their
+ * duration is the hold time, not server latency.
+ */
+final class Stats {
+
+    static final class Route {
+        final boolean held;
+        final LatencyHistogram latency = new LatencyHistogram();
+        final LongAdder errors = new LongAdder();
+
+        Route(boolean held) {
+            this.held = held;
+        }
+    }
+
+    private final ConcurrentHashMap<String, Route> routes = new ConcurrentHashMap<>();
+    final LatencyHistogram commandToApply = new LatencyHistogram();
+    final LongAdder commandsIssued = new LongAdder();
+    final LongAdder commandsApplied = new LongAdder();
+    final LongAdder devicesWiped = new LongAdder();
+    final LongAdder devicesReleased = new LongAdder();
+    final long startNanos = System.nanoTime();
+
+    Route route(String name, boolean held) {
+        Route route = routes.get(name);
+        return route != null ? route : routes.computeIfAbsent(name, n -> new Route(held));
+    }
+
+    /** Records a finished request; a status of 0 means it failed before a response arrived. */
+    void record(String name, long startNanos, int status) {
+        Route route = route(name, false);
+        route.latency.recordSince(startNanos);
+        if (status == 0 || status >= 500) {
+            route.errors.increment();
+        }
+    }
+
+    void recordHeld(String name, int status) {
+        Route route = route(name, true);
+        route.latency.recordMicros(0);
+        if (status == 0 || status >= 500) {
+            route.errors.increment();
+        }
+    }
+
+    /** Routes sorted by name. */
+    Map<String, Route> routes() {
+        return new TreeMap<>(routes);
+    }
+
+    long requests() {
+        long total = 0;
+        for (Route route : routes.values()) {
+            total += route.latency.count();
+        }
+        return total;
+    }
+
+    long errors() {
+        long total = 0;
+        for (Route route : routes.values()) {
+            total += route.errors.sum();
+        }
+        return total;
+    }
+
+    double elapsedSeconds() {
+        return (System.nanoTime() - startNanos) / 1e9;
+    }
+}
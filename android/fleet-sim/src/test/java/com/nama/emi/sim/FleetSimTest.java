@@ -0,0 +1,57 @@
+package com.nama.emi.sim;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import org.json.JSONObject;
+import org.junit.Test;
+
+public class FleetSimTest {
+
+    @Test
+    public void parsesOptionsAndServerList() {
+        SimConfig config = SimConfig.parse(new String[] {
+                "--server=http://127.0.0.1:5000/,http://127.0.0.2:5000",
+                "--devices=100000",
+                "--protocol=native",
+                "--channel=poll",
+                "--cleanup"
+        });
+
+        assertEquals(100000, config.devices);
+        assertEquals(SimConfig.PROTOCOL_NATIVE, config.protocol);
+        assertEquals(SimConfig.CHANNEL_POLL, config.channel);
+        assertTrue(config.cleanup);
+        assertEquals("http://127.0.0.1:5000", config.serverFor(0).toString());
+        assertEquals("http://127.0.0.2:5000", config.serverFor(1).toString());
+        assertEquals("http://127.0.0.1:5000", config.serverFor(2).toString());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownOption() {
+        SimConfig.parse(new String[] { "--devcies=10" });
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownProtocol() {
+        SimConfig.parse(new String[] { "--protocol=grpc" });
+    }
+
+    @Test
+    public void gatesFlagSlowRoutesAndLowThroughput() {
+        SimConfig config = SimConfig.parse(new String[] { "--min-rps=1000", "--max-p99-ms=50", "--max-command-p99-ms=2000" });
+        JSONObject report = new JSONObject()
+                .put("rps", 800.0)
+                .put("routes", new JSONObject()
+                        .put("GET /:id", new JSONObject().put("p99Ms", 75.0))
+                        .put("PUT /:id/telemetry", new JSONObject().put("p99Ms", 20.0))
+                        .put("GET /:id/commands/stream", new JSONObject().put("count", 10)))
+                .put("commands", new JSONObject().put("p99Ms", 1500.0));
+
+        List<String> failures = FleetSim.checkGates(config, report);
+
+        assertEquals(2, failures.size());
+        assertTrue(failures.get(0).startsWith("throughput"));
+        assertTrue(failures.get(1).startsWith("GET /:id p99"));
+    }
+}
@@ -0,0 +1,40 @@
+package com.nama.emi.sim;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void bucketsCoverEveryValueContiguously() {
+        for (int i = 0; i < LatencyHistogram.BUCKETS - 1; i++) {
+            long lower = LatencyHistogram.lowerBound(i);
+            assertEquals(i, LatencyHistogram.bucketIndex(lower));
+            assertEquals(i, LatencyHistogram.bucketIndex(LatencyHistogram.lowerBound(i + 1) - 1));
+        }
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void percentilesAreWithinBucketPrecision() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int micros = 1; micros <= 10000; micros++) {
+            histogram.recordMicros(micros);
+        }
+
+        assertEquals(10000, histogram.count());
+        assertEquals(5000, histogram.percentile(50), 5000 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(9900, histogram.percentile(99), 9900 / LatencyHistogram.SUB_BUCKETS);
+        assertEquals(10000, histogram.maxMicros());
+        assertEquals(5000, histogram.meanMicros());
+    }
+
+    @Test
+    public void emptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.percentile(99));
+        assertEquals(0, histogram.meanMicros());
+    }
+}
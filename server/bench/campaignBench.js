@@ -0,0 +1,143 @@
+// Campaign engine benchmark: a lock campaign over a fleet against the previous way of locking
+// in bulk - one POST /:id/lock per device, fired together - in virtual time (1 s per tick).
+// Simulated devices ack over their command channel 0.2-3 s after each push; a share of them
+// are offline and never ack, and a few report errors. Reports database operations, the
+// busiest second, and when the last device was issued, confirmed and the campaign completed.
+//
+//   node bench/campaignBench.js
+//   BENCH_DEVICES=100000 BENCH_OFFLINE=0.1 node bench/campaignBench.js
+const { createCampaigns } = require('../campaigns');
+const { MemoryModel } = require('./memoryModel');
+
+const DEVICES = Number(process.env.BENCH_DEVICES) || 20000;
+const OFFLINE_RATIO = process.env.BENCH_OFFLINE !== undefined ? Number(process.env.BENCH_OFFLINE) : 0.05;
+const ERROR_RATIO = 0.01;
+const ACK_TIMEOUT_MS = 120000;
+const TICK_MS = 1000;
+const MAX_SECONDS = 3600;
+
+// Mongoose fills these from the schema defaults
+class CampaignModel extends MemoryModel {
+    create(doc) {
+        return super.create({
+            status: 'preparing', total: 0, applyMsSum: 0,
+            counts: { queued: 0, issued: 0, applied: 0, failed: 0, superseded: 0, skipped: 0, timedOut: 0, cancelled: 0 },
+            ...doc
+        });
+    }
+}
+
+function makeFleet() {
+    const devices = [];
+    for (let i = 0; i < DEVICES; i++) {
+        devices.push({ id: `DEV-${i}`, isLocked: false, featureLocks: {}, stateVersion: 3, ackedStateVersion: 3, commandAcks: [], overdue: i % 3 !== 0 });
+    }
+    return devices;
+}
+
+// Deterministic per-device behaviour: offline, erroring, and the ack delay in ms
+const behaviour = (index) => {
+    const r = ((index * 2654435761) % 4294967296) / 4294967296;
+    return { offline: r < OFFLINE_RATIO, error: r >= OFFLINE_RATIO && r < OFFLINE_RATIO + ERROR_RATIO, delayMs: 200 + Math.floor(r * 2800) };
+};
+
+const roundTrips = (models) => models.reduce((sum, model) => sum + model.stats.roundTrips, 0);
+
+// The admin app as it was: every device locked with its own findOneAndUpdate, all at once,
+// and each online device's ack stored when it arrives
+async function legacy(fleet) {
+    const Device = new MemoryModel({ rttMs: 0 });
+    Device.load(structuredClone(fleet));
+    const targets = fleet.filter((device) => device.overdue);
+    await Promise.all(targets.map((device) => Device.findOneAndUpdate({ id: device.id },
+        { $set: { isLocked: true }, $inc: { stateVersion: 1 } }).lean()));
+    const perSecond = [Device.stats.roundTrips];
+    for (const device of targets) {
+        const { offline, delayMs } = behaviour(Number(device.id.slice(4)));
+        if (offline) continue;
+        const second = Math.floor(delayMs / TICK_MS);
+        perSecond[second] = (perSecond[second] || 0) + 1;
+    }
+    const ops = perSecond.reduce((sum, count) => sum + (count || 0), 0);
+    console.log(`${'legacy: POST /:id/lock each'.padEnd(30)} ${String(targets.length).padStart(7)} devices `
+        + `${String(ops).padStart(8)} db ops, busiest second ${String(Math.max(...perSecond.map((count) => count || 0))).padStart(7)} ops, `
+        + 'issued at 0 s, confirmations not tracked');
+}
+
+async function campaign(fleet) {
+    const Device = new MemoryModel({ rttMs: 0 });
+    Device.load(structuredClone(fleet));
+    const Campaign = new CampaignModel({ rttMs: 0 });
+    const CampaignTarget = new MemoryModel({ rttMs: 0, key: '_id' });
+    const models = [Device, Campaign, CampaignTarget];
+
+    let clock = 0;
+    const deliveries = []; // [dueMs, deviceId, ack]
+    const publish = (state) => {
+        const index = Number(state.id.slice(4));
+        const device = behaviour(index);
+        if (device.offline) return;
+        deliveries.push([clock + device.delayMs, state.id, {
+            id: state.stateVersion,
+            type: state.isLocked ? 'lock' : 'unlock',
+            result: device.error ? 'error: lock task not permitted' : 'ok',
+            at: new Date(clock)
+        }]);
+    };
+    const quiet = { log: () => {}, error: console.error };
+    const engine = createCampaigns({
+        Device, Campaign, CampaignTarget, publish,
+        planFilter: (query) => (query.overdue ? { overdue: true } : {}),
+        now: () => clock,
+        logger: quiet
+    });
+
+    // Target selection runs in the background; let it finish before the clock starts
+    const prepareStart = process.hrtime.bigint();
+    const created = await engine.create({ action: 'lock', filter: { overdue: 'true' }, ackTimeoutMs: ACK_TIMEOUT_MS });
+    while ((await Campaign.findOne({ id: created.id }).lean()).status === 'preparing') {
+        await new Promise((resolve) => setImmediate(resolve));
+    }
+    const prepareMs = Number(process.hrtime.bigint() - prepareStart) / 1e6;
+    const prepareOps = roundTrips(models);
+    let status;
+    let busiest = 0;
+    let issuedAt = null;
+    let confirmedAt = null;
+    for (let second = 0; second < MAX_SECONDS; second++) {
+        const before = roundTrips(models);
+        await engine.tick();
+        // The commands/ack route: store the ack, then settle campaign targets
+        deliveries.sort((a, b) => a[0] - b[0]);
+        while (deliveries.length > 0 && deliveries[0][0] <= clock + TICK_MS) {
+            const [, deviceId, ack] = deliveries.shift();
+            await Device.updateOne({ id: deviceId }, { $push: { commandAcks: { $each: [ack], $slice: -50 } }, $max: { ackedStateVersion: ack.id } });
+            await engine.onAcks(deviceId, [ack]);
+        }
+        busiest = Math.max(busiest, roundTrips(models) - before);
+        clock += TICK_MS;
+
+        status = await Campaign.findOne({ id: created.id }).lean();
+        if (issuedAt === null && status.status !== 'preparing' && status.counts.queued === 0) issuedAt = second;
+        if (confirmedAt === null && issuedAt !== null && deliveries.length === 0) confirmedAt = second;
+        if (status.status === 'completed') break;
+    }
+    const ops = roundTrips(models);
+    console.log(`${'campaign: batched, paced'.padEnd(30)} ${String(status.total).padStart(7)} devices `
+        + `${String(ops).padStart(8)} db ops, busiest second ${String(busiest).padStart(7)} ops, `
+        + `issued at ${issuedAt} s, last ack ${confirmedAt} s, completed at ${Math.round(clock / 1000)} s`);
+    console.log(`  targets selected in ${prepareMs.toFixed(0)} ms real time, ${prepareOps} db ops`);
+    const { counts } = status;
+    console.log(`  ${counts.applied} applied, ${counts.failed} failed, ${counts.timedOut} timed out (offline), `
+        + `${(ops / status.total).toFixed(1)} db ops per device, average issue-to-ack ${(status.applyMsSum / counts.applied).toFixed(0)} ms`);
+}
+
+(async () => {
+    console.log(`${DEVICES} devices, a third of them current; ${OFFLINE_RATIO * 100}% offline, ack timeout ${ACK_TIMEOUT_MS / 1000} s\n`);
+    const fleet = makeFleet();
+    await legacy(fleet);
+    await campaign(fleet);
+})().catch((err) => {
+    console.error(err);
+    process.exit(1);
+});
@@ -0,0 +1,193 @@
+// Telemetry/location ingestion benchmark: the previous per-request findOneAndUpdate that
+// sends the whole device back against the coalescing ingest writer, replaying the web
+// client's traffic (telemetry every 10 s, location every 5 s for tracked devices) in
+// virtual time. Reports database write commands, documents written and response bytes.
+//
+//   node bench/ingestBench.js                    in-memory stand-in
+//   BENCH_DEVICES=50000 BENCH_MINUTES=30 node bench/ingestBench.js
+//   BENCH_MONGODB_URI=mongodb://localhost:27017 node bench/ingestBench.js
+//                                                real MongoDB, database emi_ingest_bench (dropped first)
+const { createIngest } = require('../ingest');
+const { MemoryModel } = require('./memoryModel');
+
+const DEVICES = Number(process.env.BENCH_DEVICES) || 2000;
+const MINUTES = Number(process.env.BENCH_MINUTES) || 5;
+const TRACKING_RATIO = 0.1;
+const TELEMETRY_MS = 10000;
+const LOCATION_MS = 5000;
+const TICK_MS = 1000;
+const ACK_BYTES = Buffer.byteLength(JSON.stringify({ ok: 1 }));
+
+// Documents shaped like a device a few months in: payments, events, acks and location history
+function makeFleet() {
+    const devices = [];
+    for (let i = 0; i < DEVICES; i++) {
+        devices.push({
+            id: `DEV-${i}`,
+            customerName: `Customer ${i}`,
+            mobileNo: String(9000000000 + i),
+            aadharNo: String(100000000000 + i),
+            address: `${i} Main Road, Bengaluru 560001`,
+            imei1: String(350000000000000 + i),
+            imei2: String(350000000500000 + i),
+            deviceModel: 'Galaxy A14',
+            isLocked: false,
+            isTracking: i % Math.round(1 / TRACKING_RATIO) === 0,
+            stateVersion: 3,
+            featureLocks: { camera: false, network: false, wifi: false, powerOff: false, reset: false },
+            emiDetails: {
+                financeName: 'Nama Finance', totalAmount: 18000, emiAmount: 1500, tenure: 12, paidEmis: 4,
+                nextDueDate: new Date(),
+                paymentHistory: Array.from({ length: 4 }, (_, n) => ({
+                    id: `PAY-${i}-${n}`, emiNumber: n + 1, amount: 1500, paidDate: new Date(),
+                    transactionId: `TXN${i}${n}`, paymentMethod: 'UPI', recordedBy: 'admin', recordedAt: new Date()
+                }))
+            },
+            telemetry: { batteryLevel: 80, networkType: 'wifi', simCarrier: 'Jio', androidVersion: '14', lastSeen: new Date() },
+            location: { lat: 12.97, lng: 77.59, lastUpdated: new Date() },
+            locationHistory: Array.from({ length: 100 }, (_, n) => ({ lat: 12.97 + n / 1e4, lng: 77.59, accuracy: 12, at: new Date() })),
+            securityEvents: Array.from({ length: 10 }, (_, n) => ({ seq: n + 1, type: 'simChanged', at: new Date(), data: { carrier: 'Jio' } })),
+            commandAcks: Array.from({ length: 10 }, (_, n) => ({ id: n + 1, type: 'lock', result: 'ok', at: new Date() }))
+        });
+    }
+    return devices;
+}
+
+// The web client's requests in one virtual second: [kind, deviceId, body]
+function requestsAt(second) {
+    const requests = [];
+    for (let i = 0; i < DEVICES; i++) {
+        const phase = (i * 7919) % TELEMETRY_MS;
+        const t = second * 1000;
+        if (Math.floor((t - phase) / TELEMETRY_MS) !== Math.floor((t - TICK_MS - phase) / TELEMETRY_MS)) {
+            requests.push(['telemetry', `DEV-${i}`, { batteryLevel: 80 - (second % 60), networkType: 'wifi', simCarrier: 'Jio', androidVersion: '14' }]);
+        }
+        if (i % Math.round(1 / TRACKING_RATIO) === 0
+            && Math.floor((t - phase) / LOCATION_MS) !== Math.floor((t - TICK_MS - phase) / LOCATION_MS)) {
+            requests.push(['location', `DEV-${i}`, { lat: 12.97 + second / 1e5, lng: 77.59 }]);
+        }
+    }
+    return requests;
+}
+
+// The routes as they were: one findOneAndUpdate each, returning the document (or its location)
+async function legacyHandle(Device, [kind, id, body]) {
+    if (kind === 'telemetry') {
+        const device = await Device.findOneAndUpdate({ id }, {
+            $set: {
+                'telemetry.batteryLevel': body.batteryLevel,
+                'telemetry.networkType': body.networkType,
+                'telemetry.simCarrier': body.simCarrier,
+                'telemetry.androidVersion': body.androidVersion,
+                'telemetry.lastSeen': new Date()
+            }
+        }, { new: true }).lean();
+        return Buffer.byteLength(JSON.stringify(device));
+    }
+    const device = await Device.findOneAndUpdate({ id }, {
+        $set: { 'location.lat': body.lat, 'location.lng': body.lng, 'location.lastUpdated': new Date() }
+    }, { new: true }).lean();
+    return Buffer.byteLength(JSON.stringify(device.location));
+}
+
+// The routes now: hand the report to the ingest writer and ack
+function ingestHandle(ingest, [kind, id, body]) {
+    if (kind === 'telemetry') {
+        ingest.set(id, {
+            'telemetry.batteryLevel': body.batteryLevel,
+            'telemetry.networkType': body.networkType,
+            'telemetry.simCarrier': body.simCarrier,
+            'telemetry.androidVersion': body.androidVersion,
+            'telemetry.lastSeen': new Date()
+        });
+    } else {
+        ingest.addLocations(id, [{ lat: body.lat, lng: body.lng, at: new Date() }]);
+    }
+    return ACK_BYTES;
+}
+
+async function replay(label, handle, afterSecond, counters) {
+    const start = process.hrtime.bigint();
+    let requests = 0;
+    let bytes = 0;
+    for (let second = 0; second < MINUTES * 60; second++) {
+        const batch = requestsAt(second);
+        requests += batch.length;
+        const sizes = await Promise.all(batch.map(handle));
+        bytes += sizes.reduce((sum, size) => sum + size, 0);
+        if (afterSecond) await afterSecond(second);
+    }
+    const ms = Number(process.hrtime.bigint() - start) / 1e6;
+    const { writes, docsWritten } = counters();
+    console.log(`${label.padEnd(28)} ${String(requests).padStart(9)} requests ${String(writes).padStart(9)} write commands `
+        + `${String(docsWritten).padStart(9)} docs written ${(bytes / 1e6).toFixed(1).padStart(9)} MB sent ${ms.toFixed(0).padStart(7)} ms`);
+    return { requests, writes, docsWritten, bytes };
+}
+
+function summary(legacy, coalesced) {
+    const ratio = (a, b) => (b === 0 ? 'inf' : `${(a / b).toFixed(1)}x`);
+    console.log(`\nwrite commands ${ratio(legacy.writes, coalesced.writes)} fewer, documents written `
+        + `${ratio(legacy.docsWritten, coalesced.docsWritten)} fewer, response bytes ${ratio(legacy.bytes, coalesced.bytes)} fewer`);
+}
+
+const quiet = { log: () => {}, error: console.error };
+
+async function runMemory() {
+    console.log(`In-memory stand-in, ${DEVICES} devices, ${MINUTES} virtual minutes\n`);
+    const fleet = makeFleet();
+
+    const legacyDevices = new MemoryModel({ rttMs: 0 });
+    legacyDevices.load(structuredClone(fleet));
+    const legacy = await replay('legacy: findOneAndUpdate', (request) => legacyHandle(legacyDevices, request), null,
+        () => ({ writes: legacyDevices.stats.roundTrips, docsWritten: legacyDevices.stats.docsWritten }));
+
+    const devices = new MemoryModel({ rttMs: 0 });
+    devices.load(structuredClone(fleet));
+    let clock = 0;
+    const ingest = createIngest({ Device: devices, now: () => clock, logger: quiet });
+    const coalesced = await replay('ingest: coalesced bulkWrite', (request) => ingestHandle(ingest, request),
+        async () => { clock += TICK_MS; await ingest.tick(); },
+        () => ({ writes: devices.stats.roundTrips, docsWritten: devices.stats.docsWritten }));
+    await ingest.stop();
+    summary(legacy, coalesced);
+}
+
+async function runMongo(uri) {
+    const mongoose = require('mongoose');
+    await mongoose.connect(uri, { dbName: 'emi_ingest_bench' });
+    await mongoose.connection.dropDatabase();
+    const Device = require('../models/Device');
+    await Device.syncIndexes();
+    console.log(`MongoDB ${uri}/emi_ingest_bench, ${DEVICES} devices, ${MINUTES} virtual minutes\n`);
+
+    const fleet = makeFleet();
+    const seed = async () => {
+        await Device.deleteMany({});
+        for (let i = 0; i < fleet.length; i += 5000) {
+            await Device.collection.insertMany(fleet.slice(i, i + 5000).map((device) => structuredClone(device)));
+        }
+    };
+
+    await seed();
+    let legacyWrites = 0;
+    const legacy = await replay('legacy: findOneAndUpdate', (request) => { legacyWrites++; return legacyHandle(Device, request); },
+        null, () => ({ writes: legacyWrites, docsWritten: legacyWrites }));
+
+    await seed();
+    let clock = 0;
+    const ingest = createIngest({ Device, now: () => clock, logger: quiet });
+    const coalesced = await replay('ingest: coalesced bulkWrite', (request) => ingestHandle(ingest, request),
+        async () => { clock += TICK_MS; await ingest.tick(); },
+        () => ({ writes: ingest.stats.flushes, docsWritten: ingest.stats.written }));
+    await ingest.stop();
+    summary(legacy, coalesced);
+
+    await mongoose.connection.dropDatabase();
+    await mongoose.disconnect();
+}
+
+(process.env.BENCH_MONGODB_URI ? runMongo(process.env.BENCH_MONGODB_URI) : runMemory())
+    .catch((err) => {
+        console.error(err);
+        process.exit(1);
+    });
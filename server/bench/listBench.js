@@ -0,0 +1,178 @@
+// Admin device list benchmark: the previous find().lean() of the whole collection serialized
+// as one array against the keyset-paged, projected stream (deviceList.js), at several fleet
+// sizes. Reports time to the first row, time for the whole list, bytes sent and the heap
+// held above the fleet itself; the streamed figures should stay flat as the fleet grows.
+//
+//   node --expose-gc bench/listBench.js          in-memory stand-in
+//   BENCH_SIZES=10000,100000 node --expose-gc bench/listBench.js
+//   BENCH_MONGODB_URI=mongodb://localhost:27017 node --expose-gc bench/listBench.js
+//                                                real MongoDB, database emi_list_bench (dropped first);
+//                                                also prints the plan of a deep page for each filter
+const { createDeviceList } = require('../deviceList');
+const { MemoryModel } = require('./memoryModel');
+
+const SIZES = (process.env.BENCH_SIZES || '2500,10000,20000').split(',').map(Number);
+const PAGE_SIZE = 500;
+const DAY_MS = 24 * 60 * 60 * 1000;
+const NOW = Date.now();
+
+const objectIdHex = (i) => (0x65000000 + i).toString(16).padStart(8, '0') + '0'.repeat(16);
+
+// Documents shaped like a device a few months in: a tenth of them locked, one in fifty tampered
+// and one in a hundred drifted from policy
+function makeFleet(size) {
+    const devices = [];
+    for (let i = 0; i < size; i++) {
+        devices.push({
+            _id: objectIdHex(i),
+            id: `DEV-${i}`,
+            customerName: `Customer ${i}`,
+            mobileNo: String(9000000000 + i),
+            aadharNo: String(100000000000 + i),
+            address: `${i} Main Road, Bengaluru 560001`,
+            imei1: String(350000000000000 + i),
+            imei2: String(350000000500000 + i),
+            deviceModel: 'Galaxy A14',
+            isLocked: i % 10 === 0,
+            isTracking: i % 10 === 0,
+            policyDrift: i % 100 === 0,
+            featureLocks: { camera: false, network: false, wifi: false, powerOff: false, reset: false },
+            emiDetails: {
+                financeName: 'Nama Finance', totalAmount: 18000, emiAmount: 1500, tenure: 12, paidEmis: 4,
+                nextDueDate: new Date(NOW + (((i * 7919) % 60) - 30) * DAY_MS),
+                paymentHistory: Array.from({ length: 4 }, (_, n) => ({
+                    id: `PAY-${i}-${n}`, emiNumber: n + 1, amount: 1500, paidDate: new Date(NOW),
+                    transactionId: `TXN${i}${n}`, paymentMethod: 'upi', recordedBy: 'admin', recordedAt: new Date(NOW)
+                }))
+            },
+            telemetry: { batteryLevel: 80, networkType: 'wifi', simCarrier: 'Jio', androidVersion: '14', lastSeen: new Date(NOW - (i % 1440) * 60000) },
+            tamperState: { seq: 1, tampered: i % 50 === 0, isDeviceOwner: true, isAdminActive: true },
+            location: { lat: 12.97, lng: 77.59, lastUpdated: new Date(NOW) },
+            locationHistory: Array.from({ length: 100 }, (_, n) => ({ lat: 12.97 + n / 1e4, lng: 77.59, accuracy: 12, at: new Date(NOW) })),
+            securityEvents: Array.from({ length: 10 }, (_, n) => ({ seq: n + 1, type: 'simChanged', at: new Date(NOW), data: { carrier: 'Jio' } })),
+            commandAcks: Array.from({ length: 10 }, (_, n) => ({ id: n + 1, type: 'lock', result: 'ok', at: new Date(NOW) })),
+            metrics: { 'lock/apply': [12, 48000, 3500, 5200, 9100, 9800] }
+        });
+    }
+    return devices;
+}
+
+const heapUsed = () => {
+    if (global.gc) global.gc();
+    return process.memoryUsage().heapUsed;
+};
+
+// The route as it was: the whole collection in memory, then one JSON array
+async function legacyList(Device) {
+    const base = heapUsed();
+    const start = process.hrtime.bigint();
+    const devices = await Device.find().lean();
+    const body = JSON.stringify(devices);
+    const ms = Number(process.hrtime.bigint() - start) / 1e6;
+    const held = process.memoryUsage().heapUsed - base;
+    return { firstRowMs: ms, totalMs: ms, bytes: Buffer.byteLength(body), heldBytes: held, rows: devices.length };
+}
+
+// The route now: page after page of NDJSON lines, each written out as it is read
+async function streamedList(list) {
+    const base = heapUsed();
+    const start = process.hrtime.bigint();
+    let firstRowMs = null;
+    let bytes = 0;
+    let rows = 0;
+    let peak = 0;
+    let cursor;
+    do {
+        const page = list.rows(list.plan({ limit: String(PAGE_SIZE), ...(cursor ? { cursor } : {}) }));
+        let step;
+        while (!(step = await page.next()).done) {
+            bytes += Buffer.byteLength(JSON.stringify(step.value)) + 1;
+            if (firstRowMs === null) firstRowMs = Number(process.hrtime.bigint() - start) / 1e6;
+            if (++rows % PAGE_SIZE === 0) peak = Math.max(peak, process.memoryUsage().heapUsed - base);
+        }
+        cursor = step.value;
+        bytes += Buffer.byteLength(JSON.stringify({ next: cursor })) + 1;
+    } while (cursor);
+    const totalMs = Number(process.hrtime.bigint() - start) / 1e6;
+    return { firstRowMs, totalMs, bytes, heldBytes: peak, rows };
+}
+
+function print(label, size, result) {
+    console.log(`${label.padEnd(22)} ${String(size).padStart(7)} devices ${String(result.rows).padStart(7)} rows `
+        + `first row ${result.firstRowMs.toFixed(1).padStart(8)} ms  all ${result.totalMs.toFixed(0).padStart(7)} ms  `
+        + `${(result.bytes / 1e6).toFixed(1).padStart(7)} MB sent  ${(result.heldBytes / 1e6).toFixed(1).padStart(7)} MB held`);
+}
+
+async function runMemory() {
+    console.log(`In-memory stand-in, pages of ${PAGE_SIZE}${global.gc ? '' : ' (run with --expose-gc for steadier heap figures)'}\n`);
+    for (const size of SIZES) {
+        const Device = new MemoryModel({ rttMs: 0, indexPath: '_id' });
+        Device.load(makeFleet(size));
+        print('legacy: find().lean()', size, await legacyList(Device));
+        const list = createDeviceList({ Device, parseId: (hex) => hex, now: () => NOW });
+        print('streamed pages', size, await streamedList(list));
+    }
+}
+
+// Winning plan and documents examined for the last page of each filter
+async function explainDeepPages(Device, list) {
+    const filters = [{}, { locked: 'true' }, { tampered: 'true' }, { tampered: 'false' }, { drift: 'true' }, { overdue: 'true' },
+        { seenBefore: String(NOW - 12 * 60 * 60000) }];
+    for (const query of filters) {
+        let cursor;
+        let pages = 0;
+        for (;;) {
+            const plan = list.plan({ ...query, limit: String(PAGE_SIZE), ...(cursor ? { cursor } : {}) });
+            const page = list.rows(plan);
+            let step;
+            while (!(step = await page.next()).done);
+            pages++;
+            if (!step.value) {
+                const explain = await Device.find(plan.filter, plan.projection).sort(plan.sort).limit(plan.limit + 1)
+                    .explain('executionStats');
+                const stats = explain.executionStats;
+                const stages = JSON.stringify(explain.queryPlanner.winningPlan).match(/"stage":"[A-Z_]+"/g) || [];
+                console.log(`${JSON.stringify(query).padEnd(40)} ${String(pages).padStart(4)} pages, last page: `
+                    + `${stats.nReturned} returned, ${stats.totalKeysExamined} keys, ${stats.totalDocsExamined} docs examined, `
+                    + stages.map((stage) => stage.slice(9, -1)).join(' < '));
+                break;
+            }
+            cursor = step.value;
+        }
+    }
+}
+
+async function runMongo(uri) {
+    const mongoose = require('mongoose');
+    await mongoose.connect(uri, { dbName: 'emi_list_bench' });
+    await mongoose.connection.dropDatabase();
+    const Device = require('../models/Device');
+    await Device.syncIndexes();
+    console.log(`MongoDB ${uri}/emi_list_bench, pages of ${PAGE_SIZE}\n`);
+
+    for (const size of SIZES) {
+        await Device.deleteMany({});
+        const fleet = makeFleet(size);
+        for (let i = 0; i < fleet.length; i += 5000) {
+            await Device.collection.insertMany(fleet.slice(i, i + 5000).map((device) => ({
+                ...device, _id: new mongoose.Types.ObjectId(device._id)
+            })));
+        }
+        print('legacy: find().lean()', size, await legacyList(Device));
+        const list = createDeviceList({ Device, now: () => NOW });
+        print('streamed pages', size, await streamedList(list));
+        if (size === SIZES[SIZES.length - 1]) {
+            console.log();
+            await explainDeepPages(Device, list);
+        }
+    }
+
+    await mongoose.connection.dropDatabase();
+    await mongoose.disconnect();
+}
+
+(process.env.BENCH_MONGODB_URI ? runMongo(process.env.BENCH_MONGODB_URI) : runMemory())
+    .catch((err) => {
+        console.error(err);
+        process.exit(1);
+    });
@@ -0,0 +1,294 @@
+// Minimal in-memory stand-in for the Mongoose model calls the scheduler, the ingest
+// writer, the device list and the campaign engine make, with a simulated round trip per call and counters for documents examined
+// and written. An optional sorted index on one date path mimics an index range scan.
+
+const sleep = (ms) => new Promise((resolve) => setTimeout(resolve, ms));
+
+const get = (doc, path) => path.split('.').reduce((value, key) => (value == null ? undefined : value[key]), doc);
+
+const set = (doc, path, value) => {
+    const keys = path.split('.');
+    const last = keys.pop();
+    const target = keys.reduce((node, key) => (node[key] = node[key] || {}), doc);
+    target[last] = value;
+};
+
+const matchesCondition = (value, condition) => {
+    if (condition === null || typeof condition !== 'object' || condition instanceof Date) {
+        return value instanceof Date ? value.getTime() === condition.getTime() : value === condition;
+    }
+    if ('$in' in condition && !condition.$in.includes(value)) return false;
+    if ('$ne' in condition && value === condition.$ne) return false;
+    if ('$lt' in condition && !(value < condition.$lt)) return false;
+    if ('$gt' in condition && !(value > condition.$gt)) return false;
+    if ('$gte' in condition && !(value >= condition.$gte)) return false;
+    return true;
+};
+
+// $expr comparisons of two operands, each a "$field.path" or a literal
+const operand = (doc, value) => (typeof value === 'string' && value.startsWith('$') ? get(doc, value.slice(1)) : value);
+const evaluate = (doc, expr) => Object.entries(expr).every(([op, [a, b]]) => {
+    const x = operand(doc, a);
+    const y = operand(doc, b);
+    if (op === '$gte') return x >= y;
+    if (op === '$lt') return x < y;
+    throw new Error(`Unsupported $expr operator ${op}`);
+});
+
+const matches = (doc, filter) => Object.entries(filter).every(([path, condition]) => {
+    if (path === '$where') return condition(doc);
+    if (path === '$expr') return evaluate(doc, condition);
+    if (path === '$or') return condition.some((branch) => matches(doc, branch));
+    return matchesCondition(get(doc, path), condition);
+});
+
+// Ascending or descending on each path in turn; missing values sort first, as in MongoDB
+const compare = (sort) => (a, b) => {
+    for (const [path, direction] of Object.entries(sort)) {
+        const x = get(a, path);
+        const y = get(b, path);
+        if (x === y || (x instanceof Date && y instanceof Date && x.getTime() === y.getTime())) continue;
+        if (x === undefined || x === null) return -direction;
+        if (y === undefined || y === null) return direction;
+        return x < y ? -direction : direction;
+    }
+    return 0;
+};
+
+const project = (doc, projection) => {
+    if (!projection) return structuredClone(doc);
+    if (Object.values(projection).every((include) => !include)) {
+        const out = structuredClone(doc);
+        for (const path of Object.keys(projection)) delete out[path];
+        return out;
+    }
+    const out = doc._id !== undefined && projection._id !== 0 ? { _id: doc._id } : {};
+    for (const [path, include] of Object.entries(projection)) {
+        if (include && get(doc, path) !== undefined) set(out, path, structuredClone(get(doc, path)));
+    }
+    return out;
+};
+
+class Query {
+    constructor(model, filter, projection) {
+        this.model = model;
+        this.filter = filter;
+        this.projection = projection;
+        this.order = null;
+        this.max = Infinity;
+    }
+
+    lean() {
+        return this;
+    }
+
+    sort(order) {
+        this.order = order;
+        return this;
+    }
+
+    limit(max) {
+        this.max = max;
+        return this;
+    }
+
+    // Read in index order when the sort is the index path, stopping at the limit
+    results() {
+        const keys = this.order ? Object.keys(this.order) : [];
+        if (keys.length === 1 && keys[0] === this.model.indexPath && this.order[keys[0]] === 1) {
+            return this.model.scan(this.filter, this.max);
+        }
+        let docs = this.model.scan(this.filter);
+        if (this.order) docs = docs.sort(compare(this.order));
+        return docs.slice(0, this.max);
+    }
+
+    async *cursor({ batchSize = 1000 } = {}) {
+        const docs = this.results();
+        for (let i = 0; i < docs.length; i += batchSize) {
+            await this.model.roundTrip();
+            for (const doc of docs.slice(i, i + batchSize)) yield project(doc, this.projection);
+        }
+    }
+
+    then(resolve, reject) {
+        return this.model.roundTrip()
+            .then(() => this.results().map((doc) => project(doc, this.projection)))
+            .then(resolve, reject);
+    }
+}
+
+class MemoryModel {
+    constructor({ rttMs = 1, indexPath = null, key = 'id' } = {}) {
+        this.rttMs = rttMs;
+        this.indexPath = indexPath;
+        this.key = key;
+        this.docs = new Map();
+        this.index = null;
+        this.nextId = 1;
+        this.stats = { roundTrips: 0, docsExamined: 0, docsWritten: 0 };
+    }
+
+    // ObjectId-like, increasing in insertion order
+    generateId() {
+        return (this.nextId++).toString(16).padStart(24, '0');
+    }
+
+    async roundTrip() {
+        this.stats.roundTrips++;
+        if (this.rttMs > 0) await sleep(this.rttMs);
+    }
+
+    load(docs) {
+        for (const doc of docs) this.docs.set(doc[this.key], doc);
+        if (this.indexPath) {
+            this.index = [...this.docs.values()].sort(compare({ [this.indexPath]: 1 }));
+        }
+    }
+
+    // Candidate documents: a key lookup, an index range, or a full scan. With max, an index
+    // range is examined only until that many match.
+    scan(filter, max = Infinity) {
+        let candidates;
+        const keyCondition = filter[this.key];
+        const range = this.index && filter[this.indexPath];
+        if (typeof keyCondition === 'string') {
+            candidates = this.docs.has(keyCondition) ? [this.docs.get(keyCondition)] : [];
+        } else if (keyCondition && keyCondition.$in) {
+            candidates = keyCondition.$in.map((key) => this.docs.get(key)).filter(Boolean);
+        } else if ((range && typeof range === 'object' && !(range instanceof Date)) || (this.index && max !== Infinity)) {
+            let lo = 0;
+            let hi = this.index.length;
+            if (range && '$gte' in range) lo = this.lowerBound(range.$gte);
+            else if (range && '$gt' in range) lo = this.lowerBound(range.$gt, true);
+            if (range && '$lt' in range) hi = this.lowerBound(range.$lt);
+            const found = [];
+            for (let i = lo; i < hi && found.length < max; i++) {
+                this.stats.docsExamined++;
+                if (matches(this.index[i], filter)) found.push(this.index[i]);
+            }
+            return found;
+        } else {
+            candidates = [...this.docs.values()];
+        }
+        this.stats.docsExamined += candidates.length;
+        return candidates.filter((doc) => matches(doc, filter));
+    }
+
+    // First position at or above value, or above it when past is set
+    lowerBound(value, past = false) {
+        let lo = 0;
+        let hi = this.index.length;
+        while (lo < hi) {
+            const mid = (lo + hi) >>> 1;
+            const key = get(this.index[mid], this.indexPath);
+            if (key < value || (past && key <= value)) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    apply(doc, update) {
+        for (const [path, value] of Object.entries(update.$set || {})) set(doc, path, structuredClone(value));
+        for (const [path, value] of Object.entries(update.$inc || {})) set(doc, path, (get(doc, path) || 0) + value);
+        for (const [path, value] of Object.entries(update.$max || {})) {
+            if (get(doc, path) === undefined || value > get(doc, path)) set(doc, path, value);
+        }
+        for (const [path, value] of Object.entries(update.$push || {})) {
+            let list = (get(doc, path) || []).concat(structuredClone(value.$each || [value]));
+            if (value.$slice < 0) list = list.slice(value.$slice);
+            set(doc, path, list);
+        }
+        this.stats.docsWritten++;
+    }
+
+    // Documents with no _id get one; the key must be unique
+    async insertMany(docs) {
+        await this.roundTrip();
+        for (const doc of docs) {
+            const stored = { _id: this.generateId(), ...structuredClone(doc) };
+            this.docs.set(stored[this.key], stored);
+            this.stats.docsWritten++;
+        }
+        return docs.length;
+    }
+
+    async create(doc) {
+        await this.roundTrip();
+        const stored = { _id: this.generateId(), ...structuredClone(doc) };
+        this.docs.set(stored[this.key], stored);
+        this.stats.docsWritten++;
+        return structuredClone(stored);
+    }
+
+    find(filter = {}, projection) {
+        return new Query(this, filter, projection);
+    }
+
+    findById(id) {
+        return { lean: async () => {
+            await this.roundTrip();
+            const doc = this.docs.get(id);
+            return doc ? structuredClone(doc) : null;
+        } };
+    }
+
+    async updateOne(filter, update, options = {}) {
+        await this.roundTrip();
+        let doc = this.scan(filter)[0];
+        if (!doc && options.upsert) {
+            doc = { [this.key]: filter[this.key] };
+            this.docs.set(doc[this.key], doc);
+        }
+        if (doc) this.apply(doc, update);
+        return { matchedCount: doc ? 1 : 0, modifiedCount: doc ? 1 : 0 };
+    }
+
+    findOne(filter, projection) {
+        const model = this;
+        const query = {
+            hint: () => query,
+            lean: async () => {
+                await model.roundTrip();
+                const doc = model.scan(filter)[0];
+                return doc ? project(doc, projection) : null;
+            }
+        };
+        return query;
+    }
+
+    // Resolves to the updated document (the { new: true } behaviour), or null
+    findOneAndUpdate(filter, update) {
+        const run = async () => {
+            await this.roundTrip();
+            const doc = this.scan(filter)[0];
+            if (!doc) return null;
+            this.apply(doc, update);
+            return structuredClone(doc);
+        };
+        return { lean: run, then: (resolve, reject) => run().then(resolve, reject) };
+    }
+
+    // updateOne operations only, all in one round trip
+    async bulkWrite(operations) {
+        await this.roundTrip();
+        let modified = 0;
+        for (const { updateOne } of operations) {
+            const doc = this.scan(updateOne.filter)[0];
+            if (doc) {
+                this.apply(doc, updateOne.update);
+                modified++;
+            }
+        }
+        return { modifiedCount: modified };
+    }
+
+    async updateMany(filter, update) {
+        await this.roundTrip();
+        const docs = this.scan(filter);
+        docs.forEach((doc) => this.apply(doc, update));
+        return { modifiedCount: docs.length };
+    }
+}
+
+module.exports = { MemoryModel };
@@ -0,0 +1,117 @@
+// Overdue scheduler benchmark: the previous full scan + per-device save against the
+// indexed, batched scheduler, on a steady-state fleet where everything due
+// before yesterday is already locked and the devices due yesterday are newly overdue.
+//
+//   node bench/schedulerBench.js                 in-memory stand-in (1 ms per round trip)
+//   BENCH_DEVICES=250000 BENCH_RTT_MS=2 node bench/schedulerBench.js
+//   BENCH_MONGODB_URI=mongodb://localhost:27017 node bench/schedulerBench.js
+//                                                real MongoDB, database emi_scheduler_bench (dropped first)
+const { createOverdueScheduler, OVERDUE_FEATURE_LOCKS } = require('../scheduler');
+const { MemoryModel } = require('./memoryModel');
+
+const DEVICES = Number(process.env.BENCH_DEVICES) || 100000;
+const RTT_MS = process.env.BENCH_RTT_MS !== undefined ? Number(process.env.BENCH_RTT_MS) : 1;
+const DAY_MS = 24 * 60 * 60 * 1000;
+const NOW = new Date();
+NOW.setHours(12, 0, 0, 0);
+const TODAY = new Date(NOW);
+TODAY.setHours(0, 0, 0, 0);
+
+// Due dates spread over 30 days either side of today; the past ones before yesterday are locked already
+function makeFleet() {
+    const devices = [];
+    for (let i = 0; i < DEVICES; i++) {
+        const nextDueDate = new Date(TODAY.getTime() + Math.floor(((i * 7919) % (60 * 24)) - 30 * 24) * DAY_MS / 24);
+        devices.push({
+            id: `DEV-${i}`,
+            isLocked: nextDueDate < new Date(TODAY.getTime() - DAY_MS),
+            featureLocks: {},
+            stateVersion: 1,
+            emiDetails: { paidEmis: i % 12, tenure: i % 50 === 0 ? i % 12 : 12, nextDueDate }
+        });
+    }
+    return devices;
+}
+
+// The scheduler as it was: every unlocked past-due device, then one save per device
+async function legacyCheck(Device, useExpr) {
+    const filter = { isLocked: false, 'emiDetails.nextDueDate': { $lt: TODAY } };
+    if (useExpr) filter.$expr = { $lt: ['$emiDetails.paidEmis', '$emiDetails.tenure'] };
+    else filter.$where = (doc) => doc.emiDetails.paidEmis < doc.emiDetails.tenure;
+    const overdue = await Device.find(filter).lean();
+    for (const device of overdue) {
+        await Device.updateOne({ id: device.id }, {
+            $set: { isLocked: true, featureLocks: OVERDUE_FEATURE_LOCKS, stateVersion: (device.stateVersion || 0) + 1 }
+        });
+    }
+    return { locked: overdue.length };
+}
+
+async function timed(label, stats, run) {
+    const before = stats ? { ...stats() } : null;
+    const start = process.hrtime.bigint();
+    const result = await run();
+    const ms = Number(process.hrtime.bigint() - start) / 1e6;
+    const after = stats ? stats() : null;
+    const detail = after
+        ? `, ${after.roundTrips - before.roundTrips} round trips, ${after.docsExamined - before.docsExamined} docs examined`
+        : '';
+    console.log(`${label.padEnd(40)} ${ms.toFixed(1).padStart(9)} ms  locked ${result.locked}${detail}`);
+    return result;
+}
+
+const quiet = { log: () => {}, error: console.error };
+
+async function runMemory() {
+    console.log(`In-memory stand-in, ${DEVICES} devices, ${RTT_MS} ms per round trip\n`);
+    const fleet = makeFleet();
+
+    const legacyDevices = new MemoryModel({ rttMs: RTT_MS });
+    legacyDevices.load(structuredClone(fleet));
+    await timed('legacy: scan + save per device', () => legacyDevices.stats, () => legacyCheck(legacyDevices, false));
+    await timed('legacy: next hourly run', () => legacyDevices.stats, () => legacyCheck(legacyDevices, false));
+
+    const devices = new MemoryModel({ rttMs: RTT_MS, indexPath: 'emiDetails.nextDueDate' });
+    devices.load(structuredClone(fleet));
+    let published = 0;
+    const scheduler = createOverdueScheduler({ Device: devices, publish: () => published++, logger: quiet });
+    const stats = () => devices.stats;
+    await timed('indexed: unlocked and past due', stats, () => scheduler.checkOverduePayments(NOW));
+    await timed('indexed: next hourly run', stats, () => scheduler.checkOverduePayments(NOW));
+    console.log(`\n${published} lock states published to command channels`);
+}
+
+async function runMongo(uri) {
+    const mongoose = require('mongoose');
+    await mongoose.connect(uri, { dbName: 'emi_scheduler_bench' });
+    await mongoose.connection.dropDatabase();
+    const Device = require('../models/Device');
+    await Device.syncIndexes();
+    console.log(`MongoDB ${uri}/emi_scheduler_bench, ${DEVICES} devices\n`);
+
+    const fleet = makeFleet();
+    const seed = async () => {
+        await Device.deleteMany({});
+        for (let i = 0; i < fleet.length; i += 5000) {
+            await Device.collection.insertMany(fleet.slice(i, i + 5000).map((device) => ({ ...device })));
+        }
+    };
+
+    await seed();
+    await timed('legacy: scan + save per device', null, () => legacyCheck(Device, true));
+    await timed('legacy: next hourly run', null, () => legacyCheck(Device, true));
+
+    await seed();
+    const scheduler = createOverdueScheduler({ Device, publish: () => {}, logger: quiet });
+    await timed('indexed: unlocked and past due', null, () => scheduler.checkOverduePayments(NOW));
+    await timed('indexed: next hourly run', null, () => scheduler.checkOverduePayments(NOW));
+
+    await mongoose.connection.dropDatabase();
+    await mongoose.disconnect();
+}
+
+(process.env.BENCH_MONGODB_URI ? runMongo(process.env.BENCH_MONGODB_URI) : runMemory())
+    .catch((err) => {
+        console.error(err);
+        process.exit(1);
+    });
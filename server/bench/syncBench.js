@@ -0,0 +1,151 @@
+// Device state polling benchmark: the web client's previous poll - GET /:id, the whole device
+// document every 10 s - against the conditional sync (stateSync.js), where a device sends the
+// ETag it holds and gets a bodiless 304 until its control state changes. Replays the polls in
+// virtual time with a share of devices changing state each minute. Reports response body bytes
+// per poll and how many polls had to read a device document.
+//
+//   node bench/syncBench.js                      in-memory stand-in
+//   BENCH_DEVICES=20000 BENCH_CHANGES=0.05 node bench/syncBench.js
+//   BENCH_MONGODB_URI=mongodb://localhost:27017 node bench/syncBench.js
+//                                                real MongoDB, database emi_sync_bench (dropped first);
+//                                                also prints the plan of the unchanged-state check
+const { createStateSync, VERSION_INDEX, VERSION_PROJECTION } = require('../stateSync');
+const { MemoryModel } = require('./memoryModel');
+
+const DEVICES = Number(process.env.BENCH_DEVICES) || 2000;
+const MINUTES = Number(process.env.BENCH_MINUTES) || 10;
+const CHANGE_RATIO = process.env.BENCH_CHANGES !== undefined ? Number(process.env.BENCH_CHANGES) : 0.01;
+const POLL_MS = 10000;
+
+// Documents shaped like a device a few months in: payments, events, acks and location history
+function makeFleet() {
+    const now = Date.now();
+    const devices = [];
+    for (let i = 0; i < DEVICES; i++) {
+        devices.push({
+            id: `DEV-${i}`,
+            customerName: `Customer ${i}`,
+            mobileNo: String(9000000000 + i),
+            aadharNo: String(100000000000 + i),
+            address: `${i} Main Road, Bengaluru 560001`,
+            imei1: String(350000000000000 + i),
+            imei2: String(350000000500000 + i),
+            deviceModel: 'Galaxy A14',
+            isLocked: false,
+            isTracking: false,
+            stateVersion: 3,
+            featureLocks: { camera: false, network: false, wifi: false, powerOff: false, reset: false },
+            emiDetails: {
+                financeName: 'Nama Finance', totalAmount: 18000, emiAmount: 1500, tenure: 12, paidEmis: 4,
+                nextDueDate: new Date(now + 10 * 86400000),
+                paymentHistory: Array.from({ length: 4 }, (_, n) => ({
+                    id: `PAY-${i}-${n}`, emiNumber: n + 1, amount: 1500, paidDate: new Date(now),
+                    transactionId: `TXN${i}${n}`, paymentMethod: 'upi', recordedBy: 'admin', recordedAt: new Date(now)
+                }))
+            },
+            telemetry: { batteryLevel: 80, networkType: 'wifi', simCarrier: 'Jio', androidVersion: '14', lastSeen: new Date(now) },
+            location: { lat: 12.97, lng: 77.59, lastUpdated: new Date(now) },
+            locationHistory: Array.from({ length: 100 }, (_, n) => ({ lat: 12.97 + n / 1e4, lng: 77.59, accuracy: 12, at: new Date(now) })),
+            securityEvents: Array.from({ length: 10 }, (_, n) => ({ seq: n + 1, type: 'simChanged', at: new Date(now), data: { carrier: 'Jio' } })),
+            commandAcks: Array.from({ length: 10 }, (_, n) => ({ id: n + 1, type: 'lock', result: 'ok', at: new Date(now) }))
+        });
+    }
+    return devices;
+}
+
+// Deterministic: which devices the admin locks or unlocks in a given minute
+const changesIn = (minute) => {
+    const count = Math.round(DEVICES * CHANGE_RATIO);
+    return Array.from({ length: count }, (_, n) => `DEV-${(minute * 7919 + n * 104729) % DEVICES}`);
+};
+
+async function replay(Device, poll) {
+    let polls = 0;
+    let bytes = 0;
+    let documentReads = 0;
+    for (let minute = 0; minute < MINUTES; minute++) {
+        for (const id of changesIn(minute)) {
+            await Device.updateOne({ id }, { $set: { isLocked: minute % 2 === 0 }, $inc: { stateVersion: 1 } });
+        }
+        for (let at = 0; at < 60000; at += POLL_MS) {
+            for (let i = 0; i < DEVICES; i++) {
+                const result = await poll(`DEV-${i}`);
+                polls++;
+                bytes += result.bytes;
+                if (result.read) documentReads++;
+            }
+        }
+    }
+    return { polls, bytes, documentReads };
+}
+
+function print(label, result) {
+    console.log(`${label.padEnd(30)} ${String(result.polls).padStart(8)} polls `
+        + `${(result.bytes / result.polls).toFixed(1).padStart(8)} body bytes/poll `
+        + `${(result.bytes / 1e6).toFixed(2).padStart(8)} MB total  `
+        + `${((100 * result.documentReads) / result.polls).toFixed(1).padStart(5)}% of polls read a document`);
+}
+
+async function run(makeDevice, label) {
+    const fleet = makeFleet();
+
+    // The route as it was: findOne(...).lean() of the whole document, sent as JSON
+    const legacyDevice = await makeDevice(fleet);
+    print('legacy: GET /:id', await replay(legacyDevice, async (id) => {
+        const device = await legacyDevice.findOne({ id }).lean();
+        return { bytes: Buffer.byteLength(JSON.stringify(device)), read: true };
+    }));
+
+    // The sync route: If-None-Match with the last ETag, 304 or the control fields
+    const syncDevice = await makeDevice(fleet);
+    const sync = createStateSync({ Device: syncDevice });
+    const held = new Map();
+    print('sync: GET /:id/sync', await replay(syncDevice, async (id) => {
+        const result = await sync.check(id, held.has(id) ? held.get(id) : null);
+        held.set(id, result.version);
+        return result.state
+            ? { bytes: Buffer.byteLength(JSON.stringify(result.state)), read: true }
+            : { bytes: 0, read: false };
+    }));
+    console.log(`\n${label}; a 304 also carries its ETag header, ${Buffer.byteLength('ETag: "12"\r\n')} bytes`);
+}
+
+async function runMemory() {
+    console.log(`${DEVICES} devices polling every ${POLL_MS / 1000} s for ${MINUTES} min, `
+        + `${CHANGE_RATIO * 100}% of them changing state each minute\n`);
+    await run(async (fleet) => {
+        const Device = new MemoryModel({ rttMs: 0 });
+        Device.load(structuredClone(fleet));
+        return Device;
+    }, 'In-memory stand-in');
+}
+
+async function runMongo(uri) {
+    const mongoose = require('mongoose');
+    await mongoose.connect(uri, { dbName: 'emi_sync_bench' });
+    await mongoose.connection.dropDatabase();
+    const Device = require('../models/Device');
+    await Device.syncIndexes();
+    console.log(`MongoDB ${uri}/emi_sync_bench, ${DEVICES} devices polling every ${POLL_MS / 1000} s for ${MINUTES} min\n`);
+
+    await run(async (fleet) => {
+        await Device.deleteMany({});
+        for (let i = 0; i < fleet.length; i += 5000) await Device.collection.insertMany(structuredClone(fleet.slice(i, i + 5000)));
+        return Device;
+    }, `MongoDB ${uri}`);
+
+    const explain = await Device.findOne({ id: 'DEV-1' }, VERSION_PROJECTION).hint(VERSION_INDEX).explain('executionStats');
+    const stats = explain.executionStats;
+    const stages = JSON.stringify(explain.queryPlanner.winningPlan).match(/"stage":"[A-Z_]+"/g) || [];
+    console.log(`unchanged-state check: ${stats.totalKeysExamined} keys, ${stats.totalDocsExamined} docs examined, `
+        + stages.map((stage) => stage.slice(9, -1)).join(' < '));
+
+    await mongoose.connection.dropDatabase();
+    await mongoose.disconnect();
+}
+
+(process.env.BENCH_MONGODB_URI ? runMongo(process.env.BENCH_MONGODB_URI) : runMemory())
+    .catch((err) => {
+        console.error(err);
+        process.exit(1);
+    });
@@ -0,0 +1,361 @@
+const Device = require('./models/Device');
+const Campaign = require('./models/Campaign');
+const CampaignTarget = require('./models/CampaignTarget');
+const commandBus = require('./commandBus');
+const { deviceList } = require('./deviceList');
+
+// Fleet campaigns: one admin action (lock, unlock, wipe, release) over a filtered set of devices.
+// Targets are recorded up front, then issued a batch at a time - one updateMany on the devices,
+// one read of their new stateVersions, one bulkWrite on the targets - at a fixed number of
+// devices per tick shared by all running campaigns, so the database sees a steady rate rather
+// than a burst. Each batch re-applies the planned device filter, so a device that no longer
+// matches it (paid up since, unlocked by hand) is skipped rather than commanded. A device
+// counts as done only when its command store acks the stateVersion that carried the command
+// (POST /:id/commands/ack).
+const ACTIONS = {
+    lock: { isLocked: true, featureLocks: { camera: true, network: true, wifi: true, powerOff: true, reset: true } },
+    unlock: { isLocked: false, featureLocks: { camera: false, network: false, wifi: false, powerOff: false, reset: false } },
+    wipe: { wipeRequested: true },
+    release: { releaseRequested: true }
+};
+
+// Ack results meaning the device is in the commanded state; "wiping" is sent just before the reset
+const APPLIED_RESULTS = new Set(['ok', 'unchanged', 'wiping']);
+
+const DEFAULT_TICK_MS = 1000;
+const DEFAULT_MAX_PER_TICK = 1000; // Across all running campaigns
+const DEFAULT_OPTIONS = { batchSize: 250, concurrency: 2, ackTimeoutMs: 15 * 60 * 1000 };
+const LIMITS = {
+    batchSize: [1, 1000],
+    concurrency: [1, 8],
+    ackTimeoutMs: [10 * 1000, 7 * 24 * 60 * 60 * 1000]
+};
+const TARGET_INSERT_CHUNK = 1000;
+
+class CampaignError extends Error {}
+
+const generateId = () => `CMP-${Date.now()}-${Math.random().toString(36).substr(2, 9)}`;
+
+// How an issued command ended, judged from the device's acks, or null while it is still pending.
+// The first ack at or after the target's stateVersion decides: the device runs every control
+// change as a command of the then-current state, so a later command of the same type means the
+// device is in the commanded state, and one of another type means an admin overrode it.
+// "superseded" acks are skipped - the command that overtook them decides.
+function outcomeFor(action, stateVersion, acks) {
+    let first = null;
+    for (const ack of acks) {
+        if (ack.id >= stateVersion && ack.result !== 'superseded' && (!first || ack.id < first.id)) first = ack;
+    }
+    if (!first) return null;
+    if (first.type !== action) return { state: 'superseded', result: `${first.type} #${first.id}` };
+    return { state: APPLIED_RESULTS.has(first.result) ? 'applied' : 'failed', result: first.result };
+}
+
+// Models, the clock and the publisher are injectable so bench/campaignBench.js can run it in virtual time.
+function createCampaigns({
+    Device,
+    Campaign,
+    CampaignTarget,
+    publish = commandBus.publish,
+    planFilter = (query) => deviceList.plan(query).filter,
+    tickMs = DEFAULT_TICK_MS,
+    maxPerTick = DEFAULT_MAX_PER_TICK,
+    now = Date.now,
+    logger = console
+}) {
+    let ticking = null;
+    let timer = null;
+
+    function options(input) {
+        const out = {};
+        for (const [name, [min, max]] of Object.entries(LIMITS)) {
+            const value = input[name] === undefined ? DEFAULT_OPTIONS[name] : Number(input[name]);
+            if (!Number.isInteger(value) || value < min || value > max) {
+                throw new CampaignError(`${name} must be an integer from ${min} to ${max}`);
+            }
+            out[name] = value;
+        }
+        return out;
+    }
+
+    // Device query for the request: explicit ids, the device list filters, or everything with all: true.
+    // selector is the part re-checked at issue time - empty for explicit ids.
+    function selection({ ids, filter, all }) {
+        if (Array.isArray(ids)) {
+            if (ids.length === 0) throw new CampaignError('ids is empty');
+            return { query: { id: { $in: ids.map(String) } }, selector: {}, stored: { ids: ids.length } };
+        }
+        const query = { ...(filter || {}) };
+        delete query.cursor;
+        delete query.limit;
+        delete query.fields;
+        if (Object.keys(query).length === 0 && all !== true) {
+            throw new CampaignError('A filter, ids, or all: true is required');
+        }
+        try {
+            const planned = planFilter(query);
+            return { query: planned, selector: planned, stored: query };
+        } catch (err) {
+            throw new CampaignError(err.message);
+        }
+    }
+
+    // Records the campaign and starts selecting its targets; issuing begins once they are all queued
+    async function create(request) {
+        if (!ACTIONS[request.action]) throw new CampaignError('action must be lock, unlock, wipe or release');
+        const { query, selector, stored } = selection(request);
+        const campaign = await Campaign.create({
+            id: generateId(),
+            action: request.action,
+            filter: stored,
+            selector,
+            createdBy: request.createdBy,
+            ...options(request),
+            startedAt: new Date(now())
+        });
+        prepare(campaign.id, request.action, query, Array.isArray(request.ids) ? request.ids.map(String) : null)
+            .catch(async (err) => {
+                logger.error(`[Campaign] ${campaign.id} target selection failed:`, err.message);
+                await Campaign.updateOne({ id: campaign.id, status: 'preparing' },
+                    { $set: { status: 'cancelled', error: err.message, finishedAt: new Date(now()) } }).catch(() => {});
+                await cancelQueued(campaign.id).catch(() => {});
+            });
+        return campaign.toObject ? campaign.toObject() : campaign;
+    }
+
+    // Streams the matching device ids into queued targets, a chunk per insert
+    async function prepare(campaignId, action, query, requestedIds) {
+        let chunk = [];
+        let found = 0;
+        const flush = async () => {
+            const docs = chunk;
+            chunk = [];
+            const current = await Campaign.findOne({ id: campaignId }, { status: 1 }).lean();
+            if (!current || current.status !== 'preparing') return false;
+            await CampaignTarget.insertMany(docs, { ordered: false });
+            await Campaign.updateOne({ id: campaignId }, { $inc: { total: docs.length, 'counts.queued': docs.length } });
+            return true;
+        };
+        const cursor = Device.find(query, { _id: 0, id: 1 }).lean().cursor({ batchSize: TARGET_INSERT_CHUNK });
+        try {
+            for await (const device of cursor) {
+                chunk.push({ campaignId, deviceId: device.id, action, state: 'queued' });
+                found++;
+                if (chunk.length === TARGET_INSERT_CHUNK && !(await flush())) return;
+            }
+        } finally {
+            if (cursor.close) await cursor.close();
+        }
+        if (chunk.length > 0 && !(await flush())) return;
+
+        const set = { status: 'running' };
+        if (requestedIds && found < requestedIds.length) set.error = `${requestedIds.length - found} requested devices not found`;
+        await Campaign.updateOne({ id: campaignId, status: 'preparing' }, { $set: set });
+        logger.log(`[Campaign] ${campaignId}: ${action} on ${found} devices`);
+    }
+
+    // Moves a target to its final state; the campaign counters follow only if this call made the move
+    async function settle(target, outcome) {
+        const doneAt = new Date(now());
+        const result = await CampaignTarget.updateOne(
+            { _id: target._id, state: target.state },
+            { $set: { state: outcome.state, result: outcome.result, doneAt } }
+        );
+        if (!result.modifiedCount) return;
+        const update = { $inc: { [`counts.${target.state}`]: -1, [`counts.${outcome.state}`]: 1 } };
+        if (outcome.state === 'applied') {
+            update.$inc.applyMsSum = doneAt - new Date(target.issuedAt);
+            update.$set = { lastAppliedAt: doneAt };
+        }
+        await Campaign.updateOne({ id: target.campaignId }, update);
+    }
+
+    // Command acks from a device (see POST /:id/commands/ack): settles its open campaign targets
+    async function onAcks(deviceId, acks) {
+        const targets = await CampaignTarget.find({ deviceId, state: { $in: ['issued', 'timedOut'] } }).lean();
+        for (const target of targets) {
+            const outcome = outcomeFor(target.action, target.stateVersion, acks);
+            if (outcome) await settle(target, outcome);
+        }
+    }
+
+    async function issueBatch(campaign, targets) {
+        const selector = campaign.selector || {};
+        const filtered = Object.keys(selector).length > 0;
+        let ids = targets.map((target) => target.deviceId);
+        if (filtered) {
+            const matching = await Device.find({ ...selector, id: { $in: ids } }, { _id: 0, id: 1 }).lean();
+            ids = matching.map((device) => device.id);
+        }
+        await Device.updateMany({ ...selector, id: { $in: ids } }, { $set: ACTIONS[campaign.action], $inc: { stateVersion: 1 } });
+        const devices = await Device.find({ id: { $in: ids } }, commandBus.CONTROL_PROJECTION).lean();
+        const byId = new Map(devices.map((device) => [device.id, device]));
+
+        // A target that was not commanded: gone, or no longer matching the campaign's filter
+        const missed = filtered
+            ? { state: 'skipped', result: 'no longer matches the filter' }
+            : { state: 'failed', result: 'device not found' };
+        const issuedAt = new Date(now());
+        await CampaignTarget.bulkWrite(targets.map((target) => {
+            const device = byId.get(target.deviceId);
+            const update = device
+                ? { $set: { state: 'issued', stateVersion: device.stateVersion, issuedAt } }
+                : { $set: { ...missed, doneAt: issuedAt } };
+            return { updateOne: { filter: { _id: target._id, state: 'queued' }, update } };
+        }), { ordered: false });
+        await Campaign.updateOne({ id: campaign.id }, {
+            $inc: { 'counts.queued': -targets.length, 'counts.issued': devices.length, [`counts.${missed.state}`]: targets.length - devices.length },
+            $set: { lastIssuedAt: issuedAt }
+        });
+        devices.forEach(publish);
+
+        // A device may ack before its target recorded the stateVersion; settle those from the stored acks
+        const early = await Device.find(
+            { id: { $in: ids }, $expr: { $gte: ['$ackedStateVersion', '$stateVersion'] } },
+            { _id: 0, id: 1, commandAcks: 1 }
+        ).lean();
+        for (const device of early) {
+            const target = targets.find((item) => item.deviceId === device.id);
+            const version = byId.get(device.id).stateVersion;
+            const outcome = outcomeFor(campaign.action, version, device.commandAcks || []);
+            if (outcome) {
+                await settle({ ...target, state: 'issued', stateVersion: version, issuedAt, campaignId: campaign.id }, outcome);
+            }
+        }
+        return targets.length;
+    }
+
+    // Issues up to budget queued targets of the campaign, batchSize at a time, concurrency batches at once
+    async function issue(campaign, budget) {
+        const room = Math.min(budget, campaign.batchSize * campaign.concurrency);
+        if (room <= 0 || campaign.counts.queued <= 0) return 0;
+        const targets = await CampaignTarget.find({ campaignId: campaign.id, state: 'queued' }, { deviceId: 1 })
+            .sort({ _id: 1 }).limit(room).lean();
+        const batches = [];
+        for (let i = 0; i < targets.length; i += campaign.batchSize) batches.push(targets.slice(i, i + campaign.batchSize));
+        const issued = await Promise.all(batches.map((batch) => issueBatch(campaign, batch)));
+        return issued.reduce((sum, count) => sum + count, 0);
+    }
+
+    async function sweepTimeouts(campaign) {
+        if (campaign.counts.issued <= 0) return;
+        const doneAt = new Date(now());
+        const result = await CampaignTarget.updateMany(
+            { campaignId: campaign.id, state: 'issued', issuedAt: { $lt: new Date(doneAt - campaign.ackTimeoutMs) } },
+            { $set: { state: 'timedOut', doneAt } }
+        );
+        if (result.modifiedCount) {
+            await Campaign.updateOne({ id: campaign.id },
+                { $inc: { 'counts.issued': -result.modifiedCount, 'counts.timedOut': result.modifiedCount } });
+        }
+    }
+
+    // Issues for running campaigns; paused and cancelled ones still time out what they issued
+    async function runTick() {
+        const campaigns = await Campaign.find({ $or: [{ status: 'running' }, { 'counts.issued': { $gt: 0 } }] })
+            .sort({ _id: 1 }).lean();
+        let budget = maxPerTick;
+        for (const campaign of campaigns) {
+            try {
+                await sweepTimeouts(campaign);
+                if (campaign.status !== 'running') continue;
+                budget -= await issue(campaign, budget);
+                const done = await Campaign.findOneAndUpdate(
+                    { id: campaign.id, status: 'running', 'counts.queued': 0, 'counts.issued': 0 },
+                    { $set: { status: 'completed', finishedAt: new Date(now()) } },
+                    { new: true }
+                ).lean();
+                if (done) {
+                    logger.log(`[Campaign] ${campaign.id} completed: ${done.counts.applied} applied, ${done.counts.failed} failed, `
+                        + `${done.counts.superseded} superseded, ${done.counts.skipped || 0} skipped, ${done.counts.timedOut} timed out`);
+                }
+            } catch (err) {
+                logger.error(`[Campaign] ${campaign.id} tick failed:`, err.message);
+            }
+        }
+    }
+
+    // One tick at a time; a tick that finds the previous one running is skipped
+    function tick() {
+        if (ticking) return ticking;
+        ticking = runTick()
+            .catch((err) => logger.error('[Campaign] Tick failed:', err.message))
+            .finally(() => { ticking = null; });
+        return ticking;
+    }
+
+    async function cancelQueued(id) {
+        const result = await CampaignTarget.updateMany({ campaignId: id, state: 'queued' },
+            { $set: { state: 'cancelled', doneAt: new Date(now()) } });
+        if (result.modifiedCount) {
+            await Campaign.updateOne({ id },
+                { $inc: { 'counts.queued': -result.modifiedCount, 'counts.cancelled': result.modifiedCount } });
+        }
+    }
+
+    // Stops issuing; commands already issued stay issued and their acks are still tracked
+    async function cancel(id) {
+        await ticking;
+        const campaign = await Campaign.findOneAndUpdate(
+            { id, status: { $in: ['preparing', 'running', 'paused'] } },
+            { $set: { status: 'cancelled', finishedAt: new Date(now()) } },
+            { new: true }
+        ).lean();
+        if (!campaign) return null;
+        await cancelQueued(id);
+        return Campaign.findOne({ id }).lean();
+    }
+
+    async function setPaused(id, paused) {
+        await ticking;
+        return Campaign.findOneAndUpdate(
+            { id, status: paused ? 'running' : 'paused' },
+            { $set: { status: paused ? 'paused' : 'running' } },
+            { new: true }
+        ).lean();
+    }
+
+    function start() {
+        if (timer) return;
+        timer = setInterval(tick, tickMs);
+        timer.unref();
+    }
+
+    async function stop() {
+        clearInterval(timer);
+        timer = null;
+        await ticking;
+    }
+
+    return { create, onAcks, tick, cancel, pause: (id) => setPaused(id, true), resume: (id) => setPaused(id, false), start, stop };
+}
+
+// Campaign document plus rates for the admin app: devices issued and confirmed per second
+// since the start, average issue-to-confirm time and the time left at the confirm rate
+function progress(campaign, at = Date.now()) {
+    const started = new Date(campaign.startedAt).getTime();
+    const end = campaign.finishedAt ? new Date(campaign.finishedAt).getTime() : at;
+    const seconds = Math.max((end - started) / 1000, 0.001);
+    const { queued, issued, applied } = campaign.counts;
+    const issuedSoFar = campaign.total - queued - (campaign.counts.cancelled || 0);
+    const appliedPerSec = applied / seconds;
+    const remaining = queued + issued;
+    return {
+        ...campaign,
+        elapsedMs: end - started,
+        issuedPerSec: issuedSoFar / seconds,
+        appliedPerSec,
+        avgApplyMs: applied > 0 ? campaign.applyMsSum / applied : null,
+        etaMs: remaining === 0 ? 0 : (appliedPerSec > 0 ? Math.round(remaining / appliedPerSec * 1000) : null)
+    };
+}
+
+const campaigns = createCampaigns({
+    Device,
+    Campaign,
+    CampaignTarget,
+    tickMs: Number(process.env.CAMPAIGN_TICK_MS) || DEFAULT_TICK_MS,
+    maxPerTick: Number(process.env.CAMPAIGN_MAX_PER_TICK) || DEFAULT_MAX_PER_TICK
+});
+
+module.exports = { campaigns, createCampaigns, progress, outcomeFor, CampaignError, ACTIONS };
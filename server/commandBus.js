@@ -0,0 +1,52 @@
+const { EventEmitter } = require('events');
+const { desiredPolicyHash } = require('./policyHash');
+const emiSchedule = require('./emiSchedule');
+
+// In-process fan-out of device control-state changes to open command channels.
+// Every control change bumps the device's stateVersion, which clients use as a cursor.
+const bus = new EventEmitter();
+bus.setMaxListeners(0); // One listener per connected device
+
+// Fields a device needs to act on; everything else stays server-side
+const CONTROL_PROJECTION = {
+    _id: 0,
+    id: 1,
+    stateVersion: 1,
+    isLocked: 1,
+    featureLocks: 1,
+    wipeRequested: 1,
+    releaseRequested: 1,
+    isTracking: 1,
+    'emiDetails.nextDueDate': 1,
+    'emiDetails.paidEmis': 1,
+    'emiDetails.tenure': 1
+};
+
+const CONTROL_FIELDS = ['isLocked', 'featureLocks', 'wipeRequested', 'releaseRequested', 'isTracking', 'emiDetails'];
+
+const toControlState = (device) => ({
+    stateVersion: device.stateVersion || 0,
+    isLocked: !!device.isLocked,
+    featureLocks: device.featureLocks || {},
+    wipeRequested: !!device.wipeRequested,
+    releaseRequested: !!device.releaseRequested,
+    isTracking: !!device.isTracking,
+    policyHash: desiredPolicyHash(device),
+    // Devices fetch /schedule when this changes
+    scheduleTag: emiSchedule.isEnabled() ? emiSchedule.scheduleTag(device) : null
+});
+
+const publish = (device) => {
+    if (!device) return;
+    bus.emit(device.id, toControlState(device));
+};
+
+const subscribe = (deviceId, listener) => {
+    bus.on(deviceId, listener);
+    return () => bus.removeListener(deviceId, listener);
+};
+
+const touchesControl = (update) => CONTROL_FIELDS.some((field) =>
+    Object.keys(update || {}).some((key) => key === field || key.startsWith(`${field}.`)));
+
+module.exports = { CONTROL_PROJECTION, toControlState, publish, subscribe, touchesControl };
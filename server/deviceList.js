@@ -0,0 +1,169 @@
+const mongoose = require('mongoose');
+const Device = require('./models/Device');
+
+// Paginated device listing for the admin app. A page is a keyset range - devices after the
+// cursor in (sort key, _id) order - read through an index that starts with the filtered field,
+// so every page costs the same however deep it is, and it is streamed row by row from a
+// database cursor so the server never holds more than a batch.
+const DEFAULT_PAGE_SIZE = 500;
+const MAX_PAGE_SIZE = 5000;
+const CURSOR_BATCH_SIZE = 200;
+
+// Never sent in the list: unbounded histories and per-device diagnostics the list does not
+// show. GET /:id still returns the whole document.
+const LIST_EXCLUDED_FIELDS = ['locationHistory', 'securityEvents', 'commandAcks', 'metrics', 'provisioning'];
+
+// Top-level fields a client may ask for with ?fields=
+const SELECTABLE_FIELDS = new Set([
+    'id', 'customerName', 'customerEmail', 'mobileNo', 'aadharNo', 'address', 'imei1', 'imei2',
+    'deviceModel', 'isLocked', 'location', 'featureLocks', 'emiDetails', 'registeredAt', 'qrCodeData',
+    'telemetry', 'policyDrift', 'isTracking', 'permissionsGranted', 'wipeRequested', 'releaseRequested',
+    'tamperState', 'stateVersion', 'ackedStateVersion', 'createdAt', 'updatedAt'
+]);
+
+class ListQueryError extends Error {}
+
+const parseBoolean = (value, name) => {
+    if (value === 'true' || value === '1') return true;
+    if (value === 'false' || value === '0') return false;
+    throw new ListQueryError(`${name} must be true or false`);
+};
+
+const parseDate = (value, name) => {
+    const date = /^\d+$/.test(value) ? new Date(Number(value)) : new Date(value);
+    if (Number.isNaN(date.getTime())) throw new ListQueryError(`${name} must be a date or epoch milliseconds`);
+    return date;
+};
+
+const startOfToday = (now) => {
+    const today = new Date(now);
+    today.setHours(0, 0, 0, 0);
+    return today;
+};
+
+// Models and the clock are injectable so bench/listBench.js can run against the in-memory stand-in.
+function createDeviceList({
+    Device,
+    parseId = (hex) => new mongoose.Types.ObjectId(hex),
+    now = Date.now
+}) {
+    const encodeCursor = (sortPath, doc) => {
+        const key = { id: String(doc._id) };
+        if (sortPath) {
+            const value = sortPath.split('.').reduce((node, part) => (node == null ? undefined : node[part]), doc);
+            key.v = value instanceof Date ? value.toISOString() : (value ?? null);
+        }
+        return Buffer.from(JSON.stringify(key)).toString('base64url');
+    };
+
+    const decodeCursor = (cursor, sortPath) => {
+        let key;
+        try {
+            key = JSON.parse(Buffer.from(cursor, 'base64url').toString('utf8'));
+        } catch (err) {
+            throw new ListQueryError('Malformed cursor');
+        }
+        if (!key || typeof key.id !== 'string' || (sortPath && !('v' in key))) {
+            throw new ListQueryError('Cursor does not match these filters');
+        }
+        let _id;
+        try {
+            _id = parseId(key.id);
+        } catch (err) {
+            throw new ListQueryError('Malformed cursor');
+        }
+        const value = sortPath && key.v !== null ? new Date(key.v) : null;
+        return { _id, value };
+    };
+
+    // Query string -> { filter, projection, sort, limit, sortPath }. Filters:
+    //   locked=true|false   tampered=true|false   drift=true|false
+    //   overdue=true        due date before today (open EMIs, locked or not)
+    //   seenBefore / seenAfter   telemetry.lastSeen bounds, ISO date or epoch ms
+    //   fields=a,b,c        top-level fields to return (id is always included)
+    //   limit=N             page size, default 500, at most 5000
+    //   cursor=...          the "next" value from the previous page
+    function plan(query = {}) {
+        const filter = {};
+        let sortPath = null;
+
+        if (query.locked !== undefined) filter.isLocked = parseBoolean(query.locked, 'locked');
+        if (query.drift !== undefined) filter.policyDrift = parseBoolean(query.drift, 'drift');
+        // tamperState.tampered is always stored as a boolean, so both values are index equality matches
+        if (query.tampered !== undefined) filter['tamperState.tampered'] = parseBoolean(query.tampered, 'tampered');
+        if (query.overdue !== undefined) {
+            if (!parseBoolean(query.overdue, 'overdue')) throw new ListQueryError('overdue only supports true');
+            filter['emiDetails.nextDueDate'] = { $lt: startOfToday(now()) };
+            sortPath = 'emiDetails.nextDueDate';
+        }
+        if (query.seenBefore !== undefined || query.seenAfter !== undefined) {
+            if (sortPath) throw new ListQueryError('overdue cannot be combined with seenBefore/seenAfter');
+            const range = {};
+            if (query.seenAfter !== undefined) range.$gte = parseDate(query.seenAfter, 'seenAfter');
+            if (query.seenBefore !== undefined) range.$lt = parseDate(query.seenBefore, 'seenBefore');
+            filter['telemetry.lastSeen'] = range;
+            sortPath = 'telemetry.lastSeen';
+        }
+
+        if (query.cursor) {
+            const after = decodeCursor(String(query.cursor), sortPath);
+            if (!sortPath) {
+                filter._id = { $gt: after._id };
+            } else {
+                // Keyset on (value, _id): the range filter above still bounds the scan
+                filter.$or = [
+                    { [sortPath]: { $gt: after.value } },
+                    { [sortPath]: after.value, _id: { $gt: after._id } }
+                ];
+            }
+        }
+
+        let projection;
+        if (query.fields) {
+            projection = { id: 1 };
+            for (const field of String(query.fields).split(',').map((name) => name.trim()).filter(Boolean)) {
+                if (!SELECTABLE_FIELDS.has(field)) throw new ListQueryError(`Unknown field: ${field}`);
+                projection[field] = 1;
+            }
+            if (sortPath) projection[sortPath.split('.')[0]] = 1; // Needed for the next cursor
+        } else {
+            projection = Object.fromEntries(LIST_EXCLUDED_FIELDS.map((field) => [field, 0]));
+        }
+
+        let limit = DEFAULT_PAGE_SIZE;
+        if (query.limit !== undefined) {
+            limit = Number(query.limit);
+            if (!Number.isInteger(limit) || limit < 1) throw new ListQueryError('limit must be a positive integer');
+            limit = Math.min(limit, MAX_PAGE_SIZE);
+        }
+
+        const sort = sortPath ? { [sortPath]: 1, _id: 1 } : { _id: 1 };
+        return { filter, projection, sort, limit, sortPath };
+    }
+
+    // Yields the page's devices, then resolves to the cursor for the next page (null on the last).
+    // One extra row is read to tell whether there is a next page.
+    async function* rows({ filter, projection, sort, limit, sortPath }) {
+        const cursor = Device.find(filter, projection).sort(sort).limit(limit + 1).lean()
+            .cursor({ batchSize: Math.min(limit + 1, CURSOR_BATCH_SIZE) });
+        let count = 0;
+        let last = null;
+        try {
+            for await (const doc of cursor) {
+                if (count === limit) return encodeCursor(sortPath, last);
+                count++;
+                last = doc;
+                yield doc;
+            }
+        } finally {
+            if (cursor.close) await cursor.close();
+        }
+        return null;
+    }
+
+    return { plan, rows };
+}
+
+const deviceList = createDeviceList({ Device });
+
+module.exports = { deviceList, createDeviceList, ListQueryError, LIST_EXCLUDED_FIELDS, DEFAULT_PAGE_SIZE, MAX_PAGE_SIZE };
@@ -0,0 +1,102 @@
+const crypto = require('crypto');
+
+// Signed EMI schedule for offline enforcement. The device stores it and locks itself
+// at each lock time even with no connection; EmiSchedule.java verifies the signature
+// with the public key built into the app and must keep the same layout:
+//
+//   u32 magic "NEMS", u8 format version, u16-length UTF-8 deviceId, i64 issuedAt,
+//   u16 count, count x i64 lock times (epoch ms), all big endian.
+//
+// Signed with ECDSA P-256 / SHA-256 (DER) using EMI_SCHEDULE_SIGNING_KEY (PKCS#8 PEM).
+// Without a key the feature is off and devices rely on the server scheduler alone.
+const MAGIC = 0x4e454d53;
+const FORMAT_VERSION = 1;
+const MAX_LOCK_TIMES = 24;
+const GRACE_MS = (Number(process.env.EMI_GRACE_HOURS) || 0) * 60 * 60 * 1000;
+
+let signingKey = null;
+if (process.env.EMI_SCHEDULE_SIGNING_KEY) {
+    try {
+        signingKey = crypto.createPrivateKey(process.env.EMI_SCHEDULE_SIGNING_KEY.replace(/\\n/g, '\n'));
+    } catch (err) {
+        console.error('[Schedule] EMI_SCHEDULE_SIGNING_KEY is not a valid private key:', err.message);
+    }
+}
+
+const isEnabled = () => signingKey !== null;
+
+const addMonths = (date, months) => {
+    const result = new Date(date);
+    result.setMonth(result.getMonth() + months);
+    return result;
+};
+
+// Same moment scheduler.js locks: the start of the day after the due date, plus any grace
+const lockTimeFor = (dueDate) => {
+    const lockAt = new Date(dueDate);
+    lockAt.setHours(0, 0, 0, 0);
+    lockAt.setDate(lockAt.getDate() + 1);
+    return lockAt.getTime() + GRACE_MS;
+};
+
+// Lock times for the remaining instalments, monthly from nextDueDate, future ones only
+const lockTimes = (emiDetails = {}, now = Date.now()) => {
+    const { nextDueDate, paidEmis = 0, tenure = 0 } = emiDetails;
+    if (!nextDueDate) return [];
+    const times = [];
+    for (let i = 0; i < tenure - paidEmis && times.length < MAX_LOCK_TIMES; i++) {
+        const lockAt = lockTimeFor(addMonths(nextDueDate, i));
+        if (lockAt > now) times.push(lockAt);
+    }
+    return times;
+};
+
+// Whether lockAt is a lock time this server would have put in the schedule and that has
+// passed - the only offline lock a device report is allowed to confirm
+const isDueLockTime = (emiDetails = {}, lockAt, now = Date.now()) => {
+    const { nextDueDate, paidEmis = 0, tenure = 0 } = emiDetails;
+    const time = Number(lockAt);
+    if (!nextDueDate || !Number.isFinite(time) || time > now) return false;
+    for (let i = 0; i < tenure - paidEmis; i++) {
+        const expected = lockTimeFor(addMonths(nextDueDate, i));
+        if (expected === time) return true;
+        if (expected > time) break;
+    }
+    return false;
+};
+
+// Changes whenever the schedule would; sent in the control state so devices refetch only then
+const scheduleTag = (device) => {
+    const emi = device.emiDetails || {};
+    const due = emi.nextDueDate ? new Date(emi.nextDueDate).getTime() : 0;
+    return crypto.createHash('sha256')
+        .update(`${FORMAT_VERSION}|${due}|${emi.paidEmis || 0}|${emi.tenure || 0}|${GRACE_MS}`)
+        .digest('hex').slice(0, 12);
+};
+
+const encode = (deviceId, issuedAt, times) => {
+    const id = Buffer.from(deviceId, 'utf8');
+    const buffer = Buffer.alloc(4 + 1 + 2 + id.length + 8 + 2 + times.length * 8);
+    let offset = buffer.writeUInt32BE(MAGIC, 0);
+    offset = buffer.writeUInt8(FORMAT_VERSION, offset);
+    offset = buffer.writeUInt16BE(id.length, offset);
+    offset += id.copy(buffer, offset);
+    offset = buffer.writeBigInt64BE(BigInt(issuedAt), offset);
+    offset = buffer.writeUInt16BE(times.length, offset);
+    for (const time of times) offset = buffer.writeBigInt64BE(BigInt(time), offset);
+    return buffer;
+};
+
+const signedSchedule = (device, now = Date.now()) => {
+    if (!signingKey) return null;
+    const times = lockTimes(device.emiDetails, now);
+    const payload = encode(device.id, now, times);
+    return {
+        tag: scheduleTag(device),
+        payload: payload.toString('base64'),
+        signature: crypto.sign('sha256', payload, signingKey).toString('base64'),
+        lockTimes: times
+    };
+};
+
+module.exports = { isEnabled, lockTimes, isDueLockTime, scheduleTag, encode, signedSchedule };
@@ -0,0 +1,12 @@
+const crypto = require('crypto');
+
+// Generates the EMI schedule signing key pair (see emiSchedule.js).
+//   EMI_SCHEDULE_SIGNING_KEY   -> server environment (private, PKCS#8 PEM on one line)
+//   emiSchedulePublicKey       -> ./gradlew -PemiSchedulePublicKey=... for the app build
+const { privateKey, publicKey } = crypto.generateKeyPairSync('ec', { namedCurve: 'prime256v1' });
+
+const pem = privateKey.export({ type: 'pkcs8', format: 'pem' }).trim().replace(/\n/g, '\\n');
+const spki = publicKey.export({ type: 'spki', format: 'der' }).toString('base64');
+
+console.log(`EMI_SCHEDULE_SIGNING_KEY="${pem}"`);
+console.log(`emiSchedulePublicKey=${spki}`);
@@ -4,7 +4,11 @@ const mongoose = require('mongoose');
 const cors = require('cors');
 const path = require('path');
 const fs = require('fs');
+const Device = require('./models/Device');
 const deviceRoutes = require('./routes/deviceRoutes');
+const campaignRoutes = require('./routes/campaignRoutes');
+const { ingest } = require('./ingest');
+const { campaigns } = require('./campaigns');
 require('dotenv').config();
 
 const app = express();
@@ -41,13 +45,15 @@ app.get('/api/health', (req, res) => {
 
 // Middleware
 app.use(compression()); // Enable Gzip
-app.use(cors());
+// ETag is read by pollers of /api/devices/:id/sync
+app.use(cors({ exposedHeaders: ['ETag'] }));
 app.use(express.json());
 app.use(express.static(path.join(__dirname, 'public'))); // Serve server/public (APK)
 app.use(express.static(path.join(__dirname, '..', 'dist'))); // Serve root/dist (Vite App)
 
 // Routes
 app.use('/api/devices', deviceRoutes);
+app.use('/api/campaigns', campaignRoutes);
 
 // Handle SPA routing - send all non-API requests to index.html
 app.get(/(.*)/, (req, res, next) => {
@@ -55,11 +61,41 @@ app.get(/(.*)/, (req, res, next) => {
     res.sendFile(require('path').resolve(__dirname, '..', 'dist', 'index.html'));
 });
 
+// Resolves the database URI; --memory-db starts a throwaway in-memory MongoDB (for fleet-sim load tests).
+// mongodb-memory-server is not a project dependency: install it with npm install --no-save mongodb-memory-server
+async function databaseUri() {
+    if (!process.argv.includes('--memory-db')) return MONGODB_URI;
+    let MongoMemoryServer;
+    try {
+        ({ MongoMemoryServer } = require('mongodb-memory-server'));
+    } catch (err) {
+        throw new Error('--memory-db needs mongodb-memory-server: npm install --no-save mongodb-memory-server');
+    }
+    const memoryServer = await MongoMemoryServer.create();
+    console.log('Using in-memory MongoDB (data is discarded on exit)');
+    return memoryServer.getUri('mobile-lock-app');
+}
+
 // Database Connection
-mongoose.connect(MONGODB_URI)
+databaseUri()
+    .then((uri) => mongoose.connect(uri))
     .then(() => {
         console.log('Connected to MongoDB');
 
+        // Devices stored before tamperState.tampered defaulted to false get it written once, so
+        // the tampered=false list filter (see deviceList.js) finds them by equality
+        Device.updateMany({ 'tamperState.tampered': { $exists: false } }, { $set: { 'tamperState.tampered': false } })
+            .then((result) => {
+                if (result.modifiedCount > 0) console.log(`[Devices] Backfilled tamper state on ${result.modifiedCount} devices`);
+            })
+            .catch(err => console.error('[Devices] Tamper state backfill failed:', err));
+
+        // Coalesced telemetry/location writes (see ingest.js)
+        ingest.start();
+
+        // Bulk lock/unlock/wipe/release campaigns (see campaigns.js)
+        campaigns.start();
+
         // Start Scheduler
         const { checkOverduePayments } = require('./scheduler');
         checkOverduePayments(); // Run on startup
@@ -71,3 +107,10 @@ mongoose.connect(MONGODB_URI)
 app.listen(PORT, () => {
     console.log(`Server is running on port ${PORT}`);
 });
+
+// Write out coalesced device reports before the process goes away (deploys send SIGTERM)
+for (const signal of ['SIGTERM', 'SIGINT']) {
+    process.once(signal, () => {
+        Promise.all([campaigns.stop(), ingest.stop()]).finally(() => process.exit(0));
+    });
+}
@@ -0,0 +1,144 @@
+const Device = require('./models/Device');
+
+// Write-coalescing ingestion for high-volume device reports (telemetry, location).
+// Reports are merged per device in memory - $set fields last value wins, location points
+// appended - and written with one bulkWrite per tick instead of one findOneAndUpdate per
+// request. A device's pending update is written once it is maxDelayMs old, or at the next
+// tick when a caller waits for it (location batches, whose ack lets the device drop the points).
+const MAX_LOCATION_HISTORY = 500;
+const DEFAULT_TICK_MS = 1000;
+const DEFAULT_MAX_DELAY_MS = 30000; // Admin views show lastSeen in minutes
+const DEFAULT_MAX_PENDING = 10000;
+
+// Models and the clock are injectable so bench/ingestBench.js can drive it in virtual time.
+function createIngest({
+    Device,
+    tickMs = DEFAULT_TICK_MS,
+    maxDelayMs = DEFAULT_MAX_DELAY_MS,
+    maxPending = DEFAULT_MAX_PENDING,
+    now = Date.now,
+    logger = console
+}) {
+    const pending = new Map(); // id -> { $set, points, since, waiters }
+    let flushing = null;
+    let timer = null;
+    const stats = { accepted: 0, flushes: 0, written: 0 };
+
+    function entry(id) {
+        let item = pending.get(id);
+        if (!item) {
+            item = { $set: {}, points: [], since: now(), waiters: [] };
+            pending.set(id, item);
+        }
+        return item;
+    }
+
+    // Fields to $set on the device; undefined values are skipped so a partial report keeps old values
+    function set(id, fields) {
+        const item = entry(id);
+        for (const [path, value] of Object.entries(fields)) {
+            if (value !== undefined) item.$set[path] = value;
+        }
+        stats.accepted++;
+        if (pending.size >= maxPending) tick();
+    }
+
+    // History points, oldest first; the newest also becomes the current location
+    function addLocations(id, points) {
+        if (points.length === 0) return;
+        const latest = points[points.length - 1];
+        set(id, { 'location.lat': latest.lat, 'location.lng': latest.lng, 'location.lastUpdated': latest.at });
+        entry(id).points.push(...points);
+    }
+
+    // Resolves once everything pending for the device is written (at the next tick)
+    function flushed(id) {
+        const item = pending.get(id);
+        if (!item) return Promise.resolve();
+        return new Promise((resolve, reject) => item.waiters.push({ resolve, reject }));
+    }
+
+    function toOperation(id, item) {
+        const update = {};
+        if (Object.keys(item.$set).length > 0) update.$set = item.$set;
+        if (item.points.length > 0) {
+            update.$push = { locationHistory: { $each: item.points, $slice: -MAX_LOCATION_HISTORY } };
+        }
+        return { updateOne: { filter: { id }, update } };
+    }
+
+    // Puts a failed write back, under anything that arrived since; waited-on points are left
+    // for the device to resend, since it only drops them on a successful ack
+    function requeue(id, item) {
+        const newer = pending.get(id);
+        const points = item.waiters.length > 0 ? [] : item.points;
+        if (!newer) {
+            pending.set(id, { $set: item.$set, points, since: item.since, waiters: [] });
+            return;
+        }
+        newer.$set = { ...item.$set, ...newer.$set };
+        newer.points = points.concat(newer.points);
+        newer.since = Math.min(newer.since, item.since);
+    }
+
+    async function write(batch) {
+        try {
+            await Device.bulkWrite(batch.map(([id, item]) => toOperation(id, item)), { ordered: false });
+            stats.flushes++;
+            stats.written += batch.length;
+            for (const [, item] of batch) item.waiters.forEach((waiter) => waiter.resolve());
+        } catch (err) {
+            logger.error(`[Ingest] Failed to write ${batch.length} device updates:`, err.message);
+            for (const [id, item] of batch) {
+                item.waiters.forEach((waiter) => waiter.reject(err));
+                requeue(id, item);
+            }
+        }
+    }
+
+    // Writes every due update in one bulkWrite; a tick during a write is skipped
+    function tick({ all = false } = {}) {
+        if (flushing || pending.size === 0) return flushing || Promise.resolve();
+        const cutoff = now() - maxDelayMs;
+        const everything = all || pending.size >= maxPending;
+        const batch = [];
+        for (const [id, item] of pending) {
+            if (everything || item.waiters.length > 0 || item.since <= cutoff) batch.push([id, item]);
+        }
+        if (batch.length === 0) return Promise.resolve();
+        for (const [id] of batch) pending.delete(id);
+        flushing = write(batch).finally(() => { flushing = null; });
+        return flushing;
+    }
+
+    function start() {
+        if (timer) return;
+        timer = setInterval(tick, tickMs);
+        timer.unref();
+    }
+
+    // Stops the timer and writes everything pending, e.g. on shutdown
+    async function stop() {
+        clearInterval(timer);
+        timer = null;
+        while (flushing || pending.size > 0) {
+            if (flushing) {
+                await flushing;
+                continue;
+            }
+            const before = pending.size;
+            await tick({ all: true });
+            if (pending.size >= before) break; // The database is failing; give up rather than spin
+        }
+    }
+
+    return { set, addLocations, flushed, tick, start, stop, stats, pendingCount: () => pending.size };
+}
+
+const ingest = createIngest({
+    Device,
+    tickMs: Number(process.env.INGEST_TICK_MS) || DEFAULT_TICK_MS,
+    maxDelayMs: Number(process.env.INGEST_MAX_DELAY_MS) || DEFAULT_MAX_DELAY_MS
+});
+
+module.exports = { ingest, createIngest, MAX_LOCATION_HISTORY };
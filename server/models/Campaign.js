@@ -0,0 +1,43 @@
+const mongoose = require('mongoose');
+
+// An admin-initiated lock/unlock/wipe/release over a filtered set of devices (see campaigns.js).
+// Per-device state lives in CampaignTarget; counts mirrors it by state.
+const campaignSchema = new mongoose.Schema({
+    id: { type: String, required: true, unique: true },
+    action: { type: String, required: true, enum: ['lock', 'unlock', 'wipe', 'release'] },
+    // The device list query that selected the targets (deviceList.js parameters), or { ids }
+    filter: { type: mongoose.Schema.Types.Mixed, default: {} },
+    // That query as planned into a device filter when the campaign was created; each batch only
+    // commands targets that still match it. Empty for a list of ids.
+    selector: { type: mongoose.Schema.Types.Mixed, default: {} },
+    // preparing while targets are selected, then running until nothing is queued or awaiting an ack
+    status: { type: String, default: 'preparing', enum: ['preparing', 'running', 'paused', 'completed', 'cancelled'], index: true },
+    error: String,
+    createdBy: String,
+    total: { type: Number, default: 0 },
+    counts: {
+        queued: { type: Number, default: 0 },
+        issued: { type: Number, default: 0 },
+        applied: { type: Number, default: 0 },
+        failed: { type: Number, default: 0 },
+        superseded: { type: Number, default: 0 },
+        skipped: { type: Number, default: 0 },
+        timedOut: { type: Number, default: 0 },
+        cancelled: { type: Number, default: 0 }
+    },
+    // Issue-to-confirm time summed over applied devices, for the average
+    applyMsSum: { type: Number, default: 0 },
+    // Devices per database batch and batches issued per tick: the campaign's issue rate
+    batchSize: Number,
+    concurrency: Number,
+    // Issued devices with no ack after this long count as timedOut; a later ack still settles them
+    ackTimeoutMs: Number,
+    startedAt: Date,
+    lastIssuedAt: Date,
+    lastAppliedAt: Date,
+    finishedAt: Date
+}, {
+    timestamps: true
+});
+
+module.exports = mongoose.model('Campaign', campaignSchema);
@@ -0,0 +1,26 @@
+const mongoose = require('mongoose');
+
+// One device in a campaign: queued -> issued (stateVersion recorded) -> applied / failed /
+// superseded on the device's command ack, or timedOut when no ack arrives in time. A queued
+// target that no longer matches the campaign filter when its batch is issued is skipped.
+const campaignTargetSchema = new mongoose.Schema({
+    campaignId: { type: String, required: true },
+    deviceId: { type: String, required: true },
+    // The campaign's action, so acks can be judged without loading the campaign
+    action: { type: String, required: true },
+    state: { type: String, default: 'queued' },
+    // The device stateVersion that carried the command; acks are matched against it
+    stateVersion: Number,
+    issuedAt: Date,
+    doneAt: Date,
+    // The device's ack result ("ok", "unchanged", "wiping", "error: ...")
+    result: String
+});
+
+// Next queued batch and timeout sweeps, in insertion order
+campaignTargetSchema.index({ campaignId: 1, state: 1, _id: 1 });
+campaignTargetSchema.index({ campaignId: 1, deviceId: 1 }, { unique: true });
+// Open targets of a device when its acks arrive
+campaignTargetSchema.index({ deviceId: 1, state: 1 });
+
+module.exports = mongoose.model('CampaignTarget', campaignTargetSchema);
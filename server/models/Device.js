@@ -27,6 +27,14 @@ const deviceSchema = new mongoose.Schema({
         lng: Number,
         lastUpdated: Date
     },
+    // Recent points from the native tracker, newest last
+    locationHistory: [{
+        _id: false,
+        lat: Number,
+        lng: Number,
+        accuracy: Number,
+        at: Date
+    }],
     featureLocks: {
         camera: { type: Boolean, default: false },
         network: { type: Boolean, default: false },
@@ -51,14 +59,77 @@ const deviceSchema = new mongoose.Schema({
         networkType: String,
         simCarrier: String,
         androidVersion: String,
+        // Hash of the policy the device reports enforcing (see policyHash.js)
+        policyHash: String,
         lastSeen: { type: Date, default: Date.now }
     },
+    // Native latency metrics by "group/name": [count, sumUs, p50Us, p90Us, p99Us, maxUs] or a counter value
+    metrics: { type: mongoose.Schema.Types.Mixed, default: {} },
+    // Set when the reported policy hash differs from the one isLocked/featureLocks imply
+    policyDrift: { type: Boolean, default: false },
     isTracking: { type: Boolean, default: false },
     permissionsGranted: { type: Boolean, default: false },
     wipeRequested: { type: Boolean, default: false },
-    releaseRequested: { type: Boolean, default: false }
+    releaseRequested: { type: Boolean, default: false },
+    // Security-relevant events reported by the device (SIM swaps, tamper changes), newest last
+    securityEvents: [{
+        _id: false,
+        seq: Number,
+        type: String,
+        at: Date,
+        data: mongoose.Schema.Types.Mixed
+    }],
+    // Highest event outbox sequence stored; redelivered events at or below it are ignored
+    eventSeq: { type: Number, default: 0 },
+    // Outbox epoch eventSeq belongs to; the device's sequence restarts with a new one after a wipe
+    eventEpoch: String,
+    tamperState: {
+        seq: Number,
+        // Always a boolean (false until the device reports otherwise) so list filters match it by equality
+        tampered: { type: Boolean, default: false },
+        isDeviceOwner: Boolean,
+        isAdminActive: Boolean,
+        developerOptionsEnabled: Boolean,
+        adbEnabled: Boolean,
+        failedPasswordAttempts: Number,
+        reason: String,
+        changedAt: Date
+    },
+    // Enrollment timing reported by the device once post-provisioning configuration finishes
+    provisioning: {
+        success: Boolean,
+        failed: Number,
+        pipelineMs: Number,
+        endToEndMs: Number,
+        steps: mongoose.Schema.Types.Mixed,
+        reportedAt: Date
+    },
+    // Bumped on every control change; cursor for the device command channel
+    stateVersion: { type: Number, default: 0 },
+    // Results the device reported for commands, keyed by the stateVersion that issued them
+    commandAcks: [{
+        _id: false,
+        id: Number,
+        type: String,
+        result: String,
+        at: Date
+    }],
+    ackedStateVersion: { type: Number, default: 0 }
 }, {
     timestamps: true
 });
 
+// Overdue detection walks unlocked devices by due date (see scheduler.js)
+deviceSchema.index({ isLocked: 1, 'emiDetails.nextDueDate': 1 });
+
+// Admin list pages (see deviceList.js): each filter walks its own index in cursor order
+deviceSchema.index({ isLocked: 1, _id: 1 });
+deviceSchema.index({ 'tamperState.tampered': 1, _id: 1 });
+deviceSchema.index({ policyDrift: 1, _id: 1 });
+deviceSchema.index({ 'emiDetails.nextDueDate': 1, _id: 1 });
+deviceSchema.index({ 'telemetry.lastSeen': 1, _id: 1 });
+
+// Conditional control-state polls (see stateSync.js) are answered from this index alone
+deviceSchema.index({ id: 1, stateVersion: 1 });
+
 module.exports = mongoose.model('Device', deviceSchema);
@@ -0,0 +1,43 @@
+// Hash of the policy a device should be enforcing, computed from isLocked/featureLocks.
+// Must match PolicyReconciler.java bit for bit: devices report the hash of what they
+// actually enforce with each heartbeat, so drift shows up as a mismatch without
+// shipping the policy itself.
+const FORMAT_VERSION = 1;
+
+const LOCK_RESTRICTION_COUNT = 8; // Bits 0-7, PolicyEngine.LOCK_RESTRICTIONS
+const BIT_FACTORY_RESET = 0;
+const BIT_CONFIG_WIFI = 8;
+const BIT_CONFIG_MOBILE = 9;
+const BIT_CAMERA_DISABLED = 10;
+// Bit 11 is reserved: screen capture is set from the app, not the server state, and is not hashed
+const BIT_LOCK_TASK_APP = 12;
+const BIT_POWER_MENU_HIDDEN = 13;
+
+const policyBits = (isLocked, featureLocks = {}) => {
+    const features = featureLocks || {};
+    let bits = 0;
+    if (isLocked) {
+        bits |= (1 << LOCK_RESTRICTION_COUNT) - 1;
+        bits |= 1 << BIT_LOCK_TASK_APP;
+    }
+    if (isLocked || features.reset) bits |= 1 << BIT_FACTORY_RESET;
+    if (features.wifi) bits |= 1 << BIT_CONFIG_WIFI;
+    if (features.network) bits |= 1 << BIT_CONFIG_MOBILE;
+    if (features.camera) bits |= 1 << BIT_CAMERA_DISABLED;
+    if (features.powerOff) bits |= 1 << BIT_POWER_MENU_HIDDEN;
+    return bits;
+};
+
+// 32-bit FNV-1a over the format version and the bitset (little endian), as 8 hex chars
+const hashBits = (bits) => {
+    let h = 0x811c9dc5;
+    for (const byte of [FORMAT_VERSION, bits & 0xff, (bits >>> 8) & 0xff, (bits >>> 16) & 0xff, (bits >>> 24) & 0xff]) {
+        h ^= byte;
+        h = Math.imul(h, 0x01000193);
+    }
+    return (h >>> 0).toString(16).padStart(8, '0');
+};
+
+const desiredPolicyHash = (device) => hashBits(policyBits(!!device.isLocked, device.featureLocks));
+
+module.exports = { policyBits, hashBits, desiredPolicyHash };
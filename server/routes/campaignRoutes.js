@@ -0,0 +1,88 @@
+const express = require('express');
+const router = express.Router();
+const Campaign = require('../models/Campaign');
+const CampaignTarget = require('../models/CampaignTarget');
+const { campaigns, progress, CampaignError } = require('../campaigns');
+
+const MAX_TARGETS_PAGE = 1000;
+
+// Start a campaign: { action, filter | ids | all: true, batchSize?, concurrency?, ackTimeoutMs?, createdBy? }.
+// filter takes the device list parameters (locked, overdue, tampered, drift, seenBefore, seenAfter).
+router.post('/', async (req, res) => {
+    try {
+        const campaign = await campaigns.create(req.body || {});
+        res.status(202).json(progress(campaign));
+    } catch (err) {
+        res.status(err instanceof CampaignError ? 400 : 500).json({ message: err.message });
+    }
+});
+
+// Recent campaigns, newest first, with progress
+router.get('/', async (req, res) => {
+    try {
+        const limit = Math.min(Number(req.query.limit) || 20, 100);
+        const list = await Campaign.find().sort({ _id: -1 }).limit(limit).lean();
+        const at = Date.now();
+        res.json(list.map((campaign) => progress(campaign, at)));
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+router.get('/:id', async (req, res) => {
+    try {
+        const campaign = await Campaign.findOne({ id: req.params.id }).lean();
+        if (!campaign) return res.status(404).json({ message: 'Campaign not found' });
+        res.json(progress(campaign));
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+// Per-device state, e.g. ?state=failed, paged with ?after=<last _id>
+router.get('/:id/targets', async (req, res) => {
+    try {
+        const filter = { campaignId: req.params.id };
+        if (req.query.state) filter.state = String(req.query.state);
+        if (req.query.after) filter._id = { $gt: String(req.query.after) };
+        const limit = Math.min(Number(req.query.limit) || 200, MAX_TARGETS_PAGE);
+        const targets = await CampaignTarget.find(filter, { campaignId: 0, action: 0 }).sort({ _id: 1 }).limit(limit).lean();
+        res.json({ targets, next: targets.length === limit ? String(targets[targets.length - 1]._id) : null });
+    } catch (err) {
+        res.status(400).json({ message: err.message });
+    }
+});
+
+// Pause/resume issuing; acks for commands already issued are tracked either way
+router.post('/:id/pause', async (req, res) => {
+    try {
+        const campaign = await campaigns.pause(req.params.id);
+        if (!campaign) return res.status(409).json({ message: 'Campaign is not running' });
+        res.json(progress(campaign));
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+router.post('/:id/resume', async (req, res) => {
+    try {
+        const campaign = await campaigns.resume(req.params.id);
+        if (!campaign) return res.status(409).json({ message: 'Campaign is not paused' });
+        res.json(progress(campaign));
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+// Cancel: queued devices are dropped; commands already issued are not reverted
+router.post('/:id/cancel', async (req, res) => {
+    try {
+        const campaign = await campaigns.cancel(req.params.id);
+        if (!campaign) return res.status(409).json({ message: 'Campaign has already finished' });
+        res.json(progress(campaign));
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+module.exports = router;
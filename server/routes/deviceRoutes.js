@@ -1,14 +1,74 @@
 const express = require('express');
 const router = express.Router();
 const Device = require('../models/Device');
+const commandBus = require('../commandBus');
+const { desiredPolicyHash } = require('../policyHash');
+const emiSchedule = require('../emiSchedule');
+const { OVERDUE_FEATURE_LOCKS } = require('../scheduler');
+const { ingest } = require('../ingest');
+const { deviceList, ListQueryError } = require('../deviceList');
+const { campaigns } = require('../campaigns');
+const { stateSync, etagFor, heldVersion } = require('../stateSync');
+const { once } = require('events');
 
-// Get all devices
+const STREAM_PING_MS = 25000;
+const MAX_SECURITY_EVENTS = 200;
+const MAX_COMMAND_ACKS = 50;
+const LONG_POLL_MAX_SECONDS = 30;
+const LIST_FLUSH_ROWS = 200;
+
+// List devices, filtered and paginated by keyset cursor (see deviceList.js for the parameters).
+// With Accept: application/x-ndjson one page is streamed, a device per line, followed by a
+// {"next": cursor} line (null on the last page). Without it - admin builds from before paging -
+// every page is streamed as one JSON array of list fields, still a batch at a time.
 router.get('/', async (req, res) => {
+    let plan;
     try {
-        const devices = await Device.find().lean();
-        res.json(devices);
+        plan = deviceList.plan(req.query);
     } catch (err) {
-        res.status(500).json({ message: err.message });
+        const status = err instanceof ListQueryError ? 400 : 500;
+        return res.status(status).json({ message: err.message });
+    }
+
+    const ndjson = (req.get('Accept') || '').includes('application/x-ndjson');
+    let closed = false;
+    res.on('close', () => { closed = true; });
+
+    // Respects backpressure, so a slow client holds the database cursor rather than server memory
+    const write = async (chunk) => {
+        if (!res.write(chunk) && !closed) await Promise.race([once(res, 'drain'), once(res, 'close')]);
+    };
+
+    let rows = 0;
+    try {
+        res.status(200).set({
+            'Content-Type': ndjson ? 'application/x-ndjson' : 'application/json',
+            'Cache-Control': 'no-store'
+        });
+        if (!ndjson) await write('[');
+        let next;
+        do {
+            const page = deviceList.rows(plan);
+            let step;
+            while (!closed && !(step = await page.next()).done) {
+                const json = JSON.stringify(step.value);
+                await write(ndjson ? `${json}\n` : `${rows > 0 ? ',' : ''}${json}`);
+                rows++;
+                // Push through the compression middleware: the first row at once, then per batch
+                if (res.flush && (rows === 1 || rows % LIST_FLUSH_ROWS === 0)) res.flush();
+            }
+            if (closed) {
+                await page.return();
+                return;
+            }
+            next = step.value;
+            if (!ndjson && next) plan = deviceList.plan({ ...req.query, cursor: next });
+        } while (!ndjson && next);
+        res.end(ndjson ? `${JSON.stringify({ next })}\n` : ']');
+    } catch (err) {
+        console.error('[Devices] List failed after', rows, 'rows:', err.message);
+        if (!res.headersSent) return res.status(500).json({ message: err.message });
+        res.destroy(err); // Truncated rather than silently short: the client sees a broken stream
     }
 });
 
@@ -45,37 +105,48 @@ router.post('/', async (req, res) => {
 // Update device
 router.put('/:id', async (req, res) => {
     try {
+        const controlChange = commandBus.touchesControl(req.body);
         const device = await Device.findOneAndUpdate(
             { id: req.params.id },
-            { $set: req.body },
+            controlChange ? { $set: req.body, $inc: { stateVersion: 1 } } : { $set: req.body },
             { new: true }
         );
         if (!device) return res.status(404).json({ message: 'Device not found' });
+        if (controlChange) commandBus.publish(device);
         res.json(device);
     } catch (err) {
         res.status(400).json({ message: err.message });
     }
 });
 
-// Update location specifically (optimized)
-router.put('/:id/location', async (req, res) => {
+// Location from the web client: coalesced into the next ingest write (see ingest.js), acked at once
+router.put('/:id/location', (req, res) => {
+    const lat = Number(req.body.lat);
+    const lng = Number(req.body.lng);
+    if (!Number.isFinite(lat) || !Number.isFinite(lng)) return res.status(400).json({ message: 'lat and lng are required' });
+    ingest.addLocations(req.params.id, [{ lat, lng, at: new Date() }]);
+    res.status(202).json({ ok: 1 });
+});
+
+// Batched points from the native location tracker (gzip body, inflated by express.json).
+// Points are [seq, time, lat, lng, accuracy]; the newest becomes the current location.
+// The ack is sent once the points are written, since the device then drops them.
+router.post('/:id/location/batch', async (req, res) => {
     try {
-        const { lat, lng } = req.body;
-        const device = await Device.findOneAndUpdate(
-            { id: req.params.id },
-            {
-                $set: {
-                    'location.lat': lat,
-                    'location.lng': lng,
-                    'location.lastUpdated': new Date()
-                }
-            },
-            { new: true }
-        );
-        if (!device) return res.status(404).json({ message: 'Device not found' });
-        res.json(device.location);
+        const { a: acked = 0, p: points = [] } = req.body;
+        let ack = Number(acked) || 0;
+        const history = [];
+        for (const [seq, time, lat, lng, accuracy] of points) {
+            ack = Math.max(ack, Number(seq) || 0);
+            history.push({ lat, lng, accuracy: accuracy >= 0 ? accuracy : undefined, at: new Date(time) });
+        }
+        if (history.length === 0) return res.json({ ack });
+
+        ingest.addLocations(req.params.id, history);
+        await ingest.flushed(req.params.id);
+        res.json({ ack });
     } catch (err) {
-        res.status(400).json({ message: err.message });
+        res.status(503).json({ message: err.message });
     }
 });
 
@@ -90,14 +161,45 @@ router.post('/:id/payment', async (req, res) => {
         device.emiDetails.paidEmis += 1;
         device.emiDetails.nextDueDate = nextDueDate;
         device.emiDetails.paymentHistory.push(payment);
+        // A new schedule tag is a control change: pollers holding the old version must see it
+        device.stateVersion = (device.stateVersion || 0) + 1;
 
         const updatedDevice = await device.save();
+        // New due date, new offline schedule: let the device refetch it now
+        commandBus.publish(updatedDevice);
         res.json(updatedDevice);
     } catch (err) {
         res.status(400).json({ message: err.message });
     }
 });
 
+// Conditional control-state poll (see stateSync.js): send the last ETag back as If-None-Match.
+// 304 with no body while nothing changed, otherwise the control fields and the new ETag.
+router.get('/:id/sync', async (req, res) => {
+    try {
+        const result = await stateSync.check(req.params.id, heldVersion(req.get('If-None-Match')));
+        if (!result) return res.status(404).json({ message: 'Device not found' });
+        res.set({ ETag: etagFor(result.version), 'Cache-Control': 'no-cache' });
+        if (!result.state) return res.status(304).end();
+        res.json(result.state);
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+// Signed EMI schedule for offline enforcement (see emiSchedule.js); 204 when signing is not configured
+router.get('/:id/schedule', async (req, res) => {
+    try {
+        const device = await Device.findOne({ id: req.params.id }, { _id: 0, id: 1, emiDetails: 1 }).lean();
+        if (!device) return res.status(404).json({ message: 'Device not found' });
+        const schedule = emiSchedule.signedSchedule(device);
+        if (!schedule) return res.status(204).end();
+        res.json(schedule);
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
 // Lock/Unlock shortcuts
 router.post('/:id/lock', async (req, res) => {
     try {
@@ -107,10 +209,12 @@ router.post('/:id/lock', async (req, res) => {
                 $set: {
                     isLocked: true,
                     featureLocks: { camera: true, network: true, wifi: true, powerOff: true, reset: true }
-                }
+                },
+                $inc: { stateVersion: 1 }
             },
             { new: true }
         );
+        commandBus.publish(device);
         res.json(device);
     } catch (err) {
         res.status(400).json({ message: err.message });
@@ -125,10 +229,12 @@ router.post('/:id/unlock', async (req, res) => {
                 $set: {
                     isLocked: false,
                     featureLocks: { camera: false, network: false, wifi: false, powerOff: false, reset: false }
-                }
+                },
+                $inc: { stateVersion: 1 }
             },
             { new: true }
         );
+        commandBus.publish(device);
         res.json(device);
     } catch (err) {
         res.status(400).json({ message: err.message });
@@ -140,9 +246,10 @@ router.post('/:id/wipe', async (req, res) => {
     try {
         const device = await Device.findOneAndUpdate(
             { id: req.params.id },
-            { $set: { wipeRequested: true } },
+            { $set: { wipeRequested: true }, $inc: { stateVersion: 1 } },
             { new: true }
         );
+        commandBus.publish(device);
         res.json(device);
     } catch (err) {
         res.status(400).json({ message: err.message });
@@ -154,33 +261,253 @@ router.post('/:id/release', async (req, res) => {
     try {
         const device = await Device.findOneAndUpdate(
             { id: req.params.id },
-            { $set: { releaseRequested: true } },
+            { $set: { releaseRequested: true }, $inc: { stateVersion: 1 } },
             { new: true }
         );
+        commandBus.publish(device);
         res.json(device);
     } catch (err) {
         res.status(400).json({ message: err.message });
     }
 });
 
-// Update Telemetry
-router.put('/:id/telemetry', async (req, res) => {
+// Telemetry from the web client: coalesced into the next ingest write (see ingest.js), acked at once
+router.put('/:id/telemetry', (req, res) => {
+    const { batteryLevel, networkType, simCarrier, androidVersion } = req.body;
+    ingest.set(req.params.id, {
+        'telemetry.batteryLevel': batteryLevel,
+        'telemetry.networkType': networkType,
+        'telemetry.simCarrier': simCarrier,
+        'telemetry.androidVersion': androidVersion,
+        'telemetry.lastSeen': new Date()
+    });
+    res.status(202).json({ ok: 1 });
+});
+
+// Batched telemetry from the native collector (gzip body, inflated by express.json).
+// Samples carry only changed fields: q seq, t time, b battery, n network, c carrier, v OS version.
+// Last value wins per field. Doubles as the native heartbeat, so the control state is returned -
+// left out when sv, the stateVersion the device already holds, is current. That is a read, and
+// the telemetry itself goes through the ingest writer. A batch with samples or metrics is answered
+// once they are written: the device drops what was acked and only resends fields that change.
+router.post('/:id/telemetry/batch', async (req, res) => {
     try {
-        const { batteryLevel, networkType, simCarrier, androidVersion } = req.body;
-        const device = await Device.findOneAndUpdate(
+        const { a: acked = 0, s: samples = [], ph: policyHash, m: metrics, sv: heldState } = req.body;
+        const $set = { 'telemetry.lastSeen': new Date() };
+        if (typeof policyHash === 'string') $set['telemetry.policyHash'] = policyHash;
+
+        // Changed native metrics only, cumulative since app start: "group/name" -> histogram array or count
+        const hasMetrics = !!metrics && typeof metrics === 'object' && Object.keys(metrics).length > 0;
+        if (hasMetrics) {
+            for (const [name, value] of Object.entries(metrics)) {
+                if (name.includes('.') || name.startsWith('$')) continue;
+                $set[`metrics.${name}`] = value;
+            }
+            $set['metrics.updatedAt'] = new Date();
+        }
+        let ack = Number(acked) || 0;
+
+        for (const sample of samples) {
+            if (sample.b !== undefined && sample.b >= 0) $set['telemetry.batteryLevel'] = sample.b;
+            if (sample.n !== undefined) $set['telemetry.networkType'] = sample.n;
+            if (sample.c !== undefined) $set['telemetry.simCarrier'] = sample.c;
+            if (sample.v !== undefined) $set['telemetry.androidVersion'] = sample.v;
+            ack = Math.max(ack, Number(sample.q) || 0);
+        }
+
+        const device = await Device.findOne(
             { id: req.params.id },
-            {
-                $set: {
-                    'telemetry.batteryLevel': batteryLevel,
-                    'telemetry.networkType': networkType,
-                    'telemetry.simCarrier': simCarrier,
-                    'telemetry.androidVersion': androidVersion,
-                    'telemetry.lastSeen': new Date()
+            { ...commandBus.CONTROL_PROJECTION, policyDrift: 1 }
+        ).lean();
+        if (!device) return res.status(404).json({ message: 'Device not found' });
+
+        // Only a change in drift status costs a second write
+        if (typeof policyHash === 'string') {
+            const drift = policyHash !== desiredPolicyHash(device);
+            if (drift !== !!device.policyDrift) {
+                if (drift) console.warn(`[Policy] Device ${req.params.id} reports policy ${policyHash}, expected ${desiredPolicyHash(device)}`);
+                await Device.updateOne({ id: req.params.id }, { $set: { policyDrift: drift } });
+            }
+        }
+
+        // Queued and waited on with no await in between, so the wait covers this batch's fields
+        ingest.set(req.params.id, $set);
+        if (samples.length > 0 || hasMetrics) {
+            try {
+                await ingest.flushed(req.params.id);
+            } catch (err) {
+                // Nothing acked: the device keeps its samples and metrics and sends them again
+                return res.status(503).json({ message: err.message });
+            }
+        }
+        if (heldState !== undefined && Number(heldState) === (device.stateVersion || 0)) return res.json({ ack });
+        res.json({ ack, state: commandBus.toControlState(device) });
+    } catch (err) {
+        res.status(400).json({ message: err.message });
+    }
+});
+
+// Events from the device outbox (simChanged, tamper, provisioning). Each carries an outbox seq;
+// the reply acks the highest one stored so the device can drop them, and repeats are ignored.
+// A new outbox epoch (the app's data was cleared) starts the sequence over.
+router.post('/:id/events', async (req, res) => {
+    try {
+        const device = await Device.findOne({ id: req.params.id }, { eventSeq: 1, eventEpoch: 1, stateVersion: 1, emiDetails: 1 }).lean();
+        if (!device) return res.status(404).json({ message: 'Device not found' });
+
+        const epoch = req.body.epoch ? String(req.body.epoch) : null;
+        const newEpoch = epoch !== null && epoch !== device.eventEpoch;
+        const stored = newEpoch ? 0 : device.eventSeq || 0;
+        const events = (req.body.events || [])
+            .filter((event) => !(Number(event.seq) <= stored))
+            .map((event) => ({
+                seq: Number(event.seq) || 0,
+                type: String(event.type),
+                at: event.at ? new Date(event.at) : new Date(),
+                data: event.data
+            }));
+        if (events.length === 0) return res.json({ ack: stored });
+
+        const ack = events.reduce((max, event) => Math.max(max, event.seq), stored);
+        const $set = { 'telemetry.lastSeen': new Date() };
+        if (newEpoch) {
+            console.log(`[Events] Device ${req.params.id} started outbox epoch ${epoch}`);
+            Object.assign($set, { eventEpoch: epoch, eventSeq: ack });
+        }
+        let offlineLock = false;
+        for (const event of events) {
+            console.warn(`[Security] ${event.type} reported by device ${req.params.id}`);
+            if (!event.data) continue;
+            if (event.type === 'simChanged' && event.data.carrier) {
+                $set['telemetry.simCarrier'] = event.data.carrier;
+            } else if (event.type === 'tamper') {
+                $set.tamperState = {
+                    ...event.data,
+                    tampered: event.data.tampered === true,
+                    changedAt: new Date(event.data.changedAt || event.at)
+                };
+            } else if (event.type === 'provisioning') {
+                $set.provisioning = { ...event.data, reportedAt: event.at };
+            } else if (event.type === 'offlineLock' && Number(event.data.stateVersion) >= (device.stateVersion || 0)) {
+                // Locked from the signed schedule with nothing newer from an admin in between. Only
+                // a lock time the server itself scheduled, and that has passed, is taken as overdue.
+                if (emiSchedule.isDueLockTime(device.emiDetails, event.data.lockAt)) {
+                    offlineLock = true;
+                } else {
+                    console.warn(`[Security] Ignoring offlineLock at ${event.data.lockAt} from device ${req.params.id}: not a due lock time`);
                 }
-            },
-            { new: true }
+            }
+        }
+
+        const update = { $push: { securityEvents: { $each: events, $slice: -MAX_SECURITY_EVENTS } }, $set };
+        if (!newEpoch) update.$max = { eventSeq: ack };
+        await Device.updateOne({ id: req.params.id }, update);
+        if (offlineLock) {
+            const locked = await Device.findOneAndUpdate(
+                { id: req.params.id, isLocked: false },
+                { $set: { isLocked: true, featureLocks: OVERDUE_FEATURE_LOCKS }, $inc: { stateVersion: 1 } },
+                { new: true, projection: commandBus.CONTROL_PROJECTION }
+            ).lean();
+            if (locked) commandBus.publish(locked);
+        }
+        res.json({ ack });
+    } catch (err) {
+        res.status(400).json({ message: err.message });
+    }
+});
+
+// Command channel (SSE): pushes the control state whenever it changes.
+// Resumes from the Last-Event-ID header (or ?since=) so nothing is missed across reconnects.
+router.get('/:id/commands/stream', async (req, res) => {
+    try {
+        const since = Number(req.get('Last-Event-ID') || req.query.since || -1);
+        const device = await Device.findOne({ id: req.params.id }, commandBus.CONTROL_PROJECTION).lean();
+        if (!device) return res.status(404).json({ message: 'Device not found' });
+
+        res.set({
+            'Content-Type': 'text/event-stream',
+            'Cache-Control': 'no-cache',
+            'Connection': 'keep-alive',
+            'X-Accel-Buffering': 'no'
+        });
+        res.flushHeaders();
+
+        const send = (state) => {
+            res.write(`id: ${state.stateVersion}\nevent: state\ndata: ${JSON.stringify(state)}\n\n`);
+            if (res.flush) res.flush(); // Push through the compression middleware
+        };
+
+        if ((device.stateVersion || 0) > since) send(commandBus.toControlState(device));
+
+        const unsubscribe = commandBus.subscribe(req.params.id, send);
+        const ping = setInterval(() => {
+            res.write(': ping\n\n');
+            if (res.flush) res.flush();
+        }, STREAM_PING_MS);
+
+        req.on('close', () => {
+            clearInterval(ping);
+            unsubscribe();
+        });
+    } catch (err) {
+        if (!res.headersSent) res.status(500).json({ message: err.message });
+    }
+});
+
+// Command channel (long-poll fallback): answers as soon as the state passes ?since=, or 204 on timeout
+router.get('/:id/commands', async (req, res) => {
+    try {
+        const since = Number(req.query.since || -1);
+        const timeout = Math.min(Number(req.query.timeout || 25), LONG_POLL_MAX_SECONDS) * 1000;
+        const device = await Device.findOne({ id: req.params.id }, commandBus.CONTROL_PROJECTION).lean();
+        if (!device) return res.status(404).json({ message: 'Device not found' });
+
+        if ((device.stateVersion || 0) > since) return res.json(commandBus.toControlState(device));
+
+        let timer;
+        const unsubscribe = commandBus.subscribe(req.params.id, (state) => {
+            clearTimeout(timer);
+            unsubscribe();
+            if (!res.headersSent) res.json(state);
+        });
+        timer = setTimeout(() => {
+            unsubscribe();
+            if (!res.headersSent) res.status(204).end();
+        }, timeout);
+        req.on('close', () => {
+            clearTimeout(timer);
+            unsubscribe();
+        });
+    } catch (err) {
+        res.status(500).json({ message: err.message });
+    }
+});
+
+// Batched command results from the device command store (id is the stateVersion that issued it)
+router.post('/:id/commands/ack', async (req, res) => {
+    try {
+        const acks = (req.body.acks || []).map((ack) => ({
+            id: Number(ack.id) || 0,
+            type: String(ack.type),
+            result: String(ack.result),
+            at: ack.at ? new Date(ack.at) : new Date()
+        }));
+        if (acks.length === 0) return res.json({ received: 0 });
+
+        const result = await Device.updateOne(
+            { id: req.params.id },
+            {
+                $push: { commandAcks: { $each: acks, $slice: -MAX_COMMAND_ACKS } },
+                $max: { ackedStateVersion: Math.max(...acks.map((ack) => ack.id)) }
+            }
         );
-        res.json(device);
+        if (result.matchedCount === 0) return res.status(404).json({ message: 'Device not found' });
+        acks.filter((ack) => ack.result.startsWith('error'))
+            .forEach((ack) => console.warn(`[Command] ${ack.type} #${ack.id} failed on ${req.params.id}: ${ack.result}`));
+        // The acks are stored above either way; a campaign missing one times the device out
+        await campaigns.onAcks(req.params.id, acks)
+            .catch((err) => console.error(`[Campaign] Ack tracking failed for ${req.params.id}:`, err.message));
+        res.json({ received: acks.length });
     } catch (err) {
         res.status(400).json({ message: err.message });
     }
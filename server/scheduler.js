@@ -1,41 +1,77 @@
 const Device = require('./models/Device');
+const commandBus = require('./commandBus');
 
-async function checkOverduePayments() {
-    console.log('[Scheduler] Checking for overdue payments...');
-
-    // Find active devices with past due dates
-    const today = new Date();
-    today.setHours(0, 0, 0, 0);
-
-    try {
-        const overdueDevices = await Device.find({
-            isLocked: false,
-            'emiDetails.nextDueDate': { $lt: today },
-            $expr: { $lt: ["$emiDetails.paidEmis", "$emiDetails.tenure"] } // Still has EMIs left
-        });
-
-        if (overdueDevices.length > 0) {
-            console.log(`[Scheduler] Found ${overdueDevices.length} overdue devices. Locking now...`);
-
-            for (const device of overdueDevices) {
-                device.isLocked = true;
-                // Apply full restrictions
-                device.featureLocks = {
-                    camera: true,
-                    network: true,
-                    wifi: true,
-                    powerOff: true,
-                    reset: true
-                };
-                await device.save();
-                console.log(`[Scheduler] Auto-locked device: ${device.customerName} (${device.id}) due to overdue payment.`);
+const BATCH_SIZE = 1000;
+
+// Full restrictions applied to an auto-locked device
+const OVERDUE_FEATURE_LOCKS = {
+    camera: true,
+    network: true,
+    wifi: true,
+    powerOff: true,
+    reset: true
+};
+
+const startOfDay = (date) => {
+    const day = new Date(date);
+    day.setHours(0, 0, 0, 0);
+    return day;
+};
+
+// Models are injectable so bench/schedulerBench.js can run against an in-memory stand-in.
+function createOverdueScheduler({ Device, publish, logger = console }) {
+    // Locks one batch in a single write and pushes the new state to each device's command channel
+    async function lockBatch(ids, cutoff) {
+        await Device.updateMany(
+            { id: { $in: ids }, isLocked: false, 'emiDetails.nextDueDate': { $lt: cutoff } },
+            { $set: { isLocked: true, featureLocks: OVERDUE_FEATURE_LOCKS }, $inc: { stateVersion: 1 } }
+        );
+        const locked = await Device.find({ id: { $in: ids }, isLocked: true }, commandBus.CONTROL_PROJECTION).lean();
+        locked.forEach(publish);
+        return locked.length;
+    }
+
+    // Locks every unlocked device that is past due, on each run - including ones an admin
+    // unlocked, ones saved with a past due date and ones a failed batch left behind. The
+    // { isLocked, nextDueDate } index serves the scan, and locked devices drop out of it, so
+    // it stays as small as the set of unlocked overdue devices.
+    async function checkOverduePayments(now = new Date()) {
+        const cutoff = startOfDay(now);
+        logger.log(`[Scheduler] Checking payments due before ${cutoff.toISOString()}`);
+
+        let scanned = 0;
+        let locked = 0;
+        let batch = [];
+        try {
+            const cursor = Device.find(
+                { isLocked: false, 'emiDetails.nextDueDate': { $lt: cutoff } },
+                { _id: 0, id: 1, 'emiDetails.paidEmis': 1, 'emiDetails.tenure': 1 }
+            ).lean().cursor({ batchSize: BATCH_SIZE });
+
+            for await (const device of cursor) {
+                scanned++;
+                const emi = device.emiDetails || {};
+                if (!(emi.paidEmis < emi.tenure)) continue; // No EMIs left
+                batch.push(device.id);
+                if (batch.length >= BATCH_SIZE) {
+                    locked += await lockBatch(batch, cutoff);
+                    batch = [];
+                }
             }
-        } else {
-            console.log('[Scheduler] No overdue devices found.');
+            if (batch.length > 0) locked += await lockBatch(batch, cutoff);
+        } catch (err) {
+            logger.error('[Scheduler] Error checking overdue payments:', err);
         }
-    } catch (err) {
-        console.error('[Scheduler] Error checking overdue payments:', err);
+
+        logger.log(locked > 0
+            ? `[Scheduler] Auto-locked ${locked} overdue devices (${scanned} past due and unlocked).`
+            : '[Scheduler] No overdue devices found.');
+        return { scanned, locked };
     }
+
+    return { checkOverduePayments };
 }
 
-module.exports = { checkOverduePayments };
+const { checkOverduePayments } = createOverdueScheduler({ Device, publish: commandBus.publish });
+
+module.exports = { checkOverduePayments, createOverdueScheduler, OVERDUE_FEATURE_LOCKS };
@@ -0,0 +1,40 @@
+const Device = require('./models/Device');
+const commandBus = require('./commandBus');
+
+// Conditional control-state reads for polling clients. The ETag is the device's stateVersion,
+// which every control change bumps, so "has anything changed since the version I hold?" is
+// answered from the { id, stateVersion } index alone - a covered read, no document fetched.
+// Only a changed device costs the read of its control fields.
+const VERSION_INDEX = { id: 1, stateVersion: 1 };
+const VERSION_PROJECTION = { _id: 0, id: 1, stateVersion: 1 };
+
+const etagFor = (version) => `"${version}"`;
+
+// The version in an If-None-Match header: "12", or W/"12" once a proxy has weakened it. The
+// first tag of a list counts; anything else (absent, *, a non-numeric tag) is null.
+const heldVersion = (header) => {
+    const match = /^\s*(?:W\/)?"(\d+)"/.exec(header || '');
+    return match ? Number(match[1]) : null;
+};
+
+function createStateSync({ Device }) {
+    // Resolves to { version, state } where state is null when the client already holds version,
+    // or null if there is no such device
+    async function check(deviceId, held) {
+        const current = await Device.findOne({ id: deviceId }, VERSION_PROJECTION).hint(VERSION_INDEX).lean();
+        if (!current) return null;
+        const version = current.stateVersion || 0;
+        if (held === version) return { version, state: null };
+
+        const device = await Device.findOne({ id: deviceId }, commandBus.CONTROL_PROJECTION).lean();
+        if (!device) return null;
+        const state = commandBus.toControlState(device);
+        return { version: state.stateVersion, state };
+    }
+
+    return { check };
+}
+
+const stateSync = createStateSync({ Device });
+
+module.exports = { stateSync, createStateSync, etagFor, heldVersion, VERSION_INDEX, VERSION_PROJECTION };
@@ -0,0 +1,226 @@
+import React, { useEffect, useState } from 'react';
+import { useDevices } from '@/context/DeviceContext';
+import { Campaign, CampaignAction } from '@/types/device';
+import {
+  Dialog,
+  DialogContent,
+  DialogHeader,
+  DialogTitle,
+  DialogDescription,
+} from '@/components/ui/dialog';
+import { Button } from '@/components/ui/button';
+import { Label } from '@/components/ui/label';
+import { Badge } from '@/components/ui/badge';
+import { Progress } from '@/components/ui/progress';
+import { ScrollArea } from '@/components/ui/scroll-area';
+import {
+  Select,
+  SelectContent,
+  SelectItem,
+  SelectTrigger,
+  SelectValue,
+} from '@/components/ui/select';
+import { Layers, Pause, Play, X } from 'lucide-react';
+import { useToast } from '@/hooks/use-toast';
+
+interface CampaignModalProps {
+  isOpen: boolean;
+  onClose: () => void;
+}
+
+const POLL_MS = 2000;
+
+const actions: { value: CampaignAction; label: string }[] = [
+  { value: 'lock', label: 'Lock' },
+  { value: 'unlock', label: 'Unlock' },
+  { value: 'wipe', label: 'Factory reset' },
+  { value: 'release', label: 'Release (loan closed)' },
+];
+
+// Device list filters (see server/deviceList.js)
+const targets: { value: string; label: string; filter: Record<string, string> }[] = [
+  { value: 'overdueUnlocked', label: 'Overdue, not locked', filter: { overdue: 'true', locked: 'false' } },
+  { value: 'overdue', label: 'All overdue', filter: { overdue: 'true' } },
+  { value: 'locked', label: 'Locked', filter: { locked: 'true' } },
+  { value: 'unlocked', label: 'Not locked', filter: { locked: 'false' } },
+  { value: 'tampered', label: 'Tampered', filter: { tampered: 'true' } },
+];
+
+const formatDuration = (ms: number | null) => {
+  if (ms === null) return '—';
+  const seconds = Math.round(ms / 1000);
+  return seconds < 60 ? `${seconds}s` : `${Math.floor(seconds / 60)}m ${seconds % 60}s`;
+};
+
+const CampaignModal: React.FC<CampaignModalProps> = ({ isOpen, onClose }) => {
+  const { baseUrl } = useDevices();
+  const { toast } = useToast();
+  const [action, setAction] = useState<CampaignAction>('lock');
+  const [target, setTarget] = useState('overdueUnlocked');
+  const [isSubmitting, setIsSubmitting] = useState(false);
+  const [campaigns, setCampaigns] = useState<Campaign[]>([]);
+
+  const fetchCampaigns = async () => {
+    try {
+      const response = await fetch(`${baseUrl}/api/campaigns?limit=10`);
+      if (response.ok) setCampaigns(await response.json());
+    } catch (error) {
+      console.error('Error fetching campaigns:', error);
+    }
+  };
+
+  // Progress refreshes while the dialog is open
+  useEffect(() => {
+    if (!isOpen) return;
+    fetchCampaigns();
+    const timer = setInterval(fetchCampaigns, POLL_MS);
+    return () => clearInterval(timer);
+  }, [isOpen, baseUrl]);
+
+  const handleStart = async () => {
+    const selected = targets.find(t => t.value === target)!;
+    if ((action === 'wipe' || action === 'release')
+      && !confirm(`ARE YOU SURE? This will ${action === 'wipe' ? 'FACTORY RESET' : 'RELEASE'} every device matching "${selected.label}"!`)) {
+      return;
+    }
+    setIsSubmitting(true);
+    try {
+      const response = await fetch(`${baseUrl}/api/campaigns`, {
+        method: 'POST',
+        headers: { 'Content-Type': 'application/json' },
+        body: JSON.stringify({ action, filter: selected.filter, createdBy: 'admin' }),
+      });
+      if (!response.ok) {
+        const errorData = await response.json();
+        throw new Error(errorData.message);
+      }
+      toast({ title: "Campaign Started", description: `${action} on "${selected.label}" devices.` });
+      fetchCampaigns();
+    } catch (error: any) {
+      console.error(error);
+      toast({ title: "Campaign Failed", description: error.message || "Could not reach server.", variant: "destructive" });
+    } finally {
+      setIsSubmitting(false);
+    }
+  };
+
+  const control = async (id: string, command: 'pause' | 'resume' | 'cancel') => {
+    try {
+      await fetch(`${baseUrl}/api/campaigns/${id}/${command}`, { method: 'POST' });
+      fetchCampaigns();
+    } catch (error) {
+      console.error(error);
+    }
+  };
+
+  return (
+    <Dialog open={isOpen} onOpenChange={onClose}>
+      <DialogContent className="w-full h-full max-w-none md:max-w-2xl md:h-auto md:max-h-[90vh] p-4 md:p-6 md:rounded-xl overflow-hidden flex flex-col">
+        <DialogHeader>
+          <DialogTitle className="flex items-center gap-2">
+            <Layers className="w-5 h-5" />
+            Bulk Actions
+          </DialogTitle>
+          <DialogDescription>
+            Runs on the server in paced batches; a device counts once it confirms.
+          </DialogDescription>
+        </DialogHeader>
+
+        <div className="flex-1 overflow-hidden flex flex-col gap-4">
+          <div className="grid grid-cols-2 gap-4">
+            <div className="space-y-2">
+              <Label>Action</Label>
+              <Select value={action} onValueChange={(value) => setAction(value as CampaignAction)}>
+                <SelectTrigger>
+                  <SelectValue />
+                </SelectTrigger>
+                <SelectContent>
+                  {actions.map(item => (
+                    <SelectItem key={item.value} value={item.value}>{item.label}</SelectItem>
+                  ))}
+                </SelectContent>
+              </Select>
+            </div>
+            <div className="space-y-2">
+              <Label>Devices</Label>
+              <Select value={target} onValueChange={setTarget}>
+                <SelectTrigger>
+                  <SelectValue />
+                </SelectTrigger>
+                <SelectContent>
+                  {targets.map(item => (
+                    <SelectItem key={item.value} value={item.value}>{item.label}</SelectItem>
+                  ))}
+                </SelectContent>
+              </Select>
+            </div>
+          </div>
+
+          <div className="flex justify-end">
+            <Button
+              onClick={handleStart}
+              disabled={isSubmitting}
+              variant={action === 'wipe' ? 'destructive' : 'default'}
+            >
+              {isSubmitting ? 'Starting...' : 'Start'}
+            </Button>
+          </div>
+
+          <ScrollArea className="h-72">
+            {campaigns.length === 0 ? (
+              <p className="text-sm text-muted-foreground text-center py-8">No bulk actions yet</p>
+            ) : (
+              <div className="space-y-3 pr-3">
+                {campaigns.map(campaign => {
+                  const { counts } = campaign;
+                  const confirmed = counts.applied + counts.failed + counts.superseded;
+                  const active = campaign.status === 'running' || campaign.status === 'paused';
+                  return (
+                    <div key={campaign.id} className="p-3 bg-muted/50 rounded-lg space-y-2">
+                      <div className="flex items-center justify-between gap-2">
+                        <div className="flex items-center gap-2">
+                          <span className="font-medium capitalize">{campaign.action}</span>
+                          <Badge variant="outline">{campaign.status}</Badge>
+                        </div>
+                        {active && (
+                          <div className="flex gap-1">
+                            <Button
+                              variant="ghost"
+                              size="icon"
+                              onClick={() => control(campaign.id, campaign.status === 'paused' ? 'resume' : 'pause')}
+                            >
+                              {campaign.status === 'paused' ? <Play className="w-4 h-4" /> : <Pause className="w-4 h-4" />}
+                            </Button>
+                            <Button variant="ghost" size="icon" onClick={() => control(campaign.id, 'cancel')}>
+                              <X className="w-4 h-4" />
+                            </Button>
+                          </div>
+                        )}
+                      </div>
+                      <Progress value={campaign.total > 0 ? (confirmed / campaign.total) * 100 : 0} className="h-2" />
+                      <p className="text-xs text-muted-foreground">
+                        {counts.applied} applied / {campaign.total} · {counts.issued} awaiting device · {counts.queued} queued
+                        {counts.failed > 0 && ` · ${counts.failed} failed`}
+                        {counts.timedOut > 0 && ` · ${counts.timedOut} no response`}
+                        {counts.superseded > 0 && ` · ${counts.superseded} overridden`}
+                        {counts.skipped > 0 && ` · ${counts.skipped} no longer matching`}
+                      </p>
+                      <p className="text-xs text-muted-foreground">
+                        {campaign.appliedPerSec.toFixed(1)} devices/s · avg confirm {formatDuration(campaign.avgApplyMs)}
+                        {' · '}elapsed {formatDuration(campaign.elapsedMs)}
+                        {active && ` · ETA ${formatDuration(campaign.etaMs)}`}
+                      </p>
+                      {campaign.error && <p className="text-xs text-destructive">{campaign.error}</p>}
+                    </div>
+                  );
+                })}
+              </div>
+            )}
+          </ScrollArea>
+        </div>
+      </DialogContent>
+    </Dialog>
+  );
+};
+
+export default CampaignModal;
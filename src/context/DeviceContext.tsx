@@ -1,10 +1,10 @@
-import React, { createContext, useContext, useState, useEffect, ReactNode } from 'react';
+import React, { createContext, useContext, useState, useEffect, useRef, ReactNode } from 'react';
 import { Device, FeatureLocks, PaymentRecord } from '@/types/device';
 import { useToast } from '@/hooks/use-toast';
 import { Preferences } from '@capacitor/preferences';
 
 const API_BASE_URL = import.meta.env.VITE_API_URL || '';
-
+const DEVICE_PAGE_SIZE = 500;
 
 interface DeviceContextType {
   devices: Device[];
@@ -55,6 +55,39 @@ const generateQRData = (device: Partial<Device> & { serverIp?: string }, current
   });
 };
 
+// Complete lines from a streamed response, one array per network chunk
+async function* readLineBatches(response: Response): AsyncGenerator<string[]> {
+  if (!response.body) {
+    // WebViews without streaming fetch: the whole page at once
+    yield (await response.text()).split('\n').filter(line => line.trim() !== '');
+    return;
+  }
+  const reader = response.body.getReader();
+  const decoder = new TextDecoder();
+  let buffered = '';
+  for (;;) {
+    const { done, value } = await reader.read();
+    buffered += done ? decoder.decode() : decoder.decode(value, { stream: true });
+    const lines = buffered.split('\n');
+    buffered = done ? '' : lines.pop() ?? '';
+    const complete = lines.filter(line => line.trim() !== '');
+    if (complete.length > 0) yield complete;
+    if (done) return;
+  }
+}
+
+// Updates devices already listed in place and appends new ones in arrival order
+const mergeDevices = (prev: Device[], rows: Device[]): Device[] => {
+  const incoming = new Map(rows.map(d => [d.id, d]));
+  const merged = prev.map(d => {
+    const row = incoming.get(d.id);
+    if (!row) return d;
+    incoming.delete(d.id);
+    return row;
+  });
+  return incoming.size > 0 ? [...merged, ...incoming.values()] : merged;
+};
+
 const generateId = (): string => {
   return `DEV-${Date.now()}-${Math.random().toString(36).substr(2, 9)}`;
 };
@@ -63,6 +96,7 @@ export const DeviceProvider: React.FC<{ children: ReactNode }> = ({ children })
   const [baseUrl, setBaseUrlState] = useState(API_BASE_URL);
   const [devices, setDevices] = useState<Device[]>([]);
   const [currentViewDevice, setCurrentViewDevice] = useState<string | null>(null);
+  const fetchGeneration = useRef(0);
   const { toast } = useToast();
 
   const setBaseUrl = async (url: string) => {
@@ -87,16 +121,53 @@ export const DeviceProvider: React.FC<{ children: ReactNode }> = ({ children })
     }
   }, [baseUrl]);
 
+  // Streams the list a page at a time (NDJSON: a device per line, then {"next": cursor}) and
+  // renders rows as they arrive. Devices not seen by the end of a refresh were deleted elsewhere.
   const fetchDevices = async () => {
+    const generation = ++fetchGeneration.current;
+    const current = () => generation === fetchGeneration.current;
+    const seen = new Set<string>();
     try {
-      const response = await fetch(`${baseUrl}/api/devices`);
-      if (response.ok) {
-        const data = await response.json();
-        console.log('Fetched all devices. Count:', data.length);
-        setDevices(data);
-      } else {
-        console.error('Failed to fetch devices');
-      }
+      let cursor: string | null = null;
+      do {
+        const params = new URLSearchParams({ limit: String(DEVICE_PAGE_SIZE) });
+        if (cursor) params.set('cursor', cursor);
+        const response = await fetch(`${baseUrl}/api/devices?${params}`, {
+          headers: { Accept: 'application/x-ndjson' }
+        });
+        if (!response.ok) {
+          console.error('Failed to fetch devices');
+          return;
+        }
+        if (!(response.headers.get('Content-Type') || '').includes('application/x-ndjson')) {
+          // Server from before paging: the whole list as one array
+          const data = await response.json();
+          console.log('Fetched all devices. Count:', data.length);
+          if (current()) setDevices(data);
+          return;
+        }
+
+        let next: string | null | undefined;
+        for await (const lines of readLineBatches(response)) {
+          if (!current()) return;
+          const rows: Device[] = [];
+          for (const line of lines) {
+            const row = JSON.parse(line);
+            if (row.id === undefined && 'next' in row) {
+              next = row.next;
+            } else {
+              seen.add(row.id);
+              rows.push(row);
+            }
+          }
+          if (rows.length > 0) setDevices(prev => mergeDevices(prev, rows));
+        }
+        if (next === undefined) throw new Error('Device list ended early');
+        cursor = next;
+      } while (cursor);
+
+      console.log('Fetched all devices. Count:', seen.size);
+      if (current()) setDevices(prev => prev.filter(d => seen.has(d.id)));
     } catch (error) {
       console.error('Error fetching devices:', error);
     }
@@ -26,12 +26,14 @@ import {
   TrendingUp,
   Moon,
   Sun,
+  Layers,
 } from 'lucide-react';
 import { useToast } from '@/hooks/use-toast';
 import AddDeviceModal from '@/components/admin/AddDeviceModal';
 import DeviceCard from '@/components/admin/DeviceCard';
 import DeviceDetailModal from '@/components/admin/DeviceDetailModal';
 import PaymentRecordModal from '@/components/admin/PaymentRecordModal';
+import CampaignModal from '@/components/admin/CampaignModal';
 
 const AdminDashboard: React.FC = () => {
   const { devices, getDeviceById, baseUrl, setBaseUrl } = useDevices();
@@ -40,6 +42,7 @@ const AdminDashboard: React.FC = () => {
   const navigate = useNavigate();
   const [searchTerm, setSearchTerm] = useState('');
   const [isAddModalOpen, setIsAddModalOpen] = useState(false);
+  const [isCampaignOpen, setIsCampaignOpen] = useState(false);
   const [selectedDeviceId, setSelectedDeviceId] = useState<string | null>(null);
   const [paymentDeviceId, setPaymentDeviceId] = useState<string | null>(null);
   const [showSettings, setShowSettings] = useState(false);
@@ -225,6 +228,14 @@ const AdminDashboard: React.FC = () => {
               className="pl-10 bg-background border-input text-foreground placeholder:text-muted-foreground focus:border-primary/50"
             />
           </div>
+          <Button
+            onClick={() => setIsCampaignOpen(true)}
+            size="icon"
+            variant="outline"
+            className="shrink-0 bg-transparent border-border text-foreground hover:bg-accent"
+          >
+            <Layers className="w-5 h-5" />
+          </Button>
           <Button
             onClick={() => setIsAddModalOpen(true)}
             size="icon"
@@ -269,6 +280,11 @@ const AdminDashboard: React.FC = () => {
         onClose={() => setIsAddModalOpen(false)}
       />
 
+      <CampaignModal
+        isOpen={isCampaignOpen}
+        onClose={() => setIsCampaignOpen(false)}
+      />
+
       {selectedDeviceId && (
         <DeviceDetailModal
           deviceId={selectedDeviceId}
@@ -1,4 +1,4 @@
-import React, { useState, useEffect } from 'react';
+import React, { useState, useEffect, useRef } from 'react';
 import { useDevices } from '@/context/DeviceContext';
 import { useNavigate, useParams } from 'react-router-dom';
 import { Button } from '@/components/ui/button';
@@ -30,6 +30,7 @@ import PermissionsWizard from '@/components/mobile/PermissionsWizard';
 import { useToast } from '@/hooks/use-toast';
 
 import { Preferences } from '@capacitor/preferences';
+import { Capacitor } from '@capacitor/core';
 
 const MobileClient: React.FC = () => {
   const { deviceId } = useParams<{ deviceId: string }>();
@@ -126,30 +127,25 @@ const MobileClient: React.FC = () => {
         const { registerPlugin } = await import('@capacitor/core');
         const WipeDevice = registerPlugin('WipeDevice');
 
-        if (device.isLocked) {
-          console.log("Device LOCKED: Enforcing Kiosk Mode");
-          // @ts-ignore
-          await WipeDevice.enforceDeviceRestrictions(); // Ensure whitelist
-          // @ts-ignore
-          await WipeDevice.startLockTaskMode(); // Pin screen
-        } else {
-          console.log("Device ACTIVE: Releasing Kiosk Mode");
-          // @ts-ignore
-          await WipeDevice.stopLockTaskMode(); // Unpin screen
-          // @ts-ignore
-          await WipeDevice.clearDeviceRestrictions(); // Remove USB/Install blocks
-        }
+        console.log(device.isLocked ? "Device LOCKED: Enforcing Kiosk Mode" : "Device ACTIVE: Releasing Kiosk Mode");
+        // One bridge call: restrictions, feature locks and screen pinning (also drops the native boot lock screen)
+        // @ts-ignore
+        const result = await WipeDevice.applyDeviceState({
+          isLocked: device.isLocked,
+          featureLocks: device.featureLocks || {}
+        });
+        if (!result.success) console.warn("Device state partially applied:", result.features);
       } catch (e) {
         console.error("Lock State Management Failed:", e);
       }
     };
 
     manageLockState();
-  }, [device?.isLocked]);
+  }, [device?.isLocked, JSON.stringify(device?.featureLocks)]);
 
-  // Location Tracking Simulation
+  // Location Tracking (web fallback; native builds use LocationTracker in HeartbeatService)
   useEffect(() => {
-    if (device?.isTracking) {
+    if (device?.isTracking && !Capacitor.isNativePlatform()) {
       const trackInterval = setInterval(() => {
         if (navigator.geolocation) {
           navigator.geolocation.getCurrentPosition(
@@ -174,15 +170,59 @@ const MobileClient: React.FC = () => {
   const [isHidden, setIsHidden] = useState(false);
   const [isUninstalling, setIsUninstalling] = useState(false);
 
-  // HEARTBEAT & TELEMETRY
+  // NATIVE HEARTBEAT: HeartbeatService polls and runs commands; the WebView only mirrors the state
   useEffect(() => {
-    if (device && isHidden && !isUninstalling) {
+    if (!Capacitor.isNativePlatform() || !device?.id || !isHidden || isUninstalling) return;
+
+    let listener: { remove: () => Promise<void> } | undefined;
+    const attach = async () => {
+      try {
+        const { registerPlugin } = await import('@capacitor/core');
+        const WipeDevice = registerPlugin('WipeDevice');
+        // @ts-ignore
+        listener = await WipeDevice.addListener('deviceState', (state: any) => {
+          if (state.command === 'removed') {
+            setIsUninstalling(true);
+            toast({ title: "Admin Removed Device", description: "Releasing device control...", variant: "destructive" });
+            setTimeout(() => {
+              setIsHidden(false);
+              setIsUninstalling(false);
+              navigate('/');
+              toast({ title: "Device Unlinked", description: "You can now uninstall the application." });
+            }, 3000);
+          } else if (state.command === 'wipe' && state.changed) {
+            toast({ title: "Security Alert", description: "Remote Wipe Initiated.", variant: "destructive" });
+          } else if (state.command === 'release' && state.changed) {
+            setIsHidden(false); setIsUninstalling(true); navigate('/');
+            toast({ title: "Device Unlocked Forever", description: "You can now uninstall this application." });
+          } else if (state.changed) {
+            fetchDeviceById(device.id); // Refresh UI (lock screen, feature locks)
+          }
+        });
+        // @ts-ignore
+        await WipeDevice.startHeartbeat({ deviceId: device.id });
+      } catch (e) { console.error("Native heartbeat unavailable", e); }
+    };
+
+    attach();
+    return () => { listener?.remove(); };
+  }, [device?.id, isHidden, isUninstalling]);
+
+  // ETag of the last control state from /sync; the heartbeat re-reads the device only when it changes
+  const syncTag = useRef<string | null>(null);
+
+  // HEARTBEAT & TELEMETRY (web fallback)
+  useEffect(() => {
+    if (device && isHidden && !isUninstalling && !Capacitor.isNativePlatform()) {
       const heartbeat = setInterval(async () => {
         try {
-          // 1. Fetch Command state
-          const fetchedDevice = await fetchDeviceById(device.id);
+          // 1. Fetch Command state: 304 while nothing changed, otherwise the control fields
+          const response = await fetch(`${baseUrl}/api/devices/${device.id}/sync`, {
+            headers: syncTag.current ? { 'If-None-Match': syncTag.current } : {},
+            cache: 'no-store',
+          });
 
-          if (!fetchedDevice) {
+          if (response.status === 404) {
             setIsUninstalling(true);
             toast({ title: "Admin Removed Device", description: "Releasing device control...", variant: "destructive" });
             try {
@@ -200,9 +240,18 @@ const MobileClient: React.FC = () => {
             }, 3000);
             return;
           }
+          if (!response.ok && response.status !== 304) throw new Error(`Sync failed: HTTP ${response.status}`);
+
+          // Unchanged (304): its commands were handled when the state arrived
+          let state: { wipeRequested?: boolean; releaseRequested?: boolean } | null = null;
+          if (response.status !== 304) {
+            state = await response.json();
+            syncTag.current = response.headers.get('ETag');
+            fetchDeviceById(device.id); // Refresh UI (lock screen, feature locks)
+          }
 
           // 2. Handle Actions
-          if (fetchedDevice.wipeRequested) {
+          if (state?.wipeRequested) {
             console.log("WIPE COMMAND RECEIVED...");
             toast({ title: "Security Alert", description: "Remote Wipe Initiated.", variant: "destructive" });
             setTimeout(async () => {
@@ -216,7 +265,7 @@ const MobileClient: React.FC = () => {
                 setIsUninstalling(true); setIsHidden(false); navigate('/');
               }
             }, 2000);
-          } else if (fetchedDevice.releaseRequested) {
+          } else if (state?.releaseRequested) {
             console.log("RELEASE COMMAND RECEIVED...");
             toast({ title: "Congratulations!", description: "Loan paid successfully." });
             setTimeout(async () => {
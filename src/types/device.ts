@@ -68,3 +68,32 @@ export interface AdminCredentials {
   username: string;
   password: string;
 }
+
+export type CampaignAction = 'lock' | 'unlock' | 'wipe' | 'release';
+
+// A bulk action over many devices, with progress from GET /api/campaigns
+export interface Campaign {
+  id: string;
+  action: CampaignAction;
+  filter: Record<string, string | number | boolean>;
+  status: 'preparing' | 'running' | 'paused' | 'completed' | 'cancelled';
+  error?: string;
+  total: number;
+  counts: {
+    queued: number;
+    issued: number;
+    applied: number;
+    failed: number;
+    superseded: number;
+    skipped: number;
+    timedOut: number;
+    cancelled: number;
+  };
+  startedAt: string;
+  finishedAt?: string;
+  elapsedMs: number;
+  issuedPerSec: number;
+  appliedPerSec: number;
+  avgApplyMs: number | null;
+  etaMs: number | null;
+}